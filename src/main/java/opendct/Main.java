@@ -18,12 +18,14 @@ package opendct;
 
 import opendct.channel.ChannelManager;
 import opendct.config.Config;
+import opendct.config.ConfigWriter;
 import opendct.config.ExitCode;
 import opendct.config.StaticConfig;
 import opendct.consumer.DynamicConsumerImpl;
 import opendct.nanohttpd.NanoHTTPDManager;
 import opendct.power.NetworkPowerEventManger;
 import opendct.power.PowerMessageManager;
+import opendct.sagetv.SageTVDeviceInventory;
 import opendct.sagetv.SageTVManager;
 import opendct.tuning.discovery.DiscoveryManager;
 import opendct.tuning.discovery.discoverers.GenericHttpDiscoverer;
@@ -144,6 +146,17 @@ public class Main {
             });
         }
 
+        // Pending configuration saves are written before anything else happens on standby.
+        PowerMessageManager.EVENTS.addListener(ConfigWriter.POWER_EVENT_LISTENER);
+
+        Runtime.getRuntime().addShutdownHook(new Thread("ConfigWriterShutdown") {
+            @Override
+            public void run() {
+                logger.info("Writing pending configuration saves...");
+                ConfigWriter.stop();
+            }
+        });
+
         // This will enable us to wait for the network to become available first after a standby
         // event.
         PowerMessageManager.EVENTS.addListener(NetworkPowerEventManger.POWER_EVENT_LISTENER);
@@ -217,6 +230,10 @@ public class Main {
             SageTVManager.addAndStartSocketServers(Config.getAllSocketServerPorts());
         }
 
+        // Bring up the socket servers and pools for the capture devices that were loaded last time
+        // so SageTV doesn't need to wait for discovery. The devices attach as they are discovered.
+        SageTVDeviceInventory.start();
+
         if (useDiscoveryManager) {
             DiscoveryManager.addDiscoverer(new UpnpDiscoverer());
             DiscoveryManager.addDiscoverer(new HDHomeRunDiscoverer());
@@ -306,6 +323,7 @@ public class Main {
 
         logger.info("Saving current configuration...");
 
+        ConfigWriter.flush();
         Config.saveConfig();
 
         // This will allow the main thread to stop.
@@ -27,6 +27,7 @@ import opendct.consumer.upload.NIOSageTVMediaServer;
 import opendct.sagetv.SageTVDeviceCrossbar;
 import opendct.sagetv.SageTVManager;
 import opendct.util.ThreadPool;
+import opendct.util.TuneTracer;
 import opendct.util.Util;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -44,7 +45,9 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public abstract class BasicCaptureDevice implements CaptureDevice {
     private final Logger logger = LogManager.getLogger(BasicCaptureDevice.class);
 
-    protected SageTVConsumer sageTVConsumerRunnable = null;
+    // This is volatile so the number of bytes recorded can be read without acquiring
+    // sageTVConsumerLock. It is still only changed while holding the write lock.
+    protected volatile SageTVConsumer sageTVConsumerRunnable = null;
     protected Future sageTVConsumerFuture;
     protected final ReentrantReadWriteLock sageTVConsumerLock = new ReentrantReadWriteLock();
 
@@ -64,7 +67,11 @@ public abstract class BasicCaptureDevice implements CaptureDevice {
     protected String recordEncodingQuality = "";
     protected String recordLastFilename = null;
     protected int recordLastUploadID = 0;
-    private long errorBytesStreamed = 0;
+    private volatile long errorBytesStreamed = 0;
+
+    // The channel this device was tuned into without a recording. This is cleared when encoding
+    // is stopped or when a new encoding takes it with takeWarmStandbyChannel().
+    protected volatile String warmStandbyChannel = null;
 
     // SageTV properties
     protected String lastChannel = "";
@@ -298,6 +305,54 @@ public abstract class BasicCaptureDevice implements CaptureDevice {
         return canSwitch;
     }
 
+    /**
+     * Tune into a channel the same way an offline channel scan does and remember the channel.
+     * <p/>
+     * Capture devices that can swap a new consumer into a tune that is already streaming should
+     * call {@link #takeWarmStandbyChannel()} when starting encoding. Capture devices that don't
+     * will simply re-tune.
+     *
+     * @param channel The channel that is expected to be requested next.
+     * @return <i>true</i> if the capture device is now tuned into the channel.
+     */
+    @Override
+    public boolean startWarmStandby(String channel) {
+        warmStandbyChannel = null;
+
+        if (!isInternalLocked()) {
+            logger.warn("Warm standby requires the capture device to be locked.");
+            return false;
+        }
+
+        logger.info("Tuning channel '{}' for warm standby.", channel);
+
+        if (!startEncoding(channel, null, "", 0, SageTVDeviceCrossbar.DIGITAL_TV_TUNER, 0, 0, null)) {
+            return false;
+        }
+
+        warmStandbyChannel = channel;
+        return true;
+    }
+
+    @Override
+    public String getWarmStandbyChannel() {
+        return warmStandbyChannel;
+    }
+
+    /**
+     * Get the warm standby channel and clear it.
+     * <p/>
+     * This should be called at the start of every new encoding. Only one encoding can ever use a
+     * warm standby tune.
+     *
+     * @return The channel the device was tuned into for warm standby or <i>null</i>.
+     */
+    protected String takeWarmStandbyChannel() {
+        String channel = warmStandbyChannel;
+        warmStandbyChannel = null;
+        return channel;
+    }
+
     /**
      * Get the current merit value for this encoder.
      *
@@ -395,23 +450,37 @@ public abstract class BasicCaptureDevice implements CaptureDevice {
 
         long returnValue = 0;
 
-        sageTVConsumerLock.readLock().lock();
+        // This is called very frequently by SageTV, so it doesn't lock. The consumer keeps its own
+        // count of bytes streamed that is safe to read from any thread.
+        long errorBytes = errorBytesStreamed;
+        SageTVConsumer consumer = sageTVConsumerRunnable;
 
         try {
-            if (errorBytesStreamed != 0) {
-                returnValue = errorBytesStreamed;
-            } else if (sageTVConsumerRunnable != null && sageTVConsumerRunnable.getIsRunning()) {
-                returnValue = sageTVConsumerRunnable.getBytesStreamed();
+            if (errorBytes != 0) {
+                returnValue = errorBytes;
+            } else if (consumer != null && consumer.getIsRunning()) {
+                returnValue = consumer.getBytesStreamed();
             }
         } catch (Exception e) {
             logger.error("getRecordedBytes created an unexpected exception => ", e);
-        } finally {
-            sageTVConsumerLock.readLock().unlock();
         }
 
         return logger.exit(returnValue);
     }
 
+    public long getRecordedBytesNonBlocking() {
+        long errorBytes = errorBytesStreamed;
+        SageTVConsumer consumer = sageTVConsumerRunnable;
+
+        if (errorBytes != 0) {
+            return errorBytes;
+        } else if (consumer != null && consumer.getIsRunning()) {
+            return consumer.getBytesStreamedNonBlocking();
+        }
+
+        return 0;
+    }
+
     @Override
     public void streamError(File sourceFile, SocketAddress address, int uploadId) {
 
@@ -553,7 +622,8 @@ public abstract class BasicCaptureDevice implements CaptureDevice {
             if (channel.equals("0")) {
                 ChannelManager.updateChannelLineup(ChannelManager.getChannelLineup(getChannelLineup()));
             }
-            scanChannels = ChannelManager.getChannelList(encoderLineup, false, false);
+            List<TVChannel> channels = ChannelManager.getReadOnlyChannelList(encoderLineup, false, false);
+            scanChannels = channels.toArray(new TVChannel[channels.size()]);
             scanChannelIndex = 0;
 
             if (scanChannels.length > 0) {
@@ -593,7 +663,8 @@ public abstract class BasicCaptureDevice implements CaptureDevice {
             if (channel.equals("0")) {
                 ChannelManager.updateChannelLineup(ChannelManager.getChannelLineup(getChannelLineup()));
             }
-            scanChannels = ChannelManager.getChannelList(encoderLineup, false, false);
+            List<TVChannel> channels = ChannelManager.getReadOnlyChannelList(encoderLineup, false, false);
+            scanChannels = channels.toArray(new TVChannel[channels.size()]);
             scanChannelIndex = 0;
 
             if (scanChannels.length > 0) {
@@ -782,7 +853,8 @@ public abstract class BasicCaptureDevice implements CaptureDevice {
             } else {
                 sageTVConsumerRunnable.setEncodingQuality(recordEncodingQuality);
             }
-            sageTVConsumerFuture = ThreadPool.submit(sageTVConsumerRunnable, Thread.NORM_PRIORITY,
+            // If this is part of a traced tune, the consumer thread continues the trace.
+            sageTVConsumerFuture = ThreadPool.submit(TuneTracer.wrap(sageTVConsumerRunnable), Thread.NORM_PRIORITY,
                     sageTVConsumerRunnable.getClass().getSimpleName(), encoderName);
         } catch (Exception e) {
             logger.error("startConsuming created an unexpected exception => ", e);
@@ -953,6 +1025,7 @@ public abstract class BasicCaptureDevice implements CaptureDevice {
         logger.entry();
 
         recordLastFilename = null;
+        warmStandbyChannel = null;
         stopConsuming(false);
 
         logger.exit();
@@ -54,15 +54,16 @@ SageTVManager - Receives any CaptureDevice implementation and gives it a port nu
                 port all new connections supersede the current connection and the current connection
                 is dropped.
 
-SageTVSocketServer - Receives connections from SageTV servers and starts a SageTVRequestHandler per
-                     server connection on the assigned listening port. If there is only one
-                     CaptureDevice available to this port, the server will always replace the
-                     connection with the most recent connection with the assumption that the server
-                     must have informally dropped the old connection. If there is more than one
-                     capture device available, the server will start a new listening thread for the
-                     new connection to allow for multiple servers to connect at the same time. It is
-                     up to the user to make sure they don't use the same tuner on different servers
-                     at the same time.
+SageTVSocketServer - Opens the assigned listening port and registers it with SageTVSelectorServer.
+                     Every port and every server connection is multiplexed on a small pool of
+                     selector threads, so many SageTV servers can be connected to many ports at
+                     the same time without a thread per connection. It is up to the user to make
+                     sure they don't use the same tuner on different servers at the same time.
+
+SageTVConnection - Parses requests directly out of the receive buffer for each server connection.
+                   NOOP and size queries are answered immediately. Anything that can take a while
+                   such as START or SWITCH is handed to a worker thread and the connection does not
+                   read the next request until the response has been sent.
 
 ====================================================================================================
  Processing a request from a SageTV server
@@ -408,6 +409,25 @@ DCTRTSPClientImpl - Configures the connection for RTP streaming to this IP addre
      */
     public boolean canSwitch();
 
+    /**
+     * Tune into a channel without a recording so that a request for the same channel can start
+     * streaming without waiting for the tuner.
+     * <p/>
+     * The capture device must already be locked. The tuner stays on the channel, streaming to a
+     * consumer that discards the data, until the next time encoding is started or stopped.
+     *
+     * @param channel The channel that is expected to be requested next.
+     * @return Returns <i>true</i> if the capture device is now tuned into the channel.
+     */
+    public boolean startWarmStandby(String channel);
+
+    /**
+     * Get the channel this capture device is tuned into while in warm standby.
+     *
+     * @return The channel or <i>null</i> if this capture device is not in warm standby.
+     */
+    public String getWarmStandbyChannel();
+
     /**
      * This is the current time minus the recording start time in milliseconds.
      * <p/>
@@ -430,6 +450,17 @@ DCTRTSPClientImpl - Configures the connection for RTP streaming to this IP addre
      */
     public long getRecordedBytes();
 
+    /**
+     * Gets the current number of bytes written without blocking.
+     * <p/>
+     * This is used to answer SageTV on a selector thread, so it must only read a counter that is
+     * kept up to date by the consumer.
+     *
+     * @return Returns the total number of bytes written or -1 if the number of bytes can't be
+     *         returned without blocking. <b>getRecordedBytes()</b> must be used instead.
+     */
+    public long getRecordedBytesNonBlocking();
+
     /**
      * Return a valid incremental channel number for the provided index.
      * <p/>
@@ -172,6 +172,16 @@ public class DummyCaptureDevice implements CaptureDevice {
         return false;
     }
 
+    @Override
+    public boolean startWarmStandby(String channel) {
+        return false;
+    }
+
+    @Override
+    public String getWarmStandbyChannel() {
+        return null;
+    }
+
     @Override
     public long getRecordStart() {
         return System.currentTimeMillis();
@@ -182,6 +192,11 @@ public class DummyCaptureDevice implements CaptureDevice {
         return 0;
     }
 
+    @Override
+    public long getRecordedBytesNonBlocking() {
+        return 0;
+    }
+
     @Override
     public String scanChannelInfo(String channel) {
         return channel;
@@ -27,6 +27,7 @@ import opendct.tuning.discovery.discoverers.GenericHttpDiscoverer;
 import opendct.tuning.http.GenericHttpDiscoveredDevice;
 import opendct.tuning.http.GenericHttpDiscoveredDeviceParent;
 import opendct.util.StreamLogger;
+import opendct.util.TuneTracer;
 import opendct.util.Util;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -364,6 +365,7 @@ public class GenericHttpCaptureDevice extends BasicCaptureDevice {
             }
 
             httpProducer = newHTTPProducer;
+            TuneTracer.phase(TuneTracer.PRODUCER_STARTED);
         } catch (MalformedURLException e) {
             logger.error("Unable to start streaming because the URL is invalid.");
             return false;
@@ -398,6 +400,8 @@ public class GenericHttpCaptureDevice extends BasicCaptureDevice {
             return false;
         }
 
+        TuneTracer.phase(TuneTracer.CHANNEL_SET);
+
         if (!retune) {
             logger.info("Configuring and starting the new SageTV consumer...");
 
@@ -412,6 +416,7 @@ public class GenericHttpCaptureDevice extends BasicCaptureDevice {
             }
 
             startConsuming(channel, newConsumer, encodingQuality, bufferSize);
+            TuneTracer.phase(TuneTracer.CONSUMER_STARTED);
         } else {
             logger.info("Consumer is already running; this is a re-tune and it does not need to restart.");
         }
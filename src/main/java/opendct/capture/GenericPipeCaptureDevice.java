@@ -26,6 +26,7 @@ import opendct.tuning.discovery.discoverers.GenericPipeDiscoverer;
 import opendct.tuning.pipe.GenericPipeDiscoveredDevice;
 import opendct.tuning.pipe.GenericPipeDiscoveredDeviceParent;
 import opendct.util.StreamLogger;
+import opendct.util.TuneTracer;
 import opendct.util.Util;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -336,11 +337,15 @@ public class GenericPipeCaptureDevice extends BasicCaptureDevice {
             return false;
         }
 
+        TuneTracer.phase(TuneTracer.CHANNEL_SET);
+
         logger.info("Configuring and starting the new SageTV producer...");
         if (!inputStreamServices.startProducing(encoderName, newInputStreamProducer, newConsumer, stream)) {
             return false;
         }
 
+        TuneTracer.phase(TuneTracer.PRODUCER_STARTED);
+
         try {
             Thread.sleep(device.getTuningDelay());
         } catch (InterruptedException e) {
@@ -362,6 +367,7 @@ public class GenericPipeCaptureDevice extends BasicCaptureDevice {
             }
 
             startConsuming(channel, newConsumer, encodingQuality, bufferSize);
+            TuneTracer.phase(TuneTracer.CONSUMER_STARTED);
         } else {
             logger.info("Consumer is already running; this is a re-tune and it does not need to restart.");
         }
@@ -31,6 +31,7 @@ import opendct.tuning.discovery.discoverers.HDHomeRunDiscoverer;
 import opendct.tuning.hdhomerun.*;
 import opendct.tuning.hdhomerun.returns.*;
 import opendct.tuning.hdhomerun.types.HDHomeRunChannelMap;
+import opendct.util.TuneTracer;
 import opendct.util.Util;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -40,6 +41,7 @@ import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.Queue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
@@ -454,6 +456,8 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
 
         //tuningThread = Thread.currentThread();
 
+        HDHomeRunStatusPoller.addTuner(tuner, encoderDeviceType == CaptureDeviceType.DCT_HDHOMERUN);
+
         TVChannel tvChannel = ChannelManager.getChannel(encoderLineup, channel);
         String dotChannel = channel;
 
@@ -506,12 +510,344 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
         }
     }
 
+    /**
+     * Find the QAM virtual channel previously learned to tune a frequency and program.
+     * <p/>
+     * The virtual channel is verified before it is returned. If it now tunes something else, what
+     * it actually tunes is learned instead.
+     *
+     * @param tvChannel The channel being tuned.
+     * @param frequency The frequency of the channel being tuned.
+     * @param program The program of the channel being tuned.
+     * @return A copy of the virtual channel with a URL or <i>null</i> if there isn't a verified
+     *         virtual channel.
+     */
+    private TVChannel getLearnedQamChannel(TVChannel tvChannel, int frequency, int program)
+            throws IOException, InterruptedException {
+
+        ChannelLineup qamLineup = ChannelManager.getChannelLineup(encoderLineup);
+
+        if (qamLineup == null) {
+            return null;
+        }
+
+        TVChannel learnedChannel = qamLineup.getUrlChannelByFrequencyProgram(frequency, program);
+
+        if (learnedChannel == null) {
+            return null;
+        }
+
+        TVChannel qamChannel;
+
+        try {
+            qamChannel = new TVChannelImpl(learnedChannel.getProperties());
+        } catch (Exception e) {
+            logger.error("Unable to copy the channel {} => ", learnedChannel.getChannel(), e);
+            return null;
+        }
+
+        try {
+            tuner.setVirtualChannel(qamChannel.getChannel());
+
+            String tFrequency = tuner.getChannel();
+            int tProgram = tuner.getProgram();
+
+            if (tFrequency.endsWith(String.valueOf(":" + frequency)) && program == tProgram) {
+                qamChannel.setChannelRemap(tvChannel.getChannel());
+                ChannelManager.updateChannel(encoderLineup, qamChannel);
+
+                // If we don't sleep here, the HDHomeRun sometimes gives a 503 error when the URL
+                // is accessed less than 1ms later.
+                Thread.sleep(25);
+                return qamChannel;
+            }
+
+            logger.info("The virtual channel {} no longer tunes the frequency {} and program {}.",
+                    qamChannel.getChannel(), frequency, program);
+
+            learnQamChannel(encoderLineup, qamChannel);
+        } catch (GetSetException e) {
+            logger.error("Unable to tune the channel {}. Removing channel from lineup.",
+                    qamChannel.getChannel());
+
+            qamLineup.removeChannel(qamChannel.getChannel());
+        }
+
+        return null;
+    }
+
+    /**
+     * Learn the frequency and program of the virtual channel the tuner is currently tuned into.
+     * <p/>
+     * If a cable channel from a Digital Cable Tuner lineup is using the same frequency and
+     * program, the virtual channel is also remapped to that channel.
+     *
+     * @param lineupName The lineup the virtual channel belongs to.
+     * @param qamChannel A copy of the virtual channel that is currently tuned.
+     * @return <i>true</i> if the frequency and program were learned.
+     */
+    private boolean learnQamChannel(String lineupName, TVChannel qamChannel)
+            throws IOException, GetSetException {
+
+        String split[] = tuner.getChannel().split(":");
+
+        if (split.length < 2 || split[split.length - 1].length() <= 3) {
+            return false;
+        }
+
+        try {
+            String modulation = split[0].toUpperCase();
+            int frequency = Integer.parseInt(split[split.length - 1]);
+            int program = tuner.getProgram();
+
+            String cableChannel = ChannelManager.autoFrequencyProgramToCableChannel(
+                    this, frequency, program);
+
+            if (cableChannel != null) {
+                qamChannel.setChannelRemap(cableChannel);
+            }
+
+            qamChannel.setModulation(modulation);
+            qamChannel.setFrequency(frequency);
+            qamChannel.setProgram(program);
+
+            ChannelManager.updateChannel(lineupName, qamChannel);
+            return true;
+        } catch (NumberFormatException e) {
+            logger.warn("Unable to parse frequency from tuning the channel {}.",
+                    qamChannel.getChannel());
+        }
+
+        return false;
+    }
+
+    /**
+     * Tune QAM virtual channels from a shared queue to learn what frequency and program each one
+     * tunes.
+     * <p/>
+     * This is used by {@link HDHRQamChannelResolver} to spread the work across idle tuners. Like
+     * offline channel scanning, this stops as soon as the capture device is locked. When HDHomeRun
+     * locking is enabled, the tuner is only tuned while it holds our lockkey and probing stops as
+     * soon as another HDHomeRun client takes the tuner.
+     *
+     * @param qamChannels Copies of the virtual channels to be probed. This is shared with other
+     *                    tuners.
+     * @param lineupName The lineup the virtual channels belong to.
+     * @return The number of virtual channels that were learned.
+     */
+    int probeQamChannels(Queue<TVChannel> qamChannels, String lineupName) {
+        int learned = 0;
+
+        if (isInternalLocked() || isExternalLocked()) {
+            return learned;
+        }
+
+        synchronized (exclusiveLock) {
+            if (isInternalLocked()) {
+                return learned;
+            }
+
+            boolean hdhrLock = HDHomeRunDiscoverer.getHdhrLock();
+
+            try {
+                if (hdhrLock) {
+                    // This fails if another client locked the tuner since it was checked.
+                    tuner.setLockkey(discoveredDeviceParent.getLocalAddress());
+                }
+            } catch (IOException e) {
+                logger.error("Unable to lock HDHomeRun for probing because it cannot be reached => ", e);
+                return learned;
+            } catch (GetSetException e) {
+                logger.info("Unable to lock HDHomeRun for probing => {}", e.getMessage());
+                return learned;
+            }
+
+            try {
+                TVChannel qamChannel;
+
+                while (!isInternalLocked() &&
+                        !Thread.currentThread().isInterrupted() &&
+                        (qamChannel = qamChannels.poll()) != null) {
+
+                    if (!isProbeTunerAvailable(hdhrLock)) {
+                        qamChannels.add(qamChannel);
+
+                        logger.info("Another HDHomeRun client is using the tuner." +
+                                " Stopping QAM virtual channel probing.");
+                        break;
+                    }
+
+                    try {
+                        tuner.setVirtualChannel(qamChannel.getChannel());
+
+                        if (learnQamChannel(lineupName, qamChannel)) {
+                            learned++;
+                        }
+                    } catch (GetSetException e) {
+                        if (!isProbeTunerAvailable(hdhrLock)) {
+                            // The channel might be fine, so let another tuner try it.
+                            qamChannels.add(qamChannel);
+
+                            logger.info("Another HDHomeRun client took the tuner." +
+                                    " Stopping QAM virtual channel probing.");
+                            break;
+                        }
+
+                        logger.error("Unable to tune the channel {}." +
+                                " Removing channel from lineup.", qamChannel.getChannel());
+
+                        ChannelLineup removeLineup = ChannelManager.getChannelLineup(lineupName);
+
+                        if (removeLineup != null) {
+                            removeLineup.removeChannel(qamChannel.getChannel());
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Unable to probe QAM virtual channels" +
+                        " because the HDHomeRun cannot be reached => ", e);
+            } finally {
+                if (!isInternalLocked() && isProbeTunerAvailable(hdhrLock)) {
+                    try {
+                        tuner.clearChannel();
+
+                        if (hdhrLock) {
+                            tuner.clearLockkey();
+                        }
+                    } catch (Exception e) {
+                        logger.debug("Unable to clear the channel after probing => ", e);
+                    }
+                }
+            }
+        }
+
+        return learned;
+    }
+
+    /**
+     * Check if probing can keep using the tuner.
+     *
+     * @param hdhrLock <i>true</i> if the tuner was locked with our lockkey for probing.
+     * @return <i>true</i> if the tuner still holds our lockkey or, when locking is disabled, if no
+     *         other client has locked it.
+     */
+    private boolean isProbeTunerAvailable(boolean hdhrLock) {
+        try {
+            if (hdhrLock) {
+                return tuner.isLockedByThisComputer() == 1;
+            }
+
+            return !tuner.isLocked();
+        } catch (IOException e) {
+            logger.error("Unable to get the locked status of HDHomeRun because it cannot be reached => ", e);
+        } catch (GetSetException e) {
+            logger.error("Unable to get the locked status of HDHomeRun because the command did not work => ", e);
+        }
+
+        return false;
+    }
+
+    /**
+     * Start encoding from a warm standby tune.
+     * <p/>
+     * The tuner is already locked, tuned and streaming to our RTP port, so only the producer and
+     * consumer need to be replaced. The producer must be restarted because the consumer cannot be
+     * changed while it is running.
+     *
+     * @return <i>null</i> if the warm standby tune can't be used and a full tune is needed.
+     */
+    private Boolean startEncodingWarm(String channel, String filename, String encodingQuality,
+                                      long bufferSize, int uploadID, InetAddress remoteAddress) {
+
+        SageTVConsumer standbyConsumer = sageTVConsumerRunnable;
+
+        if (httpProducing || standbyConsumer == null || !rtpServices.isProducing()) {
+            logger.info("Warm standby for channel '{}' is no longer streaming.", channel);
+            return null;
+        }
+
+        int program = standbyConsumer.getProgram();
+        SageTVConsumer newConsumer = getNewSageTVConsumer(channel);
+
+        if (!newConsumer.acceptsUploadID()) {
+            remoteAddress = null;
+        }
+
+        if (remoteAddress != null) {
+            logger.info("Starting the encoding for the channel '{}' from the device '{}' to the file '{}' via the upload id '{}' from warm standby...", channel, encoderName, filename, uploadID);
+        } else {
+            logger.info("Starting the encoding for the channel '{}' from the device '{}' to the file '{}' from warm standby...", channel, encoderName, filename);
+        }
+
+        TuneTracer.phase(TuneTracer.CHANNEL_SET);
+
+        RTPProducer newRTPProducer = rtpServices.getNewRTPProducer(propertiesDeviceParent);
+        int standbyPort = rtpServices.getRtpLocalPort();
+
+        if (!rtpServices.startProducing(newRTPProducer, newConsumer, discoveredDeviceParent.getRemoteAddress(), standbyPort, encoderName)) {
+            logger.warn("The producer thread using the implementation '{}' failed to restart." +
+                    " Falling back to a full tune.", newRTPProducer.getClass().getSimpleName());
+            return null;
+        }
+
+        TuneTracer.phase(TuneTracer.PRODUCER_STARTED);
+
+        // The producer couldn't open the port the tuner is streaming to, so the tuner needs to be
+        // pointed at the new port.
+        if (rtpServices.getRtpLocalPort() != standbyPort) {
+            logger.info("The RTP port changed from {} to {}. Updating the target.",
+                    standbyPort, rtpServices.getRtpLocalPort());
+
+            try {
+                tuner.setTarget("rtp://" + discoveredDeviceParent.getLocalAddress().getHostAddress() + ":" + rtpServices.getRtpLocalPort());
+            } catch (IOException e) {
+                logger.error("HDHomeRun is unable to update the RTP target because the device could not be reached => ", e);
+                return null;
+            } catch (GetSetException e) {
+                logger.error("HDHomeRun is unable to update the RTP target because the command did not work => ", e);
+                return null;
+            }
+
+            TuneTracer.phase(TuneTracer.TARGET_SET);
+        }
+
+        if (program <= 0) {
+            try {
+                program = tuner.getProgram();
+            } catch (IOException e) {
+                logger.error("HDHomeRun is unable to get program because the device cannot be reached => ", e);
+            } catch (GetSetException e) {
+                logger.error("HDHomRun is unable to get program because the command did not work => ", e);
+            }
+        }
+
+        newConsumer.setProgram(program > 0 ? program : -1);
+        TuneTracer.phase(TuneTracer.PROGRAM_DETECTED);
+
+        if (uploadID > 0 && remoteAddress != null) {
+            if (!newConsumer.consumeToUploadID(filename, uploadID, remoteAddress)) {
+                return logger.exit(false);
+            }
+        } else if (!newConsumer.consumeToFilename(filename)) {
+            return logger.exit(false);
+        }
+
+        startConsuming(channel, newConsumer, encodingQuality, bufferSize);
+        TuneTracer.phase(TuneTracer.CONSUMER_STARTED);
+
+        sageTVConsumerRunnable.isStreaming(HDHomeRunDiscoverer.getStreamingWait());
+
+        lastTuneTime = System.currentTimeMillis();
+        return logger.exit(true);
+    }
+
     private boolean startEncodingSync(String channel, String filename, String encodingQuality,
                                       long bufferSize, int uploadID, InetAddress remoteAddress,
                                       String dotChannel, TVChannel tvChannel) {
 
         boolean retune = false;
         boolean scanOnly = (filename == null);
+        String standbyChannel = takeWarmStandbyChannel();
 
         if (recordLastFilename != null && recordLastFilename.equals(filename)) {
             retune = true;
@@ -520,6 +856,15 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
             recordLastFilename = filename;
         }
 
+        if (!retune && !scanOnly && channel.equals(standbyChannel)) {
+            Boolean warmStart = startEncodingWarm(
+                    channel, filename, encodingQuality, bufferSize, uploadID, remoteAddress);
+
+            if (warmStart != null) {
+                return warmStart;
+            }
+        }
+
         long currentTime = System.currentTimeMillis();
         if (retune) {
             if (currentTime - lastTuneTime < 2000) {
@@ -550,6 +895,8 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
                     return logger.exit(false);
                 }*/
             }
+
+            TuneTracer.phase(TuneTracer.EXTERNAL_LOCK);
         }
 
         if (!httpProducing) {
@@ -802,95 +1149,14 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
                         }
 
                         if (anyUrl == null) {
+                            anyUrl = getLearnedQamChannel(tvChannel, frequency, program);
+                        }
 
-                            TVChannel qamChannels[] =
-                                    ChannelManager.getChannelList(encoderLineup, true, true);
-
-                            for (TVChannel qamChannel : qamChannels) {
-
-                                /*if (tuningThread != Thread.currentThread()) {
-                                    return false;
-                                }*/
-
-                                if (Util.isNullOrEmpty(qamChannel.getUrl())) {
-                                    continue;
-                                }
-
-                                try {
-                                    tuner.setVirtualChannel(qamChannel.getChannel());
-
-                                    String tFrequency = tuner.getChannel();
-                                    int tProgram = tuner.getProgram();
-
-                                    if (tFrequency.endsWith(String.valueOf(":" + frequency)) &&
-                                            program == tProgram) {
-
-                                        qamChannel.setChannelRemap(tvChannel.getChannel());
-                                        qamChannel.setModulation(modulation);
-                                        qamChannel.setFrequency(frequency);
-                                        qamChannel.setProgram(program);
-
-                                        ChannelManager.updateChannel(encoderLineup, qamChannel);
-
-                                        anyUrl = qamChannel;
-
-                                        // If we don't sleep here, the HDHomeRun sometimes gives a
-                                        // 503 error when the URL is accessed less than 1ms later.
-                                        Thread.sleep(25);
-                                        break;
-                                    } else {
-                                        // While we have this one tuned in, let's try to match it up
-                                        // so maybe we don't need to do this often.
-
-                                        try {
-                                            String split[] = tuner.getChannel().split(":");
-
-                                            if (split.length > 1 &&
-                                                    split[split.length - 1].length() > 3) {
-
-                                                String optModulation = split[0].toUpperCase();
-                                                int optFrequency =
-                                                        Integer.parseInt(split[split.length - 1]);
-
-                                                int optProgram = tuner.getProgram();
-
-                                                String optChannel =
-                                                        ChannelManager.
-                                                                autoFrequencyProgramToCableChannel(
-                                                                        this,
-                                                                        optFrequency,
-                                                                        optProgram);
-
-                                                if (optChannel == null) {
-                                                    continue;
-                                                }
-
-                                                qamChannel.setChannelRemap(optChannel);
-                                                qamChannel.setModulation(optModulation);
-                                                qamChannel.setFrequency(optFrequency);
-                                                qamChannel.setProgram(optProgram);
-
-                                                ChannelManager.updateChannel(
-                                                        encoderLineup, qamChannel);
-                                            }
-                                        } catch (NumberFormatException e) {
-                                            logger.warn("Unable to parse frequency from tuning" +
-                                                    " the channel {}.", qamChannel.getChannel());
-                                        }
-                                    }
-                                } catch (GetSetException e) {
-                                    logger.error("Unable to tune the channel {}." +
-                                                    " Removing channel from lineup.",
-                                            qamChannel.getChannel());
-
-                                    ChannelLineup removeLineup =
-                                            ChannelManager.getChannelLineup(encoderLineup);
-
-                                    if (removeLineup != null) {
-                                        removeLineup.removeChannel(qamChannel.getChannel());
-                                    }
-                                }
-                            }
+                        if (anyUrl == null) {
+                            // Probing every virtual channel takes far too long to do here, so
+                            // it's done in the background on idle tuners and this tune falls back
+                            // to legacy tuning.
+                            HDHRQamChannelResolver.resolve(this, encoderLineup);
                         }
 
                         long qamEndTime = System.currentTimeMillis();
@@ -906,9 +1172,9 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
 
                         } else {
                             logger.warn("QAM HTTP tuning was enabled," +
-                                            " but the lineup does not appear to contain any QAM URLs." +
-                                            " Reverting to legacy tuning. Wasted {}ms.",
-                                    qamEndTime - qamStartTime);
+                                            " but no virtual channel is known to tune the frequency" +
+                                            " {} and program {}. Reverting to legacy tuning. Wasted {}ms.",
+                                    frequency, program, qamEndTime - qamStartTime);
                         }
 
                     }
@@ -940,6 +1206,8 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
                 return logger.exit(false);
         }
 
+        TuneTracer.phase(TuneTracer.CHANNEL_SET);
+
         if (!httpProducing) {
             logger.info("Configuring and starting the new RTP producer...");
 
@@ -950,6 +1218,8 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
                 return logger.exit(false);
             }
 
+            TuneTracer.phase(TuneTracer.PRODUCER_STARTED);
+
             try {
                 tuner.setTarget("rtp://" + discoveredDeviceParent.getLocalAddress().getHostAddress() + ":" + rtpServices.getRtpLocalPort());
             } catch (IOException e) {
@@ -959,6 +1229,8 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
                 logger.error("HDHomeRun is unable to start RTP because the command did not work => ", e);
                 return logger.exit(false);
             }
+
+            TuneTracer.phase(TuneTracer.TARGET_SET);
         }
 
         // If we are trying to restart the stream, we don't need to stop the consumer.
@@ -993,6 +1265,8 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
                 return logger.exit(false);
             }
 
+            TuneTracer.phase(TuneTracer.PROGRAM_DETECTED);
+
             logger.info("Configuring and starting the new SageTV consumer...");
 
             if (uploadID > 0 && remoteAddress != null) {
@@ -1006,6 +1280,7 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
             }
 
             startConsuming(channel, newConsumer, encodingQuality, bufferSize);
+            TuneTracer.phase(TuneTracer.CONSUMER_STARTED);
         } else {
             logger.info("Consumer is already running; this is a re-tune and it does not need to restart.");
         }
@@ -1577,6 +1852,7 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
         logger.entry();
 
         StringBuilder stringBuilder = new StringBuilder();
+        HDHomeRunStatusPoller.Snapshot snapshot = HDHomeRunStatusPoller.getSnapshot(tuner);
 
         try {
             stringBuilder.append("Target: ").append(tuner.getTarget());
@@ -1592,22 +1868,26 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
 
         if (encoderDeviceType == CaptureDeviceType.DCT_HDHOMERUN) {
             try {
-                stringBuilder.append(", HDHomeRunVStatus: ")
-                        .append(tuner.getVirtualChannelStatus().toString());
+                stringBuilder.append(", HDHomeRunVStatus: ").append(
+                        snapshot != null && snapshot.VSTATUS != null ?
+                                snapshot.VSTATUS : tuner.getVirtualChannelStatus());
             } catch (Exception e) {
                 logger.debug("Unable to get HDHomeRunVStatus status from HDHomeRun.");
             }
         }
 
         try {
-            stringBuilder.append(", HDHomeRunStreamInfo: ")
-                    .append(tuner.getStreamInfo().toString());
+            stringBuilder.append(", HDHomeRunStreamInfo: ").append(
+                    snapshot != null && snapshot.STREAM_INFO != null ?
+                            snapshot.STREAM_INFO : tuner.getStreamInfo());
         } catch (Exception e) {
             logger.debug("Unable to get HDHomeRunStreamInfo status from HDHomeRun.");
         }
 
         try {
-            stringBuilder.append(", HDHomeRunStatus: ").append(tuner.getStatus().toString());
+            stringBuilder.append(", HDHomeRunStatus: ").append(
+                    snapshot != null && snapshot.STATUS != null ?
+                            snapshot.STATUS : tuner.getStatus());
         } catch (Exception e) {
             logger.debug("Unable to get HDHomeRunStatus status from HDHomeRun.");
         }
@@ -1621,6 +1901,8 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
 
         logger.debug("Stopping encoding...");
 
+        HDHomeRunStatusPoller.removeTuner(tuner);
+
         synchronized (exclusiveLock) {
             if (httpProducing) {
                 httpServices.stopProducing(false);
@@ -1661,6 +1943,8 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
     public void stopDevice() {
         logger.entry();
 
+        HDHomeRunStatusPoller.removeTuner(tuner);
+
         if (httpProducing) {
             httpServices.stopProducing(false);
             httpProducer = null;
@@ -1691,6 +1975,13 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
     public int getSignalStrength() {
         int signal = 0;
 
+        // The poller already has a recent status while the tuner is streaming.
+        HDHomeRunStatusPoller.Snapshot snapshot = HDHomeRunStatusPoller.getSnapshot(tuner);
+
+        if (snapshot != null && snapshot.STATUS != null) {
+            return snapshot.STATUS.SIGNAL_STRENGTH;
+        }
+
         try {
             HDHomeRunStatus status = tuner.getStatus();
             signal = status.SIGNAL_STRENGTH;
@@ -1710,6 +2001,12 @@ public class HDHRNativeCaptureDevice extends BasicCaptureDevice {
         CopyProtection returnValue = CopyProtection.UNKNOWN;
 
         if (encoderDeviceType == CaptureDeviceType.DCT_HDHOMERUN) {
+            HDHomeRunStatusPoller.Snapshot snapshot = HDHomeRunStatusPoller.getSnapshot(tuner);
+
+            if (snapshot != null && snapshot.VSTATUS != null) {
+                return snapshot.VSTATUS.COPY_PROTECTION;
+            }
+
             try {
                 HDHomeRunVStatus vstatus = tuner.getVirtualChannelStatus();
                 returnValue = vstatus.COPY_PROTECTION;
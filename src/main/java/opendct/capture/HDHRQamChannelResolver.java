@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.capture;
+
+import opendct.channel.ChannelManager;
+import opendct.channel.TVChannel;
+import opendct.config.Config;
+import opendct.sagetv.SageTVManager;
+import opendct.util.ThreadPool;
+import opendct.util.Util;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Learns which frequency and program each QAM virtual channel in a lineup tunes.
+ * <p/>
+ * The virtual channels are probed in the background by every idle HDHomeRun tuner on the same
+ * parent device at the same time. What is learned is saved in the lineup, so future tunes only
+ * need to look up and verify a single virtual channel.
+ */
+public class HDHRQamChannelResolver {
+    private static final Logger logger = LogManager.getLogger(HDHRQamChannelResolver.class);
+
+    // If every virtual channel has already been learned and a frequency and program still can't
+    // be found, everything is probed again, but not more often than this.
+    private static final long FULL_RESOLVE_INTERVAL =
+            Config.getLong("hdhr.qam_resolver.full_resolve_interval_ms", 3600000);
+
+    private static final ConcurrentHashMap<String, Boolean> resolvingLineups = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Long> lastFullResolve = new ConcurrentHashMap<>();
+
+    /**
+     * Start learning the virtual channels in a lineup if this isn't already happening.
+     *
+     * @param captureDevice The capture device that needed a virtual channel. Only tuners on the
+     *                      same parent device are used.
+     * @param lineupName The lineup containing the virtual channels.
+     */
+    public static void resolve(CaptureDevice captureDevice, final String lineupName) {
+        if (resolvingLineups.putIfAbsent(lineupName, Boolean.TRUE) != null) {
+            logger.debug("QAM virtual channels for the lineup '{}' are already being resolved.",
+                    lineupName);
+            return;
+        }
+
+        final String parentName = captureDevice.getEncoderParentName();
+
+        ThreadPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resolveSync(parentName, lineupName);
+                } catch (Exception e) {
+                    logger.error("Unable to resolve QAM virtual channels for the lineup '{}' => ",
+                            lineupName, e);
+                } finally {
+                    resolvingLineups.remove(lineupName);
+                }
+            }
+        }, Thread.MIN_PRIORITY, "HDHRQamChannelResolver", lineupName);
+    }
+
+    private static void resolveSync(String parentName, String lineupName) throws InterruptedException {
+        TVChannel channels[] = ChannelManager.getChannelList(lineupName, true, true);
+
+        List<TVChannel> allChannels = new ArrayList<>();
+        List<TVChannel> unknownChannels = new ArrayList<>();
+
+        for (TVChannel channel : channels) {
+            if (Util.isNullOrEmpty(channel.getUrl())) {
+                continue;
+            }
+
+            allChannels.add(channel);
+
+            if (channel.getFrequency() <= 0 || channel.getProgram() <= 0) {
+                unknownChannels.add(channel);
+            }
+        }
+
+        List<TVChannel> probeChannels = unknownChannels;
+
+        if (probeChannels.size() == 0) {
+            Long lastResolve = lastFullResolve.get(lineupName);
+            long now = System.currentTimeMillis();
+
+            if (lastResolve != null && now - lastResolve < FULL_RESOLVE_INTERVAL) {
+                logger.debug("All QAM virtual channels for the lineup '{}' were resolved" +
+                        " less than {}ms ago.", lineupName, FULL_RESOLVE_INTERVAL);
+                return;
+            }
+
+            lastFullResolve.put(lineupName, now);
+            probeChannels = allChannels;
+        }
+
+        if (probeChannels.size() == 0) {
+            logger.info("The lineup '{}' does not contain any QAM virtual channels.", lineupName);
+            return;
+        }
+
+        List<HDHRNativeCaptureDevice> tuners = new ArrayList<>();
+
+        for (CaptureDevice captureDevice : SageTVManager.getSageTVCaptureDevicesByParent(parentName)) {
+            if (captureDevice instanceof HDHRNativeCaptureDevice &&
+                    lineupName.equals(captureDevice.getChannelLineup()) &&
+                    !captureDevice.isInternalLocked()) {
+
+                tuners.add((HDHRNativeCaptureDevice) captureDevice);
+            }
+        }
+
+        if (tuners.size() == 0) {
+            logger.info("There are no idle tuners available to resolve QAM virtual channels" +
+                    " for the lineup '{}'.", lineupName);
+            return;
+        }
+
+        logger.info("Resolving {} QAM virtual channels for the lineup '{}' using {} tuners...",
+                probeChannels.size(), lineupName, tuners.size());
+
+        long startTime = System.currentTimeMillis();
+        final ConcurrentLinkedQueue<TVChannel> queue = new ConcurrentLinkedQueue<>(probeChannels);
+        final String finalLineupName = lineupName;
+        final int learned[] = new int[tuners.size()];
+        List<Future<?>> futures = new ArrayList<>(tuners.size());
+
+        for (int i = 0; i < tuners.size(); i++) {
+            final int index = i;
+            final HDHRNativeCaptureDevice tuner = tuners.get(i);
+
+            futures.add(ThreadPool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    learned[index] = tuner.probeQamChannels(queue, finalLineupName);
+                }
+            }, Thread.MIN_PRIORITY, "HDHRQamChannelProbe", tuner.getEncoderName()));
+        }
+
+        int totalLearned = 0;
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+                totalLearned += learned[i];
+            } catch (ExecutionException e) {
+                logger.error("Probing QAM virtual channels failed => ", e);
+            }
+        }
+
+        ChannelManager.saveChannelLineup(lineupName);
+
+        logger.info("Resolved {} of {} QAM virtual channels for the lineup '{}' in {}ms.{}",
+                totalLearned, probeChannels.size(), lineupName,
+                System.currentTimeMillis() - startTime,
+                queue.isEmpty() ? "" : " Stopped early because the tuners were needed.");
+    }
+}
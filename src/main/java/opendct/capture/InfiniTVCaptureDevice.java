@@ -29,6 +29,7 @@ import opendct.tuning.http.InfiniTVStatus;
 import opendct.tuning.http.InfiniTVTuning;
 import opendct.tuning.upnp.InfiniTVDiscoveredDevice;
 import opendct.tuning.upnp.InfiniTVDiscoveredDeviceParent;
+import opendct.util.TuneTracer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -453,6 +454,7 @@ public class InfiniTVCaptureDevice extends BasicCaptureDevice {
             return logger.exit(false);
         }
 
+        TuneTracer.phase(TuneTracer.CHANNEL_SET);
         logger.info("Configuring and starting the new RTP producer...");
 
         if (!rtpServices.startProducing(
@@ -465,10 +467,14 @@ public class InfiniTVCaptureDevice extends BasicCaptureDevice {
             return logger.exit(false);
         }
 
+        TuneTracer.phase(TuneTracer.PRODUCER_STARTED);
+
         if (!InfiniTVTuning.startRTSP(
                 localAddress, rtpServices.getRtpLocalPort(), encoderAddress, encoderNumber)) {
 
             logger.error("Unable to start RTSP. Will try again on re-tune.");
+        } else {
+            TuneTracer.phase(TuneTracer.TARGET_SET);
         }
 
         if (!retune) {
@@ -500,6 +506,8 @@ public class InfiniTVCaptureDevice extends BasicCaptureDevice {
                 return logger.exit(false);
             }
 
+            TuneTracer.phase(TuneTracer.PROGRAM_DETECTED);
+
             // If we are trying to restart the stream, we don't need to stop the consumer.
             logger.info("Configuring and starting the new SageTV consumer...");
 
@@ -514,6 +522,7 @@ public class InfiniTVCaptureDevice extends BasicCaptureDevice {
             }
 
             startConsuming(channel, newConsumer, encodingQuality, bufferSize);
+            TuneTracer.phase(TuneTracer.CONSUMER_STARTED);
         } else {
             logger.info("Consumer is already running; this is a re-tune and it does not need to restart.");
         }
@@ -591,6 +600,19 @@ public class InfiniTVCaptureDevice extends BasicCaptureDevice {
 
         String encoderAddress = parent.getRemoteAddress().getHostAddress();
 
+        try {
+            // Read everything over one connection so the calls below are answered from the cache.
+            InfiniTVStatus.getVars(encoderAddress, encoderNumber,
+                    "tuner", "CarrierLock",
+                    "tuner", "PCRLock",
+                    "diag", "Streaming_IP",
+                    "diag", "Streaming_Port",
+                    "diag", "Temperature",
+                    "av", "TransportState");
+        } catch (IOException e) {
+            logger.debug("Unable to get the tuner status from capture device.");
+        }
+
         try {
             stringBuilder.append("CarrierLock: ")
                     .append(InfiniTVStatus.getCarrierLock(encoderAddress, encoderNumber));
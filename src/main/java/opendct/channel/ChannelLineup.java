@@ -16,6 +16,7 @@
 
 package opendct.channel;
 
+import opendct.util.Util;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -24,6 +25,7 @@ import java.net.URI;
 import java.net.URL;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ChannelLineup {
     private static final Logger logger = LogManager.getLogger(ChannelLineup.class);
@@ -34,6 +36,21 @@ public class ChannelLineup {
 
     final private Map<String, TVChannel> channelMap;
     final private Map<String, TVChannel> remapMap;
+
+    // These are kept up to date as channels are added, replaced and removed so lookups by
+    // frequency and program, and clearing remappings never need to walk the entire lineup. Changes
+    // to channels must go through addChannel() or updateChannel() to be indexed.
+    final private Map<Long, TVChannel> frequencyProgramMap;
+    final private Map<Long, TVChannel> frequencyProgramUrlMap;
+    final private Map<String, String> originalToRemapMap;
+    final private Object indexLock = new Object();
+
+    // Incremented after every change to the channels in this lineup. The snapshot is only rebuilt
+    // when it was taken at an older generation.
+    final private AtomicLong generation = new AtomicLong(0);
+    final private Object snapshotLock = new Object();
+    private volatile Snapshot snapshot;
+
     final public String LINEUP_NAME;
     final public ChannelSourceType SOURCE;
 
@@ -149,6 +166,9 @@ public class ChannelLineup {
         // Not all channels will be remapped and not all lineups even have remaps. This value is a
         // compromise based on that reality.
         remapMap = new ConcurrentHashMap<String, TVChannel>(50);
+        originalToRemapMap = new ConcurrentHashMap<String, String>(50);
+        frequencyProgramMap = new ConcurrentHashMap<Long, TVChannel>(200);
+        frequencyProgramUrlMap = new ConcurrentHashMap<Long, TVChannel>(200);
 
         setAddress(address);
     }
@@ -255,13 +275,16 @@ public class ChannelLineup {
             tvChannel.setChannelRemap("");
         }
 
-        channelMap.put(tvChannel.getChannel(), tvChannel);
+        TVChannel oldChannel = channelMap.put(tvChannel.getChannel(), tvChannel);
+        updateFrequencyProgramIndex(oldChannel, tvChannel);
 
         if (!tvChannel.getChannelRemap().equals("")) {
             setRemap(tvChannel.getChannel(), tvChannel.getChannelRemap());
         } else {
             clearRemap(tvChannel.getChannel());
         }
+
+        channelsChanged();
     }
 
     /**
@@ -313,7 +336,138 @@ public class ChannelLineup {
      */
     public void removeChannel(String originalChannel) {
         clearRemap(originalChannel);
-        channelMap.remove(originalChannel);
+        TVChannel oldChannel = channelMap.remove(originalChannel);
+
+        if (oldChannel != null) {
+            updateFrequencyProgramIndex(oldChannel, null);
+        }
+
+        channelsChanged();
+    }
+
+    /**
+     * Get the key used to index a channel by frequency and program.
+     *
+     * @return The key or 0 if the frequency or program is not known.
+     */
+    private static long getFrequencyProgramKey(int frequency, int program) {
+        if (frequency <= 0 || program <= 0) {
+            return 0;
+        }
+
+        return ((long) frequency << 32) | (program & 0xFFFFFFFFL);
+    }
+
+    private static long getFrequencyProgramKey(TVChannel tvChannel, boolean urlOnly) {
+        if (tvChannel == null || (urlOnly && Util.isNullOrEmpty(tvChannel.getUrl()))) {
+            return 0;
+        }
+
+        return getFrequencyProgramKey(tvChannel.getFrequency(), tvChannel.getProgram());
+    }
+
+    /**
+     * Moves a channel in the frequency and program indexes after it has been replaced or removed.
+     *
+     * @param oldChannel The channel that was replaced or removed. This can be <i>null</i>.
+     * @param newChannel The channel that replaced it. This can be <i>null</i>.
+     */
+    private void updateFrequencyProgramIndex(TVChannel oldChannel, TVChannel newChannel) {
+        synchronized (indexLock) {
+            updateFrequencyProgramIndex(frequencyProgramMap, oldChannel, newChannel, false);
+            updateFrequencyProgramIndex(frequencyProgramUrlMap, oldChannel, newChannel, true);
+        }
+    }
+
+    private void updateFrequencyProgramIndex(Map<Long, TVChannel> index, TVChannel oldChannel,
+                                             TVChannel newChannel, boolean urlOnly) {
+
+        long oldKey = getFrequencyProgramKey(oldChannel, urlOnly);
+        long newKey = getFrequencyProgramKey(newChannel, urlOnly);
+
+        if (oldKey != 0 && oldKey != newKey) {
+            TVChannel indexedChannel = index.get(oldKey);
+
+            if (indexedChannel != null &&
+                    indexedChannel.getChannel().equals(oldChannel.getChannel())) {
+
+                index.remove(oldKey);
+
+                // Another channel might have the same frequency and program. This only happens
+                // when the indexed channel moves, so it's rare.
+                for (TVChannel tvChannel : channelMap.values()) {
+                    if (getFrequencyProgramKey(tvChannel, urlOnly) == oldKey) {
+                        putFrequencyProgramIndex(index, oldKey, tvChannel);
+                    }
+                }
+            }
+        }
+
+        if (newKey != 0) {
+            putFrequencyProgramIndex(index, newKey, newChannel);
+        }
+    }
+
+    private static void putFrequencyProgramIndex(Map<Long, TVChannel> index, long key, TVChannel tvChannel) {
+        TVChannel indexedChannel = index.get(key);
+
+        // When more than one channel has the same frequency and program, the lowest channel is
+        // returned which is the same channel that would be found first in the sorted channel list.
+        if (indexedChannel == null ||
+                indexedChannel.getChannel().equals(tvChannel.getChannel()) ||
+                channelComparator.compare(tvChannel, indexedChannel) < 0) {
+
+            index.put(key, tvChannel);
+        }
+    }
+
+    /**
+     * Get the channel tuned by a frequency and program.
+     * <p/>
+     * The returned channel is not a copy, so do not make any changes to it.
+     *
+     * @param frequency The frequency.
+     * @param program The program.
+     * @return Returns a channel object or <i>null</i> if no channel is using this frequency and
+     *         program.
+     */
+    public TVChannel getChannelByFrequencyProgram(int frequency, int program) {
+        return getIndexedChannel(frequencyProgramMap, frequency, program);
+    }
+
+    /**
+     * Get a channel with a URL that has been found to tune a frequency and program.
+     * <p/>
+     * This is used to find the virtual channel that can be tuned over HTTP for a frequency and
+     * program after it has been learned. The returned channel is not a copy, so do not make any
+     * changes to it.
+     *
+     * @param frequency The frequency.
+     * @param program The program.
+     * @return Returns a channel object or <i>null</i> if no channel with a URL is known to use
+     *         this frequency and program.
+     */
+    public TVChannel getUrlChannelByFrequencyProgram(int frequency, int program) {
+        return getIndexedChannel(frequencyProgramUrlMap, frequency, program);
+    }
+
+    private static TVChannel getIndexedChannel(Map<Long, TVChannel> index, int frequency, int program) {
+        long key = getFrequencyProgramKey(frequency, program);
+
+        if (key == 0) {
+            return null;
+        }
+
+        TVChannel tvChannel = index.get(key);
+
+        // Don't return a channel that was changed directly after it was indexed.
+        if (tvChannel != null &&
+                (tvChannel.getFrequency() != frequency || tvChannel.getProgram() != program)) {
+
+            return null;
+        }
+
+        return tvChannel;
     }
 
     /**
@@ -368,7 +522,10 @@ public class ChannelLineup {
         if (tvChannel != null && remapChannel != "") {
             tvChannel.setChannelRemap(remapChannel);
             remapMap.put(remapChannel, tvChannel);
+            originalToRemapMap.put(originalChannel, remapChannel);
         }
+
+        channelsChanged();
     }
 
     /**
@@ -377,25 +534,23 @@ public class ChannelLineup {
      * @param originalChannel This is the original channel.
      */
     public void clearRemap(String originalChannel) {
-        List<String> removes = new ArrayList<String>();
+        String remapKey = originalToRemapMap.remove(originalChannel);
 
-        for (Map.Entry<String, TVChannel> remapPair : remapMap.entrySet()) {
-            final String remapKey = remapPair.getKey();
-            final TVChannel remapValue = remapPair.getValue();
+        if (remapKey != null) {
+            TVChannel remapValue = remapMap.get(remapKey);
 
-            if (remapValue.getChannel().equals(originalChannel)) {
-                removes.add(remapKey);
+            // The remapping could have been taken over by a different channel since then.
+            if (remapValue != null && remapValue.getChannel().equals(originalChannel)) {
+                remapMap.remove(remapKey);
             }
         }
 
-        for (String remove : removes) {
-            remapMap.remove(remove);
-        }
-
         TVChannel tvChannel = channelMap.get(originalChannel);
         if (tvChannel != null) {
             tvChannel.setChannelRemap("");
         }
+
+        channelsChanged();
     }
 
     /**
@@ -440,31 +595,120 @@ public class ChannelLineup {
     /**
      * Gets all of the channels currently in this lineup.
      * <p/>
-     * The returned channel objects are copies, so if you make changes, it will not change anything
-     * in the lineup.
+     * The returned list and channels are shared from the current snapshot of this lineup and are
+     * read-only. Use <b>new TVChannelImpl(TVChannel)</b> to get a channel that can be changed.
      *
-     * @return An array of all of the available channels in this lineup.
+     * @return A sorted list of all of the available channels in this lineup.
      */
     public List<TVChannel> getAllChannels(boolean includeIgnored, boolean includeNonTunable) {
-        List<TVChannel> channels = new ArrayList<>();
+        return getSnapshot().getChannels(includeIgnored, includeNonTunable);
+    }
+
+    private void channelsChanged() {
+        generation.incrementAndGet();
+    }
 
-        for (Map.Entry<String, TVChannel> channelMapPair : channelMap.entrySet()) {
-            final TVChannel tvChannel = channelMapPair.getValue();
+    /**
+     * Get the generation of the channels in this lineup.
+     * <p/>
+     * This changes every time a channel is added, updated, removed or remapped, so it can be
+     * compared with an earlier value to tell if anything has changed.
+     *
+     * @return The current generation.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
 
-            if (!tvChannel.isIgnore() || (includeIgnored && tvChannel.isIgnore())) {
-                if (tvChannel.isTunable() || (includeNonTunable && !tvChannel.isTunable())) {
-                    try {
-                        channels.add(new TVChannelImpl(tvChannel.getProperties()));
-                    } catch (Exception e) {
-                        logger.error("Unable to create a new channel => ", e);
-                    }
-                }
-            }
+    /**
+     * Get a read-only snapshot of all of the channels in this lineup.
+     * <p/>
+     * The same snapshot is returned to everyone until the lineup changes, so nothing is copied
+     * unless something actually changed since the last time a snapshot was requested.
+     *
+     * @return The current snapshot.
+     */
+    public Snapshot getSnapshot() {
+        // This must be read before the channels are copied. If anything changes while copying,
+        // the generation will have moved on and the next request will take a new snapshot.
+        long currentGeneration = generation.get();
+        Snapshot currentSnapshot = snapshot;
+
+        if (currentSnapshot != null && currentSnapshot.GENERATION == currentGeneration) {
+            return currentSnapshot;
+        }
+
+        List<TVChannel> channels = new ArrayList<>(channelMap.size());
+
+        for (TVChannel tvChannel : channelMap.values()) {
+            channels.add(new ImmutableTVChannel(tvChannel));
         }
 
         Collections.sort(channels, channelComparator);
+        currentSnapshot = new Snapshot(currentGeneration, channels);
+
+        synchronized (snapshotLock) {
+            if (snapshot == null || snapshot.GENERATION < currentGeneration) {
+                snapshot = currentSnapshot;
+            }
+        }
+
+        return currentSnapshot;
+    }
+
+    /**
+     * A read-only view of all of the channels in a lineup at one generation.
+     */
+    public static class Snapshot {
+        public final long GENERATION;
+        public final List<TVChannel> CHANNELS;
+
+        // Filtered lists are only created the first time they are requested.
+        private final List<List<TVChannel>> views;
+
+        private Snapshot(long generation, List<TVChannel> channels) {
+            GENERATION = generation;
+            CHANNELS = Collections.unmodifiableList(channels);
+            views = new ArrayList<>(4);
+
+            for (int i = 0; i < 3; i++) {
+                views.add(null);
+            }
 
-        return channels;
+            views.add(CHANNELS);
+        }
+
+        /**
+         * Get the channels in this snapshot.
+         *
+         * @param includeIgnored Include channels that are being ignored.
+         * @param includeNonTunable Include channels that are not tunable.
+         * @return A sorted read-only list of channels.
+         */
+        public List<TVChannel> getChannels(boolean includeIgnored, boolean includeNonTunable) {
+            int index = (includeIgnored ? 1 : 0) | (includeNonTunable ? 2 : 0);
+
+            synchronized (views) {
+                List<TVChannel> channels = views.get(index);
+
+                if (channels == null) {
+                    List<TVChannel> newChannels = new ArrayList<>();
+
+                    for (TVChannel tvChannel : CHANNELS) {
+                        if ((includeIgnored || !tvChannel.isIgnore()) &&
+                                (includeNonTunable || tvChannel.isTunable())) {
+
+                            newChannels.add(tvChannel);
+                        }
+                    }
+
+                    channels = Collections.unmodifiableList(newChannels);
+                    views.set(index, channels);
+                }
+
+                return channels;
+            }
+        }
     }
 
     /**
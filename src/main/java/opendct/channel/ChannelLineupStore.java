@@ -0,0 +1,485 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.channel;
+
+import opendct.config.Config;
+import opendct.config.ConfigBag;
+import opendct.util.Util;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Saves a channel lineup as a properties file with an append-only journal of changes.
+ * <p/>
+ * The properties file is the same format that has always been used for lineups, so it can still be
+ * edited, imported and exported. Saving only appends the channels that changed since the last save
+ * to the journal. When the journal gets larger than the lineup, or on a clean shutdown, the
+ * lineup is compacted back into the properties file and the journal is started over.
+ * <p/>
+ * The properties file and the journal share an epoch number. The journal is only replayed when its
+ * epoch matches the properties file, so a journal left by an interrupted compaction or an imported or
+ * replaced properties file without the same epoch is not applied. A properties file that is edited
+ * in place keeps its epoch, so the journal is still replayed over the edit. Edit lineups while the
+ * program is stopped after a clean shutdown, or remove the journal along with the edit.
+ */
+public class ChannelLineupStore {
+    private static final Logger logger = LogManager.getLogger(ChannelLineupStore.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String EPOCH_KEY = "lineup.journal_epoch";
+    private static final String EPOCH_RECORD = "E";
+    private static final String PUT_RECORD = "P";
+    private static final String DELETE_RECORD = "D";
+
+    // The journal is always allowed to grow to at least this many records before it is compacted.
+    private static final int COMPACT_RECORDS =
+            Config.getInteger("channels.journal_compact_records", 500);
+
+    public final String LINEUP_NAME;
+    private final File journalFile;
+
+    // The channels exactly as they are currently saved on disk. This is what each save is compared
+    // with to find the channels that need to be journaled.
+    private final Map<String, String> savedChannels = new HashMap<>(1000);
+    private String savedHeader;
+    private long savedGeneration = -1;
+    private long epoch;
+    private int journalRecords;
+    private boolean journalValid;
+
+    public ChannelLineupStore(String lineupName) {
+        LINEUP_NAME = lineupName;
+        journalFile = new File(Config.CONFIG_DIR + Config.DIR_SEPARATOR + "lineup" +
+                Config.DIR_SEPARATOR + lineupName + ".journal");
+    }
+
+    /**
+     * Adds the channels from a loaded properties file and then any journaled changes to a lineup.
+     *
+     * @param configBag The loaded properties for this lineup.
+     * @param lineup The lineup to receive the channels.
+     */
+    public synchronized void load(ConfigBag configBag, ChannelLineup lineup) {
+        savedChannels.clear();
+        epoch = configBag.getLong(EPOCH_KEY, 0);
+        journalRecords = 0;
+        journalValid = false;
+
+        final Map<String, String> loadedChannels = configBag.getAllByRootKey("channel.");
+
+        for (Map.Entry<String, String> channelMapPair : loadedChannels.entrySet()) {
+            putChannel(lineup, channelMapPair.getValue());
+        }
+
+        if (journalFile.exists()) {
+            replayJournal(lineup);
+        }
+
+        // Anything that was in the lineup before it was loaded will be saved next time.
+        savedHeader = getHeader(lineup);
+        savedGeneration = -1;
+    }
+
+    /**
+     * Saves all changes to a lineup since the last time it was saved.
+     * <p/>
+     * Nothing is written if the lineup hasn't changed.
+     *
+     * @param lineup The lineup to save.
+     * @param compact If <i>true</i>, the entire lineup will be written to the properties file.
+     * @return <i>true</i> if the lineup was saved.
+     */
+    public synchronized boolean save(ChannelLineup lineup, boolean compact) {
+        ChannelLineup.Snapshot snapshot = lineup.getSnapshot();
+        String header = getHeader(lineup);
+
+        if (!compact && journalValid && snapshot.GENERATION == savedGeneration &&
+                header.equals(savedHeader)) {
+
+            return true;
+        }
+
+        Map<String, String> channels = new HashMap<>(snapshot.CHANNELS.size() * 2);
+        List<String> records = new ArrayList<>();
+
+        for (TVChannel tvChannel : snapshot.CHANNELS) {
+            String properties = toCSV(tvChannel.getProperties());
+            channels.put(tvChannel.getChannel(), properties);
+
+            if (!properties.equals(savedChannels.get(tvChannel.getChannel()))) {
+                records.add(PUT_RECORD + "\t" + escape(properties));
+            }
+        }
+
+        for (String channel : savedChannels.keySet()) {
+            if (!channels.containsKey(channel)) {
+                records.add(DELETE_RECORD + "\t" + escape(channel));
+            }
+        }
+
+        if (!compact) {
+            // The header values are only stored in the properties file and rarely change.
+            compact = !journalValid || !header.equals(savedHeader) ||
+                    journalRecords + records.size() > Math.max(COMPACT_RECORDS, channels.size());
+        }
+
+        if (!compact) {
+            if (records.size() > 0 && !appendJournal(records, true)) {
+                compact = true;
+            } else {
+                logger.debug("Journaled {} channel changes for the lineup '{}'.",
+                        records.size(), LINEUP_NAME);
+                journalRecords += records.size();
+            }
+        }
+
+        if (compact && !compact(lineup, snapshot)) {
+            return false;
+        }
+
+        savedChannels.clear();
+        savedChannels.putAll(channels);
+        savedHeader = header;
+        savedGeneration = snapshot.GENERATION;
+
+        return true;
+    }
+
+    /**
+     * Deletes the journal for this lineup.
+     *
+     * @return <i>true</i> if the journal does not exist anymore.
+     */
+    public synchronized boolean delete() {
+        savedChannels.clear();
+        journalValid = false;
+
+        return !journalFile.exists() || journalFile.delete();
+    }
+
+    private boolean compact(ChannelLineup lineup, ChannelLineup.Snapshot snapshot) {
+        ConfigBag configBag = new ConfigBag(LINEUP_NAME, "lineup", false);
+        configBag.loadConfig();
+
+        // Remove all current channels so we don't retain any old values or channels we have
+        // removed.
+        configBag.removeAllByRootKey("channel.");
+
+        configBag.setString("lineup.friendly_name", lineup.getFriendlyName());
+        configBag.setString("lineup.address", lineup.getAddress());
+        configBag.setLong("lineup.update_interval", lineup.getUpdateInterval());
+        configBag.setLong("lineup.offline_update_interval", lineup.getOfflineUpdateInterval());
+        configBag.setString("lineup.source", String.valueOf(lineup.SOURCE));
+        configBag.setLong(EPOCH_KEY, epoch + 1);
+
+        StringBuilder unavailableChannels = new StringBuilder();
+        StringBuilder availableChannels = new StringBuilder();
+
+        for (TVChannel tvChannel : snapshot.CHANNELS) {
+
+            String channel = tvChannel.getChannel();
+            while (channel.length() < 4) {
+                channel = "0" + channel;
+            }
+
+            configBag.setStringArray("channel." + channel, tvChannel.getProperties());
+
+            if (!tvChannel.isTunable() || tvChannel.isIgnore()) {
+                unavailableChannels.append(tvChannel.getChannel());
+                unavailableChannels.append(",");
+            } else if (tvChannel.isTunable() && !tvChannel.isIgnore()) {
+                availableChannels.append(tvChannel.getChannel());
+                availableChannels.append(",");
+            }
+        }
+
+        // Remove the last comma.
+        if (unavailableChannels.length() > 0) {
+            unavailableChannels.deleteCharAt(unavailableChannels.length() - 1);
+        }
+
+        // Remove the last comma.
+        if (availableChannels.length() > 0) {
+            availableChannels.deleteCharAt(availableChannels.length() - 1);
+        }
+
+        configBag.setString("sagetv.unavailable_channels_ref", unavailableChannels.toString());
+        configBag.setString("sagetv.available_channels_ref", availableChannels.toString());
+
+        if (!configBag.saveConfig()) {
+            return false;
+        }
+
+        // The properties file now has everything, so the old journal will not be replayed even if
+        // it can't be started over.
+        epoch++;
+        journalRecords = 0;
+        journalValid = appendJournal(new ArrayList<String>(), false);
+
+        logger.debug("Compacted the lineup '{}' with {} channels.",
+                LINEUP_NAME, snapshot.CHANNELS.size());
+
+        return true;
+    }
+
+    private void replayJournal(ChannelLineup lineup) {
+        BufferedReader reader = null;
+        int applied = 0;
+        int skipped = 0;
+
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), UTF_8));
+            String line;
+            boolean first = true;
+
+            while ((line = reader.readLine()) != null) {
+                String record[] = readRecord(line);
+
+                if (first) {
+                    first = false;
+
+                    if (record == null || !record[0].equals(EPOCH_RECORD) ||
+                            !record[1].equals(String.valueOf(epoch))) {
+
+                        logger.info("The journal for the lineup '{}' is older than the" +
+                                " properties file and will not be used.", LINEUP_NAME);
+                        return;
+                    }
+
+                    journalValid = true;
+                    continue;
+                }
+
+                // A record can only be incomplete if writing it was interrupted.
+                if (record == null) {
+                    skipped++;
+                    continue;
+                }
+
+                if (record[0].equals(PUT_RECORD)) {
+                    putChannel(lineup, record[1]);
+                } else if (record[0].equals(DELETE_RECORD)) {
+                    lineup.removeChannel(record[1]);
+                    savedChannels.remove(record[1]);
+                } else {
+                    skipped++;
+                    continue;
+                }
+
+                applied++;
+            }
+        } catch (IOException e) {
+            logger.error("Unable to read the journal for the lineup '{}' => ", LINEUP_NAME, e);
+            journalValid = false;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    logger.debug("Unable to close the journal for the lineup '{}' => ",
+                            LINEUP_NAME, e);
+                }
+            }
+        }
+
+        journalRecords = applied + skipped;
+
+        if (skipped > 0) {
+            logger.warn("Skipped {} damaged records in the journal for the lineup '{}'.",
+                    skipped, LINEUP_NAME);
+        }
+
+        logger.info("Applied {} journaled changes to the lineup '{}'.", applied, LINEUP_NAME);
+    }
+
+    private void putChannel(ChannelLineup lineup, String properties) {
+        try {
+            TVChannel tvChannel = new TVChannelImpl(Util.getStringArrayFromCSV(properties));
+            lineup.addChannel(tvChannel);
+            savedChannels.put(tvChannel.getChannel(), toCSV(tvChannel.getProperties()));
+        } catch (Exception e) {
+            logger.error("Unable to create a new channel => ", e);
+        }
+    }
+
+    /**
+     * Writes records to the journal.
+     *
+     * @param records The records to write.
+     * @param append If <i>false</i>, the journal is started over at the current epoch before the
+     *               records are written.
+     * @return <i>true</i> if all of the records were written.
+     */
+    private boolean appendJournal(List<String> records, boolean append) {
+        Writer writer = null;
+
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(journalFile, append), UTF_8));
+
+            if (!append) {
+                writeRecord(writer, EPOCH_RECORD + "\t" + epoch);
+            }
+
+            for (String record : records) {
+                writeRecord(writer, record);
+            }
+
+            writer.flush();
+            return true;
+        } catch (IOException e) {
+            logger.error("Unable to write to the journal for the lineup '{}' => ", LINEUP_NAME, e);
+            return false;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    logger.debug("Unable to close the journal for the lineup '{}' => ",
+                            LINEUP_NAME, e);
+                }
+            }
+        }
+    }
+
+    // Each record is prefixed with a checksum so a partially written record is never applied.
+    private static void writeRecord(Writer writer, String record) throws IOException {
+        writer.write(Long.toHexString(getChecksum(record)));
+        writer.write('\t');
+        writer.write(record);
+        writer.write('\n');
+    }
+
+    private static String[] readRecord(String line) {
+        int checksumEnd = line.indexOf('\t');
+        int typeEnd = checksumEnd < 0 ? -1 : line.indexOf('\t', checksumEnd + 1);
+
+        if (typeEnd < 0) {
+            return null;
+        }
+
+        String record = line.substring(checksumEnd + 1);
+
+        try {
+            if (Long.parseLong(line.substring(0, checksumEnd), 16) != getChecksum(record)) {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        return new String[] {
+                line.substring(checksumEnd + 1, typeEnd),
+                unescape(line.substring(typeEnd + 1))
+        };
+    }
+
+    private static long getChecksum(String record) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(record.getBytes(UTF_8));
+        return crc32.getValue();
+    }
+
+    private static String getHeader(ChannelLineup lineup) {
+        return lineup.getFriendlyName() + "\n" + lineup.getAddress() + "\n" +
+                lineup.getUpdateInterval() + "\n" + lineup.getOfflineUpdateInterval() + "\n" +
+                lineup.SOURCE;
+    }
+
+    // This is the same format used by ConfigBag.setStringArray().
+    private static String toCSV(String values[]) {
+        StringBuilder mergedArray = new StringBuilder();
+
+        for (String value : values) {
+            mergedArray.append(value).append(",");
+        }
+
+        // Remove the extra comma at the end.
+        if (mergedArray.length() > 0) {
+            mergedArray.deleteCharAt(mergedArray.length() - 1);
+        }
+
+        return mergedArray.toString();
+    }
+
+    private static String escape(String value) {
+        StringBuilder builder = new StringBuilder(value.length() + 8);
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+
+        return builder.toString();
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+
+        StringBuilder builder = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '\\' && i + 1 < value.length()) {
+                c = value.charAt(++i);
+
+                switch (c) {
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                }
+            }
+
+            builder.append(c);
+        }
+
+        return builder.toString();
+    }
+}
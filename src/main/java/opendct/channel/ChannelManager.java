@@ -23,6 +23,7 @@ import opendct.channel.updater.http.HDHomeRunChannels;
 import opendct.channel.updater.http.InfiniTVChannels;
 import opendct.config.Config;
 import opendct.config.ConfigBag;
+import opendct.nanohttpd.JsonResponseCache;
 import opendct.power.PowerEventListener;
 import opendct.sagetv.SageTVManager;
 import opendct.util.Util;
@@ -32,6 +33,7 @@ import org.apache.logging.log4j.Logger;
 import java.io.File;
 import java.io.FileFilter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -60,6 +62,9 @@ public class ChannelManager implements PowerEventListener {
     final private static Map<String, ChannelLineup> channelLineupsMap =
             new ConcurrentHashMap<String, ChannelLineup>();
 
+    final private static Map<String, ChannelLineupStore> lineupStoresMap =
+            new ConcurrentHashMap<String, ChannelLineupStore>();
+
     private static AtomicBoolean updateRunning = new AtomicBoolean(false);
     private static Thread updateThread;
     private static boolean noOfflineScan = false;
@@ -132,8 +137,7 @@ public class ChannelManager implements PowerEventListener {
 
             final OfflineChannelScan offlineChannelScan = offlineScansMap.get(scanName);
 
-            if (offlineChannelScan != null &&
-                    (offlineChannelScan.isRunning() || offlineChannelScan.isComplete())) {
+            if (offlineChannelScan != null) {
 
                 ArrayList<TVChannel> channels = offlineChannelScan.getScannedChannelsAndClear();
 
@@ -148,13 +152,25 @@ public class ChannelManager implements PowerEventListener {
 
                     // The scan is now complete. Save the results immediately.
                     saveChannelLineup(scanName);
+                    offlineChannelScan.clearCheckpoint();
 
                     // Remove the scan from the map so we don't keep pulling channels from it.
                     offlineScansMap.remove(scanName);
-                } else {
+                } else if (channels.size() > 0) {
                     for (TVChannel channel : channels) {
                         channelLineup.updateChannel(channel);
                     }
+
+                    // Only the changes are journaled, so this is cheap. The checkpoint must not
+                    // be saved until the channels it includes are saved.
+                    if (saveChannelLineup(scanName)) {
+                        offlineChannelScan.saveCheckpoint();
+                    }
+
+                    logger.info("Offline channel scan '{}' has {} channels remaining." +
+                            " Estimated completion in {}ms.", scanName,
+                            offlineChannelScan.getRemainingChannels(),
+                            offlineChannelScan.getEstimatedTimeRemaining());
                 }
             }
 
@@ -344,32 +360,42 @@ public class ChannelManager implements PowerEventListener {
     /**
      * Returns all of the channels available for the requested lineup.
      * <p/>
-     * The returned list is a copy of the channels, not the original objects.
+     * The returned list is a copy of the channels, not the original objects. Use
+     * <b>getReadOnlyChannelList()</b> if the channels will not be changed.
      *
      * @param lineupName This is the name of the lineup.
      * @return A list of all channels in the requested lineup.
      */
     public static TVChannel[] getChannelList(String lineupName, boolean includeIgnored, boolean includeNonTunable) {
-        ChannelLineup channelLineup = channelLineupsMap.get(lineupName);
-
-        if (channelLineup == null) {
-            return new TVChannel[0];
-        }
-
-        List<TVChannel> sourceChannels = channelLineup.getAllChannels(includeIgnored, includeNonTunable);
+        List<TVChannel> sourceChannels = getReadOnlyChannelList(lineupName, includeIgnored, includeNonTunable);
         TVChannel returnChannels[] = new TVChannel[sourceChannels.size()];
 
         for (int i = 0; i < returnChannels.length; i++) {
-            try {
-                returnChannels[i] = new TVChannelImpl(sourceChannels.get(i).getProperties());
-            } catch (Exception e) {
-                logger.error("Unable to create a new channel => ", e);
-            }
+            returnChannels[i] = new TVChannelImpl(sourceChannels.get(i));
         }
 
         return returnChannels;
     }
 
+    /**
+     * Returns all of the channels available for the requested lineup without copying them.
+     * <p/>
+     * The returned list is shared from the current snapshot of the lineup and it and the channels
+     * it contains cannot be changed.
+     *
+     * @param lineupName This is the name of the lineup.
+     * @return A sorted read-only list of all channels in the requested lineup.
+     */
+    public static List<TVChannel> getReadOnlyChannelList(String lineupName, boolean includeIgnored, boolean includeNonTunable) {
+        ChannelLineup channelLineup = channelLineupsMap.get(lineupName);
+
+        if (channelLineup == null) {
+            return Collections.emptyList();
+        }
+
+        return channelLineup.getAllChannels(includeIgnored, includeNonTunable);
+    }
+
     /**
      * Add a new channel line up.
      * <p/>
@@ -388,6 +414,7 @@ public class ChannelManager implements PowerEventListener {
 
         if (overwrite) {
             channelLineupsMap.put(channelLineup.LINEUP_NAME, channelLineup);
+            JsonResponseCache.invalidate();
             return true;
         }
 
@@ -397,6 +424,7 @@ public class ChannelManager implements PowerEventListener {
         }
 
         channelLineupsMap.put(channelLineup.LINEUP_NAME, channelLineup);
+        JsonResponseCache.invalidate();
         return true;
     }
 
@@ -412,13 +440,19 @@ public class ChannelManager implements PowerEventListener {
     public static boolean removeChannelLineup(String lineupName, boolean delete) {
         channelLineupsMap.remove(lineupName);
         offlineScanDevicesMap.remove(lineupName);
+        JsonResponseCache.invalidate();
 
         if (delete) {
+            boolean returnValue = getChannelLineupStore(lineupName).delete();
+            lineupStoresMap.remove(lineupName);
+
             String lineupPath = Config.CONFIG_DIR + Config.DIR_SEPARATOR + "lineup" + Config.DIR_SEPARATOR + lineupName + ".properties";
             File lineupFile = new File(lineupPath);
             if (lineupFile.exists()) {
-                return lineupFile.delete();
+                return lineupFile.delete() && returnValue;
             }
+
+            return returnValue;
         }
 
         return true;
@@ -451,12 +485,31 @@ public class ChannelManager implements PowerEventListener {
 
     /**
      * Saves all loaded channel lineups.
+     * <p/>
+     * Every lineup is compacted into its properties file, so this should be used on shutdown.
      */
     public static void saveChannelLineups() {
         for (Map.Entry<String, ChannelLineup> lineupMapPair : channelLineupsMap.entrySet()) {
             logger.info("Saving the channel lineup '{}'.", lineupMapPair.getKey());
-            saveChannelLineup(lineupMapPair.getKey());
+            saveChannelLineup(lineupMapPair.getKey(), true);
+        }
+    }
+
+    private static ChannelLineupStore getChannelLineupStore(String lineupName) {
+        ChannelLineupStore store = lineupStoresMap.get(lineupName);
+
+        if (store == null) {
+            synchronized (lineupStoresMap) {
+                store = lineupStoresMap.get(lineupName);
+
+                if (store == null) {
+                    store = new ChannelLineupStore(lineupName);
+                    lineupStoresMap.put(lineupName, store);
+                }
+            }
         }
+
+        return store;
     }
 
     /**
@@ -598,17 +651,9 @@ public class ChannelManager implements PowerEventListener {
                 channelLineupsMap.put(lineup.LINEUP_NAME, lineup);
             }
 
-            final Map<String, String> loadedChannels = configBag.getAllByRootKey("channel.");
-
-            for (Map.Entry<String, String> channelMapPair : loadedChannels.entrySet()) {
-                final String properties = channelMapPair.getValue();
-
-                try {
-                    lineup.addChannel(new TVChannelImpl(Util.getStringArrayFromCSV(properties)));
-                } catch (Exception e) {
-                    logger.error("Unable to create a new channel => ", e);
-                }
-            }
+            // This adds the channels from the properties file and then any changes that were
+            // journaled since the last time the properties file was written.
+            getChannelLineupStore(lineupName).load(configBag, lineup);
 
             if (lineup.SOURCE != ChannelSourceType.STATIC && !lineup.hasChannels()) {
                 updateChannelLineup(lineup);
@@ -621,12 +666,27 @@ public class ChannelManager implements PowerEventListener {
     }
 
     /**
-     * Saves the requested channel lineup to a properties file so it can be restored later.
+     * Saves the requested channel lineup so it can be restored later.
+     * <p/>
+     * Only the channels that changed since the last save are written to the journal for the
+     * lineup. The properties file is re-written when the journal gets too large.
      *
      * @param lineupName This is the name of the lineup to be saved.
      * @return <i>true</i> if it was successfully saved.
      */
     public static boolean saveChannelLineup(String lineupName) {
+        return saveChannelLineup(lineupName, false);
+    }
+
+    /**
+     * Saves the requested channel lineup so it can be restored later.
+     *
+     * @param lineupName This is the name of the lineup to be saved.
+     * @param compact If <i>true</i>, the entire lineup is written to its properties file and the
+     *                journal is started over. Use this to export the lineup.
+     * @return <i>true</i> if it was successfully saved.
+     */
+    public static boolean saveChannelLineup(String lineupName, boolean compact) {
 
         ChannelLineup lineup = channelLineupsMap.get(lineupName);
 
@@ -634,54 +694,7 @@ public class ChannelManager implements PowerEventListener {
             return false;
         }
 
-        ConfigBag configBag = new ConfigBag(lineupName, "lineup", false);
-        configBag.loadConfig();
-
-        // Remove all current channels so we don't retain any old values or channels we have
-        // removed.
-        configBag.removeAllByRootKey("channel.");
-
-        configBag.setString("lineup.friendly_name", lineup.getFriendlyName());
-        configBag.setString("lineup.address", lineup.getAddress());
-        configBag.setLong("lineup.update_interval", lineup.getUpdateInterval());
-        configBag.setLong("lineup.offline_update_interval", lineup.getOfflineUpdateInterval());
-        configBag.setString("lineup.source", String.valueOf(lineup.SOURCE));
-
-        StringBuilder unavailableChannels = new StringBuilder();
-        StringBuilder availableChannels = new StringBuilder();
-
-        for (TVChannel tvChannel : lineup.getAllChannels(true, true)) {
-
-            String channel = tvChannel.getChannel();
-            while (channel.length() < 4) {
-                channel = "0" + channel;
-            }
-
-            configBag.setStringArray("channel." + channel, tvChannel.getProperties());
-
-            if (!tvChannel.isTunable() || tvChannel.isIgnore()) {
-                unavailableChannels.append(tvChannel.getChannel());
-                unavailableChannels.append(",");
-            } else if (tvChannel.isTunable() && !tvChannel.isIgnore()) {
-                availableChannels.append(tvChannel.getChannel());
-                availableChannels.append(",");
-            }
-        }
-
-        // Remove the last comma.
-        if (unavailableChannels.length() > 0) {
-            unavailableChannels.deleteCharAt(unavailableChannels.length() - 1);
-        }
-
-        // Remove the last comma.
-        if (availableChannels.length() > 0) {
-            availableChannels.deleteCharAt(availableChannels.length() - 1);
-        }
-
-        configBag.setString("sagetv.unavailable_channels_ref", unavailableChannels.toString());
-        configBag.setString("sagetv.available_channels_ref", availableChannels.toString());
-
-        return configBag.saveConfig();
+        return getChannelLineupStore(lineupName).save(lineup, compact);
     }
 
     public static void startUpdateChannelsThread() {
@@ -823,16 +836,22 @@ public class ChannelManager implements PowerEventListener {
         logger.entry(tvChannel);
 
         // First check if the value is already from an alternative lineup.
-        List<CaptureDevice> devices = SageTVManager.getAllSageTVCaptureDevices(CaptureDeviceType.DCT_INFINITV);
-        devices.addAll(SageTVManager.getAllSageTVCaptureDevices(CaptureDeviceType.DCT_HDHOMERUN));
+        List<CaptureDevice> devices;
         if (includeQam) {
-            devices.addAll(SageTVManager.getAllSageTVCaptureDevices(CaptureDeviceType.QAM_INFINITV));
-            devices.addAll(SageTVManager.getAllSageTVCaptureDevices(CaptureDeviceType.QAM_HDHOMERUN));
+            devices = SageTVManager.getAllSageTVCaptureDevices(
+                    CaptureDeviceType.DCT_INFINITV, CaptureDeviceType.DCT_HDHOMERUN,
+                    CaptureDeviceType.QAM_INFINITV, CaptureDeviceType.QAM_HDHOMERUN);
+        } else {
+            devices = SageTVManager.getAllSageTVCaptureDevices(
+                    CaptureDeviceType.DCT_INFINITV, CaptureDeviceType.DCT_HDHOMERUN);
         }
 
         if (autoMapQamReference) {
+            // Devices usually share lineups, so only check each lineup once.
+            HashSet<String> checkedLineups = new HashSet<>();
+
             for (CaptureDevice device : devices) {
-                if (device == captureDevice) {
+                if (device == captureDevice || !checkedLineups.add(device.getChannelLineup())) {
                     continue;
                 }
 
@@ -913,20 +932,27 @@ public class ChannelManager implements PowerEventListener {
      *         was found.
      */
     public static String autoFrequencyProgramToCableChannel(CaptureDevice captureDevice, int frequency, int program) {
-        List<CaptureDevice> devices = SageTVManager.getAllSageTVCaptureDevices(CaptureDeviceType.DCT_INFINITV);
-        devices.addAll(SageTVManager.getAllSageTVCaptureDevices(CaptureDeviceType.DCT_HDHOMERUN));
+        List<CaptureDevice> devices = SageTVManager.getAllSageTVCaptureDevices(
+                CaptureDeviceType.DCT_INFINITV, CaptureDeviceType.DCT_HDHOMERUN);
+
+        // Devices usually share lineups, so only check each lineup once.
+        HashSet<String> checkedLineups = new HashSet<>();
 
         for (CaptureDevice device : devices) {
-            if (device == captureDevice) {
+            if (device == captureDevice || !checkedLineups.add(device.getChannelLineup())) {
                 continue;
             }
 
-            TVChannel channels[] = ChannelManager.getChannelList(device.getChannelLineup(), true, true);
+            ChannelLineup channelLineup = channelLineupsMap.get(device.getChannelLineup());
 
-            for (TVChannel channel : channels) {
-                if (channel.getFrequency() == frequency && channel.getProgram() == program) {
-                    return channel.getChannel();
-                }
+            if (channelLineup == null) {
+                continue;
+            }
+
+            TVChannel channel = channelLineup.getChannelByFrequencyProgram(frequency, program);
+
+            if (channel != null) {
+                return channel.getChannel();
             }
         }
 
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.channel;
+
+/**
+ * A read-only copy of a channel.
+ * <p/>
+ * These are shared by everything reading the same lineup snapshot, so all setters throw
+ * <i>UnsupportedOperationException</i>. Use <b>new TVChannelImpl(TVChannel)</b> to get a copy that
+ * can be changed.
+ */
+public class ImmutableTVChannel implements TVChannel {
+    private final boolean tunable;
+    private final boolean ignore;
+    private final CopyProtection cci;
+    private final int signalStrength;
+    private final String channelRemap;
+    private final String channel;
+    private final String name;
+    private final String url;
+    private final String modulation;
+    private final int frequency;
+    private final int program;
+
+    public ImmutableTVChannel(TVChannel tvChannel) {
+        tunable = tvChannel.isTunable();
+        ignore = tvChannel.isIgnore();
+        cci = tvChannel.getCci();
+        signalStrength = tvChannel.getSignalStrength();
+        channelRemap = tvChannel.getChannelRemap();
+        channel = tvChannel.getChannel();
+        name = tvChannel.getName();
+        url = tvChannel.getUrl();
+        modulation = tvChannel.getModulation();
+        frequency = tvChannel.getFrequency();
+        program = tvChannel.getProgram();
+    }
+
+    public String[] getProperties() {
+        return new String[]{
+                channel,
+                channelRemap,
+                String.valueOf(tunable),
+                name,
+                url,
+                modulation,
+                String.valueOf(frequency),
+                String.valueOf(program),
+                "", // Placeholder for EIA which is no longer collected.
+                String.valueOf(signalStrength),
+                cci.name(),
+                String.valueOf(ignore)
+        };
+    }
+
+    public boolean isTunable() {
+        return tunable;
+    }
+
+    public void setTunable(boolean tunable) {
+        throw new UnsupportedOperationException("This channel is read-only.");
+    }
+
+    public String getChannelRemap() {
+        return channelRemap;
+    }
+
+    public void setChannelRemap(String channelRemap) {
+        throw new UnsupportedOperationException("This channel is read-only.");
+    }
+
+    public void setCci(CopyProtection cci) {
+        throw new UnsupportedOperationException("This channel is read-only.");
+    }
+
+    public CopyProtection getCci() {
+        return cci;
+    }
+
+    public void setSignalStrength(int signalStrength) {
+        throw new UnsupportedOperationException("This channel is read-only.");
+    }
+
+    public int getSignalStrength() {
+        return signalStrength;
+    }
+
+    public void setFrequency(int frequency) {
+        throw new UnsupportedOperationException("This channel is read-only.");
+    }
+
+    public int getFrequency() {
+        return frequency;
+    }
+
+    public void setProgram(int program) {
+        throw new UnsupportedOperationException("This channel is read-only.");
+    }
+
+    public int getProgram() {
+        return program;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setModulation(String modulation) {
+        throw new UnsupportedOperationException("This channel is read-only.");
+    }
+
+    public String getModulation() {
+        return modulation;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        throw new UnsupportedOperationException("This channel is read-only.");
+    }
+
+    public boolean isIgnore() {
+        return ignore;
+    }
+
+    public void setIgnore(boolean ignore) {
+        throw new UnsupportedOperationException("This channel is read-only.");
+    }
+
+    public void setUpdateAll() {
+        throw new UnsupportedOperationException("This channel is read-only.");
+    }
+
+    public String[] getAndClearUpdates() {
+        // Nothing can ever change.
+        return new String[12];
+    }
+
+    @Override
+    public String toString() {
+        return "ImmutableTVChannel{" +
+                "tunable=" + tunable +
+                ", ignore=" + ignore +
+                ", cci=" + cci +
+                ", signalStrength=" + signalStrength +
+                ", channelRemap='" + channelRemap + '\'' +
+                ", channel='" + channel + '\'' +
+                ", name='" + name + '\'' +
+                ", url='" + url + '\'' +
+                ", modulation='" + modulation + '\'' +
+                ", frequency='" + frequency + '\'' +
+                ", program='" + program + '\'' +
+                '}';
+    }
+}
@@ -18,18 +18,40 @@ package opendct.channel;
 
 import opendct.capture.CaptureDevice;
 import opendct.capture.CaptureDeviceType;
+import opendct.config.Config;
+import opendct.config.ConfigBag;
 import opendct.sagetv.SageTVManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.io.File;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Scans channels using every available capture device in a group.
+ * <p/>
+ * Channels sharing a frequency are grouped and each capture device works through one group at a
+ * time, so most scans only need to change programs. When a capture device runs out of work, it
+ * takes a share of the remaining channels from the capture device with the most left, sized by how
+ * long each capture device has been measured to take per channel. Progress is checkpointed so an
+ * interrupted scan picks up where it left off.
+ */
 public class OfflineChannelScan {
     private final Logger logger = LogManager.getLogger(OfflineChannelScan.class);
 
+    // A channel is given up on after it fails to scan this many times on any capture device.
+    private static final int MAX_RETRY = 10;
+
+    // Checkpoints older than this are ignored and the scan starts over.
+    private static final long CHECKPOINT_MAX_AGE =
+            Config.getLong("channels.offline_scan.checkpoint_max_age_ms", ChannelLineup.DEFAULT_OFFLINE_UPDATE_INTERVAL);
+
+    // The measured time in milliseconds it takes each capture device to scan one channel. This is
+    // kept between scans so the first assignments of a new scan are already informed.
+    private static final Map<String, Long> deviceScanTimes = new ConcurrentHashMap<>();
+
     // This indicates if a complete scan has completed.
     private volatile boolean complete = false;
     // This indicates if the offline scan is in progress.
@@ -47,6 +69,19 @@ public class OfflineChannelScan {
     private ArrayList<TVChannel> scannedChannels = new ArrayList<TVChannel>();
     private final Object scannedChannelsLock = new Object();
 
+    // Channels are taken from here one frequency at a time by the scan workers.
+    private final ConcurrentLinkedQueue<List<TVChannel>> frequencyGroups = new ConcurrentLinkedQueue<>();
+    // Channels that failed to scan and should be tried again by any capture device.
+    private final ConcurrentLinkedQueue<TVChannel> retryChannels = new ConcurrentLinkedQueue<>();
+    private final Map<String, Integer> channelFailures = new ConcurrentHashMap<>();
+    private final List<ScanWorker> scanWorkers = new CopyOnWriteArrayList<>();
+
+    // Channels that have been scanned and collected by getScannedChannelsAndClear(). These are
+    // written to the checkpoint so they will not be scanned again if this scan is interrupted.
+    private final Set<String> checkpointChannels = new HashSet<>();
+    private final ConfigBag checkpointConfig;
+    private long checkpointStartTime = 0;
+
     public final String SCAN_NAME;
     public final CaptureDeviceType[] CAPTURE_DEVICE_TYPES;
     public final String[] CAPTURE_DEVICE_NAMES;
@@ -63,6 +98,7 @@ public class OfflineChannelScan {
         SCAN_NAME = scanName;
         CAPTURE_DEVICE_TYPES = captureDeviceTypes;
         CAPTURE_DEVICE_NAMES = new String[0];
+        checkpointConfig = new ConfigBag(scanName, "scan", false);
     }
 
     /**
@@ -80,6 +116,7 @@ public class OfflineChannelScan {
         SCAN_NAME = scanName;
         CAPTURE_DEVICE_TYPES = new CaptureDeviceType[0];
         this.CAPTURE_DEVICE_NAMES = captureDeviceNames;
+        checkpointConfig = new ConfigBag(scanName, "scan", false);
     }
 
     /**
@@ -111,6 +148,9 @@ public class OfflineChannelScan {
      * This is the aggregate average of the parallel processing. That means that if it takes 1 tuner
      * individually 6 seconds to scan a channel and we have 6 capture devices, the average will be 1
      * second since they are being processed in parallel resulting in overall higher throughput.
+     * <p/>
+     * Once the capture devices in this scan have measured scan times, the average is based on
+     * those so it reflects the current mix of faster and slower capture devices.
      *
      * @return The average time to scan a channel or -1 if a scan has never been executed.
      */
@@ -126,6 +166,20 @@ public class OfflineChannelScan {
 
         if (isRunning()) {
             end = System.currentTimeMillis();
+
+            double channelsPerMs = 0;
+
+            for (ScanWorker scanWorker : scanWorkers) {
+                Long scanTime = deviceScanTimes.get(scanWorker.captureDevice.getEncoderName());
+
+                if (scanTime != null && scanTime > 0) {
+                    channelsPerMs += 1.0 / scanTime;
+                }
+            }
+
+            if (channelsPerMs > 0) {
+                return (long) (1.0 / channelsPerMs);
+            }
         } else if (startTime < endTime) {
             end = endTime;
         } else {
@@ -143,6 +197,22 @@ public class OfflineChannelScan {
         return ((end - startTime) / channels);
     }
 
+    /**
+     * Returns the estimated time in milliseconds until the current scan is complete.
+     *
+     * @return The estimated time remaining or -1 if it is not known.
+     */
+    public long getEstimatedTimeRemaining() {
+        long remaining = getRemainingChannels();
+        long average = getScanAverage();
+
+        if (remaining < 0 || average < 0) {
+            return -1;
+        }
+
+        return remaining * average;
+    }
+
     /**
      * Returns the time in milliseconds the scan has taken.
      * <p/>
@@ -193,9 +263,90 @@ public class OfflineChannelScan {
             scannedChannels = new ArrayList<TVChannel>();
         }
 
+        synchronized (checkpointChannels) {
+            for (TVChannel tvChannel : returnList) {
+                checkpointChannels.add(tvChannel.getChannel());
+            }
+        }
+
         return returnList;
     }
 
+    /**
+     * Saves which channels have been collected by <b>getScannedChannelsAndClear()</b> so far.
+     * <p/>
+     * This should be called after the collected channels have been saved in their lineup. If this
+     * scan is interrupted, the next scan with the same name will skip these channels.
+     * <p/>
+     * The checkpoint is written in the background, so checkpoints saved close together are only
+     * written once.
+     */
+    public void saveCheckpoint() {
+        synchronized (checkpointConfig) {
+            synchronized (checkpointChannels) {
+                checkpointConfig.setLong("scan.start_time", checkpointStartTime);
+                checkpointConfig.setStringArray("scan.completed_channels",
+                        checkpointChannels.toArray(new String[checkpointChannels.size()]));
+            }
+        }
+
+        checkpointConfig.saveConfigLater();
+    }
+
+    /**
+     * Removes the checkpoint for this scan.
+     * <p/>
+     * This should be called after a scan has completed and all of the scanned channels have been
+     * saved in their lineup.
+     */
+    public void clearCheckpoint() {
+        // If a background save is still pending, it will only write an empty checkpoint which is
+        // too old to be resumed.
+        synchronized (checkpointConfig) {
+            checkpointConfig.clearConfig();
+
+            File checkpoint = new File(checkpointConfig.FILE_NAME);
+            if (checkpoint.exists() && !checkpoint.delete()) {
+                logger.warn("Unable to remove the checkpoint '{}'.", checkpointConfig.FILE_NAME);
+            }
+        }
+    }
+
+    /**
+     * Loads the channels that were already scanned by an interrupted scan with the same name.
+     *
+     * @return The channels to skip. This will be empty if there is no recent checkpoint.
+     */
+    private Set<String> loadCheckpoint() {
+        Set<String> completed = new HashSet<>();
+        ConfigBag configBag = new ConfigBag(SCAN_NAME, "scan", false);
+
+        checkpointStartTime = startTime;
+
+        if (!new File(configBag.FILE_NAME).exists() || !configBag.loadConfig()) {
+            return completed;
+        }
+
+        long lastStartTime = configBag.getLong("scan.start_time", 0);
+
+        if (startTime - lastStartTime > CHECKPOINT_MAX_AGE) {
+            logger.info("The checkpoint for the offline channel scan '{}' is too old to resume.",
+                    SCAN_NAME);
+            return completed;
+        }
+
+        for (String channel : configBag.getStringArray("scan.completed_channels", new String[0])) {
+            if (channel.length() > 0) {
+                completed.add(channel);
+            }
+        }
+
+        // The resumed scan is still the same scan, so it should not live any longer.
+        checkpointStartTime = lastStartTime;
+
+        return completed;
+    }
+
     /**
      * All scanned channels are added through this method.
      * <p/>
@@ -231,7 +382,8 @@ public class OfflineChannelScan {
      * Runs an offline channel scan using the provided channel map.
      * <p/>
      * This method will also automatically register this instance with the channel manager to handle
-     * suspend and shutdown correctly.
+     * suspend and shutdown correctly. If an earlier scan with the same name was interrupted, the
+     * channels it already finished are skipped.
      *
      * @param channels  This is a list of all of the channels to be scanned. If <i>false</i> is
      *                  returned this list may be partially updated. If this is not a copy of the
@@ -242,22 +394,6 @@ public class OfflineChannelScan {
      * @return <i>true</i> if the channel scan was started.
      */
     public synchronized boolean start(TVChannel channels[], final long scanDelay) {
-        logger.entry(channels, scanDelay);
-
-        // This needs to come first or this scan will think it's already in progres when all we did was set the flag.
-        OfflineChannelScan currentChannelScan = ChannelManager.getOfflineChannelScan(this.SCAN_NAME);
-        if (currentChannelScan != null && currentChannelScan.isRunning()) {
-            logger.warn("An offline channel scan with the same name, '{}' is already in progress.", this.SCAN_NAME);
-            return logger.exit(false);
-        }
-
-        if (running.getAndSet(true)) {
-            logger.warn("An offline channel scan is already in progress.");
-            return logger.exit(false);
-        }
-
-        startTime = System.currentTimeMillis();
-
         HashSet<CaptureDevice> devices = new HashSet<CaptureDevice>();
 
         for (CaptureDeviceType captureDeviceType : CAPTURE_DEVICE_TYPES) {
@@ -267,13 +403,41 @@ public class OfflineChannelScan {
         for (String captureDeviceName : CAPTURE_DEVICE_NAMES) {
             CaptureDevice captureDevice = SageTVManager.getSageTVCaptureDevice(captureDeviceName, true);
 
-            if (devices.contains(captureDevice)) {
+            if (captureDevice == null || devices.contains(captureDevice)) {
                 continue;
             }
 
             devices.add(captureDevice);
         }
 
+        return start(devices, channels, scanDelay);
+    }
+
+    /**
+     * Start an offline channel scan on the provided capture devices.
+     *
+     * @param devices The capture devices to scan with.
+     * @param channels The channels to be scanned.
+     * @param scanDelay The delay in milliseconds between each channel scan on each capture device.
+     * @return <i>true</i> if the scan was started.
+     */
+    synchronized boolean start(Set<CaptureDevice> devices, TVChannel channels[], final long scanDelay) {
+        logger.entry(devices, channels, scanDelay);
+
+        // This needs to come first or this scan will think it's already in progres when all we did was set the flag.
+        OfflineChannelScan currentChannelScan = ChannelManager.getOfflineChannelScan(this.SCAN_NAME);
+        if (currentChannelScan != null && currentChannelScan.isRunning()) {
+            logger.warn("An offline channel scan with the same name, '{}' is already in progress.", this.SCAN_NAME);
+            return logger.exit(false);
+        }
+
+        if (running.getAndSet(true)) {
+            logger.warn("An offline channel scan is already in progress.");
+            return logger.exit(false);
+        }
+
+        startTime = System.currentTimeMillis();
+
         if (devices.size() == 0) {
             logger.warn("Offline channel scan could not find any capture devices.");
             running.set(false);
@@ -292,8 +456,6 @@ public class OfflineChannelScan {
             }
         }
 
-        final ArrayBlockingQueue<CaptureDevice> captureDevices = new ArrayBlockingQueue<CaptureDevice>(devices.size());
-
         boolean devicesUnlocked = false;
 
         // Since we separate ClearQAM from CableCARD we can safely assume all
@@ -302,14 +464,7 @@ public class OfflineChannelScan {
         for (CaptureDevice device : devices) {
             if (!device.isInternalLocked()) {
                 devicesUnlocked = true;
-            }
-
-            try {
-                captureDevices.put(device);
-            } catch (InterruptedException e) {
-                logger.debug("Offline channel scan was interrupted.");
-                running.set(false);
-                return logger.exit(false);
+                break;
             }
         }
 
@@ -321,12 +476,36 @@ public class OfflineChannelScan {
             return logger.exit(false);
         }
 
-        executorService = Executors.newFixedThreadPool(devices.size());
+        Set<String> completedChannels = loadCheckpoint();
+        List<List<TVChannel>> groups = getFrequencyGroups(channels, completedChannels);
+        int scanChannels = 0;
+
+        for (List<TVChannel> group : groups) {
+            scanChannels += group.size();
+        }
+
+        if (completedChannels.size() > 0) {
+            logger.info("Resuming the offline channel scan '{}'. {} channels were already scanned.",
+                    SCAN_NAME, channels.length - scanChannels);
+        }
+
+        // One extra thread is needed to monitor the scan.
+        executorService = Executors.newFixedThreadPool(devices.size() + 1);
         totalCaptureDevices = devices.size();
 
-        completeLatch = new CountDownLatch(channels.length);
-        totalChannels = channels.length;
+        completeLatch = new CountDownLatch(scanChannels);
+        totalChannels = scanChannels;
         scannedChannels.clear();
+        frequencyGroups.clear();
+        frequencyGroups.addAll(groups);
+        retryChannels.clear();
+        channelFailures.clear();
+        scanWorkers.clear();
+
+        synchronized (checkpointChannels) {
+            checkpointChannels.clear();
+            checkpointChannels.addAll(completedChannels);
+        }
 
         complete = false;
         stop = false;
@@ -335,84 +514,12 @@ public class OfflineChannelScan {
         // things if need to suspend or shutdown.
         ChannelManager.addOfflineChannelScan(this);
 
-        for (final TVChannel channel : channels) {
-
-            executorService.submit(new Runnable() {
-                public void run() {
-                    Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-                    Thread.currentThread().setName(SCAN_NAME + "-" + channel.getChannel() + "-" + Thread.currentThread().getId() + ":Unknown");
-
-                    boolean result = false;
-                    CaptureDevice captureDevice = null;
-
-                    if (stop) {
-                        executorService.shutdown();
-                        while (completeLatch.getCount() > 0) {
-                            completeLatch.countDown();
-                        }
-                    }
-
-
-                    int retry = 10;
-                    while (!result && !stop && retry-- > 0) {
-                        try {
-                            captureDevice = captureDevices.take();
-                        } catch (InterruptedException e) {
-                            logger.debug("The offline channel scan has been interrupted => ", e);
-                            stop = true;
-                            completeLatch.countDown();
-                            break;
-                        }
-
-                        Thread.currentThread().setName(SCAN_NAME + "-" + channel.getChannel() + "-" + Thread.currentThread().getId() + ":" + captureDevice.getEncoderName());
-
-                        try {
-                            Thread.sleep(scanDelay);
-                        } catch (InterruptedException e) {
-                            logger.debug("The offline channel scan has been interrupted => ", e);
-                            stop = true;
-                            completeLatch.countDown();
-                            break;
-                        }
-
-                        if (!captureDevice.isInternalLocked()) {
-                            logger.info("Scanning the channel '{}' ({}).", channel.getChannel(), channel.getName());
-                            result = captureDevice.getChannelInfoOffline(channel, false);
-                        } else {
-                            // If the device is locked, it's not really fair to call this a failure.
-                            retry++;
-                        }
-
-                        try {
-                            captureDevices.put(captureDevice);
-                        } catch (InterruptedException e) {
-                            logger.debug("The offline channel scan has been interrupted => ", e);
-                            stop = true;
-                            completeLatch.countDown();
-                            break;
-                        }
-                    }
-
-                    if (retry == 0) {
-                        logger.error("Unable to Scan channel {} ({}).", channel.getChannel(), channel.getName());
-                        channel.setTunable(false);
-                        addScannedChannel(channel);
-                    } else if (!stop) {
-                        logger.info("Scanned channel {} ({}). Signal strength is now '{}', CCI is now '{}' and tunable is now '{}'.", channel.getChannel(), channel.getName(), channel.getSignalStrength(), channel.getCci(), channel.isTunable());
-                        addScannedChannel(channel);
-                    }
-
-                    completeLatch.countDown();
+        for (CaptureDevice device : devices) {
+            scanWorkers.add(new ScanWorker(device, scanDelay));
+        }
 
-                    // This will free up the completion CountDownLatch if it's waiting.
-                    if (stop) {
-                        executorService.shutdown();
-                        while (completeLatch.getCount() > 0) {
-                            completeLatch.countDown();
-                        }
-                    }
-                }
-            });
+        for (ScanWorker scanWorker : scanWorkers) {
+            executorService.submit(scanWorker);
         }
 
         // This is the always the last thread to stop because it waits for all other thread to
@@ -450,6 +557,251 @@ public class OfflineChannelScan {
         return logger.exit(true);
     }
 
+    /**
+     * Groups channels by frequency, largest groups first.
+     * <p/>
+     * Starting with the largest groups keeps the capture devices evenly loaded towards the end of
+     * the scan. Channels without a known frequency are each in their own group.
+     *
+     * @param channels The channels to group.
+     * @param skipChannels Channels that should not be included.
+     * @return The groups of channels.
+     */
+    static List<List<TVChannel>> getFrequencyGroups(TVChannel channels[], Set<String> skipChannels) {
+        Map<Integer, List<TVChannel>> frequencies = new LinkedHashMap<>();
+        List<List<TVChannel>> groups = new ArrayList<>();
+
+        for (TVChannel channel : channels) {
+            if (skipChannels.contains(channel.getChannel())) {
+                continue;
+            }
+
+            if (channel.getFrequency() <= 0) {
+                List<TVChannel> group = new ArrayList<>(1);
+                group.add(channel);
+                groups.add(group);
+                continue;
+            }
+
+            List<TVChannel> group = frequencies.get(channel.getFrequency());
+
+            if (group == null) {
+                group = new ArrayList<>();
+                frequencies.put(channel.getFrequency(), group);
+            }
+
+            group.add(channel);
+        }
+
+        groups.addAll(frequencies.values());
+
+        Collections.sort(groups, new Comparator<List<TVChannel>>() {
+            @Override
+            public int compare(List<TVChannel> o1, List<TVChannel> o2) {
+                return o2.size() - o1.size();
+            }
+        });
+
+        return groups;
+    }
+
+    /**
+     * Get the measured time it takes a capture device to scan one channel.
+     *
+     * @param encoderName The name of the capture device.
+     * @return The time in milliseconds or -1 if it has never been measured.
+     */
+    public static long getDeviceScanTime(String encoderName) {
+        Long scanTime = deviceScanTimes.get(encoderName);
+
+        return scanTime == null ? -1 : scanTime;
+    }
+
+    private static void updateDeviceScanTime(String encoderName, long scanTime) {
+        Long oldScanTime = deviceScanTimes.get(encoderName);
+
+        // Recent scans are weighted more so the times adjust to changing conditions.
+        deviceScanTimes.put(encoderName, oldScanTime == null ? scanTime : (oldScanTime * 3 + scanTime) / 4);
+    }
+
+    private void finishChannel(TVChannel channel) {
+        addScannedChannel(channel);
+        completeLatch.countDown();
+    }
+
+    private void failChannel(TVChannel channel) {
+        Integer failures = channelFailures.get(channel.getChannel());
+        failures = failures == null ? 1 : failures + 1;
+        channelFailures.put(channel.getChannel(), failures);
+
+        if (failures >= MAX_RETRY) {
+            logger.error("Unable to Scan channel {} ({}).", channel.getChannel(), channel.getName());
+            channel.setTunable(false);
+            finishChannel(channel);
+        } else {
+            retryChannels.add(channel);
+        }
+    }
+
+    private void stopAll() {
+        stop = true;
+        executorService.shutdown();
+        while (completeLatch.getCount() > 0) {
+            completeLatch.countDown();
+        }
+    }
+
+    /**
+     * Scans channels on one capture device until there is nothing left to scan.
+     */
+    private class ScanWorker implements Runnable {
+        private final CaptureDevice captureDevice;
+        private final long scanDelay;
+        private final LinkedBlockingDeque<TVChannel> channels = new LinkedBlockingDeque<>();
+        private volatile boolean locked = false;
+
+        private ScanWorker(CaptureDevice captureDevice, long scanDelay) {
+            this.captureDevice = captureDevice;
+            this.scanDelay = scanDelay;
+        }
+
+        public void run() {
+            Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+            Thread.currentThread().setName(SCAN_NAME + "-" + Thread.currentThread().getId() + ":" + captureDevice.getEncoderName());
+
+            try {
+                while (!stop && completeLatch.getCount() > 0) {
+                    // This also serves as the delay while waiting for other capture devices to
+                    // finish or fail channels that might need to be retried.
+                    Thread.sleep(scanDelay);
+
+                    if (captureDevice.isInternalLocked()) {
+                        // Anything assigned to this capture device can now be taken by the others.
+                        locked = true;
+                        continue;
+                    }
+
+                    locked = false;
+
+                    TVChannel channel = nextChannel();
+
+                    if (channel == null) {
+                        continue;
+                    }
+
+                    logger.info("Scanning the channel '{}' ({}).", channel.getChannel(), channel.getName());
+
+                    long scanStart = System.currentTimeMillis();
+                    boolean result = captureDevice.getChannelInfoOffline(channel, false);
+
+                    if (stop) {
+                        break;
+                    }
+
+                    if (result) {
+                        updateDeviceScanTime(captureDevice.getEncoderName(), System.currentTimeMillis() - scanStart);
+                        logger.info("Scanned channel {} ({}). Signal strength is now '{}', CCI is now '{}' and tunable is now '{}'.", channel.getChannel(), channel.getName(), channel.getSignalStrength(), channel.getCci(), channel.isTunable());
+                        finishChannel(channel);
+                    } else {
+                        failChannel(channel);
+                    }
+                }
+            } catch (InterruptedException e) {
+                logger.debug("The offline channel scan has been interrupted => ", e);
+            }
+
+            // This will free up the completion CountDownLatch if it's waiting.
+            if (stop) {
+                stopAll();
+            }
+        }
+
+        private TVChannel nextChannel() {
+            TVChannel channel = channels.pollFirst();
+
+            if (channel != null) {
+                return channel;
+            }
+
+            channel = retryChannels.poll();
+
+            if (channel != null) {
+                return channel;
+            }
+
+            List<TVChannel> group = frequencyGroups.poll();
+
+            if (group != null) {
+                channels.addAll(group);
+                return channels.pollFirst();
+            }
+
+            steal();
+
+            return channels.pollFirst();
+        }
+
+        /**
+         * Takes channels from the capture device with the most remaining.
+         * <p/>
+         * The number of channels taken is proportional to how fast this capture device is compared
+         * to the other one, so both should finish at about the same time. Everything is taken from
+         * a capture device that is currently locked.
+         */
+        private void steal() {
+            ScanWorker victim = null;
+            int victimSize = 0;
+
+            for (ScanWorker scanWorker : scanWorkers) {
+                int size = scanWorker.channels.size();
+
+                if (scanWorker != this && size > victimSize) {
+                    victim = scanWorker;
+                    victimSize = size;
+                }
+            }
+
+            if (victim == null) {
+                return;
+            }
+
+            int steal;
+
+            if (victim.locked) {
+                steal = victimSize;
+            } else {
+                long thisTime = getDeviceScanTime(captureDevice.getEncoderName());
+                long victimTime = getDeviceScanTime(victim.captureDevice.getEncoderName());
+
+                if (thisTime <= 0 || victimTime <= 0) {
+                    thisTime = 1;
+                    victimTime = 1;
+                }
+
+                // The remaining channels are split by the rate each capture device scans channels.
+                double thisRate = 1.0 / thisTime;
+                double victimRate = 1.0 / victimTime;
+                steal = (int) (victimSize * (thisRate / (thisRate + victimRate)));
+            }
+
+            // The channels are taken from the end so the victim keeps working on the same frequency.
+            for (int i = 0; i < steal; i++) {
+                TVChannel channel = victim.channels.pollLast();
+
+                if (channel == null) {
+                    break;
+                }
+
+                channels.addFirst(channel);
+            }
+
+            if (steal > 0) {
+                logger.debug("'{}' took {} channels from '{}'.", captureDevice.getEncoderName(),
+                        steal, victim.captureDevice.getEncoderName());
+            }
+        }
+    }
+
     /**
      * Call this method to block until the channel scan has completed.
      *
@@ -54,6 +54,28 @@ public class TVChannelImpl implements TVChannel {
         this.name = name;
     }
 
+    /**
+     * Create a copy of a channel that can be changed.
+     * <p/>
+     * The values are copied directly, so this is much cheaper than copying the channel through
+     * <b>getProperties()</b>. No changes are pending on the new copy.
+     *
+     * @param tvChannel The channel to copy.
+     */
+    public TVChannelImpl(TVChannel tvChannel) {
+        channel = tvChannel.getChannel();
+        channelRemap = tvChannel.getChannelRemap();
+        tunable = tvChannel.isTunable();
+        name = tvChannel.getName();
+        url = tvChannel.getUrl();
+        modulation = tvChannel.getModulation();
+        frequency = tvChannel.getFrequency();
+        program = tvChannel.getProgram();
+        signalStrength = tvChannel.getSignalStrength();
+        cci = tvChannel.getCci();
+        ignore = tvChannel.isIgnore();
+    }
+
     public TVChannelImpl(String properties[]) throws Exception {
         if (properties.length < 11) {
             throw new Exception("The provided array does not contain all parameters required for a channel.");
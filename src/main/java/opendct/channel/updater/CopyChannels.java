@@ -61,13 +61,7 @@ public class CopyChannels {
 
                 tunable = false;
                 ignored = sourceChannel.isIgnore();
-                try {
-                    destChannel = new TVChannelImpl(sourceChannel.getProperties());
-                } catch (Exception e) {
-                    logger.error("Unable to copy {} to the '{}' lineup => ",
-                            sourceChannel.getProperties(), destLineup.LINEUP_NAME, e);
-                    continue;
-                }
+                destChannel = new TVChannelImpl(sourceChannel);
             } else {
                 tunable = destChannel.isTunable();
                 ignored = destChannel.isIgnore();
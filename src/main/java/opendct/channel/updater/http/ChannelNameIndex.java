@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.channel.updater.http;
+
+import opendct.channel.ChannelLineup;
+import opendct.channel.TVChannel;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds duplicate channel names while a lineup is being updated.
+ * <p/>
+ * This gives the same answer as <b>ChannelLineup.isDuplicate()</b> without looking at every channel
+ * in the lineup for every channel being updated. Channels added or removed during the update must
+ * also be added or removed here.
+ */
+class ChannelNameIndex {
+    private final Map<String, Set<String>> nameToChannels;
+    private final Map<String, String> channelToName;
+
+    ChannelNameIndex(ChannelLineup channelLineup) {
+        List<TVChannel> channels = channelLineup.getAllChannels(true, true);
+
+        nameToChannels = new HashMap<>(channels.size() * 2);
+        channelToName = new HashMap<>(channels.size() * 2);
+
+        for (TVChannel tvChannel : channels) {
+            put(tvChannel.getChannel(), tvChannel.getName());
+        }
+    }
+
+    /**
+     * Checks if a channel other than this one already has this name.
+     *
+     * @param channel The channel.
+     * @param name The channel name.
+     * @return <i>true</i> if there is a name with a different channel.
+     */
+    boolean isDuplicate(String channel, String name) {
+        Set<String> channels = nameToChannels.get(name);
+
+        if (channels == null || channels.size() == 0) {
+            return false;
+        }
+
+        return !(channels.size() == 1 && channels.contains(channel));
+    }
+
+    void put(String channel, String name) {
+        remove(channel);
+
+        Set<String> channels = nameToChannels.get(name);
+
+        if (channels == null) {
+            channels = new HashSet<>(2);
+            nameToChannels.put(name, channels);
+        }
+
+        channels.add(channel);
+        channelToName.put(channel, name);
+    }
+
+    void remove(String channel) {
+        String name = channelToName.remove(channel);
+
+        if (name != null) {
+            Set<String> channels = nameToChannels.get(name);
+
+            if (channels != null) {
+                channels.remove(channel);
+            }
+        }
+    }
+}
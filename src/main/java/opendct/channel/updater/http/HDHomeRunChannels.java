@@ -36,9 +36,10 @@ import org.w3c.dom.NodeList;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import java.net.HttpURLConnection;
+import java.io.ByteArrayInputStream;
 import java.net.InetAddress;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -130,9 +131,6 @@ public class HDHomeRunChannels {
         boolean isQam = false;
         boolean isAtsc = false;
 
-        HttpURLConnection httpURLConnection = null;
-        //HashSet<String> newChannelList = new HashSet<String>();
-
         try {
             InetAddress ipAddress = null;
             String lookupAddress = channelLineup.getAddress();
@@ -173,15 +171,24 @@ public class HDHomeRunChannels {
             URL url = new URL("http://" + ipAddress.getHostAddress() + ":80/lineup.xml");
             logger.info("Connecting to HDHomeRun using the URL '{}'", url);
 
-            httpURLConnection = (HttpURLConnection) url.openConnection();
-            httpURLConnection.setRequestMethod("GET");
-            httpURLConnection.connect();
+            // The settings change how the lineup is parsed, so a change to any of them is the same
+            // as a change to the lineup.
+            byte content[] = LineupDownload.download(channelLineup, url,
+                    Arrays.toString(ignoreNamesContaining.getArrayValue()) +
+                            Arrays.toString(ignoreChannelNumbers.getArrayValue()) +
+                            removeDuplicateChannels.getBoolean() + enableAllChannels);
+
+            if (content == null) {
+                return logger.exit(true);
+            }
 
             DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
             factory.setValidating(false);
             factory.setIgnoringElementContentWhitespace(true);
             DocumentBuilder documentBuilder = factory.newDocumentBuilder();
-            Document document = documentBuilder.parse(httpURLConnection.getInputStream());
+            Document document = documentBuilder.parse(new ByteArrayInputStream(content));
+            ChannelNameIndex channelNames = new ChannelNameIndex(channelLineup);
+            int updatedChannels = 0;
 
             NodeList programList = null;
 
@@ -250,11 +257,13 @@ public class HDHomeRunChannels {
                         boolean isDuplicate = false;
 
                         if (removeDuplicateChannels.getBoolean() && !isQam) {
-                            isDuplicate = channelLineup.isDuplicate(channel, name);
+                            isDuplicate = channelNames.isDuplicate(channel, name);
 
-                            if (isDuplicate) {
+                            if (isDuplicate && channelLineup.getOriginalChannel(channel) != null) {
                                 try {
                                     channelLineup.removeChannel(channel);
+                                    channelNames.remove(channel);
+                                    updatedChannels++;
                                 } catch (Exception e) {
                                     logger.error("There was a problem removing the duplicate channel => ", e);
                                 }
@@ -264,10 +273,12 @@ public class HDHomeRunChannels {
                         TVChannel oldChannel = channelLineup.getOriginalChannel(channel);
 
                         if (!isDuplicate) {
+                            boolean tunable = enableAllChannels && !channelUrl.contains("?CONTENTPROTECTIONTYPE");
+
                             if (oldChannel == null) {
                                 TVChannelImpl primeChannel = new TVChannelImpl(channel, name, channelUrl, ignore);
 
-                                if (enableAllChannels && !channelUrl.contains("?CONTENTPROTECTIONTYPE")) {
+                                if (tunable) {
                                     primeChannel.setTunable(true);
                                 }
 
@@ -277,31 +288,34 @@ public class HDHomeRunChannels {
                                 }
 
                                 channelLineup.addChannel(primeChannel);
+                                channelNames.put(channel, name);
+                                updatedChannels++;
+
+                            } else if (!channelUrl.equals(oldChannel.getUrl()) ||
+                                    (tunable && !oldChannel.isTunable())) {
 
-                            } else {
-                                oldChannel.setUrl(channelUrl);
+                                // Only the values that are set on the copy are updated.
+                                TVChannel updateChannel = new TVChannelImpl(oldChannel);
+                                updateChannel.setUrl(channelUrl);
 
-                                if (enableAllChannels && !channelUrl.contains("?CONTENTPROTECTIONTYPE")) {
-                                    oldChannel.setTunable(true);
+                                if (tunable) {
+                                    updateChannel.setTunable(true);
                                 }
 
-                                channelLineup.updateChannel(oldChannel);
+                                channelLineup.updateChannel(updateChannel);
+                                updatedChannels++;
                             }
                         }
                     }
                 }
             }
+
+            LineupDownload.commit(channelLineup.LINEUP_NAME);
+            logger.info("Updated {} channels in the lineup '{}'.",
+                    updatedChannels, channelLineup.LINEUP_NAME);
         } catch (Exception e) {
             logger.debug("populateChannels created an unexpected exception => ", e);
             returnValue = false;
-        } finally {
-            try {
-                if (httpURLConnection != null) {
-                    httpURLConnection.disconnect();
-                }
-            } catch (Exception e) {
-                logger.trace("Created an exception while disconnecting => ", e);
-            }
         }
 
         return logger.exit(returnValue);
@@ -28,10 +28,11 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -118,7 +119,6 @@ public class InfiniTVChannels {
 
         boolean returnValue = true;
 
-        HttpURLConnection httpURLConnection = null;
         HashSet<String> newChannelList = new HashSet<String>();
 
         try {
@@ -133,11 +133,21 @@ public class InfiniTVChannels {
             URL url = new URL("http://" + ipAddress.getHostAddress() + ":80/view_channel_map.cgi?page=0");
             logger.info("Connecting to InfiniTV DCT using the URL '{}'", url);
 
-            httpURLConnection = (HttpURLConnection) url.openConnection();
-            httpURLConnection.setRequestMethod("GET");
-            httpURLConnection.connect();
-            InputStreamReader inputStreamReader = new InputStreamReader(httpURLConnection.getInputStream());
+            // The settings change how the lineup is parsed, so a change to any of them is the same
+            // as a change to the lineup.
+            byte content[] = LineupDownload.download(channelLineup, url,
+                    Arrays.toString(ignoreNamesContaining.getArrayValue()) +
+                            Arrays.toString(ignoreChannelNumbers.getArrayValue()) +
+                            removeDuplicateChannels.getBoolean());
+
+            if (content == null) {
+                return logger.exit(true);
+            }
+
+            InputStreamReader inputStreamReader = new InputStreamReader(new ByteArrayInputStream(content));
             BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
+            ChannelNameIndex channelNames = new ChannelNameIndex(channelLineup);
+            int updatedChannels = 0;
 
             boolean parsing = false;
             boolean ignore = false;
@@ -200,11 +210,13 @@ public class InfiniTVChannels {
 
 
                                 if (removeDuplicateChannels.getBoolean()) {
-                                    isDuplicate = channelLineup.isDuplicate(values[0], values[1]);
+                                    isDuplicate = channelNames.isDuplicate(values[0], values[1]);
 
-                                    if (isDuplicate) {
+                                    if (isDuplicate && channelLineup.getOriginalChannel(values[0]) != null) {
                                         try {
                                             channelLineup.removeChannel(values[0]);
+                                            channelNames.remove(values[0]);
+                                            updatedChannels++;
                                         } catch (Exception e) {
                                             logger.error("There was a problem removing the duplicate channel => ", e);
                                         }
@@ -227,35 +239,43 @@ public class InfiniTVChannels {
                                                 ignore);
 
                                         channelLineup.addChannel(infiniTVChannel);
+                                        channelNames.put(values[0], values[1]);
 
                                         updated = true;
                                     } else {
+                                        // Only the values that are set on the copy are updated.
+                                        TVChannel updateChannel = new TVChannelImpl(oldChannel);
+
                                         if (!oldChannel.getModulation().equals(values[2])) {
-                                            oldChannel.setModulation(values[2]);
+                                            updateChannel.setModulation(values[2]);
                                             updated = true;
                                         }
 
                                         if (frequency > 0 && oldChannel.getFrequency() != frequency) {
-                                            oldChannel.setFrequency(frequency);
+                                            updateChannel.setFrequency(frequency);
                                             updated = true;
                                         }
 
                                         if (program > 0 && oldChannel.getProgram() != program) {
-                                            oldChannel.setProgram(program);
+                                            updateChannel.setProgram(program);
                                             updated = true;
                                         }
 
                                         if (oldChannel.isIgnore() != ignore) {
-                                            oldChannel.setIgnore(ignore);
+                                            updateChannel.setIgnore(ignore);
                                             updated = true;
                                         }
 
                                         if (updated) {
                                             logger.debug("Updating channel values...");
-                                            channelLineup.updateChannel(oldChannel);
+                                            channelLineup.updateChannel(updateChannel);
                                         }
                                     }
 
+                                    if (updated) {
+                                        updatedChannels++;
+                                    }
+
                                     if (updated) {
                                         logger.info("Updated InfiniTV channel:" +
                                                         " channel = {}, name = {}, modulation = {}," +
@@ -281,7 +301,13 @@ public class InfiniTVChannels {
                 }
             }
 
-            channelLineup.cleanChannels(newChannelList);
+            if (channelLineup.cleanChannels(newChannelList)) {
+                updatedChannels++;
+            }
+
+            LineupDownload.commit(channelLineup.LINEUP_NAME);
+            logger.info("Updated {} channels in the lineup '{}'.",
+                    updatedChannels, channelLineup.LINEUP_NAME);
 
             /*if (smartSDFilter || removeAllSD) {
                 ArrayList<TVChannel> removeChannels = new ArrayList<TVChannel>();
@@ -352,13 +378,6 @@ public class InfiniTVChannels {
             returnValue = false;
         } finally {
             channelMapLock.writeLock().unlock();
-
-            try {
-                if (httpURLConnection != null) {
-                    httpURLConnection.disconnect();
-                }
-            } catch (Exception e) {
-            }
         }
 
         return logger.exit(returnValue);
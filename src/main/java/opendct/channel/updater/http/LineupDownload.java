@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.channel.updater.http;
+
+import opendct.channel.ChannelLineup;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Downloads channel lineups only when they have changed.
+ * <p/>
+ * The last ETag, Last-Modified and content hash of each lineup are remembered. The next request is
+ * conditional when the server supports it, and when it doesn't, a response with the same content
+ * and the same update settings is skipped without being parsed. A download is only remembered after
+ * <b>commit()</b> is called, so a failed update is always retried with a full download.
+ */
+class LineupDownload {
+    private static final Logger logger = LogManager.getLogger(LineupDownload.class);
+
+    private static final Map<String, Version> versions = new ConcurrentHashMap<>();
+    private static final Map<String, Version> pendingVersions = new ConcurrentHashMap<>();
+
+    private static class Version {
+        private final String eTag;
+        private final String lastModified;
+        private final String hash;
+
+        private Version(String eTag, String lastModified, String hash) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Download a lineup if it has changed since the last committed download.
+     *
+     * @param channelLineup The lineup being updated. A lineup without any channels is always
+     *                      downloaded.
+     * @param url The URL of the lineup.
+     * @param settings The current update settings that change how the lineup is parsed.
+     * @return The content of the lineup or <i>null</i> if it has not changed.
+     * @throws IOException Thrown if the lineup could not be downloaded.
+     */
+    public static byte[] download(ChannelLineup channelLineup, URL url, String settings) throws IOException {
+        String lineupName = channelLineup.LINEUP_NAME;
+        Version lastVersion = channelLineup.hasChannels() ? versions.get(lineupName) : null;
+        pendingVersions.remove(lineupName);
+
+        HttpURLConnection httpURLConnection = null;
+
+        try {
+            httpURLConnection = (HttpURLConnection) url.openConnection();
+            httpURLConnection.setRequestMethod("GET");
+
+            if (lastVersion != null) {
+                if (lastVersion.eTag != null) {
+                    httpURLConnection.setRequestProperty("If-None-Match", lastVersion.eTag);
+                }
+
+                if (lastVersion.lastModified != null) {
+                    httpURLConnection.setRequestProperty("If-Modified-Since", lastVersion.lastModified);
+                }
+            }
+
+            httpURLConnection.connect();
+
+            if (lastVersion != null &&
+                    httpURLConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+
+                logger.info("The lineup '{}' has not been modified.", lineupName);
+                return null;
+            }
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(65536);
+            InputStream inputStream = httpURLConnection.getInputStream();
+
+            try {
+                byte buffer[] = new byte[8192];
+                int bytesRead;
+
+                while ((bytesRead = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, bytesRead);
+                }
+            } finally {
+                inputStream.close();
+            }
+
+            byte content[] = outputStream.toByteArray();
+            String hash = getHash(content, settings);
+
+            if (lastVersion != null && hash.equals(lastVersion.hash)) {
+                logger.info("The lineup '{}' has not changed.", lineupName);
+                return null;
+            }
+
+            pendingVersions.put(lineupName, new Version(
+                    httpURLConnection.getHeaderField("ETag"),
+                    httpURLConnection.getHeaderField("Last-Modified"),
+                    hash));
+
+            return content;
+        } finally {
+            if (httpURLConnection != null) {
+                httpURLConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Remember the last download for a lineup after it has been successfully applied.
+     *
+     * @param lineupName The name of the lineup.
+     */
+    public static void commit(String lineupName) {
+        Version version = pendingVersions.remove(lineupName);
+
+        if (version != null) {
+            versions.put(lineupName, version);
+        }
+    }
+
+    private static String getHash(byte content[], String settings) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+            messageDigest.update(content);
+            messageDigest.update(settings.getBytes(Charset.forName("UTF-8")));
+
+            StringBuilder hash = new StringBuilder(32);
+            for (byte digestByte : messageDigest.digest()) {
+                hash.append(String.format("%02x", digestByte & 0xff));
+            }
+
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5. Without it, nothing will be skipped.
+            logger.warn("Unable to hash the lineup => ", e);
+            return String.valueOf(System.nanoTime());
+        }
+    }
+}
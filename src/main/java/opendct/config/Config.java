@@ -219,6 +219,9 @@ public class Config {
                 logger.fatal("Unable to read the configuration file '{}' => ", filename, e);
                 return logger.exit(false);
             }
+
+            // Anything that was declared before the file was loaded needs to see the loaded values.
+            ConfigRegistry.updateAll();
         } else {
             logger.info("'{}' was not found. A new configuration file will be created with that name on the next save.", filename);
         }
@@ -401,45 +404,35 @@ public class Config {
             return logger.exit(false);
         }
 
-        String filename = getDefaultConfigFilename();
-
-        File file = new File(filename);
-        File fileBackup = new File(filename + ".backup");
-        try {
-            Util.copyFile(file, fileBackup, true);
-        } catch (IOException e) {
-            file.renameTo(fileBackup);
-        }
-
-        FileOutputStream fileOutputStream;
-        try {
-            fileOutputStream = new FileOutputStream(filename);
-        } catch (FileNotFoundException e) {
-            logger.error("Unable to open the configuration file '{}' => {}", filename, e);
-            return logger.exit(false);
-        }
-
-        try {
-            Properties sortedProperties = new Properties() {
-                @Override
-                public synchronized Enumeration<Object> keys() {
-                    return Collections.enumeration(new TreeSet<>(super.keySet()));
-                }
-            };
-            sortedProperties.putAll(properties);
+        // Anything changed while the file is being written will make the configuration dirty
+        // again.
+        isDirty = false;
 
-            sortedProperties.store(fileOutputStream, "OpenDCT Configuration File");
-            fileOutputStream.close();
-        } catch (IOException e) {
-            logger.error("Unable to write the configuration file '{}' => {}", filename, e);
+        if (!ConfigWriter.writeProperties(properties, getDefaultConfigFilename(), "OpenDCT Configuration File")) {
+            isDirty = true;
             return logger.exit(false);
         }
 
-        isDirty = false;
-
         return logger.exit(true);
     }
 
+    /**
+     * Save the configuration on a background thread.
+     * <p/>
+     * Use this instead of <b>saveConfig()</b> when the caller doesn't need to know that the
+     * configuration is on disk before it continues. Saves requested close together are combined.
+     */
+    public static void saveConfigLater() {
+        ConfigWriter.saveLater(getDefaultConfigFilename(), CONFIG_SAVEABLE);
+    }
+
+    private static final ConfigWriter.Saveable CONFIG_SAVEABLE = new ConfigWriter.Saveable() {
+        @Override
+        public boolean saveConfig() {
+            return Config.saveConfig();
+        }
+    };
+
     public static void logCleanup() {
         long minFreeSpace = Config.getLong("log.min_free_space", 1073741824);
         long days = Config.getLong("log.remove_after_days", 30);
@@ -557,6 +550,7 @@ public class Config {
 
         Config.properties.setProperty(key, value);
         isDirty = true;
+        ConfigRegistry.update(key);
 
         logger.exit();
     }
@@ -584,6 +578,7 @@ public class Config {
 
         Config.properties.setProperty(key, Boolean.toString(value));
         isDirty = true;
+        ConfigRegistry.update(key);
 
         logger.exit();
     }
@@ -593,6 +588,7 @@ public class Config {
 
         Config.properties.setProperty(key, Short.toString(value));
         isDirty = true;
+        ConfigRegistry.update(key);
 
         logger.exit();
     }
@@ -602,6 +598,7 @@ public class Config {
 
         Config.properties.setProperty(key, Integer.toString(value));
         isDirty = true;
+        ConfigRegistry.update(key);
 
         logger.exit();
     }
@@ -623,6 +620,7 @@ public class Config {
 
         Config.properties.setProperty(key, mergedArray.toString());
         isDirty = true;
+        ConfigRegistry.update(key);
 
         logger.exit();
     }
@@ -644,6 +642,7 @@ public class Config {
 
         Config.properties.setProperty(key, mergedArray.toString());
         isDirty = true;
+        ConfigRegistry.update(key);
 
         logger.exit();
     }
@@ -653,6 +652,7 @@ public class Config {
 
         Config.properties.setProperty(key, Long.toString(value));
         isDirty = true;
+        ConfigRegistry.update(key);
 
         logger.exit();
     }
@@ -662,6 +662,7 @@ public class Config {
 
         Config.properties.setProperty(key, Float.toString(value));
         isDirty = true;
+        ConfigRegistry.update(key);
 
         logger.exit();
     }
@@ -671,6 +672,7 @@ public class Config {
 
         Config.properties.setProperty(key, Double.toString(value));
         isDirty = true;
+        ConfigRegistry.update(key);
 
         logger.exit();
     }
@@ -872,6 +874,7 @@ public class Config {
 
         properties.setProperty(key, mergedArray.toString());
         isDirty = true;
+        ConfigRegistry.update(key);
 
         logger.exit();
     }
@@ -893,6 +896,7 @@ public class Config {
             properties.setProperty(key, value.getHostAddress());
         }
         isDirty = true;
+        ConfigRegistry.update(key);
 
         logger.exit();
     }
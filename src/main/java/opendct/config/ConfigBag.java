@@ -27,14 +27,14 @@ import java.io.*;
 import java.net.InetAddress;
 import java.util.*;
 
-public class ConfigBag {
+public class ConfigBag implements ConfigWriter.Saveable {
     private static final Logger logger = LogManager.getLogger(ConfigBag.class);
 
     public final String CONFIG_NAME;
     public final String CONFIG_CATEGORY;
     public final String FILE_NAME;
     public final String DIR_NAME;
-    private final Properties properties;
+    private final SortedProperties properties;
     private final boolean setOnGet;
 
     public ConfigBag(String configName, boolean setOnGet) {
@@ -43,7 +43,7 @@ public class ConfigBag {
         FILE_NAME = Config.CONFIG_DIR + Config.DIR_SEPARATOR + configName + ".properties";
         DIR_NAME = Config.CONFIG_DIR;
         this.setOnGet = setOnGet;
-        properties = new Properties();
+        properties = new SortedProperties();
     }
 
     public ConfigBag(String configName, boolean setOnGet, Properties properties) {
@@ -52,7 +52,7 @@ public class ConfigBag {
         FILE_NAME = Config.CONFIG_DIR + Config.DIR_SEPARATOR + configName + ".properties";
         DIR_NAME = Config.CONFIG_DIR;
         this.setOnGet = setOnGet;
-        this.properties = properties;
+        this.properties = sortedProperties(properties);
     }
 
     public ConfigBag(String configName, String category, boolean setOnGet) {
@@ -64,7 +64,7 @@ public class ConfigBag {
 
 
         this.setOnGet = setOnGet;
-        properties = new Properties();
+        properties = new SortedProperties();
     }
 
     public ConfigBag(String configName, String category, boolean setOnGet, Properties properties) {
@@ -75,7 +75,21 @@ public class ConfigBag {
                 Config.DIR_SEPARATOR + configName + ".properties";
 
         this.setOnGet = setOnGet;
-        this.properties = properties;
+        this.properties = sortedProperties(properties);
+    }
+
+    /**
+     * Properties that are not already sorted are copied so root key lookups don't need to check
+     * every key.
+     */
+    private static SortedProperties sortedProperties(Properties properties) {
+        if (properties instanceof SortedProperties) {
+            return (SortedProperties) properties;
+        }
+
+        SortedProperties sortedProperties = new SortedProperties();
+        sortedProperties.putAll(properties);
+        return sortedProperties;
     }
 
     /**
@@ -148,39 +162,16 @@ public class ConfigBag {
             return logger.exit(false);
         }
 
-        File file = new File(FILE_NAME);
-        File fileBackup = new File(FILE_NAME + ".backup");
-        try {
-            Util.copyFile(file, fileBackup, true);
-        } catch (IOException e) {
-            file.renameTo(fileBackup);
-        }
-
-        FileOutputStream fileOutputStream;
-        try {
-            fileOutputStream = new FileOutputStream(FILE_NAME);
-        } catch (FileNotFoundException e) {
-            logger.error("Unable to open the configuration file '{}' => {}", FILE_NAME, e);
-            return logger.exit(false);
-        }
-
-        try {
-            Properties sortedProperties = new Properties() {
-                @Override
-                public synchronized Enumeration<Object> keys() {
-                    return Collections.enumeration(new TreeSet<Object>(super.keySet()));
-                }
-            };
-            sortedProperties.putAll(properties);
-
-            sortedProperties.store(fileOutputStream, CONFIG_NAME + " Configuration File");
-            fileOutputStream.close();
-        } catch (IOException e) {
-            logger.error("Unable to write the configuration file '{}' => {}", FILE_NAME, e);
-            return logger.exit(false);
-        }
+        return logger.exit(ConfigWriter.writeProperties(properties, FILE_NAME, CONFIG_NAME + " Configuration File"));
+    }
 
-        return logger.exit(true);
+    /**
+     * Save the properties on a background thread.
+     * <p/>
+     * Saves requested close together are combined into one save.
+     */
+    public void saveConfigLater() {
+        ConfigWriter.saveLater(FILE_NAME, this);
     }
 
     // This will be used to set all string properties so we can do trace logging if there is any
@@ -792,16 +783,11 @@ public class ConfigBag {
      */
     public Map<String, String> getAllByRootKey(String rootKey) {
 
-        Map<String, String> returnValue = new HashMap<String, String>(100);
-        Enumeration names = properties.propertyNames();
+        SortedMap<String, String> values = properties.getAllByRootKey(rootKey);
+        Map<String, String> returnValue = new HashMap<>(Math.max(16, values.size() * 2));
 
-        while (names.hasMoreElements()) {
-            String key = (String) names.nextElement();
-            if (key.startsWith(rootKey)) {
-                String value = properties.getProperty(key);
-
-                returnValue.put(key.substring(rootKey.length()), value);
-            }
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            returnValue.put(entry.getKey().substring(rootKey.length()), entry.getValue());
         }
 
         return returnValue;
@@ -825,21 +811,7 @@ public class ConfigBag {
         Map<String, String>[] returnValues = new HashMap[rootKeys.length];
 
         for (int i = 0; i < returnValues.length; i++) {
-            returnValues[i] = new HashMap<>(100);
-        }
-
-        Enumeration names = properties.propertyNames();
-
-        while (names.hasMoreElements()) {
-            String key = (String) names.nextElement();
-
-            for (int i = 0; i < returnValues.length; i++) {
-                if (key.startsWith(rootKeys[i])) {
-                    String value = properties.getProperty(key);
-
-                    returnValues[i].put(key.substring(rootKeys[i].length()), value);
-                }
-            }
+            returnValues[i] = getAllByRootKey(rootKeys[i]);
         }
 
         return returnValues;
@@ -862,23 +834,18 @@ public class ConfigBag {
         Map<String, String> returnValue = new HashMap<>(100);
 
         for (String rootKey : rootKeys) {
-            for (Map.Entry<Object, Object> name : properties.entrySet()) {
-                String key = (String) name.getKey();
-
-                if (key.startsWith(rootKey)) {
-                    String putKey = key.substring(rootKey.length());
-                    String value = (String) name.getValue();
-
-                    if (logger.isDebugEnabled()) {
-                        String oldValue = returnValue.get(putKey);
-                        if (oldValue != null) {
-                            logger.debug("'{}' overrides '{}' from '{}' to '{}'", rootKey, putKey, oldValue, value);
-                        }
+            for (Map.Entry<String, String> entry : properties.getAllByRootKey(rootKey).entrySet()) {
+                String putKey = entry.getKey().substring(rootKey.length());
+                String value = entry.getValue();
+
+                if (logger.isDebugEnabled()) {
+                    String oldValue = returnValue.get(putKey);
+                    if (oldValue != null) {
+                        logger.debug("'{}' overrides '{}' from '{}' to '{}'", rootKey, putKey, oldValue, value);
                     }
-
-
-                    returnValue.put(putKey, value);
                 }
+
+                returnValue.put(putKey, value);
             }
         }
 
@@ -891,20 +858,6 @@ public class ConfigBag {
      * @param rootKey This is the root value to use for removal.
      */
     public void removeAllByRootKey(String rootKey) {
-
-        ArrayList<String> removes = new ArrayList<String>(100);
-        Enumeration names = properties.propertyNames();
-
-        while (names.hasMoreElements()) {
-            String key = (String) names.nextElement();
-
-            if (key.startsWith(rootKey)) {
-                removes.add(key);
-            }
-        }
-
-        for(String remove : removes) {
-            properties.remove(remove);
-        }
+        properties.removeAllByRootKey(rootKey);
     }
 }
@@ -0,0 +1,449 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.config;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Typed configuration values that are parsed once.
+ * <p/>
+ * Every <b>Config.getX(key, default)</b> call parses the property string and writes the value back,
+ * so those methods should not be used anywhere that is called often. Instead, declare the key once
+ * as a static field using one of the methods in this class and read it with <b>get()</b>, which only
+ * returns a field. The value is parsed again only when the key is changed through <b>Config</b> or
+ * when the configuration file is loaded, and listeners are notified when the parsed value changes.
+ */
+public class ConfigRegistry {
+    private static final Logger logger = LogManager.getLogger(ConfigRegistry.class);
+
+    private static final ConcurrentHashMap<String, Value> values = new ConcurrentHashMap<>();
+
+    public interface Listener {
+        /**
+         * Called after the parsed value of a key has changed.
+         *
+         * @param value The value that changed.
+         */
+        public void valueChanged(Value value);
+    }
+
+    public static abstract class Value {
+        public final String KEY;
+        private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+        private Value(String key) {
+            KEY = key;
+        }
+
+        public void addListener(Listener listener) {
+            listeners.addIfAbsent(listener);
+        }
+
+        public void removeListener(Listener listener) {
+            listeners.remove(listener);
+        }
+
+        /**
+         * Parse the current property.
+         *
+         * @param property The current property string or <i>null</i> if it is not set.
+         * @return <i>true</i> if the parsed value changed.
+         */
+        protected abstract boolean parse(String property);
+
+        /**
+         * Write the current value to the properties if it isn't already there or is invalid.
+         */
+        protected abstract void store();
+
+        private void update() {
+            boolean changed;
+
+            synchronized (this) {
+                changed = parse(Config.getString(KEY));
+            }
+
+            if (changed) {
+                for (Listener listener : listeners) {
+                    try {
+                        listener.valueChanged(this);
+                    } catch (Exception e) {
+                        logger.error("Unable to notify listener of the change to '{}' => ", KEY, e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return KEY + "=" + Config.getString(KEY);
+        }
+    }
+
+    public static class IntegerValue extends Value {
+        private final int DEFAULT;
+        private final int MIN;
+        private final int MAX;
+        private final boolean CLAMP;
+        private volatile int value;
+
+        private IntegerValue(String key, int defaultValue, int minValue, int maxValue, boolean clamp) {
+            super(key);
+            DEFAULT = defaultValue;
+            MIN = minValue;
+            MAX = maxValue;
+            CLAMP = clamp;
+            value = defaultValue;
+        }
+
+        public int get() {
+            return value;
+        }
+
+        public void set(int value) {
+            Config.setInteger(KEY, value);
+        }
+
+        @Override
+        protected boolean parse(String property) {
+            int newValue = DEFAULT;
+
+            if (property != null) {
+                try {
+                    newValue = Integer.parseInt(property.trim());
+                } catch (NumberFormatException e) {
+                    logger.error("The property '{}' should be an integer, but '{}' was returned. Using the default value of '{}'", KEY, property, DEFAULT);
+                }
+
+                if (CLAMP && (newValue < MIN || newValue > MAX)) {
+                    int clampedValue = Math.max(MIN, Math.min(MAX, newValue));
+                    logger.warn("The property '{}' must be between {} and {}, but '{}' was returned. Using the value '{}'", KEY, MIN, MAX, newValue, clampedValue);
+                    newValue = clampedValue;
+                } else if (newValue < MIN || newValue > MAX) {
+                    logger.error("The property '{}' must be between {} and {}, but '{}' was returned. Using the default value of '{}'", KEY, MIN, MAX, newValue, DEFAULT);
+                    newValue = DEFAULT;
+                }
+            }
+
+            boolean changed = newValue != value;
+            value = newValue;
+            return changed;
+        }
+
+        @Override
+        protected void store() {
+            String property = Config.getString(KEY);
+
+            if (CLAMP && property != null) {
+                try {
+                    // Clamped values are used as they are configured, so they are never invalid.
+                    Integer.parseInt(property.trim());
+                    return;
+                } catch (NumberFormatException e) {
+                    // Replace the invalid value with the default.
+                }
+            }
+
+            if (!Integer.toString(value).equals(property)) {
+                Config.setInteger(KEY, value);
+            }
+        }
+    }
+
+    public static class LongValue extends Value {
+        private final long DEFAULT;
+        private volatile long value;
+
+        private LongValue(String key, long defaultValue) {
+            super(key);
+            DEFAULT = defaultValue;
+            value = defaultValue;
+        }
+
+        public long get() {
+            return value;
+        }
+
+        public void set(long value) {
+            Config.setLong(KEY, value);
+        }
+
+        @Override
+        protected boolean parse(String property) {
+            long newValue = DEFAULT;
+
+            if (property != null) {
+                try {
+                    newValue = Long.parseLong(property.trim());
+                } catch (NumberFormatException e) {
+                    logger.error("The property '{}' should be a long, but '{}' was returned. Using the default value of '{}'", KEY, property, DEFAULT);
+                }
+            }
+
+            boolean changed = newValue != value;
+            value = newValue;
+            return changed;
+        }
+
+        @Override
+        protected void store() {
+            if (!Long.toString(value).equals(Config.getString(KEY))) {
+                Config.setLong(KEY, value);
+            }
+        }
+    }
+
+    public static class BooleanValue extends Value {
+        private final boolean DEFAULT;
+        private volatile boolean value;
+
+        private BooleanValue(String key, boolean defaultValue) {
+            super(key);
+            DEFAULT = defaultValue;
+            value = defaultValue;
+        }
+
+        public boolean get() {
+            return value;
+        }
+
+        public void set(boolean value) {
+            Config.setBoolean(KEY, value);
+        }
+
+        @Override
+        protected boolean parse(String property) {
+            boolean newValue = property == null ? DEFAULT : Boolean.valueOf(property.trim().toLowerCase());
+
+            boolean changed = newValue != value;
+            value = newValue;
+            return changed;
+        }
+
+        @Override
+        protected void store() {
+            if (!Boolean.toString(value).equals(Config.getString(KEY))) {
+                Config.setBoolean(KEY, value);
+            }
+        }
+    }
+
+    public static class StringValue extends Value {
+        private final String DEFAULT;
+        private volatile String value;
+
+        private StringValue(String key, String defaultValue) {
+            super(key);
+            DEFAULT = defaultValue;
+            value = defaultValue;
+        }
+
+        public String get() {
+            return value;
+        }
+
+        public void set(String value) {
+            Config.setString(KEY, value);
+        }
+
+        @Override
+        protected boolean parse(String property) {
+            String newValue = property == null ? DEFAULT : property;
+
+            boolean changed = !newValue.equals(value);
+            value = newValue;
+            return changed;
+        }
+
+        @Override
+        protected void store() {
+            if (Config.getString(KEY) == null) {
+                Config.setString(KEY, value);
+            }
+        }
+    }
+
+    public static class StringArrayValue extends Value {
+        private final String DEFAULT[];
+        private volatile String value[];
+
+        private StringArrayValue(String key, String... defaultValues) {
+            super(key);
+            DEFAULT = defaultValues;
+            value = defaultValues;
+        }
+
+        /**
+         * Get the current values.
+         * <p/>
+         * The same array is returned to every caller until the property changes, so it must not be
+         * modified.
+         *
+         * @return The current values.
+         */
+        public String[] get() {
+            return value;
+        }
+
+        public void set(String... values) {
+            Config.setStringArray(KEY, values);
+        }
+
+        @Override
+        protected boolean parse(String property) {
+            String newValue[];
+
+            if (property == null) {
+                newValue = DEFAULT;
+            } else if (property.trim().equals("")) {
+                newValue = new String[0];
+            } else {
+                // The parsing regex will tolerate white space between commas.
+                newValue = property.trim().split("\\s*,\\s*");
+            }
+
+            boolean changed = !Arrays.equals(newValue, value);
+
+            if (changed) {
+                value = newValue;
+            }
+
+            return changed;
+        }
+
+        @Override
+        protected void store() {
+            if (Config.getString(KEY) == null) {
+                Config.setStringArray(KEY, value);
+            }
+        }
+    }
+
+    /**
+     * Declare an integer property.
+     *
+     * @param key The key for this property.
+     * @param defaultValue The value to use when the property is not set or is not a valid integer.
+     * @return The value for this key.
+     */
+    public static IntegerValue integerValue(String key, int defaultValue) {
+        return integerValue(key, defaultValue, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Declare an integer property with a valid range.
+     *
+     * @param key The key for this property.
+     * @param defaultValue The value to use when the property is not set or is out of range.
+     * @param minValue The smallest valid value.
+     * @param maxValue The largest valid value.
+     * @return The value for this key.
+     */
+    public static IntegerValue integerValue(String key, int defaultValue, int minValue, int maxValue) {
+        return register(new IntegerValue(key, defaultValue, minValue, maxValue, false), IntegerValue.class);
+    }
+
+    /**
+     * Declare an integer property that is limited to a range.
+     * <p/>
+     * Unlike {@link #integerValue(String, int, int, int)}, a value outside of the range is changed
+     * to the nearest value in the range instead of the default value.
+     *
+     * @param key The key for this property.
+     * @param defaultValue The value to use when the property is not set or is not a valid integer.
+     * @param minValue The smallest value that will be used.
+     * @param maxValue The largest value that will be used.
+     * @return The value for this key.
+     */
+    public static IntegerValue clampedIntegerValue(String key, int defaultValue, int minValue, int maxValue) {
+        return register(new IntegerValue(key, defaultValue, minValue, maxValue, true), IntegerValue.class);
+    }
+
+    public static LongValue longValue(String key, long defaultValue) {
+        return register(new LongValue(key, defaultValue), LongValue.class);
+    }
+
+    public static BooleanValue booleanValue(String key, boolean defaultValue) {
+        return register(new BooleanValue(key, defaultValue), BooleanValue.class);
+    }
+
+    public static StringValue stringValue(String key, String defaultValue) {
+        return register(new StringValue(key, defaultValue), StringValue.class);
+    }
+
+    public static StringArrayValue stringArrayValue(String key, String... defaultValues) {
+        return register(new StringArrayValue(key, defaultValues), StringArrayValue.class);
+    }
+
+    private static <T extends Value> T register(T value, Class<T> valueClass) {
+        Value existing = values.get(value.KEY);
+
+        if (existing == null) {
+            synchronized (value) {
+                value.parse(Config.getString(value.KEY));
+                // The value isn't registered yet, so this will not parse the property again.
+                value.store();
+            }
+
+            existing = values.putIfAbsent(value.KEY, value);
+
+            if (existing == null) {
+                return value;
+            }
+        }
+
+        if (!valueClass.isInstance(existing)) {
+            throw new IllegalArgumentException("The property '" + value.KEY +
+                    "' is already declared as " + existing.getClass().getSimpleName() + ".");
+        }
+
+        return valueClass.cast(existing);
+    }
+
+    /**
+     * Parse a property again if it has been declared.
+     * <p/>
+     * This is called by <b>Config</b> every time a property is set.
+     *
+     * @param key The key that was set.
+     */
+    protected static void update(String key) {
+        Value value = values.get(key);
+
+        if (value != null) {
+            value.update();
+        }
+    }
+
+    /**
+     * Parse all declared properties again and write back any that are missing.
+     */
+    protected static void updateAll() {
+        for (Value value : values.values()) {
+            value.update();
+
+            synchronized (value) {
+                value.store();
+            }
+        }
+    }
+}
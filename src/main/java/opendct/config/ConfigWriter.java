@@ -0,0 +1,244 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.config;
+
+import opendct.power.PowerEventListener;
+import opendct.util.Util;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes configuration files in the background.
+ * <p/>
+ * Saves requested with <b>saveLater()</b> are coalesced per file, so any number of changes made
+ * within <b>config.save_delay_ms</b> of the first request are written once on a background thread.
+ * All pending saves are written immediately when the computer is about to be suspended and when the
+ * program is shutting down. After <b>stop()</b> is called, saves are written on the calling
+ * thread.
+ * <p/>
+ * Every file is written to a temporary file first and then renamed over the old file, so a crash
+ * during a save will never leave a partially written configuration.
+ */
+public class ConfigWriter implements PowerEventListener {
+    private static final Logger logger = LogManager.getLogger(ConfigWriter.class);
+
+    public static final PowerEventListener POWER_EVENT_LISTENER = new ConfigWriter();
+
+    private static final ConfigRegistry.IntegerValue saveDelay =
+            ConfigRegistry.integerValue("config.save_delay_ms", 5000, 0, 300000);
+
+    private static final ConcurrentHashMap<String, Saveable> pendingSaves = new ConcurrentHashMap<>();
+    private static final ScheduledThreadPoolExecutor saveExecutor =
+            new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable);
+                    thread.setName("ConfigWriter-" + thread.getId());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static volatile boolean stopped = false;
+
+    public interface Saveable {
+        /**
+         * Write the current configuration.
+         *
+         * @return <i>true</i> if the configuration was saved.
+         */
+        public boolean saveConfig();
+    }
+
+    private ConfigWriter() {
+    }
+
+    /**
+     * Save a configuration file on the background thread.
+     * <p/>
+     * If a save for the same file is already pending, this does nothing since the pending save
+     * will write the latest values.
+     *
+     * @param fileName The full path of the file that will be saved. This only identifies the save.
+     * @param saveable The object that will be saved.
+     */
+    public static void saveLater(final String fileName, Saveable saveable) {
+        if (stopped) {
+            saveable.saveConfig();
+            return;
+        }
+
+        if (pendingSaves.putIfAbsent(fileName, saveable) != null) {
+            return;
+        }
+
+        saveExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                save(fileName);
+            }
+        }, saveDelay.get(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Write all pending saves on the calling thread.
+     */
+    public static void flush() {
+        for (String fileName : pendingSaves.keySet()) {
+            save(fileName);
+        }
+    }
+
+    /**
+     * Write all pending saves and stop saving in the background.
+     * <p/>
+     * This is called when the program is shutting down.
+     */
+    public static void stop() {
+        stopped = true;
+        flush();
+
+        // Everything delayed was just written, so only a save that is already running needs to
+        // finish.
+        saveExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        saveExecutor.shutdown();
+
+        try {
+            saveExecutor.awaitTermination(5000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            logger.debug("Waiting for the last save was interrupted.");
+        }
+    }
+
+    private static void save(String fileName) {
+        Saveable saveable = pendingSaves.remove(fileName);
+
+        if (saveable == null) {
+            // This was already saved by a flush.
+            return;
+        }
+
+        try {
+            if (!saveable.saveConfig()) {
+                logger.warn("Unable to save '{}'.", fileName);
+            }
+        } catch (Exception e) {
+            logger.error("Unable to save '{}' => ", fileName, e);
+        }
+    }
+
+    /**
+     * Sort properties alphabetically and write them over a file.
+     * <p/>
+     * The properties are written to a temporary file that then replaces the current file. A copy
+     * of the current file is kept with the extension <b>.backup</b>.
+     *
+     * @param properties The properties to save. These are copied while holding their lock.
+     * @param fileName The full path of the file to write.
+     * @param comment The comment at the top of the file.
+     * @return <i>true</i> if the file was written.
+     */
+    public static boolean writeProperties(Properties properties, String fileName, String comment) {
+        Properties sortedProperties = new Properties() {
+            @Override
+            public synchronized Enumeration<Object> keys() {
+                return Collections.enumeration(new TreeSet<>(super.keySet()));
+            }
+        };
+
+        // Hashtable doesn't lock itself while another map copies it.
+        synchronized (properties) {
+            for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+                sortedProperties.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        File file = new File(fileName);
+        File fileBackup = new File(fileName + ".backup");
+        File fileTemp = new File(fileName + ".tmp");
+
+        try {
+            FileOutputStream fileOutputStream = new FileOutputStream(fileTemp);
+
+            try {
+                sortedProperties.store(fileOutputStream, comment);
+                fileOutputStream.getFD().sync();
+            } finally {
+                fileOutputStream.close();
+            }
+        } catch (IOException e) {
+            logger.error("Unable to write the configuration file '{}' => {}", fileTemp, e);
+            fileTemp.delete();
+            return false;
+        }
+
+        if (file.exists()) {
+            try {
+                Util.copyFile(file, fileBackup, true);
+            } catch (IOException e) {
+                logger.warn("Unable to create the backup '{}' => {}", fileBackup, e);
+            }
+        }
+
+        try {
+            try {
+                Files.move(fileTemp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(fileTemp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.error("Unable to replace the configuration file '{}' => {}", fileName, e);
+            return false;
+        }
+
+        return true;
+    }
+
+    public void onSuspendEvent() {
+        logger.debug("onSuspendEvent: Writing pending configuration saves.");
+        flush();
+    }
+
+    public void onResumeSuspendEvent() {
+        // Nothing is stopped on suspend.
+    }
+
+    public void onResumeCriticalEvent() {
+        // Nothing is stopped on suspend.
+    }
+
+    public void onResumeAutomaticEvent() {
+        // Nothing is stopped on suspend.
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Properties that also keep their keys sorted.
+ * <p/>
+ * All properties with the same root key can be found in O(log n + k) time instead of checking
+ * every key. The sorted keys are updated by <b>put()</b>, <b>remove()</b> and <b>clear()</b>, which
+ * covers <b>setProperty()</b>, <b>load()</b> and <b>putAll()</b>. Only <i>String</i> keys and
+ * values are indexed.
+ */
+public class SortedProperties extends Properties {
+    private static final long serialVersionUID = 1L;
+
+    private final TreeMap<String, String> sortedKeys = new TreeMap<>();
+
+    public SortedProperties() {
+        super();
+    }
+
+    @Override
+    public synchronized Object put(Object key, Object value) {
+        Object oldValue = super.put(key, value);
+
+        if (key instanceof String) {
+            if (value instanceof String) {
+                sortedKeys.put((String) key, (String) value);
+            } else {
+                sortedKeys.remove(key);
+            }
+        }
+
+        return oldValue;
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+        Object oldValue = super.remove(key);
+
+        if (key instanceof String) {
+            sortedKeys.remove(key);
+        }
+
+        return oldValue;
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        sortedKeys.clear();
+    }
+
+    /**
+     * Returns the keys in order so that saved files are sorted.
+     */
+    @Override
+    public synchronized Enumeration<Object> keys() {
+        return Collections.enumeration(new ArrayList<Object>(sortedKeys.keySet()));
+    }
+
+    /**
+     * Get all properties that start with a root key.
+     *
+     * @param rootKey The root key.
+     * @return A sorted copy of the matching properties with their full keys.
+     */
+    public synchronized SortedMap<String, String> getAllByRootKey(String rootKey) {
+        TreeMap<String, String> returnValue = new TreeMap<>();
+
+        for (Map.Entry<String, String> entry : sortedKeys.tailMap(rootKey, true).entrySet()) {
+            if (!entry.getKey().startsWith(rootKey)) {
+                break;
+            }
+
+            returnValue.put(entry.getKey(), entry.getValue());
+        }
+
+        return returnValue;
+    }
+
+    /**
+     * Remove all properties that start with a root key.
+     *
+     * @param rootKey The root key.
+     * @return The number of properties removed.
+     */
+    public synchronized int removeAllByRootKey(String rootKey) {
+        int removed = 0;
+        Iterator<String> keys = sortedKeys.tailMap(rootKey, true).keySet().iterator();
+
+        while (keys.hasNext()) {
+            String key = keys.next();
+
+            if (!key.startsWith(rootKey)) {
+                break;
+            }
+
+            keys.remove();
+            super.remove(key);
+            removed++;
+        }
+
+        return removed;
+    }
+}
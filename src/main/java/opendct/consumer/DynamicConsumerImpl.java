@@ -254,6 +254,13 @@ public class DynamicConsumerImpl implements SageTVConsumer {
         return consumer != null ? consumer.getBytesStreamed() : 0;
     }
 
+    @Override
+    public long getBytesStreamedNonBlocking() {
+        SageTVConsumer consumer = sageTVConsumer;
+
+        return consumer != null ? consumer.getBytesStreamedNonBlocking() : 0;
+    }
+
     @Override
     public boolean acceptsUploadID() {
         SageTVConsumer consumer = sageTVConsumer;
@@ -516,7 +523,7 @@ public class DynamicConsumerImpl implements SageTVConsumer {
 
         updateDynamicMap();
 
-        Config.saveConfig();
+        Config.saveConfigLater();
     }
 
     private static class ConsumerDeviceOption extends StringDeviceOption {
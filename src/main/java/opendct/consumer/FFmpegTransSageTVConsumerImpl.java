@@ -249,6 +249,11 @@ public class FFmpegTransSageTVConsumerImpl implements SageTVConsumer {
         return bytesStreamed;
     }
 
+    @Override
+    public long getBytesStreamedNonBlocking() {
+        return bytesStreamed;
+    }
+
     @Override
     public boolean acceptsUploadID() {
         return acceptsUploadID;
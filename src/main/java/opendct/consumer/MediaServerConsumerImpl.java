@@ -52,6 +52,11 @@ public class MediaServerConsumerImpl implements SageTVConsumer {
     // crucial to playback actually starting in SageTV.
     private AtomicLong bytesStreamed = new AtomicLong(0);
 
+    // This is how often the consumer thread asks MediaServer for the file size so that
+    // bytesStreamed can be read without blocking.
+    private static final long SIZE_REFRESH_INTERVAL = 250;
+    private long nextSizeRefresh = 0;
+
     private AtomicBoolean running = new AtomicBoolean(false);
     private long stvRecordBufferSize = 0;
 
@@ -186,6 +191,10 @@ public class MediaServerConsumerImpl implements SageTVConsumer {
 
                             switchFile = false;
 
+                            // The size now comes from the new file.
+                            bytesStreamed.set(0);
+                            nextSizeRefresh = 0;
+
                             logger.info("SWITCH successful.");
                             switchMonitor.notifyAll();
                         }
@@ -216,6 +225,8 @@ public class MediaServerConsumerImpl implements SageTVConsumer {
 
                 if (consumeToNull) {
                     bytesStreamed.addAndGet(bytesToStream);
+                } else if (currentInit) {
+                    refreshBytesStreamed();
                 }
 
                 streamBuffer.clear();
@@ -311,6 +322,39 @@ public class MediaServerConsumerImpl implements SageTVConsumer {
         return 0;
     }
 
+    @Override
+    public long getBytesStreamedNonBlocking() {
+        if (consumeToNull || currentInit) {
+            return bytesStreamed.get();
+        }
+
+        return 0;
+    }
+
+    /**
+     * Updates the number of bytes streamed from MediaServer if it hasn't been updated recently.
+     * <p/>
+     * This is only called by the consumer thread between uploads so requests from SageTV never
+     * need to wait on MediaServer for the current size.
+     */
+    private void refreshBytesStreamed() {
+        long currentTime = System.currentTimeMillis();
+
+        if (currentTime < nextSizeRefresh) {
+            return;
+        }
+
+        nextSizeRefresh = currentTime + SIZE_REFRESH_INTERVAL;
+
+        synchronized (switchMonitor) {
+            try {
+                bytesStreamed.set(mediaServer.getSize());
+            } catch (IOException e) {
+                logger.debug("Unable to get bytes from MediaServer => ", e);
+            }
+        }
+    }
+
     @Override
     public boolean acceptsUploadID() {
         return true;
@@ -598,6 +642,6 @@ public class MediaServerConsumerImpl implements SageTVConsumer {
         minTransferSizeOpt.setValue((minTransferSizeOpt.getInteger() / 188) * 188);
         maxTransferSizeOpt.setValue((maxTransferSizeOpt.getInteger() / 188) * 188);
 
-        Config.saveConfig();
+        Config.saveConfigLater();
     }
 }
@@ -440,6 +440,10 @@ public class RawSageTVConsumerImpl implements SageTVConsumer {
         return bytesStreamed;
     }
 
+    public long getBytesStreamedNonBlocking() {
+        return bytesStreamed;
+    }
+
     public boolean acceptsUploadID() {
         return acceptsUploadID;
     }
@@ -720,7 +724,7 @@ public class RawSageTVConsumerImpl implements SageTVConsumer {
             Config.setDeviceOption(optionReference);
         }
 
-        Config.saveConfig();
+        Config.saveConfigLater();
     }
 }
 
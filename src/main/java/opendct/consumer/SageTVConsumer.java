@@ -124,6 +124,17 @@ public interface SageTVConsumer extends Runnable, DeviceOptions {
      */
     public long getBytesStreamed();
 
+    /**
+     * Get the current number of bytes streamed without blocking.
+     * <p/>
+     * This is used to answer SageTV on a selector thread, so it must only read a counter that is
+     * updated by the consumer.
+     *
+     * @return The number of bytes streamed or -1 if this consumer can only get the number of bytes
+     *         streamed by blocking.
+     */
+    public long getBytesStreamedNonBlocking();
+
     /**
      * Can this consumer record directly to a file via uploadID?
      * <p/>
@@ -17,6 +17,7 @@
 package opendct.consumer.upload;
 
 import opendct.config.Config;
+import opendct.util.TuneTracer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -102,7 +103,13 @@ public class NIOSageTVMediaServer {
             }
         }
 
-        return logger.exit(response != null && response.equals("OK"));
+        boolean returnValue = response != null && response.equals("OK");
+
+        if (returnValue) {
+            TuneTracer.phase(TuneTracer.UPLOAD_CONNECTED);
+        }
+
+        return logger.exit(returnValue);
     }
 
     public boolean setupRemux(String containerFormat, boolean isTV) throws IOException {
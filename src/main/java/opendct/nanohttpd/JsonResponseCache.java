@@ -0,0 +1,303 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.nanohttpd;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import fi.iki.elonen.NanoHTTPD;
+import opendct.channel.ChannelLineup;
+import opendct.config.Config;
+import opendct.config.ConfigRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serializes JSON responses and caches them until something they could depend on changes.
+ * <p/>
+ * Every cached response is tagged with the generation that was current before it was built. Any
+ * change to capture devices, lineups or options increments the generation, so a response built
+ * from older data is never returned. Channels change far too often during scans to invalidate the
+ * cache every time, so responses built from channels also record the generation of each lineup
+ * they read. Only those responses expire when a channel in one of their lineups changes, so a scan
+ * of one lineup doesn't affect anything else. Responses are also limited to a maximum age since
+ * not every live value, like signal strength, is tracked.
+ */
+public class JsonResponseCache {
+    private static final Logger logger = LogManager.getLogger(JsonResponseCache.class);
+
+    public static final String MIME_TYPE = "application/json";
+
+    // Responses smaller than this are not worth compressing.
+    private static final int GZIP_MIN_BYTES = 1024;
+
+    private static final boolean prettyPrinting = Config.getBoolean("web.json_pretty_printing", false);
+    private static final ConfigRegistry.IntegerValue cacheMs =
+            ConfigRegistry.integerValue("web.json_cache_ms", 30000, 0, 3600000);
+    private static final ConfigRegistry.IntegerValue liveCacheMs =
+            ConfigRegistry.integerValue("web.json_live_cache_ms", 1000, 0, 60000);
+    private static final ConfigRegistry.IntegerValue maxEntries =
+            ConfigRegistry.integerValue("web.json_cache_entries", 64, 0, 4096);
+
+    private static final AtomicLong generation = new AtomicLong(0);
+    private static final ConcurrentHashMap<String, CachedResponse> cache = new ConcurrentHashMap<>();
+
+    /**
+     * The channel lineups a response is built from and their generations.
+     * <p/>
+     * Add each lineup before reading any channels from it so a change that happens while the
+     * response is being built isn't missed.
+     */
+    public static class LineupGenerations {
+        private final List<ChannelLineup> lineups = new ArrayList<>(1);
+        private final List<Long> generations = new ArrayList<>(1);
+
+        public void add(ChannelLineup lineup) {
+            lineups.add(lineup);
+            generations.add(lineup.getGeneration());
+        }
+
+        private boolean isCurrent() {
+            for (int i = 0; i < lineups.size(); i++) {
+                if (lineups.get(i).getGeneration() != generations.get(i)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    private static class CachedResponse {
+        private final long GENERATION;
+        private final LineupGenerations LINEUPS;
+        private final long CREATED;
+        private final boolean LIVE;
+        private final byte[] JSON;
+        private volatile byte[] gzip;
+
+        private CachedResponse(long generation, LineupGenerations lineups, boolean live, byte[] json) {
+            GENERATION = generation;
+            LINEUPS = lineups;
+            CREATED = System.currentTimeMillis();
+            LIVE = live;
+            JSON = json;
+        }
+
+        private boolean isCurrent() {
+            return GENERATION == generation.get() &&
+                    (LINEUPS == null || LINEUPS.isCurrent()) &&
+                    System.currentTimeMillis() - CREATED < (LIVE ? liveCacheMs.get() : cacheMs.get());
+        }
+    }
+
+    /**
+     * Applies the configured output formatting to a builder.
+     * <p/>
+     * Responses are compact unless <i>web.json_pretty_printing</i> is enabled.
+     *
+     * @param gsonBuilder The builder to configure.
+     * @return The same builder.
+     */
+    public static GsonBuilder format(GsonBuilder gsonBuilder) {
+        if (prettyPrinting) {
+            gsonBuilder.setPrettyPrinting();
+        }
+
+        return gsonBuilder;
+    }
+
+    /**
+     * Get the current generation.
+     * <p/>
+     * Get this before reading anything used to build a response and pass it to
+     * {@link #newResponse(NanoHTTPD.IHTTPSession, long, boolean, Gson, Object, Type)} so a
+     * change that happens while the response is being built isn't missed.
+     */
+    public static long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Discards every cached response.
+     * <p/>
+     * Call this any time capture devices, lineups or options are changed. Channel changes are
+     * picked up from the lineup generations recorded with each response without calling this.
+     */
+    public static void invalidate() {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+    /**
+     * Get a cached response for this request.
+     *
+     * @param session The current request.
+     * @return A new response with the cached content or <i>null</i> if nothing current is cached.
+     */
+    public static NanoHTTPD.Response getResponse(NanoHTTPD.IHTTPSession session) {
+        CachedResponse cachedResponse = cache.get(getKey(session));
+
+        if (cachedResponse == null || !cachedResponse.isCurrent()) {
+            return null;
+        }
+
+        return toResponse(session, cachedResponse);
+    }
+
+    public static NanoHTTPD.Response newResponse(NanoHTTPD.IHTTPSession session, long generation,
+                                                 boolean live, Gson gson, Object src) {
+
+        return newResponse(session, generation, null, live, gson, src, src.getClass());
+    }
+
+    public static NanoHTTPD.Response newResponse(NanoHTTPD.IHTTPSession session, long generation,
+                                                 boolean live, Gson gson, Object src, Type typeOfSrc) {
+
+        return newResponse(session, generation, null, live, gson, src, typeOfSrc);
+    }
+
+    public static NanoHTTPD.Response newResponse(NanoHTTPD.IHTTPSession session, long generation,
+                                                 LineupGenerations lineups, boolean live,
+                                                 Gson gson, Object src) {
+
+        return newResponse(session, generation, lineups, live, gson, src, src.getClass());
+    }
+
+    /**
+     * Serializes a response and caches it if nothing has changed since the provided generation.
+     * <p/>
+     * The JSON is written directly as UTF-8 bytes, so there is never an intermediate string.
+     *
+     * @param session The current request.
+     * @param generation The generation returned by {@link #getGeneration()} before anything used by
+     *                   the response was read.
+     * @param lineups The lineups the response was built from or <i>null</i> if it doesn't contain
+     *                any channels.
+     * @param live <i>true</i> if the response contains values that change without invalidating the
+     *             cache, like recording statistics. These use the shorter live cache time.
+     * @param gson The configured serializer.
+     * @param src The object to serialize.
+     * @param typeOfSrc The type to serialize the object as.
+     * @return The response to be sent.
+     */
+    public static NanoHTTPD.Response newResponse(NanoHTTPD.IHTTPSession session, long generation,
+                                                 LineupGenerations lineups, boolean live,
+                                                 Gson gson, Object src, Type typeOfSrc) {
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(8192);
+        Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+
+        try {
+            gson.toJson(src, typeOfSrc, writer);
+            writer.flush();
+        } catch (IOException e) {
+            // This only writes to memory, so this should never happen.
+            logger.error("Unable to serialize JSON response => ", e);
+        }
+
+        CachedResponse cachedResponse = new CachedResponse(generation, lineups, live, outputStream.toByteArray());
+
+        if ((live ? liveCacheMs.get() : cacheMs.get()) > 0 && generation == getGeneration()) {
+            if (cache.size() >= maxEntries.get()) {
+                cache.clear();
+            }
+
+            // Checking the generation again ensures an invalidation that happened while we were
+            // adding this response will not leave it in the cache.
+            if (maxEntries.get() > 0) {
+                String key = getKey(session);
+                cache.put(key, cachedResponse);
+
+                if (generation != getGeneration()) {
+                    cache.remove(key, cachedResponse);
+                }
+            }
+        }
+
+        return toResponse(session, cachedResponse);
+    }
+
+    private static String getKey(NanoHTTPD.IHTTPSession session) {
+        String query = session.getQueryParameterString();
+
+        return query == null ? session.getUri() : session.getUri() + "?" + query;
+    }
+
+    private static NanoHTTPD.Response toResponse(NanoHTTPD.IHTTPSession session, CachedResponse cachedResponse) {
+        byte content[] = cachedResponse.JSON;
+        boolean gzip = false;
+
+        if (content.length >= GZIP_MIN_BYTES && acceptsGzip(session)) {
+            byte gzipContent[] = cachedResponse.gzip;
+
+            if (gzipContent == null) {
+                gzipContent = compress(content);
+                cachedResponse.gzip = gzipContent;
+            }
+
+            if (gzipContent != null) {
+                content = gzipContent;
+                gzip = true;
+            }
+        }
+
+        NanoHTTPD.Response response = NanoHTTPD.newFixedLengthResponse(
+                NanoHTTPD.Response.Status.OK, MIME_TYPE,
+                new ByteArrayInputStream(content), content.length);
+
+        // The content is already compressed when needed, so NanoServlet will not compress it again.
+        if (gzip) {
+            response.addHeader("Content-Encoding", "gzip");
+        }
+        response.addHeader("Vary", "Accept-Encoding");
+
+        return response;
+    }
+
+    private static boolean acceptsGzip(NanoHTTPD.IHTTPSession session) {
+        String acceptEncoding = session.getHeaders().get("accept-encoding");
+
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+    private static byte[] compress(byte content[]) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(content.length / 4);
+
+        try {
+            GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
+            gzipOutputStream.write(content);
+            gzipOutputStream.close();
+        } catch (IOException e) {
+            logger.error("Unable to compress JSON response => ", e);
+            return null;
+        }
+
+        return outputStream.toByteArray();
+    }
+}
@@ -15,6 +15,7 @@
 
 package opendct.nanohttpd;
 
+import fi.iki.elonen.NanoHTTPD;
 import fi.iki.elonen.router.RouterNanoHTTPD;
 import opendct.nanohttpd.servlets.*;
 
@@ -73,5 +74,31 @@ public class NanoServlet extends RouterNanoHTTPD {
         // GET: Get the properties for a discoverer or multiple discoverers
         // POST: Set the properties for a discoverer or multiple discoverers
         addRoute("/discovery/:discoverer", DiscovererJsonServlet.GetPost.class);
+
+        // GET: Get tuning latency histograms by phase, capture device and channel
+        addRoute("/latency", TuneLatencyJsonServlet.List.class);
+    }
+
+    @Override
+    public NanoHTTPD.Response serve(NanoHTTPD.IHTTPSession session) {
+        NanoHTTPD.Response response = super.serve(session);
+
+        // Anything other than GET can change capture devices, lineups or options, so the cached
+        // responses can't be trusted anymore.
+        if (session.getMethod() != NanoHTTPD.Method.GET) {
+            JsonResponseCache.invalidate();
+        }
+
+        return response;
+    }
+
+    @Override
+    protected boolean useGzipWhenAccepted(NanoHTTPD.Response r) {
+        // Cached JSON responses are compressed once ahead of time.
+        if (r.getHeader("content-encoding") != null) {
+            return false;
+        }
+
+        return super.useGzipWhenAccepted(r) || JsonResponseCache.MIME_TYPE.equals(r.getMimeType());
     }
 }
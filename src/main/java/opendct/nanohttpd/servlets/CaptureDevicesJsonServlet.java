@@ -26,6 +26,7 @@ import opendct.capture.CaptureDevice;
 import opendct.capture.CaptureDeviceIgnoredException;
 import opendct.config.options.DeviceOptionException;
 import opendct.nanohttpd.HttpUtil;
+import opendct.nanohttpd.JsonResponseCache;
 import opendct.nanohttpd.pojo.JsonException;
 import opendct.nanohttpd.pojo.JsonOption;
 import opendct.nanohttpd.serializer.CaptureDevicesSerializer;
@@ -50,13 +51,25 @@ public class CaptureDevicesJsonServlet {
 
     static {
         gsonBuilder.registerTypeAdapter(DiscoveredDevice.class, new CaptureDevicesSerializer());
-        gsonBuilder.setPrettyPrinting();
+        JsonResponseCache.format(gsonBuilder);
         gson = gsonBuilder.create();
     }
 
     public static class List extends DefaultHandler {
         @Override
         public String getText() {
+            return "error";
+        }
+
+        @Override
+        public NanoHTTPD.Response get(UriResource uriResource, Map<String, String> urlParams, NanoHTTPD.IHTTPSession session) {
+            NanoHTTPD.Response cachedResponse = JsonResponseCache.getResponse(session);
+
+            if (cachedResponse != null) {
+                return cachedResponse;
+            }
+
+            long generation = JsonResponseCache.getGeneration();
             DiscoveredDevice devices[] = DiscoveryManager.getDiscoveredDevices();
             int returnValues[] = new int[devices.length];
 
@@ -65,7 +78,7 @@ public class CaptureDevicesJsonServlet {
                 returnValues[i] = devices[i].getId();
             }
 
-            return gson.toJson(returnValues);
+            return JsonResponseCache.newResponse(session, generation, false, gson, returnValues);
         }
 
         @Override
@@ -94,6 +107,13 @@ public class CaptureDevicesJsonServlet {
                 return HttpUtil.returnException("", "No capture device was requested.");
             }
 
+            NanoHTTPD.Response cachedResponse = JsonResponseCache.getResponse(session);
+
+            if (cachedResponse != null) {
+                return cachedResponse;
+            }
+
+            long generation = JsonResponseCache.getGeneration();
             String captureDeviceLookups[] = captureDevice.split("/");
 
             if (session.getParms().size() > 0) {
@@ -127,7 +147,7 @@ public class CaptureDevicesJsonServlet {
                     devices.add(newEntry);
                 }
 
-                return NanoHTTPD.newFixedLengthResponse(gson.toJson(devices));
+                return JsonResponseCache.newResponse(session, generation, true, gson, devices);
             }
 
             DiscoveredDevice devices[] = new DiscoveredDevice[captureDeviceLookups.length];
@@ -136,7 +156,7 @@ public class CaptureDevicesJsonServlet {
                 devices[i] = DiscoveryManager.getDiscoveredDevice(Integer.parseInt(captureDeviceLookups[i]));
             }
 
-            return NanoHTTPD.newFixedLengthResponse(gson.toJson(devices, DiscoveredDevice.class));
+            return JsonResponseCache.newResponse(session, generation, true, gson, devices, DiscoveredDevice.class);
         }
 
         @Override
@@ -19,6 +19,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
 import fi.iki.elonen.NanoHTTPD;
 import fi.iki.elonen.router.RouterNanoHTTPD;
 import opendct.capture.CaptureDevice;
@@ -27,6 +28,7 @@ import opendct.channel.ChannelManager;
 import opendct.channel.TVChannel;
 import opendct.channel.TVChannelImpl;
 import opendct.nanohttpd.HttpUtil;
+import opendct.nanohttpd.JsonResponseCache;
 import opendct.nanohttpd.pojo.JsonChannel;
 import opendct.nanohttpd.pojo.JsonException;
 import opendct.nanohttpd.serializer.ChannelLineupSerializer;
@@ -35,6 +37,8 @@ import opendct.sagetv.SageTVManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Map;
 
 import static opendct.nanohttpd.HttpUtil.JSON_OK;
@@ -45,10 +49,11 @@ public class ChannelJsonServlet {
     private static final List list = new List();
     private static final GsonBuilder gsonBuilder = new GsonBuilder();
     private static final Gson gson;
+    private static final Type CHANNEL_LIST_TYPE = new TypeToken<java.util.List<TVChannelImpl>>(){}.getType();
 
     static {
         gsonBuilder.registerTypeAdapter(TVChannelImpl.class, new ChannelSerializer());
-        gsonBuilder.setPrettyPrinting();
+        JsonResponseCache.format(gsonBuilder);
         gson = gsonBuilder.create();
     }
 
@@ -60,6 +65,13 @@ public class ChannelJsonServlet {
 
         @Override
         public NanoHTTPD.Response get(RouterNanoHTTPD.UriResource uriResource, Map<String, String> urlParams, NanoHTTPD.IHTTPSession session) {
+            NanoHTTPD.Response cachedResponse = JsonResponseCache.getResponse(session);
+
+            if (cachedResponse != null) {
+                return cachedResponse;
+            }
+
+            long generation = JsonResponseCache.getGeneration();
             String channelLineup = urlParams.get("channel_lineup");
 
             ChannelLineup lineup = ChannelManager.getChannelLineup(channelLineup);
@@ -68,6 +80,9 @@ public class ChannelJsonServlet {
                 return HttpUtil.returnException(channelLineup, "The lineup '" + channelLineup + "' does not exist.");
             }
 
+            JsonResponseCache.LineupGenerations lineups = new JsonResponseCache.LineupGenerations();
+            lineups.add(lineup);
+
             java.util.List<TVChannel> channels = lineup.getAllChannels(true, true);
             String returnValues[] = new String[channels.size()];
 
@@ -75,7 +90,7 @@ public class ChannelJsonServlet {
                 returnValues[i] = channels.get(i).getChannel();
             }
 
-            return NanoHTTPD.newFixedLengthResponse(gson.toJson(returnValues));
+            return JsonResponseCache.newResponse(session, generation, lineups, false, gson, returnValues);
         }
 
         @Override
@@ -97,6 +112,13 @@ public class ChannelJsonServlet {
 
         @Override
         public NanoHTTPD.Response get(RouterNanoHTTPD.UriResource uriResource, Map<String, String> urlParams, NanoHTTPD.IHTTPSession session) {
+            NanoHTTPD.Response cachedResponse = JsonResponseCache.getResponse(session);
+
+            if (cachedResponse != null) {
+                return cachedResponse;
+            }
+
+            long generation = JsonResponseCache.getGeneration();
             String channelLineupLookup = urlParams.get("channel_lineup");
             String channels = urlParams.get("channel");
 
@@ -106,6 +128,9 @@ public class ChannelJsonServlet {
                 return HttpUtil.returnException(channelLineupLookup, "The lineup '" + channelLineupLookup + "' does not exist.");
             }
 
+            JsonResponseCache.LineupGenerations lineups = new JsonResponseCache.LineupGenerations();
+            lineups.add(lineup);
+
             String channelLookups[];
             if (session.getParms().get("all") == null) {
                 channelLookups = channels.split("/");
@@ -120,6 +145,24 @@ public class ChannelJsonServlet {
                 session.getParms().remove("all");
             }
 
+            if (session.getParms().size() == 0) {
+                // Full channels are written one at a time as they are serialized instead of first
+                // building a tree of the entire lineup.
+                java.util.List<TVChannel> tvChannels = new ArrayList<>(channelLookups.length);
+
+                for (String channelLookup : channelLookups) {
+                    TVChannel tvChannel = lineup.getOriginalChannel(channelLookup);
+
+                    if (tvChannel == null) {
+                        return HttpUtil.returnException(channelLookup, "The channel '" + channelLookup + "' does not exist.");
+                    }
+
+                    tvChannels.add(tvChannel);
+                }
+
+                return JsonResponseCache.newResponse(session, generation, lineups, false, gson, tvChannels, CHANNEL_LIST_TYPE);
+            }
+
             JsonArray jsonArray = new JsonArray();
 
             for (String channelLookup : channelLookups) {
@@ -130,22 +173,18 @@ public class ChannelJsonServlet {
                     return HttpUtil.returnException(channelLookup, "The channel '" + channelLookup + "' does not exist.");
                 }
 
-                if (session.getParms().size() == 0) {
-                    jsonArray.add(gson.toJsonTree(tvChannel, TVChannelImpl.class));
-                } else {
-                    JsonObject newObject = new JsonObject();
-
-                    ChannelLineupSerializer.addProperty(newObject, ChannelSerializer.CHANNEL, lineup);
+                JsonObject newObject = new JsonObject();
 
-                    for (Map.Entry<String, String> kvp : session.getParms().entrySet()) {
-                        ChannelSerializer.addProperty(newObject, kvp.getKey(), tvChannel);
-                    }
+                ChannelLineupSerializer.addProperty(newObject, ChannelSerializer.CHANNEL, lineup);
 
-                    jsonArray.add(newObject);
+                for (Map.Entry<String, String> kvp : session.getParms().entrySet()) {
+                    ChannelSerializer.addProperty(newObject, kvp.getKey(), tvChannel);
                 }
+
+                jsonArray.add(newObject);
             }
 
-            return NanoHTTPD.newFixedLengthResponse(gson.toJson(jsonArray));
+            return JsonResponseCache.newResponse(session, generation, lineups, false, gson, jsonArray);
         }
 
         @Override
@@ -25,6 +25,7 @@ import opendct.capture.CaptureDevice;
 import opendct.channel.ChannelLineup;
 import opendct.channel.ChannelManager;
 import opendct.nanohttpd.HttpUtil;
+import opendct.nanohttpd.JsonResponseCache;
 import opendct.nanohttpd.pojo.JsonChannelLineup;
 import opendct.nanohttpd.serializer.ChannelLineupSerializer;
 import opendct.sagetv.SageTVManager;
@@ -43,13 +44,25 @@ public class ChannelLinupsJsonServlet {
 
     static {
         gsonBuilder.registerTypeAdapter(ChannelLineup.class, new ChannelLineupSerializer());
-        gsonBuilder.setPrettyPrinting();
+        JsonResponseCache.format(gsonBuilder);
         gson = gsonBuilder.create();
     }
 
     public static class List extends RouterNanoHTTPD.DefaultHandler {
         @Override
         public String getText() {
+            return "error";
+        }
+
+        @Override
+        public NanoHTTPD.Response get(RouterNanoHTTPD.UriResource uriResource, Map<String, String> urlParams, NanoHTTPD.IHTTPSession session) {
+            NanoHTTPD.Response cachedResponse = JsonResponseCache.getResponse(session);
+
+            if (cachedResponse != null) {
+                return cachedResponse;
+            }
+
+            long generation = JsonResponseCache.getGeneration();
             java.util.List<ChannelLineup> lineups = ChannelManager.getChannelLineups();
             String returnValues[] = new String[lineups.size()];
 
@@ -58,7 +71,7 @@ public class ChannelLinupsJsonServlet {
                 returnValues[i] = lineups.get(i).LINEUP_NAME;
             }
 
-            return gson.toJson(returnValues);
+            return JsonResponseCache.newResponse(session, generation, false, gson, returnValues);
         }
 
         @Override
@@ -80,6 +93,13 @@ public class ChannelLinupsJsonServlet {
 
         @Override
         public NanoHTTPD.Response get(RouterNanoHTTPD.UriResource uriResource, Map<String, String> urlParams, NanoHTTPD.IHTTPSession session) {
+            NanoHTTPD.Response cachedResponse = JsonResponseCache.getResponse(session);
+
+            if (cachedResponse != null) {
+                return cachedResponse;
+            }
+
+            long generation = JsonResponseCache.getGeneration();
             String channelLineup = urlParams.get("channel_lineup");
 
             String channelLineups[] = channelLineup.split("/");
@@ -108,7 +128,7 @@ public class ChannelLinupsJsonServlet {
                 }
             }
 
-            return NanoHTTPD.newFixedLengthResponse(gson.toJson(jsonArray));
+            return JsonResponseCache.newResponse(session, generation, false, gson, jsonArray);
         }
 
         @Override
@@ -25,6 +25,7 @@ import opendct.config.options.DeviceOptionException;
 import opendct.consumer.DynamicConsumerImpl;
 import opendct.consumer.SageTVConsumer;
 import opendct.nanohttpd.HttpUtil;
+import opendct.nanohttpd.JsonResponseCache;
 import opendct.nanohttpd.pojo.JsonOption;
 import opendct.nanohttpd.serializer.ConsumerSerializer;
 import org.apache.logging.log4j.LogManager;
@@ -42,18 +43,30 @@ public class ConsumerJsonServlet {
 
     static {
         gsonBuilder.registerTypeAdapter(SageTVConsumer.class, new ConsumerSerializer());
-        gsonBuilder.setPrettyPrinting();
+        JsonResponseCache.format(gsonBuilder);
         gson = gsonBuilder.create();
     }
 
     public static class List extends RouterNanoHTTPD.DefaultHandler {
         @Override
         public String getText() {
+            return "error";
+        }
+
+        @Override
+        public NanoHTTPD.Response get(RouterNanoHTTPD.UriResource uriResource, Map<String, String> urlParams, NanoHTTPD.IHTTPSession session) {
+            NanoHTTPD.Response cachedResponse = JsonResponseCache.getResponse(session);
+
+            if (cachedResponse != null) {
+                return cachedResponse;
+            }
+
+            long generation = JsonResponseCache.getGeneration();
             String returnValues[] = Config.getSageTVConsumers();
             for (int i = 0; i < returnValues.length; i++) {
                 returnValues[i] = Config.getConsumerFriendlyForCanonical(returnValues[i]);
             }
-            return gson.toJson(returnValues);
+            return JsonResponseCache.newResponse(session, generation, false, gson, returnValues);
         }
 
         @Override
@@ -76,6 +89,13 @@ public class ConsumerJsonServlet {
 
         @Override
         public NanoHTTPD.Response get(RouterNanoHTTPD.UriResource uriResource, Map<String, String> urlParams, NanoHTTPD.IHTTPSession session) {
+            NanoHTTPD.Response cachedResponse = JsonResponseCache.getResponse(session);
+
+            if (cachedResponse != null) {
+                return cachedResponse;
+            }
+
+            long generation = JsonResponseCache.getGeneration();
             String consumers[] = urlParams.get("consumer").split("/");
 
             JsonArray jsonArray = new JsonArray();
@@ -96,7 +116,7 @@ public class ConsumerJsonServlet {
                 jsonArray.add(gson.toJsonTree(sageTVConsumer, SageTVConsumer.class));
             }
 
-            return NanoHTTPD.newFixedLengthResponse(gson.toJson(jsonArray));
+            return JsonResponseCache.newResponse(session, generation, false, gson, jsonArray);
         }
 
         @Override
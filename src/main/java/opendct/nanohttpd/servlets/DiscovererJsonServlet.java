@@ -23,6 +23,7 @@ import fi.iki.elonen.NanoHTTPD;
 import fi.iki.elonen.router.RouterNanoHTTPD;
 import opendct.config.options.DeviceOptionException;
 import opendct.nanohttpd.HttpUtil;
+import opendct.nanohttpd.JsonResponseCache;
 import opendct.nanohttpd.pojo.JsonException;
 import opendct.nanohttpd.pojo.JsonOption;
 import opendct.nanohttpd.serializer.DeviceDiscovererSerializer;
@@ -43,7 +44,7 @@ public class DiscovererJsonServlet {
 
     static {
         gsonBuilder.registerTypeAdapter(DeviceDiscoverer.class, new DeviceDiscovererSerializer());
-        gsonBuilder.setPrettyPrinting();
+        JsonResponseCache.format(gsonBuilder);
         gson = gsonBuilder.create();
     }
 
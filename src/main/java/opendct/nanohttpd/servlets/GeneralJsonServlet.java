@@ -27,6 +27,7 @@ import opendct.config.options.DeviceOption;
 import opendct.config.options.DeviceOptionException;
 import opendct.config.options.DeviceOptionType;
 import opendct.nanohttpd.HttpUtil;
+import opendct.nanohttpd.JsonResponseCache;
 import opendct.nanohttpd.pojo.JsonOption;
 import opendct.nanohttpd.serializer.DeviceOptionSerializer;
 import opendct.power.NetworkPowerEventManger;
@@ -46,7 +47,7 @@ public class GeneralJsonServlet {
 
     static {
         gsonBuilder.registerTypeAdapter(DeviceOption.class, new DeviceOptionSerializer());
-        gsonBuilder.setPrettyPrinting();
+        JsonResponseCache.format(gsonBuilder);
         gson = gsonBuilder.create();
     }
 
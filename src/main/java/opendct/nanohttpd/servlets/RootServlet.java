@@ -23,6 +23,7 @@ import opendct.sagetv.SageTVManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -39,7 +40,7 @@ public class RootServlet {
             StringBuilder response = new StringBuilder(2048);
             response.append("OpenDCT ").append(StaticConfig.VERSION_PROGRAM).append(P).append(P);
             response.append("Loaded Capture Devices:").append(P);
-            List<CaptureDevice> devices = SageTVManager.getAllSageTVCaptureDevices();
+            List<CaptureDevice> devices = new ArrayList<>(SageTVManager.getAllSageTVCaptureDevices());
             Comparator<CaptureDevice> comparator = new Comparator<CaptureDevice>() {
                 @Override
                 public int compare(CaptureDevice o1, CaptureDevice o2) {
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.nanohttpd.servlets;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.router.RouterNanoHTTPD;
+import opendct.nanohttpd.JsonResponseCache;
+import opendct.sagetv.SageTVCommand;
+import opendct.util.LatencyHistogram;
+import opendct.util.TuneTracer;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+public class TuneLatencyJsonServlet {
+    private static final GsonBuilder gsonBuilder = new GsonBuilder();
+    private static final Gson gson;
+
+    static {
+        JsonResponseCache.format(gsonBuilder);
+        gson = gsonBuilder.create();
+    }
+
+    public static class List extends RouterNanoHTTPD.DefaultHandler {
+        @Override
+        public String getText() {
+            JsonObject newObject = new JsonObject();
+
+            JsonArray buckets = new JsonArray();
+            for (long bucket : LatencyHistogram.BUCKETS) {
+                buckets.add(gson.toJsonTree(bucket));
+            }
+            newObject.add("bucketsMs", buckets);
+
+            newObject.add("phases", getPhases(TuneTracer.getPhaseSnapshots()));
+
+            JsonObject devices = new JsonObject();
+            for (Map.Entry<String, Map<String, LatencyHistogram.Snapshot>> entry :
+                    new TreeMap<>(TuneTracer.getDeviceSnapshots()).entrySet()) {
+
+                devices.add(entry.getKey(), getPhases(entry.getValue()));
+            }
+            newObject.add("devices", devices);
+
+            JsonObject channels = new JsonObject();
+            for (Map.Entry<String, LatencyHistogram.Snapshot> entry :
+                    new TreeMap<>(TuneTracer.getChannelSnapshots()).entrySet()) {
+
+                channels.add(entry.getKey(), getSnapshot(entry.getValue()));
+            }
+            newObject.add("channels", channels);
+
+            JsonObject active = new JsonObject();
+            for (Map.Entry<String, TuneTracer.TraceSnapshot> entry :
+                    new TreeMap<>(TuneTracer.getActiveTraces()).entrySet()) {
+
+                TuneTracer.TraceSnapshot trace = entry.getValue();
+                JsonObject traceObject = new JsonObject();
+                traceObject.addProperty("channel", trace.CHANNEL);
+                traceObject.addProperty("elapsedMs", trace.ELAPSED);
+
+                JsonObject phases = new JsonObject();
+                for (Map.Entry<String, Long> phase : trace.PHASES.entrySet()) {
+                    phases.addProperty(phase.getKey(), phase.getValue());
+                }
+                traceObject.add("phases", phases);
+
+                active.add(entry.getKey(), traceObject);
+            }
+            newObject.add("active", active);
+
+            JsonObject commands = new JsonObject();
+            for (SageTVCommand command : SageTVCommand.values()) {
+                if (command.getCount() == 0) {
+                    continue;
+                }
+
+                JsonObject commandObject = new JsonObject();
+                commandObject.addProperty("count", command.getCount());
+                commandObject.addProperty("averageUs", command.getAverageLatencyMicros());
+                commandObject.addProperty("maxUs", command.getMaxLatencyMicros());
+                commands.add(command.name(), commandObject);
+            }
+            newObject.add("commands", commands);
+
+            return gson.toJson(newObject);
+        }
+
+        @Override
+        public String getMimeType() {
+            return "application/json";
+        }
+
+        @Override
+        public NanoHTTPD.Response.IStatus getStatus() {
+            return NanoHTTPD.Response.Status.OK;
+        }
+    }
+
+    private static JsonObject getPhases(Map<String, LatencyHistogram.Snapshot> snapshots) {
+        JsonObject phases = new JsonObject();
+
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : snapshots.entrySet()) {
+            phases.add(entry.getKey(), getSnapshot(entry.getValue()));
+        }
+
+        return phases;
+    }
+
+    private static JsonObject getSnapshot(LatencyHistogram.Snapshot snapshot) {
+        JsonObject newObject = new JsonObject();
+
+        newObject.addProperty("count", snapshot.COUNT);
+        newObject.addProperty("window", snapshot.WINDOW);
+        newObject.addProperty("minMs", snapshot.MIN);
+        newObject.addProperty("meanMs", snapshot.MEAN);
+        newObject.addProperty("p50Ms", snapshot.P50);
+        newObject.addProperty("p90Ms", snapshot.P90);
+        newObject.addProperty("p99Ms", snapshot.P99);
+        newObject.addProperty("maxMs", snapshot.MAX);
+
+        JsonArray buckets = new JsonArray();
+        for (int bucketCount : snapshot.BUCKET_COUNTS) {
+            buckets.add(gson.toJsonTree(bucketCount));
+        }
+        newObject.add("buckets", buckets);
+
+        return newObject;
+    }
+}
@@ -23,6 +23,7 @@ import fi.iki.elonen.router.RouterNanoHTTPD;
 import opendct.config.Config;
 import opendct.config.StaticConfig;
 import opendct.consumer.SageTVConsumer;
+import opendct.nanohttpd.JsonResponseCache;
 import opendct.nanohttpd.serializer.ConsumerSerializer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -40,7 +41,7 @@ public class VersionJsonServlet {
 
     static {
         gsonBuilder.registerTypeAdapter(SageTVConsumer.class, new ConsumerSerializer());
-        gsonBuilder.setPrettyPrinting();
+        JsonResponseCache.format(gsonBuilder);
         gson = gsonBuilder.create();
     }
 
@@ -16,7 +16,7 @@
 
 package opendct.producer;
 
-import opendct.config.Config;
+import opendct.config.ConfigRegistry;
 import opendct.consumer.SageTVConsumer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -33,14 +33,11 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class HTTPProducerImpl implements HTTPProducer {
     private final Logger logger = LogManager.getLogger(HTTPProducerImpl.class);
 
-    private final int httpThreadPriority =
-            Math.max(
-                    Math.min(
-                            Config.getInteger("producer.http.std.thread_priority", Thread.MAX_PRIORITY - 1),
-                            Thread.MAX_PRIORITY
-                    ),
-                    Thread.MIN_PRIORITY
-            );
+    private static final ConfigRegistry.IntegerValue THREAD_PRIORITY =
+            ConfigRegistry.clampedIntegerValue("producer.http.std.thread_priority",
+                    Thread.MAX_PRIORITY - 1, Thread.MIN_PRIORITY, Thread.MAX_PRIORITY);
+
+    private final int httpThreadPriority = THREAD_PRIORITY.get();
 
     private AtomicBoolean running = new AtomicBoolean(false);
     private volatile boolean interrupted = false;
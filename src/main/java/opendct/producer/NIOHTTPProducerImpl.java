@@ -16,7 +16,7 @@
 
 package opendct.producer;
 
-import opendct.config.Config;
+import opendct.config.ConfigRegistry;
 import opendct.consumer.SageTVConsumer;
 import opendct.video.http.NIOHttpDownloader;
 import org.apache.logging.log4j.LogManager;
@@ -35,14 +35,11 @@ import java.util.concurrent.atomic.AtomicLong;
 public class NIOHTTPProducerImpl implements HTTPProducer {
     private final static Logger logger = LogManager.getLogger(NIOHTTPProducerImpl.class);
 
-    private final int httpThreadPriority =
-            Math.max(
-                    Math.min(
-                            Config.getInteger("producer.http.nio.thread_priority", Thread.MAX_PRIORITY - 1),
-                            Thread.MAX_PRIORITY
-                    ),
-                    Thread.MIN_PRIORITY
-            );
+    private static final ConfigRegistry.IntegerValue THREAD_PRIORITY =
+            ConfigRegistry.clampedIntegerValue("producer.http.nio.thread_priority",
+                    Thread.MAX_PRIORITY - 1, Thread.MIN_PRIORITY, Thread.MAX_PRIORITY);
+
+    private final int httpThreadPriority = THREAD_PRIORITY.get();
 
     private AtomicBoolean running = new AtomicBoolean(false);
     private volatile boolean interrupted = false;
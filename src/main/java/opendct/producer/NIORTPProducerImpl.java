@@ -16,7 +16,7 @@
 
 package opendct.producer;
 
-import opendct.config.Config;
+import opendct.config.ConfigRegistry;
 import opendct.consumer.SageTVConsumer;
 import opendct.video.rtsp.rtp.RTPPacketProcessor;
 import org.apache.logging.log4j.LogManager;
@@ -46,26 +46,26 @@ public class NIORTPProducerImpl implements RTPProducer {
     private AtomicLong packetsReceived = new AtomicLong(0);
     private int localPort = 0;
 
-    private final int nioRtpThreadPriority =
-            Math.max(
-                    Math.min(
-                            Config.getInteger("producer.rtp.nio.thread_priority", Thread.MAX_PRIORITY - 1),
-                            Thread.MAX_PRIORITY
-                    ),
-                    Thread.MIN_PRIORITY
-            );
-
-    private final int nativeReceiveBufferSize =
-            Config.getInteger("producer.rtp.nio.native_udp_receive_buffer", 5312000);
+    private static final ConfigRegistry.IntegerValue THREAD_PRIORITY =
+            ConfigRegistry.clampedIntegerValue("producer.rtp.nio.thread_priority",
+                    Thread.MAX_PRIORITY - 1, Thread.MIN_PRIORITY, Thread.MAX_PRIORITY);
+    private static final ConfigRegistry.IntegerValue NATIVE_RECEIVE_BUFFER =
+            ConfigRegistry.integerValue("producer.rtp.nio.native_udp_receive_buffer", 5312000);
+    private static final ConfigRegistry.IntegerValue RECEIVE_BUFFER =
+            ConfigRegistry.integerValue("producer.rtp.nio.internal_udp_receive_buffer", 1500);
+    private static final ConfigRegistry.BooleanValue ALLOCATE_DIRECT =
+            ConfigRegistry.booleanValue("producer.rtp.nio.allocate_direct", true);
+    private static final ConfigRegistry.BooleanValue LOG_TIMING =
+            ConfigRegistry.booleanValue("producer.rtp.nio.log_timing_exp", true);
+
+    private final int nioRtpThreadPriority = THREAD_PRIORITY.get();
+    private final int nativeReceiveBufferSize = NATIVE_RECEIVE_BUFFER.get();
     // A standard RTP transmitted datagram payload should not be larger than 1328 bytes,
     // but the largest possible UDP packet size is 65535, so this value will be adjusted
     // automatically if this value is found to be too small.
-    private int receiveBufferSize =
-            Config.getInteger("producer.rtp.nio.internal_udp_receive_buffer", 1500);
-    private boolean allocateDirect =
-            Config.getBoolean("producer.rtp.nio.allocate_direct", true);
-    private boolean logTiming =
-            Config.getBoolean("producer.rtp.nio.log_timing_exp", true);
+    private int receiveBufferSize = RECEIVE_BUFFER.get();
+    private boolean allocateDirect = ALLOCATE_DIRECT.get();
+    private boolean logTiming = LOG_TIMING.get();
     private InetAddress remoteIPAddress = null;
     private DatagramChannel datagramChannel = null;
     private AtomicBoolean stop = new AtomicBoolean(false);
@@ -230,12 +230,16 @@ public class NIORTPProducerImpl implements RTPProducer {
                                 }
 
                                 datagramBuffer = allocateDirect ? ByteBuffer.allocateDirect(receiveBufferSize) : ByteBuffer.allocate(receiveBufferSize);
-                                Config.setInteger("producer.rtp.nio.internal_udp_receive_buffer", receiveBufferSize);
+                                if (receiveBufferSize > RECEIVE_BUFFER.get()) {
+                                    RECEIVE_BUFFER.set(receiveBufferSize);
+                                }
                                 logger.warn("The datagram buffer is at its limit. Data may have been lost. Increased buffer capacity to {} bytes.", datagramBuffer.limit());
                             } else {
                                 if (!(receiveBufferSize == RECEIVE_BUFFER_LIMIT)) {
                                     datagramBuffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_LIMIT);
-                                    Config.setInteger("producer.rtp.nio.internal_udp_receive_buffer", receiveBufferSize);
+                                    if (receiveBufferSize > RECEIVE_BUFFER.get()) {
+                                        RECEIVE_BUFFER.set(receiveBufferSize);
+                                    }
                                 }
                                 logger.warn("The datagram buffer is at its limit. Data may have been lost. Buffer increase capacity limit reached at {} bytes.", datagramBuffer.limit());
                             }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.sagetv;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Every command SageTV can send to a network encoder.
+ * <p/>
+ * Requests are looked up by the text before the first space, so dispatching a request is a single
+ * hash lookup regardless of how many commands there are. Latency is recorded per command.
+ */
+public enum SageTVCommand {
+    VERSION(true),
+    STOP(false),
+    START(false),
+    BUFFER(false),
+    BUFFER_SWITCH(false),
+    SWITCH(false),
+    GET_START(false),
+    GET_SIZE(true),
+    GET_FILE_SIZE(true),
+    NOOP(true),
+    TUNE(false),
+    AUTOTUNE(false),
+    AUTOSCAN(false),
+    AUTOINFOSCAN(false),
+    PROPERTIES(false),
+    QUIT(true);
+
+    /**
+     * <i>true</i> if this command can usually be answered without blocking.
+     */
+    public final boolean INLINE;
+
+    private static final Map<String, SageTVCommand> commands;
+
+    // count, total nanoseconds and max nanoseconds for each command.
+    private static final AtomicLongArray metrics;
+
+    static {
+        SageTVCommand values[] = SageTVCommand.values();
+
+        commands = new HashMap<>(values.length * 2);
+        for (SageTVCommand command : values) {
+            commands.put(command.name(), command);
+        }
+
+        metrics = new AtomicLongArray(values.length * 3);
+    }
+
+    SageTVCommand(boolean inline) {
+        INLINE = inline;
+    }
+
+    /**
+     * Look up the command for a request.
+     *
+     * @param request The complete request from SageTV.
+     * @return The command or <i>null</i> if the command is not known.
+     */
+    public static SageTVCommand getCommand(String request) {
+        int space = request.indexOf(' ');
+
+        return commands.get(space == -1 ? request : request.substring(0, space));
+    }
+
+    /**
+     * Get everything after the command in a request.
+     *
+     * @param request The complete request from SageTV.
+     * @return The arguments or <i>null</i> if there are no arguments.
+     */
+    public static String getArguments(String request) {
+        int space = request.indexOf(' ');
+
+        return space == -1 ? null : request.substring(space + 1);
+    }
+
+    /**
+     * Record how long it took to answer this command.
+     *
+     * @param nanoseconds The time in nanoseconds it took to answer.
+     */
+    public void recordLatency(long nanoseconds) {
+        int index = ordinal() * 3;
+
+        metrics.incrementAndGet(index);
+        metrics.addAndGet(index + 1, nanoseconds);
+
+        long max;
+        while ((max = metrics.get(index + 2)) < nanoseconds) {
+            if (metrics.compareAndSet(index + 2, max, nanoseconds)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Get the number of times this command has been answered.
+     */
+    public long getCount() {
+        return metrics.get(ordinal() * 3);
+    }
+
+    /**
+     * Get the average time in microseconds it has taken to answer this command.
+     */
+    public long getAverageLatencyMicros() {
+        long count = getCount();
+
+        return count == 0 ? 0 : metrics.get(ordinal() * 3 + 1) / count / 1000;
+    }
+
+    /**
+     * Get the longest time in microseconds it has taken to answer this command.
+     */
+    public long getMaxLatencyMicros() {
+        return metrics.get(ordinal() * 3 + 2) / 1000;
+    }
+}
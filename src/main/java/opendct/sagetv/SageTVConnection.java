@@ -0,0 +1,335 @@
+/*
+ * Copyright 2015 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.sagetv;
+
+import opendct.capture.CaptureDevice;
+import opendct.util.ThreadPool;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * A single non-blocking connection from a SageTV server.
+ * <p/>
+ * Requests are parsed directly out of the receive buffer on the selector thread. Requests that can
+ * be answered immediately (NOOP and size queries) are answered on the selector thread. Everything
+ * else is handed to the worker thread pool and reading from the connection is suspended until the
+ * request has been answered since SageTV always waits for a reply before sending the next request.
+ */
+public class SageTVConnection {
+    private static final Logger logger = LogManager.getLogger(SageTVConnection.class);
+
+    // This matches the InputStreamReader and OutputStreamWriter used with blocking sockets.
+    protected static final Charset CHARSET = Charset.defaultCharset();
+
+    // Nothing SageTV sends should ever come close to this size. If it does, something is wrong.
+    private static final int MAX_REQUEST_LENGTH = 65536;
+
+    private static final byte NOOP_REQUEST[] = "NOOP".getBytes(StandardCharsets.US_ASCII);
+
+    private final SocketChannel socketChannel;
+    private final SageTVSelectorServer.SelectorThread selectorThread;
+    private final SageTVRequestHandler requestHandler;
+    private final int listenPort;
+    private SelectionKey selectionKey;
+
+    // Only accessed by the selector thread.
+    private ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+    private boolean busy = false;
+
+    private final Object writeLock = new Object();
+    private final Queue<ByteBuffer> writeQueue = new ArrayDeque<>();
+    private volatile boolean closed = false;
+
+    protected SageTVConnection(SocketChannel socketChannel,
+                               SageTVSelectorServer.SelectorThread selectorThread,
+                               CaptureDevice captureDevice, int listenPort) {
+
+        this.socketChannel = socketChannel;
+        this.selectorThread = selectorThread;
+        this.listenPort = listenPort;
+        requestHandler = new SageTVRequestHandler(this, captureDevice);
+    }
+
+    protected void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+
+        if (logger.isTraceEnabled()) {
+            logger.trace("Starting connection to remote socket {}:{}",
+                    requestHandler.getRemoteAddress(), requestHandler.getRemotePort());
+        }
+    }
+
+    public Socket getSocket() {
+        return socketChannel.socket();
+    }
+
+    public int getListenPort() {
+        return listenPort;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Called by the selector thread when there is data to be read.
+     *
+     * @throws IOException Thrown if the connection can no longer be read.
+     */
+    protected void onReadable() throws IOException {
+        if (!readBuffer.hasRemaining()) {
+            if (readBuffer.capacity() >= MAX_REQUEST_LENGTH) {
+                logger.error("SageTV sent a request over {} bytes. Closing connection.",
+                        MAX_REQUEST_LENGTH);
+                close();
+                return;
+            }
+
+            ByteBuffer newBuffer = ByteBuffer.allocate(readBuffer.capacity() * 2);
+            readBuffer.flip();
+            newBuffer.put(readBuffer);
+            readBuffer = newBuffer;
+        }
+
+        int readBytes = socketChannel.read(readBuffer);
+
+        if (readBytes == -1) {
+            close();
+            return;
+        }
+
+        processRequests();
+    }
+
+    /**
+     * Process every complete request in the receive buffer until a request needs to be handed to a
+     * worker thread.
+     */
+    private void processRequests() throws IOException {
+        readBuffer.flip();
+
+        try {
+            while (!busy && !closed) {
+                int start = readBuffer.position();
+                int limit = readBuffer.limit();
+                int lineEnd = -1;
+
+                for (int i = start; i < limit; i++) {
+                    if (readBuffer.get(i) == '\n') {
+                        lineEnd = i;
+                        break;
+                    }
+                }
+
+                if (lineEnd == -1) {
+                    break;
+                }
+
+                int end = lineEnd;
+                if (end > start && readBuffer.get(end - 1) == '\r') {
+                    end--;
+                }
+
+                readBuffer.position(lineEnd + 1);
+
+                int length = end - start;
+
+                if (length == 0) {
+                    // A blank line means SageTV is done with this connection.
+                    close();
+                    return;
+                }
+
+                if (length == NOOP_REQUEST.length && matches(start, NOOP_REQUEST)) {
+                    requestHandler.sendNoopResponse();
+                    continue;
+                }
+
+                String request = new String(
+                        readBuffer.array(), readBuffer.arrayOffset() + start, length, CHARSET);
+
+                if (request.equals("QUIT")) {
+                    close();
+                    return;
+                }
+
+                if (!requestHandler.handleInlineRequest(request)) {
+                    dispatch(request);
+                }
+            }
+        } finally {
+            readBuffer.compact();
+        }
+    }
+
+    private boolean matches(int offset, byte value[]) {
+        for (int i = 0; i < value.length; i++) {
+            if (readBuffer.get(offset + i) != value[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Hand a request to a worker thread and stop reading until it has been answered.
+     */
+    private void dispatch(final String request) {
+        busy = true;
+        selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+
+        ThreadPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    requestHandler.handleRequest(request);
+                } catch (IOException e) {
+                    logger.error("The SageTV server has disconnected ungracefully => ", e);
+                    close();
+                } catch (Exception e) {
+                    // This kind of exception appears to mostly happen when stopping the SageTV server.
+                    logger.debug("An unhandled exception was created => ", e);
+                    close();
+                } catch (Throwable e) {
+                    // This exception usually catches issues like a buffer could not be allocated. If
+                    // this exception is being thrown, we have a problem that must be fixed.
+                    logger.error("An unhandled throwable was created => ", e);
+                    close();
+                } finally {
+                    selectorThread.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            resume();
+                        }
+                    });
+                }
+            }
+        }, Thread.NORM_PRIORITY, "SageTVRequestHandler", "Unknown-" + listenPort);
+    }
+
+    /**
+     * Called on the selector thread after a worker thread has answered a request.
+     */
+    private void resume() {
+        busy = false;
+
+        if (closed) {
+            return;
+        }
+
+        try {
+            selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+            // SageTV might have already sent the next request.
+            processRequests();
+        } catch (Exception e) {
+            logger.debug("Unable to resume reading from SageTV => {}", e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Send a response to SageTV.
+     * <p/>
+     * This is safe to call from any thread. If the response cannot be written immediately, the
+     * selector thread will finish writing it when the connection becomes writable.
+     *
+     * @param response The bytes to be sent. This buffer must not be modified after it is provided.
+     * @throws IOException Thrown if the connection is closed or there is an I/O error.
+     */
+    protected void write(ByteBuffer response) throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                throw new IOException("The connection is closed.");
+            }
+
+            if (writeQueue.isEmpty()) {
+                socketChannel.write(response);
+
+                if (!response.hasRemaining()) {
+                    return;
+                }
+            }
+
+            writeQueue.add(response);
+        }
+
+        selectorThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (selectionKey.isValid()) {
+                    selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+        });
+    }
+
+    /**
+     * Called by the selector thread when queued responses can be written.
+     *
+     * @throws IOException Thrown if the connection can no longer be written.
+     */
+    protected void onWritable() throws IOException {
+        synchronized (writeLock) {
+            ByteBuffer response;
+
+            while ((response = writeQueue.peek()) != null) {
+                socketChannel.write(response);
+
+                if (response.hasRemaining()) {
+                    return;
+                }
+
+                writeQueue.poll();
+            }
+        }
+
+        selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    protected void close() {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            writeQueue.clear();
+        }
+
+        if (logger.isTraceEnabled()) {
+            logger.trace("Closing connection to {} on port {}",
+                    requestHandler.getRemoteAddress(), requestHandler.getRemotePort());
+        }
+
+        try {
+            socketChannel.close();
+        } catch (Exception e) {
+            logger.trace("Failed to close socket => ", e);
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.sagetv;
+
+import opendct.capture.CaptureDevice;
+import opendct.config.Config;
+import opendct.config.ConfigRegistry;
+import opendct.util.Util;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a persisted inventory of the capture devices that were last loaded.
+ * <p/>
+ * At startup the socket servers and pools for every device in the inventory are brought up before
+ * discovery has found anything, so SageTV can connect right away after a reboot. Requests for a
+ * device that is in the inventory, but has not been attached yet will wait for discovery to
+ * confirm it instead of failing immediately.
+ */
+public class SageTVDeviceInventory {
+    private static final Logger logger = LogManager.getLogger(SageTVDeviceInventory.class);
+
+    private static final String INVENTORY_IDS = "sagetv.device.global.inventory_ids";
+
+    private static final ConfigRegistry.BooleanValue enabled =
+            ConfigRegistry.booleanValue("sagetv.device.global.inventory_enabled", true);
+    private static final ConfigRegistry.IntegerValue attachTimeoutMs =
+            ConfigRegistry.integerValue("sagetv.device.global.inventory_attach_timeout_ms", 30000, 0, 600000);
+    private static final ConfigRegistry.IntegerValue expireDays =
+            ConfigRegistry.integerValue("sagetv.device.global.inventory_expire_days", 7, 1, 3650);
+
+    private static final Map<Integer, Entry> inventory = new ConcurrentHashMap<>();
+    // Names of inventoried capture devices that discovery has not confirmed yet. This is also the
+    // monitor used to notify anything waiting for a device to be attached.
+    private static final Map<String, Entry> pending = new ConcurrentHashMap<>();
+    private static final Object inventoryLock = new Object();
+
+    private static volatile long attachDeadline = 0;
+
+    public static class Entry {
+        public final int ID;
+        public final String NAME;
+        public final String POOL;
+        public final int PORT;
+        public final long LAST_SEEN;
+
+        public Entry(int id, String name, String pool, int port, long lastSeen) {
+            ID = id;
+            NAME = name;
+            POOL = pool;
+            PORT = port;
+            LAST_SEEN = lastSeen;
+        }
+    }
+
+    /**
+     * Loads the inventory and starts the socket servers and pools for every device in it.
+     * <p/>
+     * This should be called after <b>SageTVManager.startWaitingForCaptureDevices()</b> and before
+     * device discovery is started. Inventoried capture devices that are not attached before the
+     * attach timeout expires are removed from their pools.
+     */
+    public static void start() {
+        if (!enabled.get()) {
+            logger.info("The capture device inventory is disabled.");
+            return;
+        }
+
+        final long deadline;
+        long expireTime = System.currentTimeMillis() - expireDays.get() * 86400000L;
+        Set<Integer> ports = new HashSet<>();
+
+        synchronized (inventoryLock) {
+            inventory.clear();
+            pending.clear();
+
+            for (int id : Config.getIntegerArray(INVENTORY_IDS)) {
+                String root = "sagetv.device." + id + ".";
+                // Don't use the methods with defaults here or they will create properties for ids
+                // that no longer have anything saved.
+                String name = Config.getString(root + "inventory_name");
+                String port = Config.getString(root + "encoder_listen_port");
+
+                if (Util.isNullOrEmpty(name) || Util.isNullOrEmpty(port)) {
+                    continue;
+                }
+
+                long lastSeen = Config.getLong(root + "inventory_last_seen", 0);
+
+                if (lastSeen < expireTime) {
+                    logger.info("The capture device '{}' has not been seen in over {} days." +
+                            " Removing it from the inventory.", name, expireDays.get());
+                    continue;
+                }
+
+                Entry entry;
+
+                try {
+                    entry = new Entry(id, name, Config.getString(root + "inventory_pool", ""),
+                            Integer.parseInt(port.trim()), lastSeen);
+                } catch (NumberFormatException e) {
+                    logger.warn("The capture device '{}' has an invalid port '{}'." +
+                            " Removing it from the inventory.", name, port);
+                    continue;
+                }
+
+                inventory.put(id, entry);
+
+                if (SageTVManager.getSageTVCaptureDevice(id) == null) {
+                    pending.put(name, entry);
+                }
+
+                if (entry.PORT > 0) {
+                    ports.add(entry.PORT);
+                }
+            }
+
+            saveIds();
+            deadline = System.currentTimeMillis() + attachTimeoutMs.get();
+            attachDeadline = deadline;
+        }
+
+        if (inventory.size() == 0) {
+            return;
+        }
+
+        logger.info("Starting {} socket servers for {} inventoried capture devices.",
+                ports.size(), inventory.size());
+
+        int portArray[] = new int[ports.size()];
+        int index = 0;
+        for (int port : ports) {
+            portArray[index++] = port;
+        }
+        SageTVManager.addAndStartSocketServers(portArray);
+
+        if (SageTVPoolManager.isUsePools()) {
+            for (Entry entry : pending.values()) {
+                if (!Util.isNullOrEmpty(entry.POOL)) {
+                    SageTVPoolManager.addPoolCaptureDevice(entry.POOL, entry.NAME);
+                }
+            }
+        }
+
+        if (pending.size() == 0) {
+            return;
+        }
+
+        Thread expireThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long waitTime = deadline - System.currentTimeMillis();
+
+                try {
+                    if (waitTime > 0) {
+                        Thread.sleep(waitTime);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                expirePending(deadline);
+            }
+        });
+
+        expireThread.setName("SageTVDeviceInventory-" + expireThread.getId());
+        expireThread.setDaemon(true);
+        expireThread.start();
+    }
+
+    /**
+     * Stops waiting for inventoried capture devices that were not attached before the attach
+     * timeout expired and removes them from their pools.
+     *
+     * @param deadline The attach deadline set when the pending devices were loaded. Nothing is
+     *                 done if the inventory has been started again since then.
+     */
+    private static void expirePending(long deadline) {
+        synchronized (inventoryLock) {
+            if (attachDeadline != deadline) {
+                return;
+            }
+
+            for (Entry entry : pending.values()) {
+                logger.info("The capture device '{}' was not attached within {}ms.",
+                        entry.NAME, attachTimeoutMs.get());
+
+                if (SageTVPoolManager.isUsePools() && !Util.isNullOrEmpty(entry.POOL)) {
+                    SageTVPoolManager.removePoolCaptureDevice(entry.NAME);
+                }
+            }
+
+            pending.clear();
+        }
+
+        synchronized (pending) {
+            pending.notifyAll();
+        }
+    }
+
+    /**
+     * Records a capture device that has been attached and wakes up anything waiting for it.
+     *
+     * @param captureDevice The capture device that is now ready for use.
+     */
+    public static void deviceAttached(CaptureDevice captureDevice) {
+        if (!enabled.get()) {
+            return;
+        }
+
+        int id = captureDevice.getEncoderUniqueHash();
+        String root = "sagetv.device." + id + ".";
+        String pool = captureDevice.getPoolName() != null ? captureDevice.getPoolName() : "";
+        Entry entry = new Entry(id, captureDevice.getEncoderName(), pool,
+                Config.getInteger(root + "encoder_listen_port", 0), System.currentTimeMillis());
+
+        synchronized (inventoryLock) {
+            Entry oldEntry = inventory.put(id, entry);
+
+            Config.setString(root + "inventory_name", entry.NAME);
+            Config.setString(root + "inventory_pool", entry.POOL);
+            Config.setLong(root + "inventory_last_seen", entry.LAST_SEEN);
+
+            if (oldEntry == null) {
+                saveIds();
+            } else if (!oldEntry.NAME.equals(entry.NAME)) {
+                pending.remove(oldEntry.NAME);
+            }
+
+            pending.remove(entry.NAME);
+        }
+
+        synchronized (pending) {
+            pending.notifyAll();
+        }
+    }
+
+    /**
+     * Removes a capture device from the inventory.
+     * <p/>
+     * This should only be called when the device has been intentionally disabled. Devices that
+     * are only unloaded because the program is stopping must stay in the inventory.
+     *
+     * @param id The unique id of the capture device.
+     */
+    public static void removeDevice(int id) {
+        synchronized (inventoryLock) {
+            Entry entry = inventory.remove(id);
+
+            if (entry == null) {
+                return;
+            }
+
+            // The per-device properties are left alone since they are only read for listed ids.
+            saveIds();
+
+            if (pending.remove(entry.NAME) != null && SageTVPoolManager.isUsePools()) {
+                SageTVPoolManager.removePoolCaptureDevice(entry.NAME);
+            }
+        }
+
+        synchronized (pending) {
+            pending.notifyAll();
+        }
+    }
+
+    /**
+     * Is this capture device in the inventory, but not attached yet?
+     *
+     * @param deviceName The name of the capture device.
+     * @return <i>true</i> if discovery is still expected to provide this capture device.
+     */
+    public static boolean isPending(String deviceName) {
+        return deviceName != null && pending.containsKey(deviceName) &&
+                System.currentTimeMillis() < attachDeadline;
+    }
+
+    /**
+     * Blocks until an inventoried capture device is attached.
+     *
+     * @param deviceName The name of the capture device or <i>null</i> to wait for any capture device
+     *                   in the inventory.
+     * @return <i>true</i> if the inventory changed and the capture device should be looked up
+     *         again. <i>false</i> if the inventory has nothing more to wait for or the attach
+     *         timeout has expired.
+     * @throws InterruptedException Thrown if the thread is interrupted.
+     */
+    public static boolean awaitDevice(String deviceName) throws InterruptedException {
+        synchronized (pending) {
+            int pendingCount = pending.size();
+
+            while (deviceName != null ? pending.containsKey(deviceName) : pending.size() == pendingCount) {
+                if (pendingCount == 0) {
+                    return false;
+                }
+
+                long waitTime = attachDeadline - System.currentTimeMillis();
+
+                if (waitTime <= 0) {
+                    return false;
+                }
+
+                logger.debug("Waiting up to {}ms for '{}' to be attached.", waitTime,
+                        deviceName != null ? deviceName : "the next inventoried capture device");
+                pending.wait(Math.min(waitTime, 500));
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Get all of the capture devices in the inventory.
+     */
+    public static List<Entry> getEntries() {
+        return new ArrayList<>(inventory.values());
+    }
+
+    // This must only be called while holding inventoryLock.
+    private static void saveIds() {
+        Config.setIntegerArray(INVENTORY_IDS, inventory.keySet().toArray(new Integer[inventory.size()]));
+    }
+}
@@ -22,6 +22,7 @@ import opendct.capture.CaptureDeviceType;
 import opendct.channel.ChannelManager;
 import opendct.config.Config;
 import opendct.config.ExitCode;
+import opendct.nanohttpd.JsonResponseCache;
 import opendct.power.PowerEventListener;
 import opendct.tuning.discovery.discoverers.HDHomeRunDiscoverer;
 import opendct.tuning.discovery.discoverers.UpnpDiscoverer;
@@ -32,6 +33,7 @@ import org.apache.logging.log4j.Logger;
 import java.net.ServerSocket;
 import java.net.SocketException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -56,9 +58,17 @@ public class SageTVManager implements PowerEventListener {
     private static final ReentrantReadWriteLock fileToSocketServerLock = new ReentrantReadWriteLock();
 
     private static final Map<Integer, SageTVSocketServer> portToSocketServer = new HashMap<>();
-    private static final Map<String, CaptureDevice> captureDeviceNameToCaptureDevice = new HashMap<>();
-    private static final Map<Integer, CaptureDevice> captureDeviceIdToCaptureDevice = new HashMap<>();
-    private static final Map<CaptureDevice, String> captureDeviceToFiles = new HashMap<>();
+    // Writes to these two maps are done while holding captureDeviceNameToCaptureDeviceLock so that
+    // a capture device is always added and removed from both at the same time. Reads are lock-free.
+    private static final Map<String, CaptureDevice> captureDeviceNameToCaptureDevice = new ConcurrentHashMap<>();
+    private static final Map<Integer, CaptureDevice> captureDeviceIdToCaptureDevice = new ConcurrentHashMap<>();
+    // This is replaced every time a capture device is added or removed.
+    private static volatile CaptureDeviceIndex captureDeviceIndex = new CaptureDeviceIndex();
+    private static final Object captureDeviceIndexLock = new Object();
+    // Writes to these two maps are done while holding captureDeviceToFilesLock so they are always
+    // updated together. Reads are lock-free since GET_FILE_SIZE is requested constantly.
+    private static final Map<CaptureDevice, String> captureDeviceToFiles = new ConcurrentHashMap<>();
+    private static final Map<String, CaptureDevice> fileToCaptureDevice = new ConcurrentHashMap<>();
     private static final Map<String, Integer> fileToUploadID = new HashMap<>();
     private static final Map<String, SageTVSocketServer> fileToSocketServer = new HashMap<>();
 
@@ -180,6 +190,7 @@ public class SageTVManager implements PowerEventListener {
             portToSocketServer.put(newPort, socketServer);
             captureDeviceNameToCaptureDevice.put(captureDevice.getEncoderName(), captureDevice);
             captureDeviceIdToCaptureDevice.put(captureDevice.getEncoderUniqueHash(), captureDevice);
+            rebuildCaptureDeviceIndex();
 
             if (!Util.isNullOrEmpty(captureDevice.getPoolName()) &&
                     SageTVPoolManager.isUsePools()) {
@@ -234,6 +245,9 @@ public class SageTVManager implements PowerEventListener {
                     captureDevice.getEncoderName());
         }
 
+        SageTVDeviceInventory.deviceAttached(captureDevice);
+        JsonResponseCache.invalidate();
+
         logger.exit();
     }
 
@@ -265,13 +279,17 @@ public class SageTVManager implements PowerEventListener {
 
             captureDeviceIdToCaptureDevice.remove(captureDeviceId);
             captureDeviceNameToCaptureDevice.remove(captureDevice.getEncoderName());
-            captureDeviceToFiles.remove(captureDevice);
+            rebuildCaptureDeviceIndex();
+            String filename = captureDeviceToFiles.remove(captureDevice);
+            if (filename != null) {
+                fileToCaptureDevice.remove(filename);
+            }
 
         } catch (Exception e) {
             logger.debug("There was an unhandled exception while using a ReentrantReadWriteLock => ", e);
         } finally {
             captureDeviceNameToCaptureDeviceLock.writeLock().unlock();
-            captureDeviceToFilesLock.writeLock().lock();
+            captureDeviceToFilesLock.writeLock().unlock();
         }
 
         if (captureDevice != null) {
@@ -281,6 +299,8 @@ public class SageTVManager implements PowerEventListener {
 
             SageTVPoolManager.removePoolCaptureDevice(
                     captureDevice.getEncoderName());
+
+            JsonResponseCache.invalidate();
         }
 
         logger.exit();
@@ -384,33 +404,14 @@ public class SageTVManager implements PowerEventListener {
             devicesWaitingThread.interrupt();
         }
 
-        // This only needs a read lock. Since it uses captureDeviceToSocketServerLock and we can't
-        // upgrade to a write lock, that create a problem.
         List<CaptureDevice> captureDevices = getAllSageTVCaptureDevices();
 
-        // This will prevent the SageTV Socket Server from looking up capture devices until we are
-        // done. That basically means the SageTV Socket Server will not be able to locate any
-        // capture devices once this method completes which is what we want.
+        // Lookups don't lock, so the capture devices are removed before they are stopped. That
+        // means the SageTV Socket Server will not be able to locate any of these capture devices
+        // while they are being stopped which is what we want.
         captureDeviceNameToCaptureDeviceLock.writeLock().lock();
 
         try {
-            for (CaptureDevice captureDevice : captureDevices) {
-                if (captureDevice != null) {
-                    try {
-                        logger.info("The capture device '{}' is being unloaded.", captureDevice.getEncoderName());
-                        // This should cease all offline activities.
-                        captureDevice.setLocked(true);
-                        captureDevice.stopDevice();
-                    } catch (Exception e) {
-                        logger.error("The capture device '{}' did not stop gracefully.",
-                                captureDevice.getEncoderName());
-                    }
-                }
-            }
-        } catch (Exception e) {
-            logger.error("An unexpected error occurred while stopping and clearing all of the capture devices => ", e);
-        } finally {
-
             // We need all of these exclusive locks or there could be trouble. If only there was a
             // way to say this lock is more important than all of the other ones since this is
             // likely to be called when entering standby.
@@ -421,7 +422,9 @@ public class SageTVManager implements PowerEventListener {
             try {
                 captureDeviceNameToCaptureDevice.clear();
                 captureDeviceIdToCaptureDevice.clear();
+                rebuildCaptureDeviceIndex();
                 captureDeviceToFiles.clear();
+                fileToCaptureDevice.clear();
                 fileToUploadID.clear();
                 fileToSocketServer.clear();
             } finally {
@@ -430,6 +433,22 @@ public class SageTVManager implements PowerEventListener {
                 fileToSocketServerLock.writeLock().unlock();
             }
 
+            for (CaptureDevice captureDevice : captureDevices) {
+                if (captureDevice != null) {
+                    try {
+                        logger.info("The capture device '{}' is being unloaded.", captureDevice.getEncoderName());
+                        // This should cease all offline activities.
+                        captureDevice.setLocked(true);
+                        captureDevice.stopDevice();
+                    } catch (Exception e) {
+                        logger.error("The capture device '{}' did not stop gracefully.",
+                                captureDevice.getEncoderName());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.error("An unexpected error occurred while stopping and clearing all of the capture devices => ", e);
+        } finally {
             captureDeviceNameToCaptureDeviceLock.writeLock().unlock();
         }
     }
@@ -469,17 +488,7 @@ public class SageTVManager implements PowerEventListener {
     public static CaptureDevice getSageTVCaptureDevice(int deviceId) {
         logger.entry(deviceId);
 
-        CaptureDevice captureDevice = null;
-
-        captureDeviceNameToCaptureDeviceLock.readLock().lock();
-
-        try {
-            captureDevice = captureDeviceIdToCaptureDevice.get(deviceId);
-        } catch (Exception e) {
-            logger.debug("There was an unhandled exception while using a ReentrantReadWriteLock => ", e);
-        } finally {
-            captureDeviceNameToCaptureDeviceLock.readLock().unlock();
-        }
+        CaptureDevice captureDevice = captureDeviceIdToCaptureDevice.get(deviceId);
 
         return logger.exit(captureDevice);
     }
@@ -499,17 +508,8 @@ public class SageTVManager implements PowerEventListener {
     public static CaptureDevice getSageTVCaptureDevice(String deviceName, boolean wait) {
         logger.entry(deviceName);
 
-        CaptureDevice captureDevice = null;
-
-        captureDeviceNameToCaptureDeviceLock.readLock().lock();
-
-        try {
-            captureDevice = captureDeviceNameToCaptureDevice.get(deviceName);
-        } catch (Exception e) {
-            logger.debug("There was an unhandled exception while using a ReentrantReadWriteLock => ", e);
-        } finally {
-            captureDeviceNameToCaptureDeviceLock.readLock().unlock();
-        }
+        CaptureDevice captureDevice = deviceName != null ?
+                captureDeviceNameToCaptureDevice.get(deviceName) : null;
 
         if (wait) {
             while (captureDevice == null) {
@@ -517,20 +517,20 @@ public class SageTVManager implements PowerEventListener {
 
                 try {
                     logger.debug("The capture device '{}' is not yet available.", deviceName);
-                    retry = blockUntilNextCaptureDeviceLoaded();
+
+                    // If we know this device was here before, keep waiting for discovery to
+                    // confirm it even if the loading timeout has already expired.
+                    if (SageTVDeviceInventory.isPending(deviceName)) {
+                        retry = SageTVDeviceInventory.awaitDevice(deviceName);
+                    } else {
+                        retry = blockUntilNextCaptureDeviceLoaded();
+                    }
                 } catch (InterruptedException e) {
                     logger.debug("getSageTVCaptureDevice was interrupted while waiting for the next capture devices to be loaded.");
                 }
 
-                captureDeviceNameToCaptureDeviceLock.readLock().lock();
-
-                try {
-                    captureDevice = captureDeviceNameToCaptureDevice.get(deviceName);
-                } catch (Exception e) {
-                    logger.debug("There was an unhandled exception while using a ReentrantReadWriteLock => ", e);
-                } finally {
-                    captureDeviceNameToCaptureDeviceLock.readLock().unlock();
-                }
+                captureDevice = deviceName != null ?
+                        captureDeviceNameToCaptureDevice.get(deviceName) : null;
 
                 if (!retry) {
                     break;
@@ -559,7 +559,41 @@ public class SageTVManager implements PowerEventListener {
         captureDeviceToFilesLock.writeLock().lock();
 
         try {
-            captureDeviceToFiles.put(captureDevice, filename);
+            String oldFilename = captureDeviceToFiles.put(captureDevice, filename);
+
+            if (oldFilename != null && !oldFilename.equals(filename)) {
+                fileToCaptureDevice.remove(oldFilename);
+            }
+
+            fileToCaptureDevice.put(filename, captureDevice);
+        } catch (Exception e) {
+            logger.debug("There was an unhandled exception while using a ReentrantReadWriteLock => ", e);
+        } finally {
+            captureDeviceToFilesLock.writeLock().unlock();
+        }
+
+        logger.exit();
+    }
+
+    /**
+     * Remove the filename currently mapped to a capture device.
+     * <p/>
+     * This should be called when a capture device stops recording so the file size will be read
+     * from the file system instead of from a capture device that is no longer writing to it.
+     *
+     * @param captureDevice This is the capture device that is no longer recording.
+     */
+    public static void removeFilesByCaptureDevice(CaptureDevice captureDevice) {
+        logger.entry(captureDevice);
+
+        captureDeviceToFilesLock.writeLock().lock();
+
+        try {
+            String filename = captureDeviceToFiles.remove(captureDevice);
+
+            if (filename != null) {
+                fileToCaptureDevice.remove(filename);
+            }
         } catch (Exception e) {
             logger.debug("There was an unhandled exception while using a ReentrantReadWriteLock => ", e);
         } finally {
@@ -601,88 +635,179 @@ public class SageTVManager implements PowerEventListener {
     public static CaptureDevice getCaptureDeviceByFilename(String filename) {
         logger.entry(filename);
 
-        captureDeviceToFilesLock.readLock().lock();
-        CaptureDevice captureDevice = null;
-
-        try {
-            for (Map.Entry<CaptureDevice, String> keyValuePair : captureDeviceToFiles.entrySet()) {
-                if (keyValuePair.getValue() != null && keyValuePair.getValue().equals(filename)) {
-                    if (keyValuePair.getValue().equals(filename)) {
-                        captureDevice = keyValuePair.getKey();
-                    }
-                    break;
-                }
-            }
-        } catch (Exception e) {
-            logger.debug("There was an unhandled exception while using a ReentrantReadWriteLock => ", e);
-        } finally {
-            captureDeviceToFilesLock.readLock().unlock();
-        }
+        CaptureDevice captureDevice = filename != null ? fileToCaptureDevice.get(filename) : null;
 
         return logger.exit(captureDevice);
     }
 
     /**
-     * Returns an array containing all currently available capture devices.
+     * Returns a list containing all currently available capture devices.
      * <p/>
      * It is not recommended to modify the capture devices returned from the method unless you know
-     * what the implications your actions could have on the stability of the capture device.
+     * what the implications your actions could have on the stability of the capture device. The
+     * returned list cannot be modified and will not change when capture devices are added or
+     * removed.
      *
      * @return All currently available capture devices.
      */
     public static List<CaptureDevice> getAllSageTVCaptureDevices() {
-        return getAllSageTVCaptureDevices(new CaptureDeviceType[0]);
+        return captureDeviceIndex.captureDevices;
     }
 
     /**
-     * Returns an array containing all currently available capture devices of a specific type.
+     * Returns a list containing all currently available capture devices of a specific type.
      * <p/>
      * It is not recommended to modify the capture devices returned from the method unless you know
-     * what the implications your actions could have on the stability of the capture device.
+     * what the implications your actions could have on the stability of the capture device. The
+     * returned list cannot be modified and will not change when capture devices are added or
+     * removed.
+     * <p/>
+     * When more than one type is requested, the capture devices are grouped by type in the order
+     * the types are declared in {@link CaptureDeviceType}.
      *
      * @param captureDeviceTypes The device type or types to filter by.
-     * @return A filtered array of all currently available capture devices.
+     * @return A filtered list of all currently available capture devices.
      */
     public static List<CaptureDevice> getAllSageTVCaptureDevices(CaptureDeviceType... captureDeviceTypes) {
-        logger.entry();
+        if (captureDeviceTypes.length == 0) {
+            return captureDeviceIndex.captureDevices;
+        }
 
-        captureDeviceNameToCaptureDeviceLock.readLock().lock();
-        List<CaptureDevice> captureDevices = new ArrayList<CaptureDevice>();
+        return captureDeviceIndex.getByTypes(captureDeviceTypes);
+    }
 
-        try {
-            for (Map.Entry<String, CaptureDevice> captureDeviceMap : captureDeviceNameToCaptureDevice.entrySet()) {
-                CaptureDevice captureDevice = captureDeviceMap.getValue();
+    /**
+     * Returns a list containing all currently available capture devices on the same parent
+     * device.
+     *
+     * @param parentName The parent name as returned by
+     *                   {@link CaptureDevice#getEncoderParentName()}.
+     * @return An unmodifiable list of capture devices. The list is empty if there are no capture
+     *         devices with the provided parent.
+     */
+    public static List<CaptureDevice> getSageTVCaptureDevicesByParent(String parentName) {
+        List<CaptureDevice> captureDevices = captureDeviceIndex.byParent.get(parentName);
 
-                if (captureDevice != null) {
-                    if (captureDeviceTypes.length == 0) {
-                        captureDevices.add(captureDevice);
-                    } else {
-                        for (CaptureDeviceType captureDeviceType : captureDeviceTypes) {
-                            if (captureDevice.getEncoderDeviceType() == captureDeviceType) {
-                                captureDevices.add(captureDevice);
-                            }
-                        }
+        return captureDevices != null ? captureDevices : Collections.<CaptureDevice>emptyList();
+    }
+
+    /**
+     * Rebuilds the cached capture device lists after a capture device is added or removed.
+     */
+    private static void rebuildCaptureDeviceIndex() {
+        synchronized (captureDeviceIndexLock) {
+            captureDeviceIndex = new CaptureDeviceIndex(captureDeviceNameToCaptureDevice.values());
+        }
+    }
+
+    /**
+     * Immutable lists of the loaded capture devices grouped by the ways they are looked up.
+     */
+    private static class CaptureDeviceIndex {
+        private final List<CaptureDevice> captureDevices;
+        private final List<List<CaptureDevice>> byType;
+        private final Map<String, List<CaptureDevice>> byParent;
+
+        // Combinations of types are only created when requested. The key is a bitmask of the
+        // requested types. This is discarded with the index.
+        private final Map<Long, List<CaptureDevice>> byTypes = new ConcurrentHashMap<>();
+
+        private CaptureDeviceIndex() {
+            this(Collections.<CaptureDevice>emptyList());
+        }
+
+        private CaptureDeviceIndex(Collection<CaptureDevice> loadedDevices) {
+            List<CaptureDevice> newCaptureDevices = new ArrayList<>(loadedDevices);
+            CaptureDeviceType types[] = CaptureDeviceType.values();
+            List<List<CaptureDevice>> newByType = new ArrayList<>(types.length);
+            Map<String, List<CaptureDevice>> newByParent = new HashMap<>();
+
+            for (int i = 0; i < types.length; i++) {
+                newByType.add(null);
+            }
+
+            for (CaptureDevice captureDevice : newCaptureDevices) {
+                int type = captureDevice.getEncoderDeviceType().ordinal();
+
+                if (newByType.get(type) == null) {
+                    newByType.set(type, new ArrayList<CaptureDevice>());
+                }
+
+                newByType.get(type).add(captureDevice);
+
+                addToGroup(newByParent, captureDevice.getEncoderParentName(), captureDevice);
+            }
+
+            for (int i = 0; i < newByType.size(); i++) {
+                newByType.set(i, newByType.get(i) == null ? Collections.<CaptureDevice>emptyList() :
+                        Collections.unmodifiableList(newByType.get(i)));
+            }
+
+            captureDevices = Collections.unmodifiableList(newCaptureDevices);
+            byType = newByType;
+            byParent = freezeGroups(newByParent);
+        }
+
+        private List<CaptureDevice> getByTypes(CaptureDeviceType captureDeviceTypes[]) {
+            if (captureDeviceTypes.length == 1) {
+                return byType.get(captureDeviceTypes[0].ordinal());
+            }
+
+            long key = 0;
+
+            for (CaptureDeviceType captureDeviceType : captureDeviceTypes) {
+                key |= 1L << captureDeviceType.ordinal();
+            }
+
+            List<CaptureDevice> captureDevices = byTypes.get(key);
+
+            if (captureDevices == null) {
+                captureDevices = new ArrayList<>();
+
+                for (int i = 0; i < byType.size(); i++) {
+                    if ((key & (1L << i)) != 0) {
+                        captureDevices.addAll(byType.get(i));
                     }
                 }
+
+                captureDevices = Collections.unmodifiableList(captureDevices);
+                byTypes.put(key, captureDevices);
             }
-        } catch (Exception e) {
-            logger.debug("There was an unhandled exception while using a ReentrantReadWriteLock => ", e);
-        } finally {
-            captureDeviceNameToCaptureDeviceLock.readLock().unlock();
+
+            return captureDevices;
         }
 
-        return logger.exit(captureDevices);
+        private static void addToGroup(Map<String, List<CaptureDevice>> groups, String key, CaptureDevice captureDevice) {
+            if (Util.isNullOrEmpty(key)) {
+                return;
+            }
+
+            List<CaptureDevice> group = groups.get(key);
+
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(key, group);
+            }
+
+            group.add(captureDevice);
+        }
+
+        private static Map<String, List<CaptureDevice>> freezeGroups(Map<String, List<CaptureDevice>> groups) {
+            for (Map.Entry<String, List<CaptureDevice>> group : groups.entrySet()) {
+                group.setValue(Collections.unmodifiableList(group.getValue()));
+            }
+
+            return Collections.unmodifiableMap(groups);
+        }
     }
 
     protected static String getAllTunerProperties(SageTVRequestHandler requestHandler) {
         logger.entry();
 
-        captureDeviceNameToCaptureDeviceLock.readLock().lock();
         StringBuilder tunerPropertiesList = new StringBuilder();
 
         try {
-            for (Map.Entry<String, CaptureDevice> captureDeviceMap : captureDeviceNameToCaptureDevice.entrySet()) {
-                CaptureDevice captureDevice = captureDeviceMap.getValue();
+            for (CaptureDevice captureDevice : getAllSageTVCaptureDevices()) {
 
                 // This allows us to make a capture device only appear in detection for a server on
                 // a specific IP address.
@@ -724,9 +849,7 @@ public class SageTVManager implements PowerEventListener {
                 tunerPropertiesList.append(tunerProperties);
             }
         } catch (Exception e) {
-            logger.debug("There was an unhandled exception while using a ReentrantReadWriteLock => ", e);
-        } finally {
-            captureDeviceNameToCaptureDeviceLock.readLock().unlock();
+            logger.debug("There was an unhandled exception while building tuner properties => ", e);
         }
 
         return logger.exit(tunerPropertiesList.toString());
@@ -827,6 +950,9 @@ public class SageTVManager implements PowerEventListener {
     /**
      * Blocks until the next device is loaded.
      * <p/>
+     * After the loading timeout has expired, this will continue to wait while capture devices in
+     * the inventory are still expected to be attached.
+     * <p/>
      * Be careful where you call this and test to ensure you are not calling this method in a place
      * that will potentially cause a deadlock. Do not use this as any part of tuner initialization.
      *
@@ -836,7 +962,8 @@ public class SageTVManager implements PowerEventListener {
      *         no new devices are expected.
      */
     public static boolean blockUntilNextCaptureDeviceLoaded() throws InterruptedException {
-        return devicesWaitingThread.blockUntilNextDeviceLoaded();
+        return devicesWaitingThread.blockUntilNextDeviceLoaded() ||
+                SageTVDeviceInventory.awaitDevice(null);
     }
 
     /**
@@ -23,7 +23,11 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.*;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 public class SageTVPoolManager  {
     private static final Logger logger = LogManager.getLogger(SageTVPoolManager.class);
@@ -31,24 +35,43 @@ public class SageTVPoolManager  {
     // Virtual capture devices are the names of the devices as seen by SageTV.
     // Pool capture device are the name of the devices actually being used by OpenDCT.
     //
-    // All methods in this class only keep track of capture device names because if for example a
-    // capture device is removed and re-initialized this class could be hanging onto a stale
-    // instance. This class is strictly for re-ordering request so this should be sufficient.
+    // Pools are kept as immutable snapshots that are replaced whenever a pool changes. Each
+    // snapshot holds the names of every member of the pool and the capture devices that were
+    // loaded when the snapshot was created, already sorted by merit. A capture device being
+    // removed and re-initialized always results in a new snapshot, so selecting a device never
+    // needs to look anything up by name or take a lock.
     //
     // This could get a little confusing, so try to keep it clear when referring to capture devices.
     // The SageTVPoolManager should be the only class that will swap things around if needed.
 
-    private static final ReentrantReadWriteLock captureDeviceMappingLock = new ReentrantReadWriteLock();
-    private static final ReentrantReadWriteLock poolNameToPoolCaptureDevicesLock = new ReentrantReadWriteLock();
-    private static final ReentrantReadWriteLock vCaptureDeviceToPoolNameLock = new ReentrantReadWriteLock();
+    // Writers to the pools and mappings take these locks so related maps change together. Readers
+    // never lock.
+    private static final Object poolWriteLock = new Object();
+    private static final Object captureDeviceMappingLock = new Object();
 
-    private static final Map<String, String> vCaptureDeviceToPoolCaptureDevice = new HashMap<>();
-    private static final Map<String, String> poolCaptureDeviceToVCaptureDevice = new HashMap<>();
-    private static final Map<String, ArrayList<String>> poolNameToPoolCaptureDevices = new HashMap<>();
-    private static final Map<String, String> vCaptureDeviceToPoolName = new HashMap<>();
+    private static final Map<String, String> vCaptureDeviceToPoolCaptureDevice = new ConcurrentHashMap<>();
+    private static final Map<String, String> poolCaptureDeviceToVCaptureDevice = new ConcurrentHashMap<>();
+    private static final Map<String, PoolSnapshot> poolNameToPoolSnapshot = new ConcurrentHashMap<>();
+    private static final Map<String, String> vCaptureDeviceToPoolName = new ConcurrentHashMap<>();
 
     private static boolean usePools = Config.getBoolean("pool.enabled", false);
 
+    // Warm standby keeps one idle capture device in each pool tuned into the channel most likely to
+    // be requested next so that a matching START only needs to start a new consumer.
+    private static final boolean warmStandby = Config.getBoolean("pool.warm_standby.enabled", false);
+    private static final boolean warmStandbyRecent =
+            Config.getString("pool.warm_standby.predict", "frequent").equalsIgnoreCase("recent");
+    private static final int warmStandbyDelay = Config.getInteger("pool.warm_standby.delay_ms", 10000);
+    private static final int warmStandbyMinIdle = Config.getInteger("pool.warm_standby.min_idle", 1);
+    private static final int WARM_STANDBY_HISTORY = 16;
+    private static final long WARM_STANDBY_CLAIM_TIMEOUT = 15000;
+
+    private static final ConcurrentHashMap<String, WarmStandby> poolNameToWarmStandby = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, ChannelHistory> poolNameToChannelHistory = new ConcurrentHashMap<>();
+    private static final Map<String, Boolean> warmStandbyPending = new ConcurrentHashMap<>();
+    private static final Object warmStandbyExecutorLock = new Object();
+    private static volatile ScheduledThreadPoolExecutor warmStandbyExecutor;
+
     /**
      * Finds the best available capture device in the pool, locks it and puts it on the map, then
      * returns the pool capture device.
@@ -56,11 +79,31 @@ public class SageTVPoolManager  {
      * If the capture device is not in a pool, it is mapped directly to itself. If the mapping has
      * not been removed for the capture device (usually done on STOP), the last mapping will be
      * returned.
+     * <p/>
+     * This method can be called concurrently. Each capture device can only be claimed by one
+     * caller since {@link CaptureDevice#setLocked(boolean)} will only return <i>true</i> for the
+     * caller that actually changed the lock.
+     *
+     * @param vCaptureDevice The name of the virtual capture device.
+     * @return The name of the pool capture device or <i>null</i> if no device is available.
+     */
+    public static String getAndLockBestCaptureDevice(String vCaptureDevice) {
+        return getAndLockBestCaptureDevice(vCaptureDevice, null);
+    }
+
+    /**
+     * Finds the best available capture device in the pool for a channel, locks it and puts it on
+     * the map, then returns the pool capture device.
+     * <p/>
+     * If warm standby is enabled and a capture device in the pool is already tuned into the
+     * channel, that capture device is always selected. Otherwise the standby capture device is
+     * only selected when no other capture device is idle.
      *
      * @param vCaptureDevice The name of the virtual capture device.
+     * @param channel The channel that will be tuned or <i>null</i> if it is not known.
      * @return The name of the pool capture device or <i>null</i> if no device is available.
      */
-    public static synchronized String getAndLockBestCaptureDevice(String vCaptureDevice) {
+    public static String getAndLockBestCaptureDevice(String vCaptureDevice, String channel) {
 
         long startTime = System.currentTimeMillis();
 
@@ -74,52 +117,30 @@ public class SageTVPoolManager  {
 
         if (poolName == null || !usePools) {
             // This device is not associated with any pool so it will just be mapped to itself.
-            setCaptureDeviceMapping(vCaptureDevice, vCaptureDevice);
-
-            CaptureDevice captureDevice = SageTVManager.getSageTVCaptureDevice(vCaptureDevice, false);
-
-            if (captureDevice == null) {
-                return null;
-            }
-
-            captureDevice.setLocked(true);
-
-            if (logger.isDebugEnabled()) {
-                long endTime = System.currentTimeMillis();
-                logger.debug("'{}' capture device selected in {}ms.", vCaptureDevice, endTime - startTime);
-            } else {
-                logger.info("'{}' capture device selected.", vCaptureDevice);
-            }
-
-            return vCaptureDevice;
+            return lockUnpooledCaptureDevice(vCaptureDevice, startTime);
         }
 
-        final ArrayList<String> poolCaptureDevices = getPoolNameToPoolCaptureDevices(poolName);
+        final PoolSnapshot poolSnapshot = poolNameToPoolSnapshot.get(poolName);
 
-        if (poolCaptureDevices == null) {
+        if (poolSnapshot == null) {
             // This device is not associated with any pool so it will just be mapped to itself, but
             // claimed it did in the previous step. Displaying warning so we know something odd has
             // happened, but not strange enough to prevent us from proceeding.
             logger.warn("'{}' claims to be a part of the pool named '{}' but the pool does not exist.", vCaptureDevice, poolName);
 
-            setCaptureDeviceMapping(vCaptureDevice, vCaptureDevice);
-
-            CaptureDevice captureDevice = SageTVManager.getSageTVCaptureDevice(vCaptureDevice, false);
+            return lockUnpooledCaptureDevice(vCaptureDevice, startTime);
+        }
 
-            if (captureDevice == null) {
-                return null;
-            }
+        if (warmStandby && channel != null) {
+            recordChannel(poolName, channel);
+            String selectedDevice = claimWarmStandby(vCaptureDevice, poolName, channel);
 
-            captureDevice.setLocked(true);
+            if (selectedDevice != null) {
+                logger.info("'{}' pool capture device in warm standby on channel '{}' selected for virtual capture device '{}' in {}ms.", selectedDevice, channel, vCaptureDevice, System.currentTimeMillis() - startTime);
 
-            if (logger.isDebugEnabled()) {
-                long endTime = System.currentTimeMillis();
-                logger.debug("'{}' capture device selected in {}ms.", vCaptureDevice, endTime - startTime);
-            } else {
-                logger.info("'{}' capture device selected.", vCaptureDevice);
+                scheduleWarmStandby(poolName);
+                return selectedDevice;
             }
-
-            return vCaptureDevice;
         }
 
         boolean tryAgain = true;
@@ -128,18 +149,12 @@ public class SageTVPoolManager  {
             tryAgain = false;
 
             // Temporarily Store all of the capture devices we might come back to so we don't need
-            // to look them up twice.
+            // to check them twice.
             ArrayList<CaptureDevice> externalLocked = new ArrayList<>();
 
-            // These are already in their order of merit since every time a new device is added,
-            // they are re-sorted by merit.
-            for (String poolCaptureDevice : poolCaptureDevices) {
-                CaptureDevice captureDevice = SageTVManager.getSageTVCaptureDevice(poolCaptureDevice, false);
-
-                if (captureDevice == null) {
-                    continue;
-                }
-
+            // These are already in their order of merit since every time the pool changes, a new
+            // snapshot is created sorted by merit.
+            for (CaptureDevice captureDevice : poolSnapshot.captureDevices) {
                 if (captureDevice.isInternalLocked()) {
                     continue;
                 }
@@ -154,16 +169,17 @@ public class SageTVPoolManager  {
                 }
 
                 // Map device so we can find it later by the name SageTV uses.
-                setCaptureDeviceMapping(vCaptureDevice, poolCaptureDevice);
+                String selectedDevice = claimCaptureDevice(vCaptureDevice, captureDevice);
 
                 if (logger.isDebugEnabled()) {
                     long endTime = System.currentTimeMillis();
-                    logger.debug("'{}' pool capture device selected for virtual capture device '{}' in {}ms.", poolCaptureDevice, vCaptureDevice, endTime - startTime);
+                    logger.debug("'{}' pool capture device selected for virtual capture device '{}' in {}ms.", selectedDevice, vCaptureDevice, endTime - startTime);
                 } else {
-                    logger.info("'{}' pool capture device selected for virtual capture device '{}'.", poolCaptureDevice, vCaptureDevice);
+                    logger.info("'{}' pool capture device selected for virtual capture device '{}'.", selectedDevice, vCaptureDevice);
                 }
 
-                return poolCaptureDevice;
+                scheduleWarmStandby(poolName);
+                return selectedDevice;
             }
 
             if (Thread.currentThread().isInterrupted()) {
@@ -171,6 +187,18 @@ public class SageTVPoolManager  {
                 return null;
             }
 
+            // The capture device in warm standby is idle, so it's a better choice than taking a
+            // capture device away from another program.
+            if (warmStandby) {
+                String selectedDevice = claimWarmStandby(vCaptureDevice, poolName, null);
+
+                if (selectedDevice != null) {
+                    logger.info("'{}' pool capture device was in warm standby and was selected for virtual capture device '{}' in {}ms.", selectedDevice, vCaptureDevice, System.currentTimeMillis() - startTime);
+
+                    return selectedDevice;
+                }
+            }
+
             // If we can't find a device that's not locked, then we need to use one that is.
             for (CaptureDevice captureDevice : externalLocked) {
                 if (captureDevice.isInternalLocked()) {
@@ -183,21 +211,21 @@ public class SageTVPoolManager  {
 
                 if (captureDevice.setExternalLock(false)) {
 
-                    // Map device so we can find it later by the name SageTV uses.
-                    setCaptureDeviceMapping(vCaptureDevice, captureDevice.getEncoderName());
-
                     if (!captureDevice.setLocked(true)) {
                         continue;
                     }
 
+                    // Map device so we can find it later by the name SageTV uses.
+                    String selectedDevice = claimCaptureDevice(vCaptureDevice, captureDevice);
+
                     if (logger.isDebugEnabled()) {
                         long endTime = System.currentTimeMillis();
-                        logger.debug("'{}' pool capture device was externally locked and was selected for virtual capture device '{}' in {}ms.", captureDevice.getEncoderName(), vCaptureDevice, endTime - startTime);
+                        logger.debug("'{}' pool capture device was externally locked and was selected for virtual capture device '{}' in {}ms.", selectedDevice, vCaptureDevice, endTime - startTime);
                     } else {
-                        logger.info("'{}' pool capture device was externally locked and was selected for virtual capture device '{}'.", captureDevice.getEncoderName(), vCaptureDevice);
+                        logger.info("'{}' pool capture device was externally locked and was selected for virtual capture device '{}'.", selectedDevice, vCaptureDevice);
                     }
 
-                    return captureDevice.getEncoderName();
+                    return selectedDevice;
                 }
             }
 
@@ -219,16 +247,16 @@ public class SageTVPoolManager  {
 
                 captureDevice.setExternalLock(false);
 
-                setCaptureDeviceMapping(vCaptureDevice, captureDevice.getEncoderName());
+                String selectedDevice = claimCaptureDevice(vCaptureDevice, captureDevice);
 
                 if (logger.isDebugEnabled()) {
                     long endTime = System.currentTimeMillis();
-                    logger.warn("'{}' pool capture device was unable to be externally unlocked, but we have no other options so it was selected for virtual capture device '{}' in {}ms.", captureDevice.getEncoderName(), vCaptureDevice, endTime - startTime);
+                    logger.warn("'{}' pool capture device was unable to be externally unlocked, but we have no other options so it was selected for virtual capture device '{}' in {}ms.", selectedDevice, vCaptureDevice, endTime - startTime);
                 } else {
-                    logger.warn("'{}' pool capture device was unable to be externally unlocked, but we have no other options so it was selected for virtual capture device '{}'.", captureDevice.getEncoderName(), vCaptureDevice);
+                    logger.warn("'{}' pool capture device was unable to be externally unlocked, but we have no other options so it was selected for virtual capture device '{}'.", selectedDevice, vCaptureDevice);
                 }
 
-                return captureDevice.getEncoderName();
+                return selectedDevice;
             }
         }
 
@@ -238,26 +266,97 @@ public class SageTVPoolManager  {
     }
 
     /**
-     * Sets the virtual capture device to pool capture device mapping and the reverse.
+     * Locks a capture device that isn't in a pool and maps it to itself.
+     * <p/>
+     * The capture device is locked before it is mapped, so a racing request can never be mapped
+     * to a capture device that it was unable to lock.
      *
      * @param vCaptureDevice The name of the virtual capture device.
-     * @param pCaptureDevice The name of the pool capture device.
+     * @param startTime The time the selection started for logging.
+     * @return The name of the capture device or <i>null</i> if it could not be locked.
      */
-    private static void setCaptureDeviceMapping(String vCaptureDevice, String pCaptureDevice) {
+    private static String lockUnpooledCaptureDevice(String vCaptureDevice, long startTime) {
+        CaptureDevice captureDevice = SageTVManager.getSageTVCaptureDevice(vCaptureDevice, false);
 
-        captureDeviceMappingLock.writeLock().lock();
+        if (captureDevice == null) {
+            return null;
+        }
 
-        try {
-            if (vCaptureDevice.endsWith(" Digital TV Tuner")) {
-                vCaptureDevice = vCaptureDevice.substring(0, vCaptureDevice.length() - " Digital TV Tuner".length()).trim();
+        if (!captureDevice.setLocked(true)) {
+            // Another request for this capture device locked it first and will map it.
+            String existingDevice = getVCaptureDeviceToPoolCaptureDevice(vCaptureDevice);
+
+            if (existingDevice == null) {
+                logger.warn("'{}' capture device is already locked.", vCaptureDevice);
+            }
+
+            return existingDevice;
+        }
+
+        setCaptureDeviceMapping(vCaptureDevice, vCaptureDevice);
+
+        if (logger.isDebugEnabled()) {
+            long endTime = System.currentTimeMillis();
+            logger.debug("'{}' capture device selected in {}ms.", vCaptureDevice, endTime - startTime);
+        } else {
+            logger.info("'{}' capture device selected.", vCaptureDevice);
+        }
+
+        return vCaptureDevice;
+    }
+
+    /**
+     * Maps a locked pool capture device to a virtual capture device.
+     * <p/>
+     * If another request for the same virtual capture device mapped a different pool capture
+     * device first, the device that was just locked is unlocked and the existing mapping is used
+     * instead.
+     *
+     * @param vCaptureDevice The name of the virtual capture device.
+     * @param captureDevice The pool capture device that was just locked.
+     * @return The name of the pool capture device now mapped to the virtual capture device.
+     */
+    private static String claimCaptureDevice(String vCaptureDevice, CaptureDevice captureDevice) {
+        String pCaptureDevice = captureDevice.getEncoderName();
+
+        synchronized (captureDeviceMappingLock) {
+            String existingDevice = vCaptureDeviceToPoolCaptureDevice.get(trimVCaptureDevice(vCaptureDevice));
+
+            if (existingDevice == null) {
+                setCaptureDeviceMapping(vCaptureDevice, pCaptureDevice);
+                return pCaptureDevice;
+            } else if (existingDevice.equals(pCaptureDevice)) {
+                return pCaptureDevice;
             }
 
+            logger.warn("'{}' was already mapped to '{}', releasing '{}'.",
+                    vCaptureDevice, existingDevice, pCaptureDevice);
+
+            captureDevice.setLocked(false);
+            return existingDevice;
+        }
+    }
+
+    private static String trimVCaptureDevice(String vCaptureDevice) {
+        if (vCaptureDevice.endsWith(" Digital TV Tuner")) {
+            return vCaptureDevice.substring(0, vCaptureDevice.length() - " Digital TV Tuner".length()).trim();
+        }
+
+        return vCaptureDevice;
+    }
+
+    /**
+     * Sets the virtual capture device to pool capture device mapping and the reverse.
+     *
+     * @param vCaptureDevice The name of the virtual capture device.
+     * @param pCaptureDevice The name of the pool capture device.
+     */
+    private static void setCaptureDeviceMapping(String vCaptureDevice, String pCaptureDevice) {
+        synchronized (captureDeviceMappingLock) {
+            vCaptureDevice = trimVCaptureDevice(vCaptureDevice);
+
             vCaptureDeviceToPoolCaptureDevice.put(vCaptureDevice, pCaptureDevice);
             poolCaptureDeviceToVCaptureDevice.put(pCaptureDevice, vCaptureDevice);
-        } catch (Exception e) {
-            logger.warn("There was an unhandled exception while using a ReentrantReadWriteLock => ", e);
-        } finally {
-            captureDeviceMappingLock.writeLock().unlock();
         }
     }
 
@@ -267,67 +366,240 @@ public class SageTVPoolManager  {
      * @param vCaptureDevice The virtual capture device to remove.
      */
     public static void removeCaptureDeviceMapping(String vCaptureDevice) {
-        captureDeviceMappingLock.writeLock().lock();
+        String pCaptureDevice;
 
-        try {
-            String pCaptureDevice = vCaptureDeviceToPoolCaptureDevice.get(vCaptureDevice);
+        synchronized (captureDeviceMappingLock) {
+            pCaptureDevice = vCaptureDeviceToPoolCaptureDevice.remove(vCaptureDevice);
 
             if (pCaptureDevice != null) {
                 poolCaptureDeviceToVCaptureDevice.remove(pCaptureDevice);
             }
 
-            vCaptureDeviceToPoolCaptureDevice.remove(vCaptureDevice);
-
             logger.info("Cleared mapping for virtual capture device '{}'.", vCaptureDevice);
-        } catch (Exception e) {
-            logger.warn("There was an unhandled exception while using a ReentrantReadWriteLock => ",
-                    e);
-        } finally {
-            captureDeviceMappingLock.writeLock().unlock();
+        }
+
+        // A capture device was probably just released, so there might be room for a warm standby.
+        if (pCaptureDevice != null) {
+            scheduleWarmStandby(vCaptureDeviceToPoolName.get(pCaptureDevice));
         }
     }
 
     /**
-     * Removes a capture device from the pool manager completely.
+     * Takes the capture device in warm standby for a pool and maps it to a virtual capture device.
+     * <p/>
+     * If the warm standby tune is still in progress, this will wait for it to finish. The
+     * capture device is already locked.
      *
      * @param vCaptureDevice The name of the virtual capture device.
+     * @param poolName The name of the pool.
+     * @param channel The channel the capture device must be tuned into or <i>null</i> to take the
+     *                capture device regardless of the channel.
+     * @return The name of the pool capture device or <i>null</i> if there isn't a matching capture
+     *         device in warm standby.
      */
-    public static void removePoolCaptureDevice(String vCaptureDevice) {
-        poolNameToPoolCaptureDevicesLock.writeLock().lock();
-        vCaptureDeviceToPoolNameLock.writeLock().lock();
+    private static String claimWarmStandby(String vCaptureDevice, String poolName, String channel) {
+        WarmStandby standby = poolNameToWarmStandby.get(poolName);
+
+        if (standby == null || (channel != null && !channel.equals(standby.channel))) {
+            return null;
+        }
+
+        // Only one caller can remove the standby.
+        if (!poolNameToWarmStandby.remove(poolName, standby)) {
+            return null;
+        }
 
         try {
-            ArrayList<String> removePools = new ArrayList<>();
+            if (!standby.ready.await(WARM_STANDBY_CLAIM_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                logger.warn("'{}' warm standby tune did not finish within {}ms.",
+                        standby.captureDevice.getEncoderName(), WARM_STANDBY_CLAIM_TIMEOUT);
+            }
+        } catch (InterruptedException e) {
+            logger.debug("Interrupted while waiting for warm standby tune => ", e);
+            Thread.currentThread().interrupt();
+        }
 
-            for (Map.Entry<String, ArrayList<String>> poolCaptureDeviceKVP :
-                    poolNameToPoolCaptureDevices.entrySet()) {
+        return claimCaptureDevice(vCaptureDevice, standby.captureDevice);
+    }
 
-                ArrayList<String> poolCaptureDevices = poolCaptureDeviceKVP.getValue();
-                ArrayList<String> removePoolCaptureDevices = new ArrayList<>();
+    private static void recordChannel(String poolName, String channel) {
+        ChannelHistory history = poolNameToChannelHistory.get(poolName);
 
-                for (String poolCaptureDevice : poolCaptureDevices) {
-                    if (poolCaptureDevice.equals(vCaptureDevice)) {
-                        removePoolCaptureDevices.add(poolCaptureDevice);
-                    }
+        if (history == null) {
+            history = new ChannelHistory();
+            ChannelHistory existing = poolNameToChannelHistory.putIfAbsent(poolName, history);
+
+            if (existing != null) {
+                history = existing;
+            }
+        }
+
+        history.add(channel);
+    }
+
+    /**
+     * Check if a pool should have a capture device in warm standby after a short delay.
+     * <p/>
+     * The delay lets SageTV finish whatever it's doing before a tuner is taken. Multiple requests
+     * for the same pool before the check runs only result in one check.
+     *
+     * @param poolName The name of the pool. If this is <i>null</i>, nothing will happen.
+     */
+    private static void scheduleWarmStandby(final String poolName) {
+        if (!warmStandby || !usePools || poolName == null) {
+            return;
+        }
+
+        if (warmStandbyPending.put(poolName, Boolean.TRUE) != null) {
+            return;
+        }
+
+        ScheduledThreadPoolExecutor executor = warmStandbyExecutor;
+
+        if (executor == null) {
+            synchronized (warmStandbyExecutorLock) {
+                if (warmStandbyExecutor == null) {
+                    warmStandbyExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable);
+                            thread.setName("SageTVPoolManager-" + thread.getId());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
                 }
 
-                for (String removeDevice : removePoolCaptureDevices) {
-                    poolCaptureDevices.remove(removeDevice);
+                executor = warmStandbyExecutor;
+            }
+        }
+
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                warmStandbyPending.remove(poolName);
+
+                try {
+                    updateWarmStandby(poolName);
+                } catch (Exception e) {
+                    logger.error("Unable to update warm standby for the pool '{}' => ", poolName, e);
                 }
+            }
+        }, warmStandbyDelay, TimeUnit.MILLISECONDS);
+    }
 
-                if (poolCaptureDevices.size() == 0) {
-                    removePools.add(poolCaptureDeviceKVP.getKey());
+    /**
+     * Tune a capture device in a pool into the channel most likely to be requested next.
+     * <p/>
+     * This only runs on the warm standby thread, so there is never more than one update for a
+     * pool in progress.
+     *
+     * @param poolName The name of the pool.
+     */
+    private static void updateWarmStandby(String poolName) {
+        ChannelHistory history = poolNameToChannelHistory.get(poolName);
+        String channel = history != null ? history.predict(warmStandbyRecent) : null;
+        PoolSnapshot poolSnapshot = poolNameToPoolSnapshot.get(poolName);
+
+        if (channel == null || poolSnapshot == null) {
+            return;
+        }
+
+        CaptureDevice standbyDevice;
+        WarmStandby currentStandby = poolNameToWarmStandby.get(poolName);
+
+        if (currentStandby != null) {
+            if (channel.equals(currentStandby.channel)) {
+                return;
+            }
+
+            // Keep the lock and re-tune the same capture device into the new channel.
+            if (!poolNameToWarmStandby.remove(poolName, currentStandby)) {
+                return;
+            }
+
+            standbyDevice = currentStandby.captureDevice;
+        } else {
+            int idle = 0;
+            standbyDevice = null;
+
+            // Use the idle capture device with the lowest merit.
+            for (CaptureDevice captureDevice : poolSnapshot.captureDevices) {
+                if (captureDevice.isInternalLocked() || captureDevice.isExternalLocked()) {
+                    continue;
                 }
 
-                logger.info("The capture device '{}' has been removed from the '{}' pool.",
-                        vCaptureDevice, poolCaptureDeviceKVP.getKey());
+                idle++;
+                standbyDevice = captureDevice;
             }
 
-            for (String removePool : removePools) {
-                logger.info("Removed the pool '{}' since it no longer contains any" +
-                        " capture devices.", removePool);
+            if (standbyDevice == null || idle <= warmStandbyMinIdle) {
+                return;
+            }
 
-                poolNameToPoolCaptureDevices.remove(removePool);
+            if (!standbyDevice.setLocked(true)) {
+                return;
+            }
+        }
+
+        WarmStandby standby = new WarmStandby(standbyDevice, channel);
+        poolNameToWarmStandby.put(poolName, standby);
+        boolean started = false;
+
+        try {
+            started = standbyDevice.startWarmStandby(channel);
+        } finally {
+            standby.ready.countDown();
+        }
+
+        if (started) {
+            logger.info("'{}' pool capture device is in warm standby on channel '{}' for the '{}' pool.",
+                    standbyDevice.getEncoderName(), channel, poolName);
+        } else if (poolNameToWarmStandby.remove(poolName, standby)) {
+            // Nothing claimed the capture device, so it's still ours to release.
+            logger.warn("'{}' pool capture device was unable to tune channel '{}' for warm standby.",
+                    standbyDevice.getEncoderName(), channel);
+
+            standbyDevice.stopEncoding();
+            standbyDevice.setLocked(false);
+        }
+    }
+
+    /**
+     * Removes a capture device from the pool manager completely.
+     *
+     * @param vCaptureDevice The name of the virtual capture device.
+     */
+    public static void removePoolCaptureDevice(String vCaptureDevice) {
+        WarmStandby removedStandby = null;
+
+        synchronized (poolWriteLock) {
+            for (PoolSnapshot poolSnapshot : poolNameToPoolSnapshot.values()) {
+                if (!poolSnapshot.poolCaptureDevices.contains(vCaptureDevice)) {
+                    continue;
+                }
+
+                ArrayList<String> poolCaptureDevices = new ArrayList<>(poolSnapshot.poolCaptureDevices);
+                poolCaptureDevices.remove(vCaptureDevice);
+
+                logger.info("The capture device '{}' has been removed from the '{}' pool.",
+                        vCaptureDevice, poolSnapshot.poolName);
+
+                WarmStandby standby = poolNameToWarmStandby.get(poolSnapshot.poolName);
+                if (standby != null && standby.captureDevice.getEncoderName().equals(vCaptureDevice) &&
+                        poolNameToWarmStandby.remove(poolSnapshot.poolName, standby)) {
+
+                    removedStandby = standby;
+                }
+
+                if (poolCaptureDevices.size() == 0) {
+                    logger.info("Removed the pool '{}' since it no longer contains any" +
+                            " capture devices.", poolSnapshot.poolName);
+
+                    poolNameToPoolSnapshot.remove(poolSnapshot.poolName);
+                } else {
+                    updatePoolMembers(poolSnapshot.poolName, poolCaptureDevices);
+                }
             }
 
             vCaptureDeviceToPoolName.remove(vCaptureDevice);
@@ -335,12 +607,21 @@ public class SageTVPoolManager  {
             // Don't clear the mapping since the device might still be in use and we won't be able
             // to find it again. This will clean itself up when SageTV sends a STOP command.
             //vCaptureDeviceToPoolCaptureDevice.remove(vCaptureDevice);
-        } catch (Exception e) {
-            logger.warn("There was an unhandled exception while using a ReentrantReadWriteLock => ",
-                    e);
-        } finally {
-            poolNameToPoolCaptureDevicesLock.writeLock().unlock();
-            vCaptureDeviceToPoolNameLock.writeLock().unlock();
+        }
+
+        // Nothing can claim the capture device anymore, so it's ours to stop and release. Wait for
+        // the warm standby tune to finish first so it doesn't start streaming again afterwards.
+        if (removedStandby != null) {
+            try {
+                removedStandby.ready.await(WARM_STANDBY_CLAIM_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                logger.debug("Interrupted while waiting for warm standby tune => ", e);
+            }
+
+            logger.info("'{}' pool capture device is no longer in warm standby.", vCaptureDevice);
+
+            removedStandby.captureDevice.stopEncoding();
+            removedStandby.captureDevice.setLocked(false);
         }
     }
 
@@ -364,10 +645,7 @@ public class SageTVPoolManager  {
             return;
         }
 
-        poolNameToPoolCaptureDevicesLock.writeLock().lock();
-        vCaptureDeviceToPoolNameLock.writeLock().lock();
-
-        try {
+        synchronized (poolWriteLock) {
             String oldPool = vCaptureDeviceToPoolName.get(captureDevice);
 
             if (oldPool != null && oldPool.equals(poolName)) {
@@ -375,18 +653,18 @@ public class SageTVPoolManager  {
                         captureDevice, poolName);
 
                 return;
-            } else if (oldPool != null && !oldPool.equals(poolName)) {
-                ArrayList<String> poolCaptureDevices = poolNameToPoolCaptureDevices.get(poolName);
-                ArrayList<String> removePoolCaptureDevices = new ArrayList<>();
+            } else if (oldPool != null) {
+                PoolSnapshot oldSnapshot = poolNameToPoolSnapshot.get(oldPool);
 
-                for (String poolCaptureDevice : poolCaptureDevices) {
-                    if (poolCaptureDevice.equals(captureDevice)) {
-                        removePoolCaptureDevices.add(poolCaptureDevice);
-                    }
-                }
+                if (oldSnapshot != null) {
+                    ArrayList<String> poolCaptureDevices = new ArrayList<>(oldSnapshot.poolCaptureDevices);
+                    poolCaptureDevices.remove(captureDevice);
 
-                for (String removeDevice : removePoolCaptureDevices) {
-                    poolCaptureDevices.remove(removeDevice);
+                    if (poolCaptureDevices.size() == 0) {
+                        poolNameToPoolSnapshot.remove(oldPool);
+                    } else {
+                        updatePoolMembers(oldPool, poolCaptureDevices);
+                    }
                 }
 
                 logger.info("The capture device '{}' has been moved from the" +
@@ -394,25 +672,21 @@ public class SageTVPoolManager  {
             }
 
             vCaptureDeviceToPoolName.put(captureDevice, poolName);
-            ArrayList<String> poolCaptureDevices = poolNameToPoolCaptureDevices.get(poolName);
+            PoolSnapshot poolSnapshot = poolNameToPoolSnapshot.get(poolName);
+            ArrayList<String> poolCaptureDevices;
 
-            if (poolCaptureDevices == null) {
+            if (poolSnapshot == null) {
                 poolCaptureDevices = new ArrayList<>();
-                poolNameToPoolCaptureDevices.put(poolName, poolCaptureDevices);
                 logger.info("The pool '{}' has been created.", poolName);
+            } else {
+                poolCaptureDevices = new ArrayList<>(poolSnapshot.poolCaptureDevices);
             }
 
             poolCaptureDevices.add(captureDevice);
+            updatePoolMembers(poolName, poolCaptureDevices);
 
             logger.info("The capture device '{}' has been added to the '{}' pool.",
                     captureDevice, poolName);
-
-        } catch (Exception e) {
-            logger.warn("There was an unhandled exception while using a ReentrantReadWriteLock => ",
-                    e);
-        } finally {
-            poolNameToPoolCaptureDevicesLock.writeLock().unlock();
-            vCaptureDeviceToPoolNameLock.writeLock().unlock();
         }
     }
 
@@ -423,51 +697,10 @@ public class SageTVPoolManager  {
      * Otherwise, use the method that lets you specify the pool to be sorted.
      */
     public static void resortAllMerits() {
-        captureDeviceMappingLock.writeLock().lock();
-        poolNameToPoolCaptureDevicesLock.writeLock().lock();
-        vCaptureDeviceToPoolNameLock.writeLock().lock();
-
-        try {
-            for (Map.Entry<String, ArrayList<String>> poolKeyValue:
-                    poolNameToPoolCaptureDevices.entrySet()) {
-
-                if (poolKeyValue.getValue() != null) {
-
-                    Collections.sort(poolKeyValue.getValue(), new Comparator<String>() {
-                        @Override
-                        public int compare(String o1, String o2) {
-                            CaptureDevice c1 = SageTVManager.getSageTVCaptureDevice(o1, false);
-                            CaptureDevice c2 = SageTVManager.getSageTVCaptureDevice(o2, false);
-
-                            if (c1 == null && c2 == null) {
-                                logger.warn("'{}' and '{}' don't exist.", o1, o2);
-                                return 0;
-                            } else if (c1 == null) {
-                                logger.warn("'{}' doesn't exist.", o1);
-                                return -1;
-                            } else if (c2 == null) {
-                                logger.warn("'{}' doesn't exist.", o2);
-                                return 1;
-                            }
-
-                            if (c1.getPoolMerit() > c2.getPoolMerit()) {
-                                return -1;
-                            } else if (c1.getPoolMerit() < c2.getPoolMerit()) {
-                                return 1;
-                            }
-
-                            return 0;
-                        }
-                    });
-                }
+        synchronized (poolWriteLock) {
+            for (PoolSnapshot poolSnapshot : poolNameToPoolSnapshot.values()) {
+                updatePool(poolSnapshot.poolName, poolSnapshot.poolCaptureDevices);
             }
-        } catch (Exception e) {
-            logger.warn("There was an unhandled exception while using a ReentrantReadWriteLock => ",
-                    e);
-        } finally {
-            captureDeviceMappingLock.writeLock().unlock();
-            poolNameToPoolCaptureDevicesLock.writeLock().unlock();
-            vCaptureDeviceToPoolNameLock.writeLock().unlock();
         }
     }
 
@@ -478,55 +711,110 @@ public class SageTVPoolManager  {
      * enabled. If several devices are being changed at the same time, it is preferred to run this
      * method after changing the merit of all of the devices instead of running this method after
      * each change.
+     * <p/>
+     * This also picks up any capture devices in the pool that have been loaded or re-loaded since
+     * the pool was last changed.
      *
      * @param poolName The pool name to sort.
      */
     public static void resortMerits(String poolName) {
-        ArrayList<String> encoders = poolNameToPoolCaptureDevices.get(poolName);
-
-        if (encoders == null) {
+        if (poolName == null) {
             return;
         }
 
-        captureDeviceMappingLock.writeLock().lock();
-        poolNameToPoolCaptureDevicesLock.writeLock().lock();
-        vCaptureDeviceToPoolNameLock.writeLock().lock();
+        synchronized (poolWriteLock) {
+            PoolSnapshot poolSnapshot = poolNameToPoolSnapshot.get(poolName);
 
-        try {
-                Collections.sort(encoders, new Comparator<String>() {
-                    @Override
-                    public int compare(String o1, String o2) {
-                        CaptureDevice c1 = SageTVManager.getSageTVCaptureDevice(o1, false);
-                        CaptureDevice c2 = SageTVManager.getSageTVCaptureDevice(o2, false);
-
-                        if (c1 == null && c2 == null) {
-                            logger.warn("'{}' and '{}' don't exist.", o1, o2);
-                            return 0;
-                        } else if (c1 == null) {
-                            logger.warn("'{}' doesn't exist.", o1);
-                            return -1;
-                        } else if (c2 == null) {
-                            logger.warn("'{}' doesn't exist.", o2);
-                            return 1;
-                        }
+            if (poolSnapshot == null) {
+                return;
+            }
 
-                        if (c1.getPoolMerit() > c2.getPoolMerit()) {
-                            return -1;
-                        } else if (c1.getPoolMerit() < c2.getPoolMerit()) {
-                            return 1;
-                        }
+            updatePool(poolName, poolSnapshot.poolCaptureDevices);
+        }
+    }
 
-                        return 0;
-                    }
-                });
-        } catch (Exception e) {
-            logger.warn("There was an unhandled exception while using a ReentrantReadWriteLock => ",
-                    e);
-        } finally {
-            captureDeviceMappingLock.writeLock().unlock();
-            poolNameToPoolCaptureDevicesLock.writeLock().unlock();
-            vCaptureDeviceToPoolNameLock.writeLock().unlock();
+    /**
+     * Changes the members of a pool without looking up any capture devices.
+     * <p/>
+     * This is called while SageTVManager is holding its own locks, so it only re-uses the capture
+     * devices from the current snapshot. New members will be selectable after the next call to
+     * {@link #resortMerits(String)}. This must only be called while holding <i>poolWriteLock</i>.
+     *
+     * @param poolName The name of the pool.
+     * @param poolCaptureDevices The names of every capture device in the pool.
+     */
+    private static void updatePoolMembers(String poolName, List<String> poolCaptureDevices) {
+        PoolSnapshot poolSnapshot = poolNameToPoolSnapshot.get(poolName);
+        ArrayList<CaptureDevice> captureDevices = new ArrayList<>(poolCaptureDevices.size());
+        ArrayList<String> sortedNames = new ArrayList<>(poolCaptureDevices.size());
+
+        if (poolSnapshot != null) {
+            for (CaptureDevice captureDevice : poolSnapshot.captureDevices) {
+                if (poolCaptureDevices.contains(captureDevice.getEncoderName())) {
+                    captureDevices.add(captureDevice);
+                    sortedNames.add(captureDevice.getEncoderName());
+                }
+            }
+        }
+
+        for (String poolCaptureDevice : poolCaptureDevices) {
+            if (!sortedNames.contains(poolCaptureDevice)) {
+                sortedNames.add(poolCaptureDevice);
+            }
         }
+
+        poolNameToPoolSnapshot.put(poolName, new PoolSnapshot(poolName, sortedNames,
+                captureDevices.toArray(new CaptureDevice[captureDevices.size()])));
+    }
+
+    /**
+     * Creates a new snapshot for a pool with the currently loaded capture devices sorted by merit
+     * and replaces the current snapshot.
+     * <p/>
+     * This must only be called while holding <i>poolWriteLock</i> and must not be called while
+     * holding any SageTVManager locks.
+     *
+     * @param poolName The name of the pool.
+     * @param poolCaptureDevices The names of every capture device in the pool.
+     */
+    private static void updatePool(String poolName, List<String> poolCaptureDevices) {
+        ArrayList<CaptureDevice> captureDevices = new ArrayList<>(poolCaptureDevices.size());
+        ArrayList<String> unloadedDevices = new ArrayList<>();
+
+        for (String poolCaptureDevice : poolCaptureDevices) {
+            CaptureDevice captureDevice = SageTVManager.getSageTVCaptureDevice(poolCaptureDevice, false);
+
+            if (captureDevice == null) {
+                logger.warn("'{}' doesn't exist.", poolCaptureDevice);
+                unloadedDevices.add(poolCaptureDevice);
+            } else {
+                captureDevices.add(captureDevice);
+            }
+        }
+
+        // This is a stable sort, so devices with the same merit will stay in the order they were
+        // added.
+        Collections.sort(captureDevices, new Comparator<CaptureDevice>() {
+            @Override
+            public int compare(CaptureDevice c1, CaptureDevice c2) {
+                if (c1.getPoolMerit() > c2.getPoolMerit()) {
+                    return -1;
+                } else if (c1.getPoolMerit() < c2.getPoolMerit()) {
+                    return 1;
+                }
+
+                return 0;
+            }
+        });
+
+        ArrayList<String> sortedNames = new ArrayList<>(poolCaptureDevices.size());
+        for (CaptureDevice captureDevice : captureDevices) {
+            sortedNames.add(captureDevice.getEncoderName());
+        }
+        sortedNames.addAll(unloadedDevices);
+
+        poolNameToPoolSnapshot.put(poolName, new PoolSnapshot(poolName, sortedNames,
+                captureDevices.toArray(new CaptureDevice[captureDevices.size()])));
     }
 
     /**
@@ -540,21 +828,7 @@ public class SageTVPoolManager  {
      *         associated <i>null</i> will be returned.
      */
     public static String getVCaptureDeviceToPoolName(String vCaptureDevice) {
-
-        String returnValue = null;
-
-        vCaptureDeviceToPoolNameLock.readLock().lock();
-
-        try {
-            returnValue = vCaptureDeviceToPoolName.get(vCaptureDevice);
-        } catch (Exception e) {
-            logger.warn("There was an unhandled exception while using a ReentrantReadWriteLock => ",
-                    e);
-        } finally {
-            vCaptureDeviceToPoolNameLock.readLock().unlock();
-        }
-
-        return returnValue;
+        return vCaptureDeviceToPoolName.get(vCaptureDevice);
     }
 
     /**
@@ -568,21 +842,7 @@ public class SageTVPoolManager  {
      * @return The name of the pool capture device.
      */
     public static String getVCaptureDeviceToPoolCaptureDevice(String vCaptureDevice) {
-
-        String returnValue = null;
-
-        captureDeviceMappingLock.readLock().lock();
-
-        try {
-            returnValue = vCaptureDeviceToPoolCaptureDevice.get(vCaptureDevice);
-        } catch (Exception e) {
-            logger.warn("There was an unhandled exception while using a ReentrantReadWriteLock => ",
-                    e);
-        } finally {
-            captureDeviceMappingLock.readLock().unlock();
-        }
-
-        return returnValue;
+        return vCaptureDeviceToPoolCaptureDevice.get(vCaptureDevice);
     }
 
     /**
@@ -593,21 +853,7 @@ public class SageTVPoolManager  {
      * @return The name of the virtual capture device.
      */
     public static String getPoolCaptureDeviceToVCaptureDevice(String pCaptureDevice) {
-
-        String returnValue = null;
-
-        captureDeviceMappingLock.readLock().lock();
-
-        try {
-            returnValue = poolCaptureDeviceToVCaptureDevice.get(pCaptureDevice);
-        } catch (Exception e) {
-            logger.warn("There was an unhandled exception while using a ReentrantReadWriteLock => ",
-                    e);
-        } finally {
-            captureDeviceMappingLock.readLock().unlock();
-        }
-
-        return returnValue;
+        return poolCaptureDeviceToVCaptureDevice.get(pCaptureDevice);
     }
 
     /**
@@ -620,26 +866,14 @@ public class SageTVPoolManager  {
      * @return An array of the devices associated with the pool or 'null' if the pool doesn't exist.
      */
     public static ArrayList<String> getPoolNameToPoolCaptureDevices(String poolName) {
+        PoolSnapshot poolSnapshot = poolNameToPoolSnapshot.get(poolName);
 
-        ArrayList<String> returnValue = null;
-
-        poolNameToPoolCaptureDevicesLock.readLock().lock();
-
-        try {
-            returnValue = poolNameToPoolCaptureDevices.get(poolName);
-
-            if (returnValue != null) {
-                // Create a new array so we don't accidentally modify it outside of this class.
-                returnValue = new ArrayList<String>(returnValue);
-            }
-        } catch (Exception e) {
-            logger.warn("There was an unhandled exception while using a ReentrantReadWriteLock => ",
-                    e);
-        } finally {
-            poolNameToPoolCaptureDevicesLock.readLock().unlock();
+        if (poolSnapshot == null) {
+            return null;
         }
 
-        return returnValue;
+        // Create a new array so we don't accidentally modify it outside of this class.
+        return new ArrayList<>(poolSnapshot.poolCaptureDevices);
     }
 
     /**
@@ -662,4 +896,93 @@ public class SageTVPoolManager  {
     public static void canUsePools(boolean enabled) {
         Config.setBoolean("pool.enabled", enabled);
     }
+
+    /**
+     * A capture device that has been locked and tuned for warm standby.
+     */
+    private static class WarmStandby {
+        private final CaptureDevice captureDevice;
+        private final String channel;
+        // Released when the warm standby tune has finished, successful or not.
+        private final CountDownLatch ready = new CountDownLatch(1);
+
+        private WarmStandby(CaptureDevice captureDevice, String channel) {
+            this.captureDevice = captureDevice;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * The most recently requested channels for a pool.
+     */
+    private static class ChannelHistory {
+        private final String channels[] = new String[WARM_STANDBY_HISTORY];
+        private int next = 0;
+        private int size = 0;
+
+        private synchronized void add(String channel) {
+            channels[next] = channel;
+            next = (next + 1) % channels.length;
+
+            if (size < channels.length) {
+                size++;
+            }
+        }
+
+        /**
+         * Get the channel most likely to be requested next.
+         *
+         * @param recent <i>true</i> to return the most recent channel instead of the most frequent
+         *               channel.
+         * @return The channel or <i>null</i> if no channels have been requested.
+         */
+        private synchronized String predict(boolean recent) {
+            if (size == 0) {
+                return null;
+            }
+
+            int newest = (next - 1 + channels.length) % channels.length;
+
+            if (recent) {
+                return channels[newest];
+            }
+
+            Map<String, Integer> counts = new HashMap<>();
+            String bestChannel = null;
+            int bestCount = 0;
+
+            // Walk from newest to oldest so ties go to the most recent channel.
+            for (int i = 0; i < size; i++) {
+                String channel = channels[(newest - i + channels.length) % channels.length];
+                Integer count = counts.get(channel);
+                count = count == null ? 1 : count + 1;
+                counts.put(channel, count);
+
+                if (count > bestCount) {
+                    bestCount = count;
+                    bestChannel = channel;
+                }
+            }
+
+            return bestChannel;
+        }
+    }
+
+    /**
+     * An immutable view of a pool at the time it was last changed.
+     */
+    private static class PoolSnapshot {
+        private final String poolName;
+        // Every capture device name in the pool in order of merit. Devices that were not loaded
+        // when this snapshot was created are at the end.
+        private final List<String> poolCaptureDevices;
+        // Only the capture devices that were loaded in order of merit.
+        private final CaptureDevice captureDevices[];
+
+        private PoolSnapshot(String poolName, List<String> poolCaptureDevices, CaptureDevice captureDevices[]) {
+            this.poolName = poolName;
+            this.poolCaptureDevices = Collections.unmodifiableList(poolCaptureDevices);
+            this.captureDevices = captureDevices;
+        }
+    }
 }
@@ -26,35 +26,36 @@ package opendct.sagetv;
 
 import opendct.capture.CaptureDevice;
 import opendct.config.Config;
+import opendct.util.TuneTracer;
 import opendct.util.Util;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.StringTokenizer;
 
-public class SageTVRequestHandler implements Runnable {
+public class SageTVRequestHandler {
     private final Logger logger = LogManager.getLogger(SageTVRequestHandler.class);
 
     private final boolean LOG_TRACE = Config.getBoolean("sagetv.log_noop_and_size", false);
 
-    private Socket socket;
-    private CaptureDevice captureDevice = null;
+    private static final ByteBuffer OK_RESPONSE =
+            ByteBuffer.wrap("OK\r\n".getBytes(SageTVConnection.CHARSET)).asReadOnlyBuffer();
+
+    private final SageTVConnection connection;
+    private final Socket socket;
+    private volatile CaptureDevice captureDevice = null;
     private String currentRecordFile = null;
-    private BufferedReader in = null;
-    private OutputStreamWriter out = null;
-    private String lastRequest = null;
+    private volatile String lastRequest = null;
 
-    public SageTVRequestHandler(Socket socket) {
-        this.socket = socket;
-    }
+    // Guarantee that we don't change the size of this array.
+    private final int crossbarIndex[] = new int[] { 0 };
 
-    public SageTVRequestHandler(Socket socket, CaptureDevice captureDevice) {
-        this.socket = socket;
+    public SageTVRequestHandler(SageTVConnection connection, CaptureDevice captureDevice) {
+        this.connection = connection;
+        this.socket = connection.getSocket();
         this.captureDevice = captureDevice;
     }
 
@@ -73,7 +74,7 @@ public class SageTVRequestHandler implements Runnable {
     }
 
     public String getRemoteAddress() {
-        if (socket != null) {
+        if (socket != null && socket.getInetAddress() != null) {
             return socket.getInetAddress().getHostAddress();
         }
         return "";
@@ -86,637 +87,555 @@ public class SageTVRequestHandler implements Runnable {
         return "";
     }
 
-    public void run() {
-        logger.entry();
+    /**
+     * Answers NOOP without decoding the request.
+     * <p/>
+     * This is called on the selector thread and must never block.
+     *
+     * @throws IOException Thrown if there is an I/O error.
+     */
+    protected void sendNoopResponse() throws IOException {
+        long startTime = System.nanoTime();
 
-        if (captureDevice != null) {
-            setThreadName("Unknown", captureDevice.getEncoderName());
+        if (LOG_TRACE) {
+            logger.trace("SageTV sent: 'NOOP'");
         }
 
-        try {
-            if (logger.isTraceEnabled()) {
-                logger.trace("Starting connection to remote socket {}:{}", getRemoteAddress(), getRemotePort());
-            }
+        connection.write(OK_RESPONSE.duplicate());
 
-            try {
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            } catch (IOException e) {
-                logger.error("Unable to start receiving data => {}", e);
-                logger.exit();
-                return;
-            }
+        if (LOG_TRACE) {
+            logger.trace("Replied: 'OK'");
+        }
 
-            try {
-                out = new OutputStreamWriter(socket.getOutputStream());
-            } catch (IOException e) {
-                logger.error("Unable to start sending data => {}", e);
-                logger.exit();
-                return;
-            }
+        SageTVCommand.NOOP.recordLatency(System.nanoTime() - startTime);
+    }
 
-            // Continue to read the commands returned by SageTV until the connection closes or we
-            // get a blank line. Much of this is transcribed from the implementation in
-            // EncodingServer.java
-            lastRequest = null;
+    /**
+     * Answers a request immediately if it can be answered without blocking.
+     * <p/>
+     * This is called on the selector thread and must never block. If the request can't be answered
+     * without potentially blocking, it will be handed to {@link #handleRequest(String)} on a worker
+     * thread.
+     *
+     * @param request The request from SageTV.
+     * @return <i>true</i> if the request was answered.
+     * @throws IOException Thrown if there is an I/O error.
+     */
+    protected boolean handleInlineRequest(String request) throws IOException {
+        SageTVCommand command = SageTVCommand.getCommand(request);
 
-            // Guarantee that we don't change the size of this array.
-            final int crossbarIndex[] = new int[] { 0 };
+        if (command == null || !command.INLINE) {
+            return false;
+        }
+
+        long startTime = System.nanoTime();
+        String arguments = SageTVCommand.getArguments(request);
+        boolean answered;
+
+        switch (command) {
+            case GET_FILE_SIZE:
+                answered = inlineGetFileSize(request, arguments);
+                break;
+            case GET_SIZE:
+                answered = inlineGetSize(request, arguments);
+                break;
+            case VERSION:
+                lastRequest = request;
+                logger.debug("SageTV sent: '{}'", request);
+                version();
+                answered = true;
+                break;
+            case NOOP:
+                sendNoopResponse();
+                return true;
+            default:
+                answered = false;
+        }
 
-            while (!Thread.currentThread().isInterrupted()) {
+        if (answered) {
+            command.recordLatency(System.nanoTime() - startTime);
+        }
 
-                lastRequest = in.readLine();
+        return answered;
+    }
 
-                if (lastRequest == null || lastRequest.equals("")) {
+    /**
+     * Answers a request from SageTV.
+     * <p/>
+     * This is called on a worker thread and may block for as long as the request takes to
+     * complete. The connection will not read the next request until this method returns. Much of
+     * this is transcribed from the implementation in EncodingServer.java
+     *
+     * @param request The request from SageTV.
+     * @throws IOException Thrown if there is an I/O error.
+     */
+    protected void handleRequest(String request) throws IOException {
+        lastRequest = request;
+        SageTVCommand command = SageTVCommand.getCommand(request);
+
+        if (command != SageTVCommand.NOOP && command != SageTVCommand.GET_FILE_SIZE) {
+            logger.debug("SageTV sent: '{}'", request);
+        } else if (LOG_TRACE) {
+            logger.trace("SageTV sent: '{}'", request);
+        }
+
+        if (command == null) {
+            logger.error("Unknown command: {}", request);
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        String arguments = SageTVCommand.getArguments(request);
+
+        try {
+            switch (command) {
+                case VERSION:
+                    version();
                     break;
-                }
+                case STOP:
+                    stop(arguments);
+                    break;
+                case START:
+                    start(arguments, false);
+                    break;
+                case BUFFER:
+                    start(arguments, true);
+                    break;
+                case BUFFER_SWITCH:
+                    switchEncoding(arguments, true);
+                    break;
+                case SWITCH:
+                    switchEncoding(arguments, false);
+                    break;
+                case GET_START:
+                    getStart(arguments);
+                    break;
+                case GET_SIZE:
+                    getSize(arguments);
+                    break;
+                case GET_FILE_SIZE:
+                    getFileSize(arguments);
+                    break;
+                case NOOP:
+                    sendTraceResponse("OK");
+                    break;
+                case TUNE:
+                case AUTOTUNE:
+                case AUTOSCAN:
+                    // Tuning without recording is not supported.
+                    logger.warn("SageTV requested '{}'.", request);
+                    sendResponse("OK");
+                    break;
+                case AUTOINFOSCAN:
+                    autoInfoScan(arguments);
+                    break;
+                case PROPERTIES:
+                    properties();
+                    break;
+                default:
+                    logger.error("Unknown command: {}", request);
+            }
+        } finally {
+            command.recordLatency(System.nanoTime() - startTime);
+        }
+    }
 
-                if (!lastRequest.equals("NOOP") && !lastRequest.startsWith("GET_FILE_SIZE ")) {
-                    logger.debug("SageTV sent: '{}'", lastRequest);
-                } else if (LOG_TRACE) {
-                    logger.trace("SageTV sent: '{}'", lastRequest);
-                }
+    //=============================================================================================
+    // VERSION
+    //=============================================================================================
+    private void version() throws IOException {
+        // We are all version 3.0 capture devices. There doesn't appear to be any value in
+        // distinguishing.
+        sendResponse("3.0");
+    }
 
-                try {
-                    //=============================================================================================
-                    // VERSION
-                    //=============================================================================================
-                    if (lastRequest.equals("VERSION")) {
-                        // We are all version 3.0 capture devices. There doesn't appear to be any
-                        // value in distinguishing.
-                        sendResponse("3.0");
-                    } else if (lastRequest.startsWith("STOP")) {
-                        if (lastRequest.contains(" ")) {
-                            //It appears we can have more than one tuner on the same port.
-                            String deviceName = lastRequest.substring(lastRequest.indexOf(' ') + 1);
-
-                            SageTVDeviceCrossbar deviceType = SageTVDeviceCrossbar.getTypeForName(deviceName, crossbarIndex);
-                            deviceName = SageTVDeviceCrossbar.trimToName(deviceName, deviceType, crossbarIndex[0]);
-
-                            //This is not a mistake.
-                            CaptureDevice captureDevice = getVCaptureDeviceToPoolCaptureDevice(deviceName, true);
-
-                            if (captureDevice != null) {
-                                setThreadName(deviceName, captureDevice.getEncoderName());
-
-                                SageTVTuningMonitor.stopMonitorRecording(captureDevice);
-
-                                captureDevice.stopEncoding();
-                                unlockEncoder(captureDevice);
-                            } else {
-                                logger.error("SageTV requested the tuner '{}' and it does not exist at this time.", deviceName);
-                            }
-
-                            removeVCaptureDeviceToPoolCaptureDevice(deviceName);
-
-                            setThreadName(deviceName, deviceName);
-
-                            sendResponse("OK");
-                        } else {
-                            if (captureDevice != null) {
-                                captureDevice.stopEncoding();
-                                unlockEncoder(captureDevice);
-                            }
-                        }
-                        //=============================================================================================
-                        // START
-                        //                                Device Name                                UploadID  Chn 2*Sage.time()                        Filename                            Quality
-                        // V3: START DCT-Ceton InfiniTV PCIe (xx-xx-xx-xx) Tuner 4 Digital TV Tuner|1295665805|502|2890245964968|R:\Recordings\WheelofFortune-AmericasGameWeek-1968967-0.ts|Great
-                        // V3: START DCT-Ceton InfiniTV PCIe (xx-xx-xx-xx) Tuner 2 Digital TV Tuner|1496210288|502|2890247883508|R:\Recordings\WheelofFortune-AmericasGameWeek-1968967-0.ts|Great
-                        // V3: START DCT-Ceton InfiniTV PCIe (xx-xx-xx-xx) Tuner 4 Digital TV Tuner|1723577771|502|2890248518360|R:\Recordings\WheelofFortune-AmericasGameWeek-1968967-0.ts|Great
-                        //=============================================================================================
-                    } else if (lastRequest.startsWith("START ")) {
-                        currentRecordFile = null;
-                        // Same for V3/V2 encoders because the input name is specified
-                        StringTokenizer tokens = new StringTokenizer(lastRequest.substring(6), "|");
-                        int uploadID = 0;
-
-                        String vCaptureDevice = null;
-                        if (tokens.countTokens() == 6) {
-                            // V3 has upload file ID
-                            vCaptureDevice = tokens.nextToken();
-                            uploadID = Integer.parseInt(tokens.nextToken());
-                        } else {
-                            vCaptureDevice = tokens.nextToken();
-                        }
+    //=============================================================================================
+    // STOP
+    //=============================================================================================
+    private void stop(String arguments) throws IOException {
+        if (arguments != null) {
+            //It appears we can have more than one tuner on the same port.
+            String deviceName = arguments;
 
-                        SageTVDeviceCrossbar deviceType = SageTVDeviceCrossbar.getTypeForName(vCaptureDevice, crossbarIndex);
-                        vCaptureDevice = SageTVDeviceCrossbar.trimToName(vCaptureDevice, deviceType, crossbarIndex[0]);
-                        captureDevice = getAndLockCaptureDevice(vCaptureDevice, true);
-
-                        String channel = tokens.nextToken();
-                        // I guess this is to synchronize time with the server.
-                        String stvTimeSync = tokens.nextToken();
-                        String filename = tokens.nextToken();
-                        String encoding = tokens.nextToken();
-
-                        if (captureDevice != null) {
-                            boolean success;
-
-                            try {
-                                setThreadName(vCaptureDevice, captureDevice.getEncoderName());
-                                lockEncoder(captureDevice);
-
-                                // This is done to prevent a potential race condition if a
-                                // re-tune happens at the same time we are trying to tune into a
-                                // new channel.
-                                SageTVTuningMonitor.pauseMonitorRecording(captureDevice);
-
-                                if (captureDevice.isReady()) {
-                                    logger.debug("Starting network encoder via upload ID '{}' to file name '{}'.", uploadID, filename);
-                                    success = captureDevice.startEncoding(
-                                            channel, filename, encoding, 0, deviceType, crossbarIndex[0],
-                                            uploadID, socket.getInetAddress());
-
-                                    if (success) {
-                                        currentRecordFile = filename;
-                                        SageTVManager.setFilesByCaptureDevice(captureDevice, currentRecordFile);
-
-                                        if (uploadID != 0) {
-                                            SageTVManager.setUploadIDByFilename(currentRecordFile, uploadID);
-                                        }
-
-                                        sendResponse("OK");
-
-                                        SageTVTuningMonitor.monitorRecording(
-                                                captureDevice, channel, encoding, 0,
-                                                deviceType, crossbarIndex[0],
-                                                uploadID, socket.getInetAddress());
-                                    } else {
-                                        sendResponse("ERROR Device Start Failed");
-                                        logger.error("Encoder device is unable to start.");
-                                    }
-                                } else {
-                                    sendResponse("ERROR Device Not Ready");
-                                    logger.error("Encoder device is not ready.");
-                                }
-                            } catch (Exception e) {
-                                sendResponse("ERROR Device Start Failed");
-                                logger.error("Unexpected exception while starting network encoder to filename '{}' => ", filename, e);
-                            }
-                        } else {
-                            sendResponse("ERROR Invalid Input");
-                            logger.error("Encoder device does not exist.");
-                        }
-                        //=============================================================================================
-                        // BUFFER
-                        //=============================================================================================
-                    } else if (lastRequest.startsWith("BUFFER ")) {
-                        currentRecordFile = null;
-                        // Same for V3/V2 encoders because the input name is specified
-                        StringTokenizer tokens = new StringTokenizer(lastRequest.substring(6), "|");
-                        Integer uploadID = 0;
-
-                        String vCaptureDevice = null;
-                        if (tokens.countTokens() == 6) {
-                            // V3 has upload file ID
-                            vCaptureDevice = tokens.nextToken();
-                            uploadID = Integer.parseInt(tokens.nextToken());
-                        } else {
-                            vCaptureDevice = tokens.nextToken();
-                        }
+            SageTVDeviceCrossbar deviceType = SageTVDeviceCrossbar.getTypeForName(deviceName, crossbarIndex);
+            deviceName = SageTVDeviceCrossbar.trimToName(deviceName, deviceType, crossbarIndex[0]);
 
-                        SageTVDeviceCrossbar deviceType = SageTVDeviceCrossbar.getTypeForName(vCaptureDevice, crossbarIndex);
-                        vCaptureDevice = SageTVDeviceCrossbar.trimToName(vCaptureDevice, deviceType, crossbarIndex[0]);
-                        captureDevice = getAndLockCaptureDevice(vCaptureDevice, true);
-
-                        String channel = tokens.nextToken();
-                        long bufferSize = Long.parseLong(tokens.nextToken());
-                        String filename = tokens.nextToken();
-                        String encoding = tokens.nextToken();
-
-                        if (captureDevice != null) {
-                            boolean success;
-
-                            try {
-                                setThreadName(vCaptureDevice, captureDevice.getEncoderName());
-                                lockEncoder(captureDevice);
-
-                                // This is done to prevent a potential race condition if a
-                                // re-tune happens at the same time we are trying to tune into a
-                                // new channel.
-                                SageTVTuningMonitor.pauseMonitorRecording(captureDevice);
-
-                                if (captureDevice.isReady()) {
-                                    logger.debug("Starting buffered network encoder via upload ID '{}' to file name '{}'.", uploadID, filename);
-                                    success = captureDevice.startEncoding(
-                                            channel, filename, encoding, bufferSize,
-                                            deviceType, crossbarIndex[0],
-                                            uploadID, socket.getInetAddress());
-
-                                    if (success) {
-                                        currentRecordFile = filename;
-                                        SageTVManager.setFilesByCaptureDevice(captureDevice, currentRecordFile);
-
-                                        if (uploadID != 0) {
-                                            SageTVManager.setUploadIDByFilename(currentRecordFile, uploadID);
-                                        }
-
-                                        sendResponse("OK");
-
-                                        SageTVTuningMonitor.monitorRecording(
-                                                captureDevice, channel, encoding, bufferSize,
-                                                deviceType, crossbarIndex[0],
-                                                uploadID, socket.getInetAddress());
-                                    } else {
-                                        sendResponse("ERROR Device Start Failed");
-                                        logger.error("Encoder device is unable to start.");
-                                    }
-                                } else {
-                                    sendResponse("ERROR Device Not Ready");
-                                    logger.error("Encoder device is not ready.");
-                                }
-                            } catch (Exception e) {
-                                sendResponse("ERROR Device Start Failed");
-                                logger.error("Unexpected exception while starting buffered network encoder to filename '{}' => ", filename, e);
-                            }
-                        } else {
-                            sendResponse("ERROR Invalid Input");
-                            logger.error("Encoder device does not exist.");
-                        }
-                        //=============================================================================================
-                        // BUFFER_SWITCH
-                        //=============================================================================================
-                    } else if (lastRequest.startsWith("BUFFER_SWITCH ")) {
-                        currentRecordFile = null;
-                        StringTokenizer tokens = new StringTokenizer(lastRequest.substring(7), "|");
-                        Integer uploadID = 0;
-
-                        String vCaptureDevice = null;
-                        if (tokens.countTokens() == 4) {
-                            vCaptureDevice = tokens.nextToken();
-                            uploadID = Integer.parseInt(tokens.nextToken());
-                        } else if (tokens.countTokens() == 3) {
-                            vCaptureDevice = tokens.nextToken();
-                        }
+            //This is not a mistake.
+            CaptureDevice captureDevice = getVCaptureDeviceToPoolCaptureDevice(deviceName, true);
 
-                        SageTVDeviceCrossbar deviceType = SageTVDeviceCrossbar.getTypeForName(vCaptureDevice, crossbarIndex);
-                        vCaptureDevice = SageTVDeviceCrossbar.trimToName(vCaptureDevice, deviceType, crossbarIndex[0]);
-                        captureDevice = getVCaptureDeviceToPoolCaptureDevice(vCaptureDevice, true);
-
-                        String channel = tokens.nextToken();
-                        long bufferSize = Long.parseLong(tokens.nextToken());
-                        String filename = tokens.nextToken();
-
-                        if (captureDevice != null) {
-                            boolean success;
-
-                            try {
-                                setThreadName(vCaptureDevice, captureDevice.getEncoderName());
-                                lockEncoder(captureDevice);
-
-                                // This is done to prevent a potential race condition if a
-                                // re-tune happens at the same time we are trying to change the
-                                // file.
-                                SageTVTuningMonitor.pauseMonitorRecording(captureDevice);
-
-                                logger.debug("Switching network encoder via upload ID '{}' to file name '{}'.", uploadID, filename);
-                                success = captureDevice.switchEncoding(
-                                        channel, filename, bufferSize,
-                                        deviceType, crossbarIndex[0],
-                                        uploadID, socket.getInetAddress());
-                            } catch (Exception e) {
-                                success = false;
-                                logger.error("Unexpected exception while switching network encoder to filename '{}' => ", filename, e);
-                            }
-
-                            if (success) {
-                                currentRecordFile = filename;
-                                SageTVManager.setFilesByCaptureDevice(captureDevice, currentRecordFile);
-
-                                if (uploadID != 0) {
-                                    SageTVManager.setUploadIDByFilename(currentRecordFile, uploadID);
-                                }
-
-                                sendResponse("OK");
-
-                                SageTVTuningMonitor.resumeMonitorRecording(captureDevice,
-                                        uploadID, socket.getInetAddress());
-                            } else {
-                                sendResponse("ERROR Device Switch Failed");
-                                logger.error("Encoder device is unable to switch.");
-                            }
-                        } else {
-                            sendResponse("ERROR Invalid Input");
-                            logger.error("Encoder device does not exist.");
-                        }
-                        //=============================================================================================
-                        // SWITCH
-                        //=============================================================================================
-                    } else if (lastRequest.startsWith("SWITCH ")) {
-                        currentRecordFile = null;
-                        StringTokenizer tokens = new StringTokenizer(lastRequest.substring(7), "|");
-                        Integer uploadID = 0;
-
-                        String vCaptureDevice = null;
-                        if (tokens.countTokens() == 4) {
-                            vCaptureDevice = tokens.nextToken();
-                            uploadID = Integer.parseInt(tokens.nextToken());
-                        } else if (tokens.countTokens() == 3) {
-                            vCaptureDevice = tokens.nextToken();
-                        }
+            if (captureDevice != null) {
+                setThreadName(deviceName, captureDevice.getEncoderName());
 
-                        SageTVDeviceCrossbar deviceType = SageTVDeviceCrossbar.getTypeForName(vCaptureDevice, crossbarIndex);
-                        vCaptureDevice = SageTVDeviceCrossbar.trimToName(vCaptureDevice, deviceType, crossbarIndex[0]);
-                        captureDevice = getVCaptureDeviceToPoolCaptureDevice(vCaptureDevice, true);
-
-                        String channel = tokens.nextToken();
-                        String filename = tokens.nextToken();
-
-                        if (captureDevice != null) {
-                            boolean success;
-
-                            try {
-                                setThreadName(vCaptureDevice, captureDevice.getEncoderName());
-                                lockEncoder(captureDevice);
-
-                                // This is done to prevent a potential race condition if a
-                                // re-tune happens at the same time we are trying to change the
-                                // file.
-                                SageTVTuningMonitor.pauseMonitorRecording(captureDevice);
-
-                                logger.debug("Switching network encoder via upload ID '{}' to file name '{}'.", uploadID, filename);
-                                success = captureDevice.switchEncoding(channel, filename, 0,
-                                        deviceType, crossbarIndex[0],
-                                        uploadID, socket.getInetAddress());
-                            } catch (Exception e) {
-                                success = false;
-                                logger.error("Unexpected exception while switching network encoder to filename '{}' => ", filename, e);
-                            }
-
-                            if (success) {
-                                currentRecordFile = filename;
-                                SageTVManager.setFilesByCaptureDevice(captureDevice, currentRecordFile);
-
-                                if (uploadID != 0) {
-                                    SageTVManager.setUploadIDByFilename(currentRecordFile, uploadID);
-                                }
-
-                                sendResponse("OK");
-
-                                SageTVTuningMonitor.resumeMonitorRecording(captureDevice,
-                                        uploadID, socket.getInetAddress());
-                            } else {
-                                sendResponse("ERROR Device Switch Failed");
-                                logger.error("Encoder device is unable to switch.");
-                            }
-                        } else {
-                            sendResponse("ERROR Invalid Input");
-                            logger.error("Encoder device does not exist.");
-                        }
-                        //=============================================================================================
-                        // GET_START (return time in milliseconds since start of recording)
-                        //=============================================================================================
-                    } else if (lastRequest.startsWith("GET_START")) {
-
-                        String vCaptureDevice = null;
-                        if (lastRequest.indexOf(' ') != -1) {
-                            // V3 encoder
-                            vCaptureDevice = lastRequest.substring(lastRequest.indexOf(' ') + 1);
-
-                            SageTVDeviceCrossbar deviceType = SageTVDeviceCrossbar.getTypeForName(vCaptureDevice, crossbarIndex);
-                            vCaptureDevice = SageTVDeviceCrossbar.trimToName(vCaptureDevice, deviceType, crossbarIndex[0]);
-                            captureDevice = getVCaptureDeviceToPoolCaptureDevice(vCaptureDevice, true);
-                        }
+                SageTVTuningMonitor.stopMonitorRecording(captureDevice);
 
-                        if (captureDevice != null) {
-                            setThreadName(vCaptureDevice, captureDevice.getEncoderName());
-                            captureDevice.getRecordStart();
-                        }
+                captureDevice.stopEncoding();
+                SageTVManager.removeFilesByCaptureDevice(captureDevice);
+                unlockEncoder(captureDevice);
+            } else {
+                logger.error("SageTV requested the tuner '{}' and it does not exist at this time.", deviceName);
+            }
 
-                        //=============================================================================================
-                        // GET_SIZE (return the size of a recording as the encoder sees it)
-                        //=============================================================================================
-                    } else if (lastRequest.startsWith("GET_SIZE")) {
+            removeVCaptureDeviceToPoolCaptureDevice(deviceName);
 
-                        String vCaptureDevice = null;
-                        if (lastRequest.indexOf(' ') != -1) {
-                            // V3 encoder
-                            vCaptureDevice = lastRequest.substring(lastRequest.indexOf(' ') + 1);
+            setThreadName(deviceName, deviceName);
 
-                            SageTVDeviceCrossbar deviceType = SageTVDeviceCrossbar.getTypeForName(vCaptureDevice, crossbarIndex);
-                            vCaptureDevice = SageTVDeviceCrossbar.trimToName(vCaptureDevice, deviceType, crossbarIndex[0]);
-                            captureDevice = getVCaptureDeviceToPoolCaptureDevice(vCaptureDevice, true);
-                        }
+            sendResponse("OK");
+        } else {
+            if (captureDevice != null) {
+                captureDevice.stopEncoding();
+                SageTVManager.removeFilesByCaptureDevice(captureDevice);
+                unlockEncoder(captureDevice);
+            }
+        }
+    }
 
-                        if (captureDevice != null) {
-                            setThreadName(vCaptureDevice, captureDevice.getEncoderName());
-                            sendResponse(String.valueOf(captureDevice.getRecordedBytes()));
-                        }
+    //=============================================================================================
+    // START
+    //                                Device Name                                UploadID  Chn 2*Sage.time()                        Filename                            Quality
+    // V3: START DCT-Ceton InfiniTV PCIe (xx-xx-xx-xx) Tuner 4 Digital TV Tuner|1295665805|502|2890245964968|R:\Recordings\WheelofFortune-AmericasGameWeek-1968967-0.ts|Great
+    // V3: START DCT-Ceton InfiniTV PCIe (xx-xx-xx-xx) Tuner 2 Digital TV Tuner|1496210288|502|2890247883508|R:\Recordings\WheelofFortune-AmericasGameWeek-1968967-0.ts|Great
+    // V3: START DCT-Ceton InfiniTV PCIe (xx-xx-xx-xx) Tuner 4 Digital TV Tuner|1723577771|502|2890248518360|R:\Recordings\WheelofFortune-AmericasGameWeek-1968967-0.ts|Great
+    //
+    // BUFFER is the same except the time is replaced with the buffer size.
+    //=============================================================================================
+    private void start(String arguments, boolean buffered) throws IOException {
+        long requestTime = System.nanoTime();
+        currentRecordFile = null;
+        // Same for V3/V2 encoders because the input name is specified
+        StringTokenizer tokens = new StringTokenizer(arguments, "|");
+        int uploadID = 0;
+
+        String vCaptureDevice;
+        if (tokens.countTokens() == 6) {
+            // V3 has upload file ID
+            vCaptureDevice = tokens.nextToken();
+            uploadID = Integer.parseInt(tokens.nextToken());
+        } else {
+            vCaptureDevice = tokens.nextToken();
+        }
 
-                        //=============================================================================================
-                        // GET_FILE_SIZE (return the size of a file that might not currently be recording)
-                        //=============================================================================================
-                    } else if (lastRequest.startsWith("GET_FILE_SIZE ")) {
-                        String getFilename = lastRequest.substring("GET_FILE_SIZE ".length());
-
-                        // Find the device capturing this file.
-                        captureDevice = SageTVManager.getCaptureDeviceByFilename(getFilename);
-
-                        if (captureDevice != null) {
-                            setThreadName(null, captureDevice.getEncoderName());
-
-                            sendTraceResponse(String.valueOf(captureDevice.getRecordedBytes()));
-                        } else {
-                            try {
-                                sendTraceResponse(String.valueOf(new java.io.File(getFilename).length()));
-                            } catch (Exception e) {
-                                logger.error("Unable to get the file size of '{}'.", getFilename);
-                                sendTraceResponse("0");
-                            }
-                        }
+        SageTVDeviceCrossbar deviceType = SageTVDeviceCrossbar.getTypeForName(vCaptureDevice, crossbarIndex);
+        vCaptureDevice = SageTVDeviceCrossbar.trimToName(vCaptureDevice, deviceType, crossbarIndex[0]);
+        String channel = tokens.nextToken();
+        captureDevice = getAndLockCaptureDevice(vCaptureDevice, channel, true);
 
-                        //=============================================================================================
-                        // NOOP
-                        //=============================================================================================
-                    } else if (lastRequest.equals("NOOP")) {
-                        sendTraceResponse("OK");
-
-                        //=============================================================================================
-                        // TUNE (tunes a channel)
-                        //=============================================================================================
-                    } else if (lastRequest.startsWith("TUNE ")) {
-                        /*StringTokenizer tokens = new StringTokenizer(lastRequest.substring(5), "|");
-
-                        String vCaptureDevice = null;
-                        if (tokens.countTokens() == 2) {
-                            // V3 encoder
-                            vCaptureDevice = tokens.nextToken();
-
-                            SageTVDeviceType deviceType = SageTVDeviceType.getTypeForName(vCaptureDevice);
-                            vCaptureDevice = SageTVDeviceType.trimToName(vCaptureDevice, deviceType);
-                            captureDevice = getAndLockCaptureDevice(vCaptureDevice, true);
-                        }
+        long bufferSize = 0;
+        if (buffered) {
+            bufferSize = Long.parseLong(tokens.nextToken());
+        } else {
+            // I guess this is to synchronize time with the server.
+            String stvTimeSync = tokens.nextToken();
+        }
+        String filename = tokens.nextToken();
+        String encoding = tokens.nextToken();
 
-                        String chanString = tokens.nextToken();
+        CaptureDevice captureDevice = this.captureDevice;
 
-                        if (captureDevice != null) {
-                            setThreadName(vCaptureDevice, captureDevice.getEncoderName());
-                            lockEncoder(captureDevice);
-                            captureDevice.tuneToChannel(chanString);
-                        }*/
+        if (captureDevice != null) {
+            boolean success = false;
 
-                        logger.warn("SageTV requested '{}'.", lastRequest);
-                        sendResponse("OK");
+            try {
+                setThreadName(vCaptureDevice, captureDevice.getEncoderName());
+                lockEncoder(captureDevice);
 
+                // This is done to prevent a potential race condition if a
+                // re-tune happens at the same time we are trying to tune into a
+                // new channel.
+                SageTVTuningMonitor.pauseMonitorRecording(captureDevice);
 
-                        //=============================================================================================
-                        // AUTOTUNE (checks if channel is tunable or not)
-                        //=============================================================================================
-                    } else if (lastRequest.startsWith("AUTOTUNE ")) {
-                        /*StringTokenizer tokens = new StringTokenizer(lastRequest.substring(9), "|");
+                if (captureDevice.isReady()) {
+                    if (buffered) {
+                        logger.debug("Starting buffered network encoder via upload ID '{}' to file name '{}'.", uploadID, filename);
+                    } else {
+                        logger.debug("Starting network encoder via upload ID '{}' to file name '{}'.", uploadID, filename);
+                    }
 
-                        String vCaptureDevice = null;
-                        if (tokens.countTokens() == 2) {
-                            // V3 encoder
-                            vCaptureDevice = tokens.nextToken();
+                    TuneTracer.begin(captureDevice.getEncoderName(), channel, requestTime);
+                    TuneTracer.phase(TuneTracer.DEVICE_SELECTED);
 
-                            SageTVDeviceType deviceType = SageTVDeviceType.getTypeForName(vCaptureDevice);
-                            vCaptureDevice = SageTVDeviceType.trimToName(vCaptureDevice, deviceType);
-                            captureDevice = getAndLockCaptureDevice(vCaptureDevice, true);
-                        }
+                    try {
+                        success = captureDevice.startEncoding(
+                                channel, filename, encoding, bufferSize, deviceType, crossbarIndex[0],
+                                uploadID, socket.getInetAddress());
+                    } finally {
+                        TuneTracer.end(captureDevice, success);
+                    }
 
-                        String chanString = tokens.nextToken();
-                        Boolean returnValue = false;
+                    if (success) {
+                        currentRecordFile = filename;
+                        SageTVManager.setFilesByCaptureDevice(captureDevice, currentRecordFile);
 
-                        if (captureDevice != null) {
-                            setThreadName(vCaptureDevice, captureDevice.getEncoderName());
-                            lockEncoder(captureDevice);
-                            returnValue = captureDevice.autoTuneChannel(chanString);
+                        if (uploadID != 0) {
+                            SageTVManager.setUploadIDByFilename(currentRecordFile, uploadID);
                         }
 
-                        sendResponse((returnValue ? "OK" : "NO_SIGNAL"));*/
-
-                        logger.warn("SageTV requested '{}'.", lastRequest);
                         sendResponse("OK");
 
-                        //=============================================================================================
-                        // AUTOSCAN (checks if channel is tunable or not)
-                        //=============================================================================================
-                    } else if (lastRequest.startsWith("AUTOSCAN ")) {
-                        /*StringTokenizer tokens = new StringTokenizer(lastRequest.substring(9), "|");
+                        SageTVTuningMonitor.monitorRecording(
+                                captureDevice, channel, encoding, bufferSize,
+                                deviceType, crossbarIndex[0],
+                                uploadID, socket.getInetAddress());
+                    } else {
+                        sendResponse("ERROR Device Start Failed");
+                        logger.error("Encoder device is unable to start.");
+                    }
+                } else {
+                    sendResponse("ERROR Device Not Ready");
+                    logger.error("Encoder device is not ready.");
+                }
+            } catch (Exception e) {
+                sendResponse("ERROR Device Start Failed");
+                if (buffered) {
+                    logger.error("Unexpected exception while starting buffered network encoder to filename '{}' => ", filename, e);
+                } else {
+                    logger.error("Unexpected exception while starting network encoder to filename '{}' => ", filename, e);
+                }
+            }
+        } else {
+            sendResponse("ERROR Invalid Input");
+            logger.error("Encoder device does not exist.");
+        }
+    }
 
-                        String vCaptureDevice = null;
-                        if (tokens.countTokens() == 2) {
-                            // V3 encoder
-                            vCaptureDevice = tokens.nextToken();
+    //=============================================================================================
+    // SWITCH and BUFFER_SWITCH
+    //=============================================================================================
+    private void switchEncoding(String arguments, boolean buffered) throws IOException {
+        currentRecordFile = null;
+        StringTokenizer tokens = new StringTokenizer(arguments, "|");
+        int uploadID = 0;
+        int v3Tokens = buffered ? 5 : 4;
+
+        String vCaptureDevice = null;
+        if (tokens.countTokens() == v3Tokens) {
+            vCaptureDevice = tokens.nextToken();
+            uploadID = Integer.parseInt(tokens.nextToken());
+        } else if (tokens.countTokens() == v3Tokens - 1) {
+            vCaptureDevice = tokens.nextToken();
+        }
 
-                            SageTVDeviceType deviceType = SageTVDeviceType.getTypeForName(vCaptureDevice);
-                            vCaptureDevice = SageTVDeviceType.trimToName(vCaptureDevice, deviceType);
-                            captureDevice = getAndLockCaptureDevice(vCaptureDevice, true);
-                        }
+        SageTVDeviceCrossbar deviceType = SageTVDeviceCrossbar.getTypeForName(vCaptureDevice, crossbarIndex);
+        vCaptureDevice = SageTVDeviceCrossbar.trimToName(vCaptureDevice, deviceType, crossbarIndex[0]);
+        captureDevice = getVCaptureDeviceToPoolCaptureDevice(vCaptureDevice, true);
 
-                        String chanString = tokens.nextToken();
-                        boolean returnValue = false;
+        String channel = tokens.nextToken();
+        long bufferSize = buffered ? Long.parseLong(tokens.nextToken()) : 0;
+        String filename = tokens.nextToken();
 
-                        if (captureDevice != null) {
-                            setThreadName(vCaptureDevice, captureDevice.getEncoderName());
-                            lockEncoder(captureDevice);
-                            returnValue = captureDevice.autoScanChannel(chanString);
-                        }
+        CaptureDevice captureDevice = this.captureDevice;
 
-                        sendResponse((returnValue ? "OK" : "NO_SIGNAL"));*/
+        if (captureDevice != null) {
+            boolean success;
 
-                        logger.warn("SageTV requested '{}'.", lastRequest);
-                        sendResponse("OK");
+            try {
+                setThreadName(vCaptureDevice, captureDevice.getEncoderName());
+                lockEncoder(captureDevice);
+
+                // This is done to prevent a potential race condition if a
+                // re-tune happens at the same time we are trying to change the
+                // file.
+                SageTVTuningMonitor.pauseMonitorRecording(captureDevice);
+
+                logger.debug("Switching network encoder via upload ID '{}' to file name '{}'.", uploadID, filename);
+                success = captureDevice.switchEncoding(channel, filename, bufferSize,
+                        deviceType, crossbarIndex[0],
+                        uploadID, socket.getInetAddress());
+            } catch (Exception e) {
+                success = false;
+                logger.error("Unexpected exception while switching network encoder to filename '{}' => ", filename, e);
+            }
 
-                        //=============================================================================================
-                        // AUTOINFOSCAN
-                        //=============================================================================================
-                    } else if (lastRequest.startsWith("AUTOINFOSCAN ")) {
-                        StringTokenizer tokens = new StringTokenizer(lastRequest.substring("AUTOINFOSCAN ".length()), "|");
-
-                        String vCaptureDevice = tokens.nextToken();
-                        if (tokens.countTokens() == 2) {
-                            // V3 encoder
-                            SageTVDeviceCrossbar deviceType = SageTVDeviceCrossbar.getTypeForName(vCaptureDevice, crossbarIndex);
-                            vCaptureDevice = SageTVDeviceCrossbar.trimToName(vCaptureDevice, deviceType, crossbarIndex[0]);
-                            captureDevice = getAndLockCaptureDevice(vCaptureDevice, true);
-                        }
+            if (success) {
+                currentRecordFile = filename;
+                SageTVManager.setFilesByCaptureDevice(captureDevice, currentRecordFile);
 
-                        String chanString = tokens.nextToken();
-                        String returnValue = "ERROR";
+                if (uploadID != 0) {
+                    SageTVManager.setUploadIDByFilename(currentRecordFile, uploadID);
+                }
 
-                        if (captureDevice != null) {
-                            setThreadName(vCaptureDevice, captureDevice.getEncoderName());
-                            lockEncoder(captureDevice);
-                            returnValue = captureDevice.scanChannelInfo(chanString);
-                        }
+                sendResponse("OK");
 
-                        sendResponse(returnValue);
+                SageTVTuningMonitor.resumeMonitorRecording(captureDevice,
+                        uploadID, socket.getInetAddress());
+            } else {
+                sendResponse("ERROR Device Switch Failed");
+                logger.error("Encoder device is unable to switch.");
+            }
+        } else {
+            sendResponse("ERROR Invalid Input");
+            logger.error("Encoder device does not exist.");
+        }
+    }
 
-                        //=============================================================================================
-                        // PROPERTIES
-                        //=============================================================================================
-                    } else if (lastRequest.equals("PROPERTIES")) {
+    //=============================================================================================
+    // GET_START (return time in milliseconds since start of recording)
+    //=============================================================================================
+    private void getStart(String arguments) {
+        String vCaptureDevice = null;
+        if (arguments != null) {
+            // V3 encoder
+            vCaptureDevice = arguments;
+
+            SageTVDeviceCrossbar deviceType = SageTVDeviceCrossbar.getTypeForName(vCaptureDevice, crossbarIndex);
+            vCaptureDevice = SageTVDeviceCrossbar.trimToName(vCaptureDevice, deviceType, crossbarIndex[0]);
+            captureDevice = getVCaptureDeviceToPoolCaptureDevice(vCaptureDevice, true);
+        }
 
-                        String properties = SageTVManager.getAllTunerProperties(this);
+        CaptureDevice captureDevice = this.captureDevice;
 
-                        int size = 0;
+        if (captureDevice != null) {
+            setThreadName(vCaptureDevice, captureDevice.getEncoderName());
+            captureDevice.getRecordStart();
+        }
+    }
 
-                        for (char letter : properties.toCharArray()) {
-                            if (letter == '\r') {
-                                size += 1;
-                            }
-                        }
+    //=============================================================================================
+    // GET_SIZE (return the size of a recording as the encoder sees it)
+    //=============================================================================================
+    private void getSize(String arguments) throws IOException {
+        String vCaptureDevice = null;
+        if (arguments != null) {
+            // V3 encoder
+            vCaptureDevice = arguments;
+
+            SageTVDeviceCrossbar deviceType = SageTVDeviceCrossbar.getTypeForName(vCaptureDevice, crossbarIndex);
+            vCaptureDevice = SageTVDeviceCrossbar.trimToName(vCaptureDevice, deviceType, crossbarIndex[0]);
+            captureDevice = getVCaptureDeviceToPoolCaptureDevice(vCaptureDevice, true);
+        }
 
-                        out.write(String.valueOf(size) + "\r\n");
-                        out.write(properties);
-                        out.flush();
+        CaptureDevice captureDevice = this.captureDevice;
 
-                        logger.info("Sent PROPERTIES.");
-                    } else if (lastRequest.equals("QUIT")) {
-                        break;
-                    } else {
-                        logger.error("Unknown command: {}", lastRequest);
-                    }
+        if (captureDevice != null) {
+            setThreadName(vCaptureDevice, captureDevice.getEncoderName());
+            sendResponse(String.valueOf(captureDevice.getRecordedBytes()));
+        }
+    }
 
-                } catch (IOException e) {
-                    logger.error("The SageTV server has disconnected ungracefully => ", e);
-                    break;
-                }
+    private boolean inlineGetSize(String request, String arguments) throws IOException {
+        CaptureDevice sizeCaptureDevice = captureDevice;
 
-                //out.flush();
-            }
+        if (arguments != null) {
+            int localCrossbarIndex[] = new int[] { 0 };
+            SageTVDeviceCrossbar deviceType = SageTVDeviceCrossbar.getTypeForName(arguments, localCrossbarIndex);
+            String vCaptureDevice = SageTVDeviceCrossbar.trimToName(arguments, deviceType, localCrossbarIndex[0]);
 
-            if (logger.isTraceEnabled()) {
-                logger.trace("Closing connection to {} on port {}",
-                        socket.getInetAddress().getHostAddress(), socket.getPort());
-            }
-        } catch (Exception e) {
-            // This kind of exception appears to mostly happen when stopping the SageTV server.
-            logger.debug("An unhandled exception was created => ", e);
-        } catch (Throwable e) {
-            // This exception usually catches issues like a buffer could not be allocated. If this
-            // exception is being thrown, we have a problem that must be fixed.
-            logger.error("An unhandled throwable was created => ", e);
-        } finally {
+            // Waiting for the capture device to be loaded can block.
+            sizeCaptureDevice = getVCaptureDeviceToPoolCaptureDevice(vCaptureDevice, false);
+        }
 
-            try {
-                if (in != null) {
-                    in.close();
-                }
-            } catch (Exception e) {
-                logger.trace("Failed to close BufferedReader => ", e);
-            }
+        if (sizeCaptureDevice == null) {
+            return false;
+        }
+
+        // Consumers that can only get the size from somewhere else are answered on a worker.
+        long recordedBytes = sizeCaptureDevice.getRecordedBytesNonBlocking();
+
+        if (recordedBytes < 0) {
+            return false;
+        }
 
+        lastRequest = request;
+        logger.debug("SageTV sent: '{}'", request);
+
+        captureDevice = sizeCaptureDevice;
+        sendResponse(String.valueOf(recordedBytes));
+        return true;
+    }
+
+    //=============================================================================================
+    // GET_FILE_SIZE (return the size of a file that might not currently be recording)
+    //=============================================================================================
+    private void getFileSize(String getFilename) throws IOException {
+        // Find the device capturing this file.
+        CaptureDevice captureDevice = SageTVManager.getCaptureDeviceByFilename(getFilename);
+        this.captureDevice = captureDevice;
+
+        if (captureDevice != null) {
+            setThreadName(null, captureDevice.getEncoderName());
+
+            sendTraceResponse(String.valueOf(captureDevice.getRecordedBytes()));
+        } else {
             try {
-                if (out != null) {
-                    out.close();
-                }
+                sendTraceResponse(String.valueOf(new java.io.File(getFilename).length()));
             } catch (Exception e) {
-                logger.trace("Failed to close OutputStreamWriter => ", e);
+                logger.error("Unable to get the file size of '{}'.", getFilename);
+                sendTraceResponse("0");
             }
+        }
+    }
 
-            try {
-                if (socket != null && socket.isConnected()) {
-                    socket.close();
-                }
-            } catch (Exception e) {
-                logger.trace("Failed to close socket => ", e);
+    private boolean inlineGetFileSize(String request, String getFilename) throws IOException {
+        // Find the device capturing this file. If it isn't currently recording, the file system
+        // will need to be queried which might block.
+        CaptureDevice fileCaptureDevice = SageTVManager.getCaptureDeviceByFilename(getFilename);
+
+        if (fileCaptureDevice == null) {
+            return false;
+        }
+
+        long recordedBytes = fileCaptureDevice.getRecordedBytesNonBlocking();
+
+        if (recordedBytes < 0) {
+            return false;
+        }
+
+        lastRequest = request;
+
+        if (LOG_TRACE) {
+            logger.trace("SageTV sent: '{}'", request);
+        }
+
+        captureDevice = fileCaptureDevice;
+        sendTraceResponse(String.valueOf(recordedBytes));
+        return true;
+    }
+
+    //=============================================================================================
+    // AUTOINFOSCAN
+    //=============================================================================================
+    private void autoInfoScan(String arguments) throws IOException {
+        StringTokenizer tokens = new StringTokenizer(arguments, "|");
+
+        String vCaptureDevice = tokens.nextToken();
+        if (tokens.countTokens() == 2) {
+            // V3 encoder
+            SageTVDeviceCrossbar deviceType = SageTVDeviceCrossbar.getTypeForName(vCaptureDevice, crossbarIndex);
+            vCaptureDevice = SageTVDeviceCrossbar.trimToName(vCaptureDevice, deviceType, crossbarIndex[0]);
+            captureDevice = getAndLockCaptureDevice(vCaptureDevice, true);
+        }
+
+        String chanString = tokens.nextToken();
+        String returnValue = "ERROR";
+
+        CaptureDevice captureDevice = this.captureDevice;
+
+        if (captureDevice != null) {
+            setThreadName(vCaptureDevice, captureDevice.getEncoderName());
+            lockEncoder(captureDevice);
+            returnValue = captureDevice.scanChannelInfo(chanString);
+        }
+
+        sendResponse(returnValue);
+    }
+
+    //=============================================================================================
+    // PROPERTIES
+    //=============================================================================================
+    private void properties() throws IOException {
+        String properties = SageTVManager.getAllTunerProperties(this);
+
+        int size = 0;
+
+        for (char letter : properties.toCharArray()) {
+            if (letter == '\r') {
+                size += 1;
             }
         }
 
-        logger.exit();
+        connection.write(SageTVConnection.CHARSET.encode(
+                String.valueOf(size) + "\r\n" + properties));
+
+        logger.info("Sent PROPERTIES.");
     }
 
     private void setThreadName(String virtualDevice, String poolDevice) {
@@ -784,8 +703,7 @@ public class SageTVRequestHandler implements Runnable {
      * @throws IOException Thrown if there is an I/O error.
      */
     private void sendTraceResponse(String response) throws IOException {
-        out.write(response + "\r\n");
-        out.flush();
+        connection.write(SageTVConnection.CHARSET.encode(response + "\r\n"));
 
         if (LOG_TRACE) {
             logger.trace("Replied: '{}'", response);
@@ -799,8 +717,7 @@ public class SageTVRequestHandler implements Runnable {
      * @throws IOException Thrown if there is an I/O error.
      */
     private void sendResponse(String response) throws IOException {
-        out.write(response + "\r\n");
-        out.flush();
+        connection.write(SageTVConnection.CHARSET.encode(response + "\r\n"));
 
         if (response.startsWith("ERROR ")) {
             logger.error("SageTV sent: '{}', Replied: '{}'", lastRequest, response);
@@ -810,6 +727,10 @@ public class SageTVRequestHandler implements Runnable {
     }
 
     private CaptureDevice getAndLockCaptureDevice(String vCaptureDevice, boolean wait) {
+        return getAndLockCaptureDevice(vCaptureDevice, null, wait);
+    }
+
+    private CaptureDevice getAndLockCaptureDevice(String vCaptureDevice, String channel, boolean wait) {
 
         if (!SageTVPoolManager.isUsePools()) {
             return SageTVManager.getSageTVCaptureDevice(vCaptureDevice, wait);
@@ -818,7 +739,7 @@ public class SageTVRequestHandler implements Runnable {
         String pCaptureDevice = SageTVPoolManager.getVCaptureDeviceToPoolCaptureDevice(vCaptureDevice);
 
         if (pCaptureDevice == null) {
-            pCaptureDevice = SageTVPoolManager.getAndLockBestCaptureDevice(vCaptureDevice);
+            pCaptureDevice = SageTVPoolManager.getAndLockBestCaptureDevice(vCaptureDevice, channel);
         }
 
         while (pCaptureDevice == null) {
@@ -830,7 +751,7 @@ public class SageTVRequestHandler implements Runnable {
                 logger.debug("Interrupted while waiting for the next device to be detected => ", e);
             }
 
-            pCaptureDevice = SageTVPoolManager.getAndLockBestCaptureDevice(vCaptureDevice);
+            pCaptureDevice = SageTVPoolManager.getAndLockBestCaptureDevice(vCaptureDevice, channel);
 
             if (!retry) {
                 break;
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2015 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.sagetv;
+
+import opendct.config.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multiplexes every SageTV encoder port and connection onto a small pool of selector threads.
+ * <p/>
+ * Each {@link SageTVSocketServer} registers its listening channel here instead of running its own
+ * accept thread. Accepted connections are spread over the selectors round-robin and every
+ * connection is read without blocking by its {@link SageTVConnection}. Commands that can take a
+ * long time to complete are handed off to the worker thread pool by the connection.
+ */
+public class SageTVSelectorServer {
+    private static final Logger logger = LogManager.getLogger(SageTVSelectorServer.class);
+
+    private static final int SELECTOR_THREADS =
+            Math.max(1, Config.getInteger("sagetv.socket_server.selector_threads", 2));
+
+    private static final Object startLock = new Object();
+    private static final AtomicInteger nextSelector = new AtomicInteger(0);
+    private static SelectorThread selectorThreads[];
+
+    /**
+     * Start listening for connections on an already bound server socket channel.
+     *
+     * @param serverChannel The bound server socket channel.
+     * @param socketServer The socket server that owns the channel.
+     * @throws IOException Thrown if the channel could not be configured.
+     */
+    public static void register(ServerSocketChannel serverChannel, SageTVSocketServer socketServer) throws IOException {
+        serverChannel.configureBlocking(false);
+        nextSelectorThread().register(serverChannel, SelectionKey.OP_ACCEPT, socketServer);
+    }
+
+    /**
+     * Stop listening for connections on a server socket channel.
+     * <p/>
+     * This only closes the listening channel. Connections that have already been accepted will
+     * remain open until SageTV closes them.
+     *
+     * @param serverChannel The server socket channel to close.
+     */
+    public static void unregister(ServerSocketChannel serverChannel) {
+        try {
+            // Closing the channel also cancels its key on every selector.
+            serverChannel.close();
+        } catch (IOException e) {
+            logger.debug("Unable to close server socket channel => ", e);
+        }
+
+        synchronized (startLock) {
+            if (selectorThreads != null) {
+                for (SelectorThread selectorThread : selectorThreads) {
+                    selectorThread.selector.wakeup();
+                }
+            }
+        }
+    }
+
+    private static SelectorThread nextSelectorThread() throws IOException {
+        synchronized (startLock) {
+            if (selectorThreads == null) {
+                SelectorThread newThreads[] = new SelectorThread[SELECTOR_THREADS];
+
+                for (int i = 0; i < newThreads.length; i++) {
+                    newThreads[i] = new SelectorThread(Selector.open());
+                    newThreads[i].setName("SageTVSelectorServer-" + newThreads[i].getId() + ":" + i);
+                    newThreads[i].setDaemon(true);
+                    newThreads[i].start();
+                }
+
+                selectorThreads = newThreads;
+
+                logger.info("Started {} SageTV selector thread(s).", newThreads.length);
+            }
+
+            return selectorThreads[(nextSelector.getAndIncrement() & Integer.MAX_VALUE) % selectorThreads.length];
+        }
+    }
+
+    protected static class SelectorThread extends Thread {
+        private final Selector selector;
+        private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+
+        private SelectorThread(Selector selector) {
+            this.selector = selector;
+        }
+
+        private void register(final SelectableChannel channel, final int ops, final Object attachment) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        SelectionKey key = channel.register(selector, ops, attachment);
+
+                        if (attachment instanceof SageTVConnection) {
+                            ((SageTVConnection) attachment).setSelectionKey(key);
+                        }
+                    } catch (ClosedChannelException e) {
+                        logger.debug("Channel was closed before it could be registered.");
+                    }
+                }
+            });
+        }
+
+        /**
+         * Run a task on this selector thread.
+         * <p/>
+         * Interest operations are only ever changed by the selector thread so that a select in
+         * progress can never block another thread.
+         */
+        protected void execute(Runnable runnable) {
+            pendingTasks.add(runnable);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            logger.info("SageTV selector thread started.");
+
+            while (!isInterrupted()) {
+                try {
+                    Runnable task;
+                    while ((task = pendingTasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    selector.select();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        if (!key.isValid()) {
+                            continue;
+                        }
+
+                        if (key.isAcceptable()) {
+                            accept(key);
+                            continue;
+                        }
+
+                        SageTVConnection connection = (SageTVConnection) key.attachment();
+
+                        try {
+                            if (key.isWritable()) {
+                                connection.onWritable();
+                            }
+
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                        } catch (IOException e) {
+                            logger.debug("The SageTV server has disconnected ungracefully => {}", e.getMessage());
+                            connection.close();
+                        } catch (CancelledKeyException e) {
+                            connection.close();
+                        }
+                    }
+                } catch (Throwable e) {
+                    logger.error("Unexpected exception in SageTV selector thread => ", e);
+                }
+            }
+
+            logger.info("SageTV selector thread stopped.");
+        }
+
+        private void accept(SelectionKey key) {
+            SageTVSocketServer socketServer = (SageTVSocketServer) key.attachment();
+            SocketChannel socketChannel;
+
+            try {
+                socketChannel = ((ServerSocketChannel) key.channel()).accept();
+
+                if (socketChannel == null) {
+                    return;
+                }
+
+                socketChannel.configureBlocking(false);
+                socketChannel.socket().setTcpNoDelay(true);
+            } catch (IOException e) {
+                logger.error("Unable to accept connections on port {} => {}",
+                        socketServer.getListenPort(), e);
+                return;
+            }
+
+            SelectorThread selectorThread;
+
+            try {
+                selectorThread = nextSelectorThread();
+            } catch (IOException e) {
+                selectorThread = this;
+            }
+
+            SageTVConnection connection = new SageTVConnection(socketChannel, selectorThread,
+                    socketServer.getCaptureDevice(), socketServer.getListenPort());
+            selectorThread.register(socketChannel, SelectionKey.OP_READ, connection);
+
+            socketServer.connectionAccepted(socketChannel);
+        }
+    }
+}
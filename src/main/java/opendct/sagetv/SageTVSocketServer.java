@@ -19,25 +19,36 @@ package opendct.sagetv;
 import opendct.capture.CaptureDevice;
 import opendct.config.ExitCode;
 import opendct.power.NetworkPowerEventManger;
-import opendct.util.ThreadPool;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
-import java.net.*;
-import java.util.HashSet;
-
-public class SageTVSocketServer implements Runnable {
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Listens for SageTV connections on a single encoder port.
+ * <p/>
+ * The port does not get its own thread. Accepting connections and reading requests is multiplexed
+ * with every other port by {@link SageTVSelectorServer}.
+ */
+public class SageTVSocketServer {
     private final Logger logger = LogManager.getLogger(SageTVSocketServer.class);
 
     private volatile boolean listening = false;
-    private Thread socketServerThread;
     private final Object listeningLock = new Object();
 
     // Every unique IP address that connects to this program is placed in this list for one time
     // operations.
-    private static HashSet<InetAddress> registeredRemoteIps = new HashSet<>();
-    private ServerSocket serverSocket = null;
+    private static final Set<InetAddress> registeredRemoteIps =
+            Collections.newSetFromMap(new ConcurrentHashMap<InetAddress, Boolean>());
+    private ServerSocketChannel serverChannel = null;
 
     // This is to support V1.0 capture devices. This will not always be the actual capture device
     // SageTV will request on this port.
@@ -76,20 +87,23 @@ public class SageTVSocketServer implements Runnable {
                 return logger.exit(false);
             }
 
-            socketServerThread = new Thread(this);
-
-            logger.info("Opening ServerSocket on port {}...", listenPort);
+            logger.info("Opening ServerSocketChannel on port {}...", listenPort);
             try {
-                serverSocket = new ServerSocket(listenPort);
-                serverSocket.setSoTimeout(30000);
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.socket().bind(new InetSocketAddress(listenPort));
+                SageTVSelectorServer.register(serverChannel, this);
+                listening = true;
             } catch (IOException e) {
                 logger.error("Unable to open SocketServer on port {} => {}", listenPort, e);
                 error = true;
-            }
 
-            if (!error) {
-                socketServerThread.setName("SageTVSocketServer-" + socketServerThread.getId() + ":" + listenPort);
-                socketServerThread.start();
+                if (serverChannel != null) {
+                    try {
+                        serverChannel.close();
+                    } catch (IOException e0) {
+                        logger.debug("Unable to close ServerSocketChannel => ", e0);
+                    }
+                }
             }
         }
 
@@ -100,17 +114,18 @@ public class SageTVSocketServer implements Runnable {
             return logger.exit(false);
         }
 
+        logger.info("Started listening on port {}...", listenPort);
         return logger.exit(true);
     }
 
     /**
-     * This will tell the SageTV Socket Server thread to terminate and clean up.
+     * This will tell the SageTV Socket Server to stop accepting new connections.
      */
     public void stopListening() {
         logger.entry();
 
         synchronized (listeningLock) {
-            logger.debug("Stopping listening thread...");
+            logger.debug("Stopping listening...");
 
             if (!listening) {
                 logger.debug("Listening is not in progress.");
@@ -119,22 +134,12 @@ public class SageTVSocketServer implements Runnable {
             }
             listening = false;
 
-            try {
-                serverSocket.close();
-            } catch (IOException e) {
-
-            }
-
-            try {
-                socketServerThread.interrupt();
-                socketServerThread.join();
-            } catch (Exception e) {
-                logger.trace("There was a problem stopping the thread => {}", e);
-            }
+            SageTVSelectorServer.unregister(serverChannel);
+            serverChannel = null;
         }
 
+        logger.info("Stopped listening on port {}...", listenPort);
         logger.exit();
-        return;
     }
 
     public boolean changeListenPort(int newListenPort) {
@@ -162,96 +167,44 @@ public class SageTVSocketServer implements Runnable {
         return listenPort;
     }
 
-    public void run() {
-        logger.entry();
-        logger.info("Started listening on port {}...", listenPort);
-
-        Thread requestThread = null;
-        Thread oldRequestThread = null;
-        listening = true;
-
-        while (listening) {
-            try {
-                if (logger.isTraceEnabled()) {
-                    logger.trace("Accepting connection on port {}...", listenPort);
-                }
-
-                Socket socket = serverSocket.accept();
-
-                ThreadPool.submit(new SageTVRequestHandler(socket, captureDevice),  Thread.NORM_PRIORITY, "SageTVRequestHandler", "Unknown-" + listenPort);
-
-                InetAddress remoteAddress = socket.getInetAddress();
-
-                // This will keep this task from being performed constantly on connection. It only
-                // needs to be done once.
-                if (!registeredRemoteIps.contains(remoteAddress)) {
-                    if (remoteAddress instanceof Inet4Address &&
-                            !remoteAddress.isLoopbackAddress()) {
-                        try {
-                            NetworkPowerEventManger.POWER_EVENT_LISTENER.addDependentInterface(
-                                    remoteAddress);
-
-                        } catch (Exception e) {
-                            logger.debug("Unable to register a local interface for the" +
-                                            " external IP address {}. Will not try again => ",
-                                    socket.getInetAddress(), e);
-                        }
-                    } else {
-                        logger.warn("IPv6 connection detected. This is an untested configuration.");
-                    }
-
-                    registeredRemoteIps.add(socket.getInetAddress());
-                }
-            } catch (SocketTimeoutException e) {
-                if (listening) {
-                    try {
-                        serverSocket.close();
-                    } catch (IOException e1) {
-
-                    }
-
-                    try {
-                        serverSocket = new ServerSocket(listenPort);
-                        serverSocket.setSoTimeout(30000);
-                    } catch (IOException e0) {
-                        logger.error("Unable to open SocketServer on port {} => {}", listenPort, e0);
-                        ExitCode.SAGETV_SOCKET.terminateJVM();
-                    }
-                }
-            } catch (IOException e) {
-                if (listening) {
-                    logger.error("Unable to accept connections on port {} => {}", listenPort, e);
-
-                    logger.info("Re-opening ServerSocket on port {}...", listenPort);
-
-                    if (serverSocket != null && !serverSocket.isClosed()) {
-                        try {
-                            serverSocket.close();
-                        } catch (Exception e0) {
-                            logger.debug("An unexpected exception occurred while closing the socket => {}", e0);
-                        }
-                    }
+    /**
+     * Get the capture device assigned to this port for V1.0 capture devices.
+     *
+     * @return The capture device or <i>null</i> if one was not assigned.
+     */
+    public CaptureDevice getCaptureDevice() {
+        return captureDevice;
+    }
 
-                    try {
-                        serverSocket = new ServerSocket(listenPort);
-                        serverSocket.setSoTimeout(30000);
-                    } catch (IOException e0) {
-                        logger.error("Unable to open SocketServer on port {} => {}", listenPort, e0);
-                        ExitCode.SAGETV_SOCKET.terminateJVM();
-                    }
-                }
-            }
+    /**
+     * Called by the selector thread each time a new connection is accepted on this port.
+     *
+     * @param socketChannel The newly accepted connection.
+     */
+    protected void connectionAccepted(SocketChannel socketChannel) {
+        if (logger.isTraceEnabled()) {
+            logger.trace("Accepted connection on port {}...", listenPort);
         }
 
-        if (serverSocket != null && !serverSocket.isClosed()) {
-            try {
-                serverSocket.close();
-            } catch (Exception e) {
-                logger.debug("An unexpected exception occurred while closing the socket => {}", e);
+        InetAddress remoteAddress = socketChannel.socket().getInetAddress();
+
+        // This will keep this task from being performed constantly on connection. It only
+        // needs to be done once.
+        if (remoteAddress != null && registeredRemoteIps.add(remoteAddress)) {
+            if (remoteAddress instanceof Inet4Address &&
+                    !remoteAddress.isLoopbackAddress()) {
+                try {
+                    NetworkPowerEventManger.POWER_EVENT_LISTENER.addDependentInterface(
+                            remoteAddress);
+
+                } catch (Exception e) {
+                    logger.debug("Unable to register a local interface for the" +
+                                    " external IP address {}. Will not try again => ",
+                            remoteAddress, e);
+                }
+            } else {
+                logger.warn("IPv6 connection detected. This is an untested configuration.");
             }
         }
-
-        logger.info("Stopped listening on port {}...", listenPort);
-        logger.exit();
     }
 }
@@ -21,7 +21,9 @@ import opendct.capture.CaptureDevice;
 import opendct.capture.InfiniTVCaptureDevice;
 import opendct.channel.CopyProtection;
 import opendct.config.Config;
+import opendct.config.ConfigRegistry;
 import opendct.consumer.MediaServerConsumerImpl;
+import opendct.util.ThreadPool;
 import opendct.util.Util;
 import opendct.video.java.VideoUtil;
 import org.apache.logging.log4j.LogManager;
@@ -30,42 +32,72 @@ import org.apache.logging.log4j.Logger;
 import java.io.File;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
+import java.util.concurrent.*;
+
+/**
+ * Watches recordings for stalls and copy protection.
+ * <p/>
+ * Every recording is checked on its own schedule using a small scheduled executor instead of
+ * polling every recording once per second. Recordings are grouped by their parent device so the
+ * copy protection and stall checks for all of the tuners on one device are done together in a
+ * single task. Tuning and stopping only update a concurrent map, so they never wait for
+ * monitoring.
+ */
 public class SageTVTuningMonitor {
     private final static Logger logger = LogManager.getLogger(SageTVTuningMonitor.class);
     private final static boolean retuneEnabled = Config.getBoolean("retune_enable", true);
     private final static boolean retuneCetonOnly = Config.getBoolean("retune_ceton_only", true);
+    private final static int monitorThreads =
+            Math.max(1, Config.getInteger("retune_monitor_threads", 2));
+    private final static ConfigRegistry.IntegerValue uploadIdPort =
+            ConfigRegistry.integerValue("consumer.ffmpeg.upload_id_port", 7818);
 
-    private static final ReentrantReadWriteLock queueLock = new ReentrantReadWriteLock(true);
-
-    private static Thread monitorThread;
-    private static final Map<String, MonitoredRecording> recordingQueue = new HashMap<>();
+    // While the copy protection is unknown, it is checked at this interval.
+    private final static int COPY_PROTECTION_CHECK_DELAY = 1000;
 
+    private static volatile ScheduledThreadPoolExecutor monitorExecutor;
+    private static final ConcurrentHashMap<String, MonitoredRecording> recordingQueue =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, ParentMonitor> parentMonitors =
+            new ConcurrentHashMap<>();
 
     public synchronized static void startMonitor() {
-        if (monitorThread != null && monitorThread.isAlive()) {
+        ScheduledThreadPoolExecutor executor = monitorExecutor;
+
+        if (executor != null && !executor.isShutdown()) {
             return;
         }
 
-        monitorThread = new Thread(new MonitorThread());
-        monitorThread.setName("SageTVTuningMonitor-" + monitorThread.getId());
-        monitorThread.start();
+        executor = new ScheduledThreadPoolExecutor(monitorThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable);
+                thread.setName("SageTVTuningMonitor-" + thread.getId());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        monitorExecutor = executor;
+
+        logger.info("Tuning monitor started.");
     }
 
     public synchronized static void stopMonitor() {
-        if (monitorThread != null) {
-            monitorThread.interrupt();
+        ScheduledThreadPoolExecutor executor = monitorExecutor;
+
+        if (executor != null) {
+            executor.shutdownNow();
+            monitorExecutor = null;
+
+            logger.info("Tuning monitor stopped.");
         }
 
         clearQueue();
     }
 
     public static void pauseMonitorRecording(CaptureDevice captureDevice) {
-        queueLock.readLock().lock();
-
         try {
             MonitoredRecording monitoredRecording = recordingQueue.get(captureDevice.getEncoderName());
 
@@ -75,19 +107,23 @@ public class SageTVTuningMonitor {
                 return;
             }
 
-            monitoredRecording.active = false;
+            RetuneTask retuneTask;
+
+            // This ensures a re-tune can't be started after we have checked for one.
+            synchronized (monitoredRecording) {
+                monitoredRecording.active = false;
+                retuneTask = monitoredRecording.retuneTask;
+            }
 
             // If a re-tune is currently in progress, unfortunately we just have to wait it out.
-            if (monitoredRecording.retuneThread != null && monitoredRecording.retuneThread.isAlive()) {
-                monitoredRecording.retuneThread.interrupt();
-                monitoredRecording.retuneThread.join(15000);
+            if (retuneTask != null && retuneTask.isRunning()) {
+                retuneTask.interrupt();
 
-                if (monitoredRecording.retuneThread.isAlive()) {
+                if (!retuneTask.join(15000)) {
                     logger.warn("Waited over 15 seconds for the re-tune thread to stop.");
 
-                    monitoredRecording.retuneThread.interrupt();
-                    monitoredRecording.retuneThread.join(30000);
-                    if (monitoredRecording.retuneThread.isAlive()) {
+                    retuneTask.interrupt();
+                    if (!retuneTask.join(30000)) {
                         logger.warn("Waited over 45 seconds for the re-tune thread to stop. It is still running.");
                     }
                 }
@@ -95,14 +131,10 @@ public class SageTVTuningMonitor {
         } catch (Throwable e) {
             logger.error("Unexpected exception while pausing '{}' => ",
                     captureDevice.getEncoderName(), e);
-        } finally {
-            queueLock.readLock().unlock();
         }
     }
 
     public static void resumeMonitorRecording(CaptureDevice captureDevice, int uploadID, InetAddress remoteAddress) {
-        queueLock.readLock().lock();
-
         try {
             MonitoredRecording monitoredRecording = recordingQueue.get(captureDevice.getEncoderName());
 
@@ -114,12 +146,13 @@ public class SageTVTuningMonitor {
 
             monitoredRecording.uploadID = uploadID;
             monitoredRecording.remoteAddress = remoteAddress;
+            monitoredRecording.nextCheck = System.currentTimeMillis() + monitoredRecording.checkDelay;
             monitoredRecording.active = true;
+
+            scheduleCheck(monitoredRecording, System.currentTimeMillis() + COPY_PROTECTION_CHECK_DELAY);
         } catch (Throwable e) {
-            logger.error("Unexpected exception while pausing '{}' => ",
+            logger.error("Unexpected exception while resuming '{}' => ",
                     captureDevice.getEncoderName(), e);
-        } finally {
-            queueLock.readLock().unlock();
         }
     }
 
@@ -128,74 +161,114 @@ public class SageTVTuningMonitor {
                                         SageTVDeviceCrossbar deviceType, int crossbarIndex,
                                         int uploadID, InetAddress remoteAddress) {
 
-        Thread checkThread = monitorThread;
-        if (checkThread == null || !checkThread.isAlive()) {
+        ScheduledThreadPoolExecutor executor = monitorExecutor;
+        if (executor == null || executor.isShutdown()) {
             logger.debug("Tuning monitor is not running." +
                     " This recording will not re-tune automatically.");
             return;
         }
 
-        queueLock.writeLock().lock();
-
         try {
             MonitoredRecording newRecording = new MonitoredRecording(
                     captureDevice, channel, encodingQuality, bufferSize, deviceType, crossbarIndex,
                     uploadID, remoteAddress);
 
             recordingQueue.put(captureDevice.getEncoderName(), newRecording);
+
+            scheduleCheck(newRecording, System.currentTimeMillis() + COPY_PROTECTION_CHECK_DELAY);
         } catch (Throwable e) {
             logger.error("Unexpected exception while tuning '{}' => ",
                     captureDevice.getEncoderName(), e);
-        } finally {
-            queueLock.writeLock().unlock();
         }
     }
 
     public static void stopMonitorRecording(CaptureDevice captureDevice) {
-        queueLock.writeLock().lock();
-
         try {
-            recordingQueue.remove(captureDevice.getEncoderName());
+            MonitoredRecording monitoredRecording =
+                    recordingQueue.remove(captureDevice.getEncoderName());
+
+            if (monitoredRecording != null) {
+                removeIdleParentMonitor(monitoredRecording.parentName);
+            }
         } catch (Throwable e) {
             logger.error("Unexpected exception while stopping '{}' => ",
                     captureDevice.getEncoderName(), e);
-        } finally {
-            queueLock.writeLock().unlock();
         }
     }
 
     public static void clearQueue() {
-        queueLock.writeLock().lock();
-
-        try {
+        synchronized (parentMonitors) {
             recordingQueue.clear();
-        } finally {
-            queueLock.writeLock().unlock();
+
+            for (ParentMonitor parentMonitor : parentMonitors.values()) {
+                parentMonitor.cancel();
+            }
+            parentMonitors.clear();
+        }
+    }
+
+    private static void scheduleCheck(MonitoredRecording recording, long checkTime) {
+        String parentName = recording.parentName;
+
+        // This is only contended when a recording starts or stops, so it doesn't need to be any
+        // finer grained than this. It ensures a monitor is never removed while it's being
+        // scheduled for a new recording.
+        synchronized (parentMonitors) {
+            ParentMonitor parentMonitor = parentMonitors.get(parentName);
+
+            if (parentMonitor == null) {
+                parentMonitor = new ParentMonitor(parentName);
+                parentMonitors.put(parentName, parentMonitor);
+            }
+
+            parentMonitor.schedule(checkTime);
+        }
+    }
+
+    /**
+     * Removes the monitor for a parent once it no longer has any recordings to check.
+     *
+     * @param parentName The name of the parent device.
+     */
+    private static void removeIdleParentMonitor(String parentName) {
+        synchronized (parentMonitors) {
+            for (MonitoredRecording recording : recordingQueue.values()) {
+                if (parentName.equals(recording.parentName)) {
+                    return;
+                }
+            }
+
+            ParentMonitor parentMonitor = parentMonitors.remove(parentName);
+
+            if (parentMonitor != null) {
+                parentMonitor.cancel();
+            }
         }
     }
 
     public static class MonitoredRecording {
         protected volatile boolean active = true;
-        protected Thread retuneThread = null;
-        protected String filename = null;
+        protected RetuneTask retuneTask = null;
+        protected volatile String filename = null;
         protected long lessThanRecordedBytes = 0;
         protected long lessThanProducedPackets = 0;
-        protected CopyProtection copyProtection = CopyProtection.UNKNOWN;
+        protected volatile CopyProtection copyProtection = CopyProtection.UNKNOWN;
 
         protected int checkDelay = 16000;
         // Wait a little longer than usual for the first tuning.
-        protected long nextCheck = System.currentTimeMillis() + checkDelay + 4000;
+        protected volatile long nextCheck = System.currentTimeMillis() + checkDelay + 4000;
         protected long lastRecordedBytes = -1;
         protected long lastProducedPackets = -1;
         protected int noRecordedBytes = 0;
         protected final CaptureDevice captureDevice;
+        protected final String parentName;
         protected final String channel;
         protected final String encodingQuality;
         protected final long bufferSize;
         protected final SageTVDeviceCrossbar deviceType;
         protected final int crossbarIndex;
-        protected int uploadID;
-        protected InetAddress remoteAddress;
+        protected volatile int uploadID;
+        protected volatile InetAddress remoteAddress;
 
         public MonitoredRecording(CaptureDevice captureDevice, String channel,
                                   String encodingQuality, long bufferSize,
@@ -203,6 +276,7 @@ public class SageTVTuningMonitor {
                                   int uploadID, InetAddress remoteAddress) {
 
             this.captureDevice = captureDevice;
+            this.parentName = captureDevice.getEncoderParentName();
             this.channel = channel;
             this.encodingQuality = encodingQuality;
             this.bufferSize = bufferSize;
@@ -217,343 +291,439 @@ public class SageTVTuningMonitor {
                 this.checkDelay *= 2;
             }
         }
+
+        /**
+         * Get the next time this recording needs to be checked.
+         *
+         * @return The time in milliseconds or <i>Long.MAX_VALUE</i> if nothing needs to be checked
+         *         until the recording is resumed or replaced.
+         */
+        protected long getNextCheck(long currentTime) {
+            if (!active) {
+                return Long.MAX_VALUE;
+            } else if (copyProtection == CopyProtection.UNKNOWN) {
+                return currentTime + COPY_PROTECTION_CHECK_DELAY;
+            } else if (bufferSize > 0) {
+                return Long.MAX_VALUE;
+            }
+
+            return nextCheck;
+        }
     }
 
-    public static class MonitorThread implements Runnable {
+    /**
+     * Checks all of the recordings on one parent device.
+     * <p/>
+     * Only one check per parent device is scheduled at a time. After every check, the task is
+     * scheduled again for whenever the next recording on the parent device is due.
+     */
+    private static class ParentMonitor implements Runnable {
+        private final String parentName;
+        private ScheduledFuture<?> future = null;
+        private long scheduledTime = Long.MAX_VALUE;
+        private long requestedTime = Long.MAX_VALUE;
+        private boolean running = false;
+        private boolean cancelled = false;
+
+        private ParentMonitor(String parentName) {
+            this.parentName = parentName;
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+
+            if (future != null) {
+                future.cancel(false);
+                future = null;
+            }
+        }
+
+        private synchronized void schedule(long checkTime) {
+            if (cancelled) {
+                return;
+            }
+
+            if (running) {
+                // The check in progress will schedule the next check when it's done.
+                requestedTime = Math.min(requestedTime, checkTime);
+                return;
+            }
+
+            if (future != null) {
+                if (scheduledTime <= checkTime) {
+                    return;
+                }
+
+                future.cancel(false);
+                future = null;
+            }
+
+            ScheduledThreadPoolExecutor executor = monitorExecutor;
+
+            if (executor == null || executor.isShutdown()) {
+                return;
+            }
+
+            try {
+                future = executor.schedule(this,
+                        Math.max(0, checkTime - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                scheduledTime = checkTime;
+            } catch (RejectedExecutionException e) {
+                // The monitor is stopping.
+                future = null;
+                scheduledTime = Long.MAX_VALUE;
+            }
+        }
 
         @Override
         public void run() {
-            logger.info("Tuning monitor thread started.");
-
-            while(!Thread.currentThread().isInterrupted()) {
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    logger.info("Tuning monitor thread interrupted.");
+            synchronized (this) {
+                if (running) {
+                    requestedTime = System.currentTimeMillis();
                     return;
                 }
 
-                queueLock.writeLock().lock();
+                running = true;
+                future = null;
+                scheduledTime = Long.MAX_VALUE;
+                requestedTime = Long.MAX_VALUE;
+            }
+
+            long nextRun = Long.MAX_VALUE;
 
-                try {
-                    if (recordingQueue.size() == 0) {
+            try {
+                long currentTime = System.currentTimeMillis();
+
+                for (MonitoredRecording recording : recordingQueue.values()) {
+                    if (!parentName.equals(recording.parentName)) {
                         continue;
                     }
 
-                    long currentTime = System.currentTimeMillis();
-
-                    for (Map.Entry<String, MonitoredRecording> entry : recordingQueue.entrySet()) {
-                        final MonitoredRecording recording = entry.getValue();
-
-                        // This keeps the monitoring from holding up new tuning requests.
-                        if (queueLock.hasQueuedThreads()) {
-                            break;
-                        }
-
-                        if (recording == null) {
-                            continue;
-                        } else if (!recording.active) {
-                            recording.nextCheck = System.currentTimeMillis() + recording.checkDelay;
-                            continue;
-                        }
-
-                        if (recording.copyProtection == CopyProtection.UNKNOWN) {
-
-                            recording.copyProtection = recording.captureDevice.getCopyProtection();
-
-                            if (recording.copyProtection == CopyProtection.COPY_NEVER ||
-                                    recording.copyProtection == CopyProtection.COPY_ONCE) {
-
-                                logger.info("The capture device has reported that the tuned" +
-                                                " channel is {}, stopping monitoring immediately.",
-                                        recording.copyProtection);
-
-                                recordingQueue.remove(recording.captureDevice.getEncoderName());
-
-                                Thread execute = new Thread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        // The capture device needs to stream the message because the user
-                                        // will not see anything if the bytes streamed doesn't increment.
-                                        if (recording.copyProtection == CopyProtection.COPY_ONCE) {
-                                            recording.captureDevice.streamError(VideoUtil.COPY_ONCE_TS,
-                                                    new InetSocketAddress(
-                                                            recording.remoteAddress,
-                                                            Config.getInteger(
-                                                                    "consumer.ffmpeg.upload_id_port", 7818)
-                                                    ), recording.uploadID);
-                                        } else {
-                                            recording.captureDevice.streamError(VideoUtil.COPY_NEVER_TS,
-                                                    new InetSocketAddress(
-                                                            recording.remoteAddress,
-                                                            Config.getInteger(
-                                                                    "consumer.ffmpeg.upload_id_port", 7818)
-                                                    ), recording.uploadID);
-                                        }
-                                        logger.debug("Error stream finished.");
-                                    }
-                                });
-                                execute.setName("AsyncError-" + execute.getId());
-                                execute.start();
-
-                                // We need to break here or the next iteration might fail. The
-                                // alternative is to collect what needs to be removed and remove it
-                                // after iterating over all of the content, but that may leave a
-                                // window open for this action to remove a new tuning request which
-                                // we really don't want to happen.
-                                break;
-                            }
-                        }
-
-                        if (recording.nextCheck > currentTime || recording.bufferSize > 0) {
-                            continue;
-                        }
-
-                        if (recording.copyProtection == CopyProtection.UNKNOWN ||
-                                (recording.copyProtection == CopyProtection.NONE &&
-                                        recording.lastRecordedBytes < 104857600)) {
-
-                            recording.copyProtection = recording.captureDevice.getCopyProtection();
-
-                            if (recording.copyProtection == CopyProtection.COPY_NEVER ||
-                                    recording.copyProtection == CopyProtection.COPY_ONCE) {
-
-                                logger.info("The capture device has reported that the tuned" +
-                                                " channel is {}, stopping monitoring immediately.",
-                                        recording.copyProtection);
-
-                                recordingQueue.remove(recording.captureDevice.getEncoderName());
-
-                                Thread execute = new Thread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        // The capture device needs to stream the message because
-                                        // the user will not see anything if the bytes streamed
-                                        // doesn't increment.
-                                        if (recording.copyProtection == CopyProtection.COPY_ONCE) {
-                                            recording.captureDevice.streamError(
-                                                    VideoUtil.COPY_ONCE_TS,
-                                                    new InetSocketAddress(
-                                                            recording.remoteAddress,
-                                                            Config.getInteger(
-                                                                    "consumer.ffmpeg.upload_id_port", 7818)
-                                                    ), recording.uploadID);
-                                        } else {
-                                            recording.captureDevice.streamError(
-                                                    VideoUtil.COPY_NEVER_TS,
-                                                    new InetSocketAddress(
-                                                            recording.remoteAddress,
-                                                            Config.getInteger(
-                                                                    "consumer.ffmpeg.upload_id_port", 7818)
-                                                    ), recording.uploadID);
-                                        }
-                                        logger.debug("Error stream finished.");
-                                    }
-                                });
-                                execute.setName("AsyncError-" + execute.getId());
-                                execute.start();
-
-                                // We need to break here or the next iteration might fail. The
-                                // alternative is to collect what needs to be removed and remove it
-                                // after iterating over all of the content, but that may leave a
-                                // window open for this action to remove a new tuning request which
-                                // we really don't want to happen.
-                                break;
-                            }
-                        }
-
-                        long producedPackets = recording.captureDevice.getProducedPackets();
-                        long recordedBytes = recording.captureDevice.getRecordedBytes();
-
-                        if (recording.lastRecordedBytes == recordedBytes) {
-                            recording.filename = recording.captureDevice.getRecordFilename();
-                            recording.copyProtection = recording.captureDevice.getCopyProtection();
-
-                            logger.debug("The consumer appears to be stuck at {}," +
-                                    " file system length {}, file name '{}', copy protection {}.",
-                                    recording.lastRecordedBytes,
-                                    recording.filename != null ?
-                                            new File(recording.filename).length() : -1,
-                                    recording.filename != null ?
-                                            recording.filename : "",
-                                    recording.copyProtection);
-
-                            if (recording.lastRecordedBytes != 0) {
-                                recording.noRecordedBytes += 1;
-                            }
-                        } else {
-                            recording.noRecordedBytes = 0;
-                        }
-
-                        if (recording.lastProducedPackets == producedPackets) {
-                            logger.debug("The producer appears to be stuck at {}.",
-                                    recording.lastProducedPackets);
-                        }
-
-                        // If both of these appear to be stuck, re-tune.
-                        if ((recording.lastProducedPackets == producedPackets &&
-                                recording.lastRecordedBytes == recordedBytes) ||
-                                recording.noRecordedBytes > 2) {
-
-                            // The last re-tune request is still in progress.
-                            if (recording.retuneThread != null &&
-                                    recording.retuneThread.isAlive()) {
-
-                                recording.nextCheck = System.currentTimeMillis() + recording.checkDelay;
-                                continue;
-                            }
-
-                            final boolean consumerStuck = recording.noRecordedBytes > 2;
-                            final CaptureDevice captureDevice = recording.captureDevice;
-                            final String channel = recording.channel;
-                            final String encodingQuality = recording.encodingQuality;
-                            final long bufferSize = recording.bufferSize;
-                            final SageTVDeviceCrossbar deviceType = recording.deviceType;
-                            final int crossbarIndex = recording.crossbarIndex;
-                            final int uploadID = recording.uploadID;
-                            final InetAddress remoteAddress = recording.remoteAddress;
-                            recording.noRecordedBytes = 0;
-
-                            // Don't try to re-tune when using the media server. You could end up
-                            // overwriting what we do have. Let SageTV handle this situation. Also
-                            // by default we are only re-tuning Ceton devices because this is a
-                            // function that SageTV should really be handling, not the network
-                            // encoder.
-                            boolean noRetune = (retuneCetonOnly && !(captureDevice instanceof InfiniTVCaptureDevice)) ||
-                                    captureDevice instanceof BasicCaptureDevice &&
-                                            ((BasicCaptureDevice) captureDevice).getConsumer() instanceof MediaServerConsumerImpl;
-
-                            // This keeps the monitoring from holding up new tuning request and
-                            // potentially re-tuning when a tuner is changing channels anyway.
-                            if (queueLock.hasQueuedThreads()) {
-                                break;
-                            }
-
-                            // If we have decided not to try to re-tune when there is a problem and
-                            // instead wait for SageTV to restart the stream if it thinks there's a
-                            // problem.
-                            if (retuneEnabled && !noRetune) {
-                                recording.retuneThread = new Thread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        boolean tuned = false;
-                                        String localFilename = captureDevice.getRecordFilename();
-
-                                        logger.info("Current copy protection {}.",
-                                                captureDevice.getCopyProtection());
-
-                                        if (Util.isNullOrEmpty(localFilename) && recording.filename == null) {
-                                            logger.error(
-                                                    "Unable to re-tune because there isn't a filename." +
-                                                            " Stopping device monitoring."
-                                            );
-
-                                            stopMonitorRecording(captureDevice);
-
-                                            return;
-                                        }
-
-                                        if (!Util.isNullOrEmpty(localFilename)) {
-                                            recording.filename = localFilename;
-                                        }
-
-                                        if (!consumerStuck) {
-                                            if (captureDevice.isInternalLocked()) {
-                                                tuned = captureDevice.startEncoding(
-                                                        channel, recording.filename,
-                                                        encodingQuality, bufferSize,
-                                                        deviceType, crossbarIndex,
-                                                        uploadID, remoteAddress);
-                                            } else {
-                                                logger.info("Re-tune was cancelled because the" +
-                                                        " capture device is no longer internally" +
-                                                        " locked. Stopping device monitoring.");
-
-                                                stopMonitorRecording(captureDevice);
-                                                return;
-                                            }
-                                        }
-
-                                        // If the channel still won't tune in, start over.
-                                        if (!tuned) {
-                                            localFilename = captureDevice.getRecordFilename();
-
-                                            if (Util.isNullOrEmpty(localFilename) &&
-                                                    recording.filename == null) {
-
-                                                logger.error("Unable to tune because there isn't a" +
-                                                        " filename. Stopping device monitoring.");
-
-                                                stopMonitorRecording(captureDevice);
-                                                return;
-                                            }
-
-                                            if (!Util.isNullOrEmpty(localFilename)) {
-                                                recording.filename = localFilename;
-                                            }
-
-                                            captureDevice.stopEncoding();
-
-                                            if (captureDevice.isInternalLocked()) {
-                                                captureDevice.startEncoding(
-                                                        channel, recording.filename,
-                                                        encodingQuality, bufferSize,
-                                                        deviceType, crossbarIndex,
-                                                        uploadID, remoteAddress);
-                                            }
-                                        }
-                                    }
-                                });
-
-                                recording.retuneThread.setName("Retune-" +
-                                        recording.retuneThread.getId() + ":" +
-                                        captureDevice.getEncoderName());
-
-                                // This keeps the monitoring from holding up new tuning request and
-                                // potentially re-tuning when a tuner is changing channels anyway.
-                                if (queueLock.hasQueuedThreads()) {
-                                    recording.retuneThread = null;
-                                    break;
-                                }
-
-                                // Setting these to the current value will ensure that a log entry is
-                                // created if data starts streaming again.
-                                recording.lastProducedPackets = producedPackets;
-                                recording.lessThanRecordedBytes = recordedBytes;
-
-                                recording.retuneThread.start();
-                            }
-                        }
-
-                        if (recording.lastProducedPackets <= recording.lessThanProducedPackets &&
-                                producedPackets > 0) {
-
-                            recording.lastProducedPackets = 0;
-                            logger.info("'{}' produced first {} packets.",
-                                    recording.captureDevice.getEncoderName(), producedPackets);
-                        }
-
-                        if (recording.lastRecordedBytes <= recording.lessThanRecordedBytes &&
-                                recordedBytes > 0) {
-
-                            recording.lessThanRecordedBytes = 0;
-                            logger.info("'{}' recorded first {} bytes.",
-                                    recording.captureDevice.getEncoderName(), recordedBytes);
-                        }
-
-                        recording.lastProducedPackets = producedPackets;
-                        recording.lastRecordedBytes = recordedBytes;
-
-                        recording.nextCheck = System.currentTimeMillis() + recording.checkDelay;
+                    if (recording.getNextCheck(currentTime) <= currentTime ||
+                            recording.copyProtection == CopyProtection.UNKNOWN ||
+                            !recording.active) {
+
+                        checkRecording(recording, currentTime);
+                    }
+
+                    // The recording might have been removed by the check.
+                    if (recordingQueue.get(recording.captureDevice.getEncoderName()) == recording) {
+                        nextRun = Math.min(nextRun,
+                                recording.getNextCheck(System.currentTimeMillis()));
+                    }
+                }
+            } catch (Throwable e) {
+                logger.error("Unexpected exception while monitoring => ", e);
+            } finally {
+                synchronized (this) {
+                    running = false;
+                    nextRun = Math.min(nextRun, requestedTime);
+                    requestedTime = Long.MAX_VALUE;
+                }
+
+                if (nextRun != Long.MAX_VALUE) {
+                    schedule(nextRun);
+                }
+            }
+        }
+    }
+
+    private static void checkRecording(final MonitoredRecording recording, long currentTime) {
+        if (!recording.active) {
+            recording.nextCheck = System.currentTimeMillis() + recording.checkDelay;
+            return;
+        }
+
+        if (recording.copyProtection == CopyProtection.UNKNOWN) {
+
+            recording.copyProtection = recording.captureDevice.getCopyProtection();
+
+            if (isCopyProtected(recording)) {
+                return;
+            }
+        }
+
+        if (recording.nextCheck > currentTime || recording.bufferSize > 0) {
+            return;
+        }
+
+        if (recording.copyProtection == CopyProtection.UNKNOWN ||
+                (recording.copyProtection == CopyProtection.NONE &&
+                        recording.lastRecordedBytes < 104857600)) {
+
+            recording.copyProtection = recording.captureDevice.getCopyProtection();
+
+            if (isCopyProtected(recording)) {
+                return;
+            }
+        }
+
+        long producedPackets = recording.captureDevice.getProducedPackets();
+        long recordedBytes = recording.captureDevice.getRecordedBytes();
+
+        if (recording.lastRecordedBytes == recordedBytes) {
+            recording.filename = recording.captureDevice.getRecordFilename();
+            recording.copyProtection = recording.captureDevice.getCopyProtection();
+
+            logger.debug("The consumer appears to be stuck at {}," +
+                    " file system length {}, file name '{}', copy protection {}.",
+                    recording.lastRecordedBytes,
+                    recording.filename != null ?
+                            new File(recording.filename).length() : -1,
+                    recording.filename != null ?
+                            recording.filename : "",
+                    recording.copyProtection);
+
+            if (recording.lastRecordedBytes != 0) {
+                recording.noRecordedBytes += 1;
+            }
+        } else {
+            recording.noRecordedBytes = 0;
+        }
+
+        if (recording.lastProducedPackets == producedPackets) {
+            logger.debug("The producer appears to be stuck at {}.",
+                    recording.lastProducedPackets);
+        }
+
+        // If both of these appear to be stuck, re-tune.
+        if ((recording.lastProducedPackets == producedPackets &&
+                recording.lastRecordedBytes == recordedBytes) ||
+                recording.noRecordedBytes > 2) {
+
+            // The last re-tune request is still in progress.
+            RetuneTask lastRetuneTask = recording.retuneTask;
+            if (lastRetuneTask != null && lastRetuneTask.isRunning()) {
+                recording.nextCheck = System.currentTimeMillis() + recording.checkDelay;
+                return;
+            }
+
+            final boolean consumerStuck = recording.noRecordedBytes > 2;
+            final CaptureDevice captureDevice = recording.captureDevice;
+            recording.noRecordedBytes = 0;
+
+            // Don't try to re-tune when using the media server. You could end up
+            // overwriting what we do have. Let SageTV handle this situation. Also
+            // by default we are only re-tuning Ceton devices because this is a
+            // function that SageTV should really be handling, not the network
+            // encoder.
+            boolean noRetune = (retuneCetonOnly && !(captureDevice instanceof InfiniTVCaptureDevice)) ||
+                    captureDevice instanceof BasicCaptureDevice &&
+                            ((BasicCaptureDevice) captureDevice).getConsumer() instanceof MediaServerConsumerImpl;
+
+            // If we have decided not to try to re-tune when there is a problem and
+            // instead wait for SageTV to restart the stream if it thinks there's a
+            // problem.
+            if (retuneEnabled && !noRetune) {
+                // This keeps the monitoring from re-tuning when a tuner is changing channels
+                // anyway. Pausing the recording takes the same lock before waiting on a
+                // re-tune.
+                synchronized (recording) {
+                    if (!recording.active ||
+                            recordingQueue.get(captureDevice.getEncoderName()) != recording) {
+
+                        return;
                     }
-                } catch (Throwable e) {
-                    logger.error("Unexpected exception while monitoring => ", e);
-                } finally {
-                    queueLock.writeLock().unlock();
+
+                    // Setting these to the current value will ensure that a log entry is
+                    // created if data starts streaming again.
+                    recording.lastProducedPackets = producedPackets;
+                    recording.lessThanRecordedBytes = recordedBytes;
+
+                    recording.retuneTask = new RetuneTask(recording, consumerStuck);
+                    ThreadPool.submit(recording.retuneTask, Thread.NORM_PRIORITY,
+                            "Retune", captureDevice.getEncoderName());
                 }
             }
+        }
+
+        if (recording.lastProducedPackets <= recording.lessThanProducedPackets &&
+                producedPackets > 0) {
+
+            recording.lastProducedPackets = 0;
+            logger.info("'{}' produced first {} packets.",
+                    recording.captureDevice.getEncoderName(), producedPackets);
+        }
+
+        if (recording.lastRecordedBytes <= recording.lessThanRecordedBytes &&
+                recordedBytes > 0) {
+
+            recording.lessThanRecordedBytes = 0;
+            logger.info("'{}' recorded first {} bytes.",
+                    recording.captureDevice.getEncoderName(), recordedBytes);
+        }
+
+        recording.lastProducedPackets = producedPackets;
+        recording.lastRecordedBytes = recordedBytes;
+
+        recording.nextCheck = System.currentTimeMillis() + recording.checkDelay;
+    }
+
+    /**
+     * Stop monitoring and stream an error if the recording is copy protected.
+     *
+     * @param recording The recording with its copy protection updated.
+     * @return <i>true</i> if the recording is copy protected and is no longer monitored.
+     */
+    private static boolean isCopyProtected(final MonitoredRecording recording) {
+        final CopyProtection copyProtection = recording.copyProtection;
+
+        if (copyProtection != CopyProtection.COPY_NEVER &&
+                copyProtection != CopyProtection.COPY_ONCE) {
+
+            return false;
+        }
+
+        logger.info("The capture device has reported that the tuned" +
+                        " channel is {}, stopping monitoring immediately.",
+                copyProtection);
+
+        // Only remove this recording so a new tuning request on the same capture device is never
+        // removed by accident.
+        if (!recordingQueue.remove(recording.captureDevice.getEncoderName(), recording)) {
+            return true;
+        }
+
+        removeIdleParentMonitor(recording.parentName);
+
+        ThreadPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                // The capture device needs to stream the message because the user
+                // will not see anything if the bytes streamed doesn't increment.
+                recording.captureDevice.streamError(
+                        copyProtection == CopyProtection.COPY_ONCE ?
+                                VideoUtil.COPY_ONCE_TS : VideoUtil.COPY_NEVER_TS,
+                        new InetSocketAddress(
+                                recording.remoteAddress,
+                                uploadIdPort.get()
+                        ), recording.uploadID);
+
+                logger.debug("Error stream finished.");
+            }
+        }, Thread.NORM_PRIORITY, "AsyncError", recording.captureDevice.getEncoderName());
 
-            logger.info("Tuning monitor thread stopped.");
+        return true;
+    }
+
+    /**
+     * Re-tunes a stalled recording on the worker thread pool.
+     * <p/>
+     * Pool threads are reused, so the thread running this task is tracked so that only this task
+     * is ever interrupted when the recording is paused.
+     */
+    protected static class RetuneTask implements Runnable {
+        private final MonitoredRecording recording;
+        private final boolean consumerStuck;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private Thread thread;
+
+        protected RetuneTask(MonitoredRecording recording, boolean consumerStuck) {
+            this.recording = recording;
+            this.consumerStuck = consumerStuck;
+        }
+
+        protected boolean isRunning() {
+            return finished.getCount() > 0;
+        }
+
+        protected synchronized void interrupt() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        protected boolean join(long timeout) throws InterruptedException {
+            return finished.await(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                thread = Thread.currentThread();
+            }
+
+            try {
+                retune();
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    // Don't leave the pool thread interrupted for the next task.
+                    Thread.interrupted();
+                }
+
+                finished.countDown();
+            }
+        }
+
+        private void retune() {
+            final CaptureDevice captureDevice = recording.captureDevice;
+            boolean tuned = false;
+            String localFilename = captureDevice.getRecordFilename();
+
+            logger.info("Current copy protection {}.",
+                    captureDevice.getCopyProtection());
+
+            if (Util.isNullOrEmpty(localFilename) && recording.filename == null) {
+                logger.error(
+                        "Unable to re-tune because there isn't a filename." +
+                                " Stopping device monitoring."
+                );
+
+                stopMonitorRecording(captureDevice);
+
+                return;
+            }
+
+            if (!Util.isNullOrEmpty(localFilename)) {
+                recording.filename = localFilename;
+            }
+
+            if (!consumerStuck) {
+                if (captureDevice.isInternalLocked()) {
+                    tuned = captureDevice.startEncoding(
+                            recording.channel, recording.filename,
+                            recording.encodingQuality, recording.bufferSize,
+                            recording.deviceType, recording.crossbarIndex,
+                            recording.uploadID, recording.remoteAddress);
+                } else {
+                    logger.info("Re-tune was cancelled because the" +
+                            " capture device is no longer internally" +
+                            " locked. Stopping device monitoring.");
+
+                    stopMonitorRecording(captureDevice);
+                    return;
+                }
+            }
+
+            // If the channel still won't tune in, start over.
+            if (!tuned) {
+                localFilename = captureDevice.getRecordFilename();
+
+                if (Util.isNullOrEmpty(localFilename) &&
+                        recording.filename == null) {
+
+                    logger.error("Unable to tune because there isn't a" +
+                            " filename. Stopping device monitoring.");
+
+                    stopMonitorRecording(captureDevice);
+                    return;
+                }
+
+                if (!Util.isNullOrEmpty(localFilename)) {
+                    recording.filename = localFilename;
+                }
+
+                captureDevice.stopEncoding();
+
+                if (captureDevice.isInternalLocked()) {
+                    captureDevice.startEncoding(
+                            recording.channel, recording.filename,
+                            recording.encodingQuality, recording.bufferSize,
+                            recording.deviceType, recording.crossbarIndex,
+                            recording.uploadID, recording.remoteAddress);
+                }
+            }
         }
     }
 }
@@ -19,6 +19,8 @@ package opendct.tuning.discovery;
 import opendct.capture.CaptureDevice;
 import opendct.capture.CaptureDeviceIgnoredException;
 import opendct.config.Config;
+import opendct.config.ConfigRegistry;
+import opendct.nanohttpd.JsonResponseCache;
 import opendct.power.NetworkPowerEventManger;
 import opendct.sagetv.SageTVManager;
 import org.apache.logging.log4j.LogManager;
@@ -28,6 +30,11 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class DeviceLoaderImpl implements DeviceLoader {
     private static final Logger logger = LogManager.getLogger(DeviceLoaderImpl.class);
@@ -36,6 +43,27 @@ public class DeviceLoaderImpl implements DeviceLoader {
     // changed to discovery.devices.always_enable=false.
     private static boolean alwaysEnable = Config.getBoolean("discovery.devices.exp_always_enable", true);
 
+    private static final ConfigRegistry.IntegerValue loadThreads =
+            ConfigRegistry.integerValue("discovery.devices.load_threads", 4, 1, 32);
+
+    private static final ConcurrentHashMap<Integer, Object> parentLocks = new ConcurrentHashMap<>();
+
+    private static final ThreadPoolExecutor loadExecutor =
+            new ThreadPoolExecutor(loadThreads.get(), loadThreads.get(), 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable);
+                    thread.setName("DeviceLoader-" + thread.getId());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    static {
+        loadExecutor.allowCoreThreadTimeOut(true);
+    }
+
     public static void disableAlwaysEnable() {
         if (!alwaysEnable || Config.getBoolean("discovery.devices.always_enable", false)) {
             return;
@@ -93,7 +121,9 @@ public class DeviceLoaderImpl implements DeviceLoader {
     }
 
     @Override
-    public synchronized void advertiseDevice(DiscoveredDevice details, DeviceDiscoverer discovery) {
+    public void advertiseDevice(final DiscoveredDevice details, final DeviceDiscoverer discovery) {
+        // The newly discovered device is listed even if it's not permitted to load.
+        JsonResponseCache.invalidate();
 
         if (DiscoveryManager.isDevicePermitted(details.getId()) && !alwaysEnable) {
             logger.debug("The capture device '{}' is not permitted to loaded.", details.getName());
@@ -102,6 +132,43 @@ public class DeviceLoaderImpl implements DeviceLoader {
             logger.debug("Advertising new capture device '{}'.", details.getName());
         }
 
+        // Discoverers call this while holding their own locks, so the actual loading is done on
+        // the executor. This way one slow device doesn't hold up everything discovered after it.
+        loadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Object parentLock = getParentLock(details.getParentId());
+
+                // Capture devices on the same parent share things like channel lineups that are
+                // not safe to create concurrently, so they are still loaded one at a time.
+                synchronized (parentLock) {
+                    loadDevice(details, discovery);
+                }
+            }
+        });
+    }
+
+    private static Object getParentLock(int parentId) {
+        Object parentLock = parentLocks.get(parentId);
+
+        if (parentLock == null) {
+            Object newLock = new Object();
+            parentLock = parentLocks.putIfAbsent(parentId, newLock);
+
+            if (parentLock == null) {
+                parentLock = newLock;
+            }
+        }
+
+        return parentLock;
+    }
+
+    private void loadDevice(DiscoveredDevice details, DeviceDiscoverer discovery) {
+        if (SageTVManager.getSageTVCaptureDevice(details.getId()) != null) {
+            logger.debug("The capture device '{}' is already loaded.", details.getName());
+            return;
+        }
+
         try {
             CaptureDevice captureDevice = discovery.loadCaptureDevice(details.getId());
 
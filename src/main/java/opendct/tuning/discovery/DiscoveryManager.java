@@ -21,6 +21,7 @@ import opendct.capture.CaptureDeviceIgnoredException;
 import opendct.config.Config;
 import opendct.config.OSVersion;
 import opendct.power.PowerEventListener;
+import opendct.sagetv.SageTVDeviceInventory;
 import opendct.sagetv.SageTVManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -84,7 +85,7 @@ public class DiscoveryManager implements PowerEventListener {
      * Add a device or devices to the permitted devices list.
      * <p/>
      * Note that this does not load the device if it is not already loaded. These changes are
-     * immediately saved.
+     * saved in the background.
      *
      * @param deviceIds This is the device ID or IDs to add.
      */
@@ -98,7 +99,7 @@ public class DiscoveryManager implements PowerEventListener {
             }
             Integer newList[] = permittedDevices.toArray(new Integer[permittedDevices.size()]);
             Config.setIntegerArray("discovery.devices.permitted", newList);
-            Config.saveConfig();
+            Config.saveConfigLater();
         } catch (Exception e) {
             logger.error("permitDevice created an unexpected exception while using" +
                     " permitLock => ", e);
@@ -111,7 +112,7 @@ public class DiscoveryManager implements PowerEventListener {
      * Remove a device or devices from the permitted devices list.
      * <p/>
      * Note that this does not unload the device if it has already been loaded. These changes are
-     * immediately saved.
+     * saved in the background.
      *
      * @param deviceIds This is the device ID or IDs to remove.
      */
@@ -125,7 +126,7 @@ public class DiscoveryManager implements PowerEventListener {
             }
             Integer newList[] = permittedDevices.toArray(new Integer[permittedDevices.size()]);
             Config.setIntegerArray("discovery.devices.permitted", newList);
-            Config.saveConfig();
+            Config.saveConfigLater();
         } catch (Exception e) {
             logger.error("revokeDevice created an unexpected exception while using" +
                     " permitLock => ", e);
@@ -508,6 +509,7 @@ public class DiscoveryManager implements PowerEventListener {
 
         try {
             revokeDevice(deviceId);
+            SageTVDeviceInventory.removeDevice(deviceId);
 
             for (DeviceDiscoverer discovery : deviceDiscoveries) {
                 deviceDetails = discovery.getDeviceDetails(deviceId);
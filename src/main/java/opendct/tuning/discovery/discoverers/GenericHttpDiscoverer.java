@@ -386,7 +386,7 @@ public class GenericHttpDiscoverer implements DeviceDiscoverer {
             }
         }
 
-        Config.saveConfig();
+        Config.saveConfigLater();
     }
 
     public static long getStreamingWait() {
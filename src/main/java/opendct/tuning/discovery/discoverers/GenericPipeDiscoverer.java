@@ -375,7 +375,7 @@ public class GenericPipeDiscoverer implements DeviceDiscoverer {
             }
         }
 
-        Config.saveConfig();
+        Config.saveConfigLater();
     }
 
     public static long getStreamingWait() {
@@ -72,6 +72,7 @@ public class HDHomeRunDiscoverer implements DeviceDiscoverer {
     // Detection configuration and state
     private static boolean enabled;
     private static boolean requestBroadcast;
+    private static volatile HDHomeRunDiscovery activeDiscovery;
     private static String errorMessage;
     private DeviceLoader deviceLoader;
 
@@ -366,6 +367,7 @@ public class HDHomeRunDiscoverer implements DeviceDiscoverer {
 
         try {
             discovery.start(this);
+            activeDiscovery = discovery;
         } catch (IOException e) {
             throw new DiscoveryException(e);
         }
@@ -450,7 +452,7 @@ public class HDHomeRunDiscoverer implements DeviceDiscoverer {
             if (updateDevice != null) {
                 // This device has been detected before. We will only update the IP address.
 
-                if (!(discoveredDevice.getIpAddress() == discoveredDevice.getIpAddress())) {
+                if (!updateDevice.getIpAddress().equals(discoveredDevice.getIpAddress())) {
                     logger.info("HDHomeRun device '{}' changed its IP address from {} to {}.",
                             updateDevice.getUniqueDeviceName(),
                             updateDevice.getIpAddress().getHostAddress(),
@@ -716,7 +718,7 @@ public class HDHomeRunDiscoverer implements DeviceDiscoverer {
             Config.setDeviceOption(optionReference);
         }
 
-        Config.saveConfig();
+        Config.saveConfigLater();
     }
 
     public static long getStreamingWait() {
@@ -739,8 +741,21 @@ public class HDHomeRunDiscoverer implements DeviceDiscoverer {
         return smartBroadcast.getBoolean();
     }
 
-    public synchronized static void requestBroadcast() {
-        requestBroadcast = true;
+    /**
+     * Send a burst of discovery broadcasts as soon as possible.
+     * <p/>
+     * This is used when a device can't be reached since it might have a new IP address.
+     */
+    public static void requestBroadcast() {
+        synchronized (HDHomeRunDiscoverer.class) {
+            requestBroadcast = true;
+        }
+
+        HDHomeRunDiscovery discovery = activeDiscovery;
+
+        if (discovery != null) {
+            discovery.wakeup();
+        }
     }
 
     public synchronized static boolean needBroadcast() {
@@ -536,7 +536,7 @@ public class UpnpDiscoverer implements DeviceDiscoverer {
             Config.setDeviceOption(optionReference);
         }
 
-        Config.saveConfig();
+        Config.saveConfigLater();
     }
 
     public static int getOfflineDetectionSeconds() {
@@ -24,10 +24,7 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.SocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class HDHomeRunControl {
     private static final Logger logger = LogManager.getLogger(HDHomeRunControl.class);
@@ -36,21 +33,35 @@ public class HDHomeRunControl {
     public final static int HDHOMERUN_CONTROL_SEND_TIMEOUT = 2500;
     public final static int HDHOMERUN_CONTROL_RECV_TIMEOUT = 5000;
     public final static int HDHOMERUN_CONTROL_UPGRADE_TIMEOUT = 30000;
+    public final static int HDHOMERUN_CONTROL_RETRY_MIN_DELAY = 250;
+    public final static int HDHOMERUN_CONTROL_RETRY_MAX_DELAY = 2000;
 
-    private HDHomeRunPacket txPacket;
-    private HDHomeRunPacket rxPacket;
-    private SocketChannel socket;
-    private volatile int totalBytes = 0;
+    // Keys are sent over and over again for the same tuners, so they are only encoded once. Values
+    // are not cached since they are usually different every time.
+    private final static int ENCODED_KEYS_LIMIT = 4096;
+    private final static ConcurrentHashMap<String, byte[]> encodedKeys = new ConcurrentHashMap<>();
+
+    private final int controlPort;
 
     /**
      * Create a new HDHomeRun controller.
      * <p/>
-     * Controllers are thread-safe and can be shared. It is recommended to only share between tuners
-     * on the same device so we don't need to keep changing IP addresses.
+     * Controllers are thread-safe and can be shared. Requests are sent over a pool of connections
+     * per device that is shared by all controllers, so requests to the same device from different
+     * tuners do not wait for each other unless the connection limit for the device is reached.
+     * Failed requests are retried with a delay that doubles after every attempt.
      */
     public HDHomeRunControl() {
-        txPacket = new HDHomeRunPacket();
-        rxPacket = new HDHomeRunPacket();
+        this(HDHomeRunPacket.HDHOMERUN_CONTROL_TCP_PORT);
+    }
+
+    /**
+     * Create a new HDHomeRun controller for devices that do not use the standard control port.
+     *
+     * @param controlPort The TCP port the devices accept control connections on.
+     */
+    public HDHomeRunControl(int controlPort) {
+        this.controlPort = controlPort;
     }
 
     /**
@@ -124,77 +135,142 @@ public class HDHomeRunControl {
      *                         at this time.
      * @throws GetSetException Thrown if the device returns an error instead of a value.
      */
-    public synchronized String setVariable(InetAddress address, String key, String value, int lockkey, int receiveTimeout) throws GetSetException, IOException {
+    public String setVariable(InetAddress address, String key, String value, int lockkey, int receiveTimeout) throws GetSetException, IOException {
         logger.entry(address, key, value, lockkey);
 
-        txPacket.startPacket(HDHomeRunPacketType.HDHOMERUN_TYPE_GETSET_REQ);
-        txPacket.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_NAME, key);
-
-        if (value != null) {
-            txPacket.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_VALUE, value);
-        }
-
-        if (lockkey != 0) {
-            txPacket.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_LOCKKEY, lockkey);
-        }
-
-        txPacket.endPacket();
-
-        connectSocket(new InetSocketAddress(address,
-                HDHomeRunPacket.HDHOMERUN_CONTROL_TCP_PORT));
+        HDHomeRunControlPool pool = HDHomeRunControlPool.getPool(address, controlPort);
 
         if (logger.isDebugEnabled()) {
-            logger.debug("key: '{}' value: '{}' lockKey: '{}' sendLength: {} address: {}",
-                    key, value, lockkey, txPacket.BUFFER.remaining(),
-                    address != null ? address.getHostAddress() : null);
+            logger.debug("key: '{}' value: '{}' lockKey: '{}' address: {}",
+                    key, value, lockkey, address != null ? address.getHostAddress() : null);
         }
 
         IOException errorMessage = null;
         int retryCount = 0;
         int retryLimit = HDHomeRunDiscoverer.getControlRetryCount();
-        boolean success = false;
+        boolean staleRetry = false;
+
+        while (retryCount++ <= retryLimit && !Thread.currentThread().isInterrupted()) {
+            HDHomeRunControlPool.Connection connection;
 
-        while (!success && retryCount++ <= retryLimit && !Thread.currentThread().isInterrupted()) {
             try {
-                packetSendReceive(txPacket.BUFFER.slice(), receiveTimeout);
-                success = true;
+                connection = pool.acquire(receiveTimeout);
             } catch (IOException e) {
                 // Signal to the discoverer that we might need a new IP address.
-                HDHomeRunDiscoverer.needBroadcast();
+                HDHomeRunDiscoverer.requestBroadcast();
 
                 errorMessage = e;
-                closeSocket();
+
+                if (retryCount <= retryLimit) {
+                    retryBackoff(retryCount, e);
+                }
+                continue;
+            }
+
+            boolean reusable = false;
+
+            try {
+                HDHomeRunPacket txPacket = connection.TX_PACKET;
+                txPacket.startPacket(HDHomeRunPacketType.HDHOMERUN_TYPE_GETSET_REQ);
+                txPacket.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_NAME, getEncodedKey(key));
+
+                if (value != null) {
+                    txPacket.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_VALUE, value);
+                }
+
+                if (lockkey != 0) {
+                    txPacket.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_LOCKKEY, lockkey);
+                }
+
+                txPacket.endPacket();
+
+                connection.sendReceive(receiveTimeout);
+
                 try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e0) {
-                    // This is intentional. We should have the reason we are waiting returned as the
-                    // exception since it is itself an exception.
+                    String returnValue = parseReply(connection.RX_PACKET, key, value, lockkey);
+                    // An invalid reply could mean the connection is out of sync with the device.
+                    reusable = returnValue != null;
+                    return logger.exit(returnValue);
+                } catch (GetSetException e) {
+                    reusable = true;
                     throw e;
                 }
-                connectSocket(new InetSocketAddress(address,
-                        HDHomeRunPacket.HDHOMERUN_CONTROL_TCP_PORT));
+            } catch (IOException e) {
+                errorMessage = e;
+
+                if (connection.isReused() && !staleRetry) {
+                    // The device most likely closed this connection while it was idle, so any
+                    // other idle connections are probably closed too. Try once more right away
+                    // on a new connection.
+                    logger.debug("Reused control connection failed => {}", e.getMessage());
+                    pool.closeIdleConnections();
+                    staleRetry = true;
+                    retryCount--;
+                    continue;
+                }
+
+                // Signal to the discoverer that we might need a new IP address.
+                HDHomeRunDiscoverer.requestBroadcast();
+            } finally {
+                pool.release(connection, reusable);
+            }
+
+            if (retryCount <= retryLimit) {
+                retryBackoff(retryCount, errorMessage);
             }
         }
 
-        if (!success) {
-            // Signal to the discoverer that we might need a new IP address.
-            HDHomeRunDiscoverer.needBroadcast();
+        // Signal to the discoverer that we might need a new IP address.
+        HDHomeRunDiscoverer.requestBroadcast();
 
-            if (errorMessage != null) {
-                logger.error("Unable to communicate with HDHomeRun after {} attempts.", retryLimit);
-                throw errorMessage;
-            } else {
-                if (Thread.currentThread().isInterrupted()) {
-                    logger.error("Data was not able to be sent because the thread has bee interrupted.");
-                    throw new IOException("Data was not able to be sent because the thread has bee interrupted.");
-                } else {
-                    // We really should not be seeing this, but it's here just in case it happens.
-                    logger.error("No error was reported, but data was not able to be sent.");
-                    throw new IOException("No error was reported, but data was not able to be sent.");
-                }
+        if (errorMessage != null) {
+            logger.error("Unable to communicate with HDHomeRun after {} attempts.", retryLimit);
+            throw errorMessage;
+        } else if (Thread.currentThread().isInterrupted()) {
+            logger.error("Data was not able to be sent because the thread has bee interrupted.");
+            throw new IOException("Data was not able to be sent because the thread has bee interrupted.");
+        } else {
+            // We really should not be seeing this, but it's here just in case it happens.
+            logger.error("No error was reported, but data was not able to be sent.");
+            throw new IOException("No error was reported, but data was not able to be sent.");
+        }
+    }
+
+    private static byte[] getEncodedKey(String key) {
+        byte encodedKey[] = encodedKeys.get(key);
+
+        if (encodedKey == null) {
+            encodedKey = HDHomeRunPacket.encodeString(key);
+
+            if (encodedKeys.size() < ENCODED_KEYS_LIMIT) {
+                encodedKeys.put(key, encodedKey);
             }
         }
 
+        return encodedKey;
+    }
+
+    /**
+     * Wait before the next attempt. The delay doubles after every failed attempt.
+     *
+     * @param retryCount The number of attempts so far.
+     * @param error The reason for the last failure.
+     * @throws IOException The error is thrown if the thread is interrupted while waiting.
+     */
+    private static void retryBackoff(int retryCount, IOException error) throws IOException {
+        long delay = Math.min(HDHOMERUN_CONTROL_RETRY_MAX_DELAY,
+                (long) HDHOMERUN_CONTROL_RETRY_MIN_DELAY << Math.min(retryCount - 1, 16));
+
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e0) {
+            // This is intentional. We should have the reason we are waiting returned as the
+            // exception since it is itself an exception.
+            throw error;
+        }
+    }
+
+    private static String parseReply(HDHomeRunPacket rxPacket, String key, String value, int lockkey) throws GetSetException {
         int bufferLimit = rxPacket.BUFFER.limit();
 
         if (bufferLimit > 4) {
@@ -213,25 +289,25 @@ public class HDHomeRunControl {
                             logger.debug("HDHomeRun device returned a length ({}) larger than the data returned. UTF-8: '{}'", length, returnValue);
                         }
 
-                        return logger.exit(null);
+                        return null;
                     }
 
                     if (tag == null) {
                         // Silicondust says to just ignore these.
                         logger.debug("HDHomeRun device returned an unknown tag with the length {}", length);
-                        rxPacket.BUFFER.position(rxPacket.BUFFER.position() + length);
+                        rxPacket.skipTLV(length);
                         continue;
                     }
 
                     switch (tag) {
                         case HDHOMERUN_TAG_GETSET_NAME:
                             // The device may return the key name.
-                            rxPacket.BUFFER.position(rxPacket.BUFFER.position() + length);
+                            rxPacket.skipTLV(length);
                             logger.trace("HDHomeRun device returned the key name. Skipped {} bytes.", length);
                             break;
 
                         case HDHOMERUN_TAG_GETSET_VALUE:
-                            return logger.exit(rxPacket.getTLVString(length));
+                            return rxPacket.getTLVString(length);
 
                         case HDHOMERUN_TAG_ERROR_MESSAGE:
                             String returnError = rxPacket.getTLVString(length);
@@ -241,7 +317,7 @@ public class HDHomeRunControl {
                             // Silicondust says to just ignore these.
                             logger.debug("HDHomeRun device returned an unexpected tag {} with the length {}", tag, length);
 
-                            rxPacket.BUFFER.position(rxPacket.BUFFER.position() + length);
+                            rxPacket.skipTLV(length);
                             break;
                     }
                 }
@@ -250,7 +326,6 @@ public class HDHomeRunControl {
             }
         } else {
             logger.warn("Message sent, HDHomeRun did not reply.");
-            closeSocket();
         }
 
         if (logger.isDebugEnabled()) {
@@ -261,144 +336,16 @@ public class HDHomeRunControl {
         }
 
         logger.error("HDHomeRun device did not reply with a valid message for key = '{}', value ='{}' and lockkey='{}'.", key, value, lockkey);
-        return logger.exit(null);
+        return null;
     }
 
-    private void connectSocket(SocketAddress address) throws IOException {
-        logger.entry(address);
-
-        try {
-            if (socket != null && socket.isConnected() && socket.getRemoteAddress().equals(address)) {
-                return;
-            }
-
-            closeSocket();
-        } catch (Exception e) {
-            logger.debug("connectSocket created an unexpected exception => ", e);
-            closeSocket();
-        }
-
-        socket = SocketChannel.open(address);
-
-        logger.exit();
-    }
-
-    public synchronized void closeSocket() {
-        logger.entry();
-
-        if (socket != null) {
-            try {
-                // Allow the socket to be re-opened immediately.
-                socket.socket().setReuseAddress(true);
-                socket.close();
-                socket.socket().close();
-                socket = null;
-            } catch (Exception e) {
-                logger.debug("closeSocket created an unexpected exception => ", e);
-            }
-        }
-
-        logger.exit();
-    }
-
-    private void packetSendReceive(ByteBuffer packetSend, long timeout) throws IOException {
-        logger.entry(packetSend, timeout);
-
-        rxPacket.BUFFER.clear();
-        totalBytes = 0;
-        Thread receiveThread = new Thread(new ReceiveThread());
-        receiveThread.setName("HDHomeRunControlReceive-" + receiveThread.getId());
-
-        try {
-            while (packetSend.hasRemaining()) {
-                socket.write(packetSend);
-            }
-        } catch (IOException e) {
-            // Signal to the discoverer that we might need a new IP address.
-            HDHomeRunDiscoverer.needBroadcast();
-
-            closeSocket();
-            throw e;
-        }
-
-        receiveThread.start();
-
-        try {
-            receiveThread.join(timeout);
-
-            //Stop receiving.
-            receiveThread.interrupt();
-
-            // Wait for the thread to actually stop.
-            receiveThread.join();
-        } catch (InterruptedException e) {
-            receiveThread.interrupt();
-            closeSocket();
-            throw new IOException(e.getMessage());
-        }
-
-        rxPacket.BUFFER.flip();
-
-        if (rxPacket.BUFFER.remaining() == 0) {
-            // Signal to the discoverer that we might need a new IP address.
-            HDHomeRunDiscoverer.needBroadcast();
-
-            closeSocket();
-            throw new IOException("HDHomeRun did not reply with a message. Closing socket...");
-        }
-
-        logger.exit();
-    }
-
-    private class ReceiveThread implements Runnable {
-
-        public void run() {
-            logger.entry();
-
-            if (socket != null) {
-                try {
-                    boolean firstBytes = true;
-
-                    int bytesNeeded = rxPacket.BUFFER.limit();
-                    int readBytes = 0;
-
-                    while (!Thread.currentThread().isInterrupted()) {
-                        readBytes = socket.read(rxPacket.BUFFER);
-
-                        if (readBytes == -1) {
-                            logger.debug("socket returned -1");
-                            break;
-                        }
-
-                        totalBytes += readBytes;
-
-                        if (firstBytes && totalBytes > 4) {
-                            firstBytes = false;
-                            ByteBuffer slice = rxPacket.BUFFER.duplicate();
-                            slice.flip();
-
-                            // This makes sure we get everything in case the message gets broken up.
-                            slice.getShort();
-                            bytesNeeded = (slice.getShort() & 0xffff) + 8; // +8 to include header and CRC
-                        }
-
-                        if (bytesNeeded > totalBytes) {
-                            logger.debug("bytesNeeded: {} > returnBytes: {}", bytesNeeded, totalBytes);
-                        } else {
-                            break;
-                        }
-                    }
-                } catch (IOException e) {
-                    // Signal to the discoverer that we might need a new IP address.
-                    HDHomeRunDiscoverer.needBroadcast();
-
-                    logger.debug("ReceiveThread was unable to receive => ", e);
-                } catch (Exception e) {
-                    logger.warn("ReceiveThread experienced an unexpected exception => ", e);
-                }
-            }
-
-            logger.exit();
-        }
+    /**
+     * Close all idle control connections.
+     * <p/>
+     * Connections are shared by every controller, so this closes idle connections to all devices.
+     * Connections that are in use are closed when their request is done if they failed.
+     */
+    public void closeSocket() {
+        HDHomeRunControlPool.closeAllIdleConnections();
     }
 }
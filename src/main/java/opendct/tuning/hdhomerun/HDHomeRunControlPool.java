@@ -0,0 +1,278 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.tuning.hdhomerun;
+
+import opendct.config.ConfigRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Control connections to one HDHomeRun device.
+ * <p/>
+ * Every tuner on a device shares the same pool, so a status request on one tuner doesn't wait for
+ * tuning on another tuner to finish. At most <b>hdhr.control_max_connections</b> requests are
+ * sent to a device at the same time. Connections are reused until they have been idle for
+ * <b>hdhr.control_idle_timeout_ms</b>.
+ */
+class HDHomeRunControlPool {
+    private static final Logger logger = LogManager.getLogger(HDHomeRunControlPool.class);
+
+    private static final ConfigRegistry.IntegerValue maxConnections =
+            ConfigRegistry.integerValue("hdhr.control_max_connections", 3, 1, 16);
+    private static final ConfigRegistry.IntegerValue idleTimeout =
+            ConfigRegistry.integerValue("hdhr.control_idle_timeout_ms", 15000, 0, 600000);
+
+    private static final ConcurrentHashMap<InetSocketAddress, HDHomeRunControlPool> pools =
+            new ConcurrentHashMap<>();
+
+    private final InetSocketAddress ADDRESS;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<Connection> idleConnections = new LinkedBlockingDeque<>();
+
+    private HDHomeRunControlPool(InetSocketAddress address) {
+        ADDRESS = address;
+        permits = new Semaphore(maxConnections.get(), true);
+    }
+
+    /**
+     * Get the connection pool for a device.
+     *
+     * @param address The address of the device.
+     * @param port The control port of the device.
+     * @return The pool for this address.
+     */
+    public static HDHomeRunControlPool getPool(InetAddress address, int port) {
+        InetSocketAddress socketAddress = new InetSocketAddress(address, port);
+
+        HDHomeRunControlPool pool = pools.get(socketAddress);
+
+        if (pool == null) {
+            pool = new HDHomeRunControlPool(socketAddress);
+            HDHomeRunControlPool existingPool = pools.putIfAbsent(socketAddress, pool);
+
+            if (existingPool != null) {
+                pool = existingPool;
+            }
+        }
+
+        return pool;
+    }
+
+    /**
+     * Close every idle connection to every device.
+     */
+    public static void closeAllIdleConnections() {
+        for (HDHomeRunControlPool pool : pools.values()) {
+            pool.closeIdleConnections();
+        }
+    }
+
+    /**
+     * Get a connection to this device.
+     * <p/>
+     * Every connection returned must be given back with <b>release()</b>.
+     *
+     * @param timeout The amount of time in milliseconds to wait for another request to this device
+     *                to finish if the connection limit has been reached.
+     * @return A connected connection.
+     * @throws IOException Thrown if a new connection could not be opened or if no connection was
+     *                     available in time.
+     */
+    public Connection acquire(int timeout) throws IOException {
+        try {
+            if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException("No control connection to " + ADDRESS +
+                        " was available after " + timeout + "ms.");
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while waiting for a control connection to " + ADDRESS + ".");
+        }
+
+        try {
+            long expired = System.currentTimeMillis() - idleTimeout.get();
+            Connection connection;
+
+            while ((connection = idleConnections.pollFirst()) != null) {
+                if (connection.lastUsed > expired && !connection.SOCKET.isClosed()) {
+                    connection.reused = true;
+                    return connection;
+                }
+
+                connection.close();
+            }
+
+            return new Connection(ADDRESS);
+        } catch (IOException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Give back a connection.
+     *
+     * @param connection The connection from <b>acquire()</b>.
+     * @param reusable <i>false</i> if the connection is in an unknown state and must be closed.
+     */
+    public void release(Connection connection, boolean reusable) {
+        try {
+            if (reusable) {
+                connection.lastUsed = System.currentTimeMillis();
+                idleConnections.offerFirst(connection);
+            } else {
+                connection.close();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Close all connections that are not currently in use.
+     * <p/>
+     * This is done when a reused connection fails, since the other idle connections were likely
+     * closed by the device too.
+     */
+    public void closeIdleConnections() {
+        Connection connection;
+
+        while ((connection = idleConnections.pollFirst()) != null) {
+            connection.close();
+        }
+    }
+
+    public static class Connection {
+        private final Socket SOCKET;
+        private final InputStream INPUT;
+        private final OutputStream OUTPUT;
+
+        public final HDHomeRunPacket TX_PACKET;
+        public final HDHomeRunPacket RX_PACKET;
+
+        private long lastUsed;
+        private boolean reused;
+
+        private Connection(InetSocketAddress address) throws IOException {
+            SOCKET = new Socket();
+
+            try {
+                SOCKET.setTcpNoDelay(true);
+                SOCKET.connect(address, HDHomeRunControl.HDHOMERUN_CONTROL_CONNECT_TIMEOUT);
+                INPUT = SOCKET.getInputStream();
+                OUTPUT = SOCKET.getOutputStream();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+
+            // Heap buffers are used so the packets can be written and read as arrays.
+            TX_PACKET = new HDHomeRunPacket(ByteBuffer.allocate(3074));
+            RX_PACKET = new HDHomeRunPacket(ByteBuffer.allocate(3074));
+        }
+
+        /**
+         * Was this connection used for a previous request?
+         * <p/>
+         * If a reused connection fails, the device probably closed it while it was idle.
+         */
+        public boolean isReused() {
+            return reused;
+        }
+
+        /**
+         * Send the packet in <b>TX_PACKET</b> and receive the complete reply into
+         * <b>RX_PACKET</b>.
+         * <p/>
+         * The reply buffer is ready to be read when this returns.
+         *
+         * @param timeout The amount of time in milliseconds to wait for the complete reply.
+         * @throws IOException Thrown if the reply was not complete in time or the connection
+         *                     failed.
+         */
+        public void sendReceive(int timeout) throws IOException {
+            ByteBuffer txBuffer = TX_PACKET.BUFFER;
+            OUTPUT.write(txBuffer.array(), txBuffer.arrayOffset() + txBuffer.position(), txBuffer.remaining());
+            OUTPUT.flush();
+
+            ByteBuffer rxBuffer = RX_PACKET.BUFFER;
+            rxBuffer.clear();
+            byte rxArray[] = rxBuffer.array();
+            int offset = rxBuffer.arrayOffset();
+
+            long deadline = System.currentTimeMillis() + timeout;
+            int bytesNeeded = HDHomeRunPacket.HDHOMERUN_MIN_PEEK_LENGTH;
+            int totalBytes = 0;
+            boolean haveLength = false;
+
+            while (totalBytes < bytesNeeded) {
+                long remaining = deadline - System.currentTimeMillis();
+
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("HDHomeRun did not reply within " + timeout + "ms.");
+                }
+
+                SOCKET.setSoTimeout((int) remaining);
+                int readBytes = INPUT.read(rxArray, offset + totalBytes, rxBuffer.capacity() - totalBytes);
+
+                if (readBytes == -1) {
+                    throw new EOFException("HDHomeRun closed the control connection.");
+                }
+
+                totalBytes += readBytes;
+
+                if (!haveLength && totalBytes >= HDHomeRunPacket.HDHOMERUN_MIN_PEEK_LENGTH) {
+                    haveLength = true;
+                    // +8 to include header and CRC
+                    bytesNeeded = (((rxArray[offset + 2] & 0xff) << 8) | (rxArray[offset + 3] & 0xff)) + 8;
+
+                    if (bytesNeeded > rxBuffer.capacity()) {
+                        throw new IOException("HDHomeRun reply length " + bytesNeeded +
+                                " is larger than the receive buffer.");
+                    }
+                }
+            }
+
+            rxBuffer.position(totalBytes);
+            rxBuffer.flip();
+        }
+
+        private void close() {
+            try {
+                SOCKET.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close control connection => ", e);
+            }
+        }
+    }
+}
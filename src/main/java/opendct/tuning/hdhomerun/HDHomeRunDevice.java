@@ -29,7 +29,7 @@ public class HDHomeRunDevice {
     private String uniqueTunerPrefix;
 
     private HDHomeRunDiscoveredDeviceParent deviceParent;
-    private InetAddress ipAddress;
+    private volatile InetAddress ipAddress;
     private int deviceType;
     private int deviceId;
     private int tunerCount;
@@ -51,11 +51,25 @@ public class HDHomeRunDevice {
     private Boolean isCable = null;
 
     public HDHomeRunDevice(InetAddress ipAddress) {
-        this(ipAddress, -1, -1, 0, false, null, null);
+        this(ipAddress, new HDHomeRunControl());
+    }
+
+    /**
+     * Create a new device that is controlled by a specific controller.
+     *
+     * @param ipAddress The address of the device.
+     * @param control The controller used by the device and all of its tuners.
+     */
+    public HDHomeRunDevice(InetAddress ipAddress, HDHomeRunControl control) {
+        this(ipAddress, -1, -1, 0, false, null, null, control);
     }
 
     public HDHomeRunDevice(InetAddress ipAddress, int deviceType, int deviceId, int tunerCount, boolean isLegacy, String deviceAuth, URL baseUrl) {
-        CONTROL = new HDHomeRunControl();
+        this(ipAddress, deviceType, deviceId, tunerCount, isLegacy, deviceAuth, baseUrl, new HDHomeRunControl());
+    }
+
+    private HDHomeRunDevice(InetAddress ipAddress, int deviceType, int deviceId, int tunerCount, boolean isLegacy, String deviceAuth, URL baseUrl, HDHomeRunControl control) {
+        CONTROL = control;
 
         this.ipAddress = ipAddress;
         this.deviceType = deviceType;
@@ -134,7 +148,7 @@ public class HDHomeRunDevice {
         tuners = new HDHomeRunTuner[tunerCount];
 
         for (int i = 0; i < tunerCount; i++) {
-            tuners[i] = new HDHomeRunTuner(this, i);
+            tuners[i] = new HDHomeRunTuner(this, i, CONTROL);
         }
     }
 
@@ -128,7 +128,7 @@ public class HDHomeRunDiscoveredDevice extends BasicDiscoveredDevice {
             Config.setDeviceOption(optionReference);
         }
 
-        Config.saveConfig();
+        Config.saveConfigLater();
     }
 
     public boolean getForceExternalUnlock() {
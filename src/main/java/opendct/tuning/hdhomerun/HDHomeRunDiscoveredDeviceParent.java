@@ -122,7 +122,7 @@ public class HDHomeRunDiscoveredDeviceParent extends NetworkDiscoveredDevicePare
             Config.setDeviceOption(optionReference);
         }
 
-        Config.saveConfig();
+        Config.saveConfigLater();
     }
 
     public String getChannelMap() {
@@ -28,31 +28,85 @@ import java.io.IOException;
 import java.net.*;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Discovers HDHomeRun devices with UDP broadcasts.
+ * <p/>
+ * One thread sends the broadcasts and receives the replies on every interface using a selector,
+ * so replies are handled as soon as they arrive. A burst of broadcasts is sent at startup and
+ * whenever a broadcast is requested. Replies from devices that have not been reported yet, or that
+ * have a new IP address, are handed to the discoverer on a separate thread so a slow device never
+ * delays the replies from the other devices.
+ */
 public class HDHomeRunDiscovery implements Runnable {
     private static final Logger logger = LogManager.getLogger(HDHomeRunDiscovery.class);
 
     private final static int MAX_FAILS = 2;
 
+    // The number of broadcasts in a burst. The delay before each broadcast after the first one is
+    // doubled starting with BURST_DELAY milliseconds, so the last broadcast in a burst is sent
+    // after 350ms.
+    private final static int BURST_BROADCASTS = 4;
+    private final static int BURST_DELAY = 50;
+
+    // The minimum time in milliseconds between the start of two bursts. Requests made before this
+    // amount of time has passed are sent when it has passed.
+    private final static int REQUEST_HOLDOFF = 2000;
+
+    // How often in milliseconds to check if a broadcast is needed when broadcasts are on demand.
+    private final static int ON_DEMAND_CHECK = 4500;
+
+    private final static int LOAD_THREADS = 2;
+
+    private final static char recvBase64EncodeTable[] =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
     public final InetAddress BROADCAST_ADDRESS[];
     public final int BROADCAST_PORT;
     public final InetSocketAddress BROADCAST_SOCKET[];
 
-    private Thread sendThread;
-    private Thread receiveThreads[];
+    private Thread discoveryThread;
+    private volatile Selector selector;
     private DatagramChannel datagramChannels[];
     private HDHomeRunPacket txPacket;
     private HDHomeRunPacket rxPackets[];
+    private ThreadPoolExecutor loadExecutor;
+    // Devices accept control connections on the TCP port with the same number as the UDP port
+    // they answer discovery on.
+    private final HDHomeRunControl control;
+
+    // The last address each device was reported to the discoverer with.
+    private final ConcurrentHashMap<Integer, InetAddress> reportedDevices = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Integer> ignoreDevices = new ConcurrentHashMap<>();
 
     HDHomeRunDiscoverer discoverer;
 
     public HDHomeRunDiscovery(InetAddress... broadcastAddress) {
+        this(HDHomeRunPacket.HDHOMERUN_DISCOVER_UDP_PORT, broadcastAddress);
+    }
+
+    /**
+     * Create discovery for devices that do not answer on the standard discovery port.
+     *
+     * @param broadcastPort The UDP port to send discovery requests to. Discovered devices are
+     *                      controlled on the TCP port with the same number.
+     * @param broadcastAddress The addresses to send discovery requests to.
+     */
+    public HDHomeRunDiscovery(int broadcastPort, InetAddress... broadcastAddress) {
         BROADCAST_ADDRESS = broadcastAddress;
-        BROADCAST_PORT = HDHomeRunPacket.HDHOMERUN_DISCOVER_UDP_PORT;
+        BROADCAST_PORT = broadcastPort;
+        control = new HDHomeRunControl(broadcastPort);
         BROADCAST_SOCKET = new InetSocketAddress[BROADCAST_ADDRESS.length];
 
         txPacket = new HDHomeRunPacket();
@@ -63,63 +117,63 @@ public class HDHomeRunDiscovery implements Runnable {
             rxPackets[i] = new HDHomeRunPacket();
         }
 
-        receiveThreads = new Thread[BROADCAST_ADDRESS.length];
         datagramChannels = new DatagramChannel[BROADCAST_ADDRESS.length];
     }
 
     public void start(HDHomeRunDiscoverer discoverer) throws IOException {
-        if (sendThread != null && sendThread.isAlive()) {
+        if (discoveryThread != null && discoveryThread.isAlive()) {
             logger.warn("Already listening for HDHomeRun devices on port {}", BROADCAST_PORT);
             return;
         }
 
         this.discoverer = discoverer;
-
-        for (Thread receiveThread : receiveThreads) {
-            if (receiveThread != null && receiveThread.isAlive()) {
-                receiveThread.interrupt();
-                try {
-                    receiveThread.join();
-                } catch (InterruptedException e) {
-                    logger.debug("Interrupted while waiting for receive thread to stop => ", e);
-                    return;
-                }
-            }
-        }
-
-        sendThread = new Thread(this);
-        sendThread.setName("HDHomeRunDiscoverySend-" + sendThread.getId());
+        reportedDevices.clear();
 
         int broadcastPort = HDHomeRunDiscoverer.getBroadcastPort();
-
-        for (int i = 0; i < datagramChannels.length; i++ ) {
-            datagramChannels[i] = DatagramChannel.open();
-            datagramChannels[i].socket().setBroadcast(true);
-            datagramChannels[i].socket().setReceiveBufferSize(100000);
-
-            if (broadcastPort > 1023) {
-                try {
-                    datagramChannels[i].bind(
-                            new InetSocketAddress(
-                                    Util.getLocalIPForRemoteIP(BROADCAST_ADDRESS[i]),
-                                    broadcastPort));
-
-                } catch (Exception e) {
-                    logger.error("Unable to use port {}, using any port available.", broadcastPort);
+        Selector newSelector = Selector.open();
+
+        try {
+            for (int i = 0; i < datagramChannels.length; i++) {
+                datagramChannels[i] = DatagramChannel.open();
+                datagramChannels[i].socket().setBroadcast(true);
+                datagramChannels[i].socket().setReceiveBufferSize(100000);
+
+                if (broadcastPort > 1023) {
+                    try {
+                        datagramChannels[i].bind(
+                                new InetSocketAddress(
+                                        Util.getLocalIPForRemoteIP(BROADCAST_ADDRESS[i]),
+                                        broadcastPort));
+
+                    } catch (Exception e) {
+                        logger.error("Unable to use port {}, using any port available.", broadcastPort);
+                    }
                 }
-            }
 
-            ReceiveThread receiveThread = new ReceiveThread();
-            receiveThread.listenIndex = i;
-            receiveThreads[i] = new Thread(receiveThread);
-            receiveThreads[i].setName("HDHomeRunDiscoveryReceive-" + sendThread.getId());
+                datagramChannels[i].configureBlocking(false);
+                datagramChannels[i].register(newSelector, SelectionKey.OP_READ, i);
+            }
+        } catch (IOException e) {
+            closeChannels();
+            newSelector.close();
+            throw e;
         }
 
-        sendThread.start();
+        loadExecutor = new ThreadPoolExecutor(LOAD_THREADS, LOAD_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable);
+                thread.setName("HDHomeRunDiscoveryLoader-" + thread.getId());
+                return thread;
+            }
+        });
+        loadExecutor.allowCoreThreadTimeOut(true);
 
-        for (Thread receiveThread : receiveThreads) {
-            receiveThread.start();
-        }
+        selector = newSelector;
+        discoveryThread = new Thread(this);
+        discoveryThread.setName("HDHomeRunDiscovery-" + discoveryThread.getId());
+        discoveryThread.start();
     }
 
     public void setTunerCount(HDHomeRunDevice device) {
@@ -143,50 +197,47 @@ public class HDHomeRunDiscovery implements Runnable {
         }
     }
 
-    public void stop() {
-        sendThread.interrupt();
+    /**
+     * Check right away if a broadcast was requested.
+     */
+    public void wakeup() {
+        Selector currentSelector = selector;
 
-        for (Thread receiveThread : receiveThreads) {
-            receiveThread.interrupt();
+        if (currentSelector != null) {
+            currentSelector.wakeup();
         }
     }
 
-    public boolean isRunning() {
-        if (sendThread != null) {
-            return sendThread.isAlive();
+    public void stop() {
+        if (discoveryThread != null) {
+            discoveryThread.interrupt();
         }
 
-        for (Thread receiveThread : receiveThreads) {
-            if (receiveThread != null && receiveThread.isAlive()) {
-                return receiveThread.isAlive();
-            }
+        if (loadExecutor != null) {
+            loadExecutor.shutdownNow();
         }
+    }
 
-        return false;
+    public boolean isRunning() {
+        return discoveryThread != null && discoveryThread.isAlive();
     }
 
     public void waitForStop() throws InterruptedException {
-        if (receiveThreads != null) {
-            for (Thread receiveThread : receiveThreads) {
-                while (receiveThread.isAlive()) {
-                    receiveThread.interrupt();
-                    receiveThread.join(500);
-                }
+        if (discoveryThread != null) {
+            while (discoveryThread.isAlive()) {
+                discoveryThread.interrupt();
+                discoveryThread.join(500);
             }
         }
 
-        if (sendThread != null) {
-            while (sendThread.isAlive()) {
-                sendThread.interrupt();
-                sendThread.join(500);
-            }
+        if (loadExecutor != null) {
+            loadExecutor.shutdownNow();
+            loadExecutor.awaitTermination(5, TimeUnit.SECONDS);
         }
     }
 
     public void run() {
-        int retry = 5;
-
-        logger.info("HDHomeRun discovery sender thread started.");
+        logger.info("HDHomeRun discovery thread started.");
 
         txPacket.startPacket(HDHomeRunPacketType.HDHOMERUN_TYPE_DISCOVER_REQ);
 
@@ -204,340 +255,457 @@ public class HDHomeRunDiscovery implements Runnable {
 
         txPacket.BUFFER.mark();
 
-        while (!Thread.currentThread().isInterrupted()) {
+        // Start with a burst.
+        boolean requested = false;
+        boolean pendingRequest = false;
+        int burstRemaining = BURST_BROADCASTS;
+        long lastBurst = System.currentTimeMillis();
+        long nextBroadcast = lastBurst;
+
+        try {
             while (!Thread.currentThread().isInterrupted()) {
+                long now = System.currentTimeMillis();
+
+                if (HDHomeRunDiscoverer.needBroadcast()) {
+                    pendingRequest = true;
+                }
 
-                boolean logDiscovery = HDHomeRunDiscoverer.getSmartBroadcast() || discoverer.isWaitingForDevices();
+                if (pendingRequest && burstRemaining == 0 && now - lastBurst >= REQUEST_HOLDOFF) {
+                    // Report every device that replies again, so devices that were ignored
+                    // because of a configuration change get another chance.
+                    reportedDevices.clear();
+                    pendingRequest = false;
+                    requested = true;
+                    burstRemaining = BURST_BROADCASTS;
+                    lastBurst = now;
+                    nextBroadcast = now;
+                }
 
-                boolean requested = HDHomeRunDiscoverer.needBroadcast();
+                if (now >= nextBroadcast) {
+                    if (burstRemaining > 0) {
+                        boolean logDiscovery = burstRemaining == BURST_BROADCASTS &&
+                                (HDHomeRunDiscoverer.getSmartBroadcast() ||
+                                        discoverer.isWaitingForDevices());
 
-                if (retry == 1 &&
-                        !discoverer.isWaitingForDevices() &&
-                        !requested &&
-                        HDHomeRunDiscoverer.getSmartBroadcast()) {
+                        broadcast(logDiscovery, requested ? "requested" : "startup");
+                        burstRemaining--;
 
-                    break;
+                        if (burstRemaining > 0) {
+                            nextBroadcast = now + (BURST_DELAY << (BURST_BROADCASTS - burstRemaining - 1));
+                        } else {
+                            requested = false;
+                            nextBroadcast = now + getPeriodicDelay();
+                        }
+                    } else {
+                        if (!isOnDemand() || discoverer.isWaitingForDevices()) {
+                            broadcast(false, "interval");
+                        }
+
+                        nextBroadcast = now + getPeriodicDelay();
+                    }
                 }
 
-                if (retry-- <= 0) {
-                    break;
+                long timeout = nextBroadcast - now;
+
+                if (pendingRequest) {
+                    timeout = Math.min(timeout, lastBurst + REQUEST_HOLDOFF - now);
                 }
 
-                boolean failed = false;
-
-                for (int i = 0; i < datagramChannels.length; i++) {
-
-                    // First do all of the statically defined IP addresses. We are already listening
-                    // on all interfaces, so we don't need to create any new receivers.
-                    //
-                    // This will also give them a minimum of 330ms to respond. If your remote device
-                    // takes more than 330ms to respond, this is probably not a good idea anyway.
-                    //
-                    // We do this on every interface available because we don't have a great way to
-                    // tell which one has a gateway that will get us to the device on another
-                    // subnet. Also, some configurations are multi-homed and it's also possible that
-                    // Java could fail to identify an interface that has a gateway defined.
-                    String staticAddresses[] = HDHomeRunDiscoverer.getStaticAddresses();
-                    for (String staticAddress : staticAddresses) {
-                        try {
-                            SocketAddress staticTarget = new InetSocketAddress(staticAddress, BROADCAST_PORT);
-                            if (logDiscovery) {
-                                logger.info("Transmitting HDHomeRun discovery packets to {}... ({})",
-                                        staticTarget, requested ? "requested" : "startup");
-                            }
+                selector.select(Math.max(1, timeout));
 
-                            // Send 3 packets per static address since this might be going to a very
-                            // remote subnet and that could mean greater than usual packet loss.
-                            for (int j = 0; j < 3; j++) {
-                                while (txPacket.BUFFER.hasRemaining()) {
-                                    datagramChannels[i].send(txPacket.BUFFER, staticTarget);
-                                }
-                                txPacket.BUFFER.reset();
-                                Thread.sleep(10);
-                            }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
 
-                            // Sleep a little between static discoveries. This should increase the
-                            // likelihood that distant devices will actually be discovered.
-                            Thread.sleep(100);
-                        } catch (Exception e) {
-                            logger.error("Unable to use the static address {} => ", staticAddress, e);
-                        }
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (key.isValid() && key.isReadable()) {
+                        receive((Integer) key.attachment());
                     }
+                }
+            }
+        } catch (ClosedChannelException e) {
+            logger.debug("Channel was closed while discovering HDHomeRun devices => ", e);
+        } catch (IOException e) {
+            logger.error("Error while discovering HDHomeRun devices => ", e);
+        } finally {
+            closeChannels();
 
-                    while (txPacket.BUFFER.hasRemaining()) {
-                        try {
-                            if (logDiscovery) {
-                                logger.info("Broadcasting HDHomeRun discovery packet to {}... ({})",
-                                        BROADCAST_SOCKET[i], requested ? "requested" : "startup");
-                            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.debug("Created an IO exception while closing the selector => ", e);
+            }
 
-                            datagramChannels[i].send(txPacket.BUFFER, BROADCAST_SOCKET[i]);
+            selector = null;
+        }
 
-                        } catch (IOException e) {
-                            logger.error("Error while sending HDHomeRun discovery packets to {} => ", BROADCAST_SOCKET[i], e);
-                            failed = true;
-                            break;
-                        }
+        logger.info("HDHomeRun discovery thread stopped.");
+    }
+
+    /**
+     * Are periodic broadcasts only sent while devices are expected?
+     */
+    private boolean isOnDemand() {
+        return HDHomeRunDiscoverer.getBroadcastInterval() == 0 ||
+                HDHomeRunDiscoverer.getSmartBroadcast();
+    }
+
+    private long getPeriodicDelay() {
+        return isOnDemand() ? ON_DEMAND_CHECK : HDHomeRunDiscoverer.getBroadcastInterval() * 1000L;
+    }
+
+    private void broadcast(boolean logDiscovery, String reason) {
+        String staticAddresses[] = HDHomeRunDiscoverer.getStaticAddresses();
+
+        for (int i = 0; i < datagramChannels.length; i++) {
+            // First do all of the statically defined IP addresses. We are already listening on all
+            // interfaces, so we don't need to create any new receivers.
+            //
+            // We do this on every interface available because we don't have a great way to tell
+            // which one has a gateway that will get us to the device on another subnet. Also, some
+            // configurations are multi-homed and it's also possible that Java could fail to
+            // identify an interface that has a gateway defined.
+            for (String staticAddress : staticAddresses) {
+                try {
+                    SocketAddress staticTarget = new InetSocketAddress(staticAddress, BROADCAST_PORT);
+                    if (logDiscovery) {
+                        logger.info("Transmitting HDHomeRun discovery packets to {}... ({})",
+                                staticTarget, reason);
                     }
 
-                    txPacket.BUFFER.reset();
+                    send(datagramChannels[i], staticTarget);
+                } catch (Exception e) {
+                    logger.error("Unable to use the static address {} => ", staticAddress, e);
                 }
+            }
 
-                if (failed) {
-                    continue;
+            try {
+                if (logDiscovery) {
+                    logger.info("Broadcasting HDHomeRun discovery packet to {}... ({})",
+                            BROADCAST_SOCKET[i], reason);
                 }
 
-                try {
-                    Thread.sleep(200);
-                } catch (InterruptedException e) {
-                    logger.debug("Interrupted while waiting for packets to be received => ", e);
-                    break;
-                }
+                send(datagramChannels[i], BROADCAST_SOCKET[i]);
+            } catch (IOException e) {
+                logger.error("Error while sending HDHomeRun discovery packets to {} => ", BROADCAST_SOCKET[i], e);
+            }
+        }
+    }
+
+    private void send(DatagramChannel datagramChannel, SocketAddress target) throws IOException {
+        try {
+            // A non-blocking channel sends the entire datagram or nothing if the socket buffer is
+            // full. The next broadcast will make up for a dropped one.
+            if (datagramChannel.send(txPacket.BUFFER, target) == 0) {
+                logger.debug("Unable to send HDHomeRun discovery packet to {} right now.", target);
             }
+        } finally {
+            txPacket.BUFFER.reset();
+        }
+    }
+
+    private void receive(int listenIndex) throws IOException {
+        HDHomeRunPacket rxPacket = rxPackets[listenIndex];
+        DatagramChannel datagramChannel = datagramChannels[listenIndex];
+
+        while (true) {
+            rxPacket.BUFFER.clear();
 
-            retry = 1;
+            InetSocketAddress socketAddress;
 
             try {
-                int interval = HDHomeRunDiscoverer.getBroadcastInterval();
-                boolean devicesLoaded = discoverer.isWaitingForDevices();
-
-                if (interval == 0 && devicesLoaded) {
-                    return;
-                } else if (interval == 0 || HDHomeRunDiscoverer.getSmartBroadcast()) {
-                    Thread.sleep(4500);
-                } else {
-                    Thread.sleep(HDHomeRunDiscoverer.getBroadcastInterval() * 1000);
-                }
-            } catch (InterruptedException e) {
-                logger.debug("Interrupted while waiting for next broadcast to be sent => ", e);
+                socketAddress = (InetSocketAddress) datagramChannel.receive(rxPacket.BUFFER);
+            } catch (ClosedChannelException e) {
+                throw e;
+            } catch (IOException e) {
+                // This can be caused by an ICMP reply to a static address that doesn't exist.
+                logger.debug("Error while receiving HDHomeRun discovery packets from {} => {}",
+                        BROADCAST_SOCKET[listenIndex], e.getMessage());
+                return;
+            }
+
+            if (socketAddress == null) {
                 return;
             }
+
+            rxPacket.BUFFER.flip();
+
+            HDHomeRunDevice device;
+            int tunerCount[] = new int[1];
+
+            try {
+                device = parseReply(rxPacket, socketAddress, tunerCount);
+            } catch (Exception e) {
+                logger.debug("Unable to parse HDHomeRun discovery packet from {} => {}",
+                        socketAddress, e.getMessage());
+                continue;
+            }
+
+            // If the device doesn't have a valid ID or have been problematic, don't even try to
+            // load it.
+            if (device == null || device.getDeviceId() <= 0 || ignoreDevice(device.getDeviceId())) {
+                continue;
+            }
+
+            // Every broadcast in a burst gets a reply from every device, but a device only needs
+            // to be reported again if its address changed.
+            InetAddress lastAddress = reportedDevices.put(device.getDeviceId(), device.getIpAddress());
+
+            if (device.getIpAddress().equals(lastAddress)) {
+                continue;
+            }
+
+            try {
+                loadExecutor.execute(new DeviceLoadTask(device, tunerCount[0], listenIndex));
+            } catch (RejectedExecutionException e) {
+                logger.debug("Discovery is stopping. Not loading {}.", device);
+            }
+        }
+    }
+
+    /**
+     * Parse a discovery reply.
+     * <p/>
+     * The tuner count is returned separately because setting it on the device creates the tuners
+     * and that contacts the device.
+     *
+     * @param rxPacket The received packet.
+     * @param socketAddress The address the packet was received from.
+     * @param tunerCount The tuner count in the reply is returned in the first element. It is 0 if
+     *                   the reply didn't have one.
+     * @return The device or <i>null</i> if this is not a discovery reply.
+     */
+    private HDHomeRunDevice parseReply(HDHomeRunPacket rxPacket, InetSocketAddress socketAddress, int tunerCount[]) {
+        if (rxPacket.BUFFER.limit() == 0 ||
+                rxPacket.getPacketType() != HDHomeRunPacketType.HDHOMERUN_TYPE_DISCOVER_RPY) {
+
+            return null;
         }
 
-        if (datagramChannels != null) {
-            for (DatagramChannel datagramChannel : datagramChannels) {
+        int packetLength = rxPacket.getPacketLength();
+        rxPacket.BUFFER.limit(packetLength + 4);
+
+        InetAddress address = socketAddress.getAddress();
+        if (address == null) {
+            try {
+                String hostString = socketAddress.getHostString();
+                logger.info("Resolving address: {}", hostString);
+                address = InetAddress.getByName(hostString);
+            } catch (UnknownHostException e) {
+                logger.warn("Unable to resolve source IP address => ", e);
                 try {
-                    datagramChannel.socket().setReuseAddress(true);
-                    datagramChannel.close();
-                    datagramChannel.socket().close();
-                } catch (IOException e) {
-                    logger.debug("Created an IO exception while closing the datagram channel => ", e);
+                    String hostname = socketAddress.getHostName();
+                    logger.info("Resolving address: {}", hostname);
+                    address = InetAddress.getByName(hostname);
+                } catch (UnknownHostException e1) {
+                    logger.error("Unable to resolve source IP address => ", e1);
+                    return null;
                 }
             }
         }
 
-        logger.info("HDHomeRun discovery sender thread stopped.");
-    }
+        HDHomeRunDevice device = new HDHomeRunDevice(address, control);
 
-    private class ReceiveThread implements Runnable {
-        protected int listenIndex = -1;
-        protected Map<Integer, Integer> ignoreDevices = new HashMap<>();
+        while (rxPacket.BUFFER.remaining() > 4) {
+            HDHomeRunPacketTag tag = rxPacket.getTag();
+            int length = rxPacket.getVariableLength();
 
-        private boolean ignoreDevice(Integer deviceId) {
-            Integer failCount = ignoreDevices.get(deviceId);
-            return failCount != null && failCount >= MAX_FAILS;
-        }
+            if (tag == null) {
+                // Silicondust says to just ignore these.
+                logger.debug("HDHomerun device returned an unknown tag with the length {}. This can be ignored.", length);
+                rxPacket.skipTLV(length);
+                continue;
+            }
+
+            switch (tag) {
+                case HDHOMERUN_TAG_DEVICE_TYPE:
+                    if (length != 4) {
+                        rxPacket.skipTLV(length);
+                        break;
+                    }
+                    device.setDeviceType(rxPacket.BUFFER.getInt());
+                    break;
+                case HDHOMERUN_TAG_DEVICE_ID:
+                    if (length != 4) {
+                        rxPacket.skipTLV(length);
+                        break;
+                    }
+
+                    int deviceId = rxPacket.BUFFER.getInt();
 
-        private boolean incrementIgnoreDevice(Integer deviceId) {
-            Integer failCount = ignoreDevices.get(deviceId);
-            if (failCount == null) {
-                ignoreDevices.put(deviceId, 0);
-            } else {
-                ignoreDevices.put(deviceId, failCount + 1);
+                    if (validateDeviceId(deviceId)) {
+                        device.setDeviceId(deviceId);
+                        device.setLegacy(isLegacy(device.getDeviceId()));
+                    }
+                    break;
+                case HDHOMERUN_TAG_TUNER_COUNT:
+                    if (length != 1) {
+                        rxPacket.skipTLV(length);
+                        break;
+                    }
+
+                    tunerCount[0] = rxPacket.BUFFER.get();
+                    break;
+                case HDHOMERUN_TAG_DEVICE_AUTH_BIN:
+                    if (length != 18) {
+                        rxPacket.skipTLV(length);
+                        break;
+                    }
+
+                    char deviceAuth[] = new char[24];
+
+                    for (int i = 0; i < 24; i += 4) {
+                        int raw24;
+                        raw24 = (rxPacket.BUFFER.get() & 0xff) << 16;
+                        raw24 |= (rxPacket.BUFFER.get() & 0xff) << 8;
+                        raw24 |= (rxPacket.BUFFER.get() & 0xff);
+
+                        deviceAuth[i] = recvBase64EncodeTable[(raw24 >> 18) & 0x3F];
+                        deviceAuth[i + 1] = recvBase64EncodeTable[(raw24 >> 12) & 0x3F];
+                        deviceAuth[i + 2] = recvBase64EncodeTable[(raw24 >> 6) & 0x3F];
+                        deviceAuth[i + 3] = recvBase64EncodeTable[raw24 & 0x3F];
+                    }
+
+                    device.setDeviceAuth(new String(deviceAuth));
+
+                    break;
+                case HDHOMERUN_TAG_BASE_URL:
+                    String url = rxPacket.getTLVString(length);
+
+                    try {
+                        device.setBaseUrl(new URL(url));
+                    } catch (MalformedURLException e) {
+                        logger.error("HDHomeRun device returned a bad URL '{}' => ", url, e);
+                    }
+                    break;
+                case HDHOMERUN_TAG_DEVICE_AUTH_STR:
+                    device.setDeviceAuth(rxPacket.getTLVString(length));
+                    break;
+                default:
+                    // Silicondust says to just ignore these.
+                    logger.debug("HDHomerun device returned an unexpected tag {} with the length {}", tag, length);
+                    rxPacket.skipTLV(length);
+                    break;
             }
-            return ignoreDevice(deviceId);
         }
 
-        public void run() {
-            logger.info("HDHomeRun discovery receive thread for {} broadcast started.", BROADCAST_SOCKET[listenIndex]);
-
-            final char recvBase64EncodeTable[] = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+        if (discoverer.isWaitingForDevices()) {
+            logger.debug("Parsed discovery packet: {}", device);
+        }
 
-            HDHomeRunPacket rxPacket = rxPackets[listenIndex];
-            DatagramChannel datagramChannel = datagramChannels[listenIndex];
-            InetSocketAddress socketAddress;
+        return device;
+    }
 
-            while (sendThread != null && sendThread.isAlive()) {
-                rxPacket.BUFFER.clear();
+    private boolean ignoreDevice(Integer deviceId) {
+        Integer failCount = ignoreDevices.get(deviceId);
+        return failCount != null && failCount >= MAX_FAILS;
+    }
 
-                try {
-                    socketAddress = (InetSocketAddress) datagramChannel.receive(rxPacket.BUFFER);
-                } catch (ClosedChannelException e) {
-                    logger.debug("Channel was closed while receiving HDHomeRun discovery packets from {} => ", BROADCAST_SOCKET, e);
-                    return;
-                } catch (IOException e) {
-                    logger.error("Error while receiving HDHomeRun discovery packets from {} => ", BROADCAST_SOCKET, e);
-                    return;
-                }
+    private boolean incrementIgnoreDevice(Integer deviceId) {
+        Integer failCount = ignoreDevices.get(deviceId);
+        if (failCount == null) {
+            ignoreDevices.put(deviceId, 0);
+        } else {
+            ignoreDevices.put(deviceId, failCount + 1);
+        }
+        return ignoreDevice(deviceId);
+    }
 
-                rxPacket.BUFFER.flip();
-                if (rxPacket.BUFFER.limit() > 0) {
-                    if (rxPacket.getPacketType() == HDHomeRunPacketType.HDHOMERUN_TYPE_DISCOVER_RPY) {
-                        int packetLength = rxPacket.getPacketLength();
-                        rxPacket.BUFFER.limit(packetLength + 4);
-
-                        InetAddress address = socketAddress.getAddress();
-                        if (address == null) {
-                            try {
-                                String hostString = socketAddress.getHostString();
-                                logger.info("Resolving address: {}", hostString);
-                                address = InetAddress.getByName(hostString);
-                            } catch (UnknownHostException e) {
-                                logger.warn("Unable to resolve source IP address => ", e);
-                                try {
-                                    String hostname = socketAddress.getHostName();
-                                    logger.info("Resolving address: {}", hostname);
-                                    address = InetAddress.getByName(hostname);
-                                } catch (UnknownHostException e1) {
-                                    logger.error("Unable to resolve source IP address => ", e1);
-                                    continue;
-                                }
-                            }
-                        }
+    private void closeChannels() {
+        for (int i = 0; i < datagramChannels.length; i++) {
+            DatagramChannel datagramChannel = datagramChannels[i];
 
-                        HDHomeRunDevice device = new HDHomeRunDevice(address);
+            if (datagramChannel == null) {
+                continue;
+            }
 
-                        while (rxPacket.BUFFER.remaining() > 4) {
-                            HDHomeRunPacketTag tag = rxPacket.getTag();
-                            int length = rxPacket.getVariableLength();
+            try {
+                datagramChannel.socket().setReuseAddress(true);
+                datagramChannel.close();
+                datagramChannel.socket().close();
+            } catch (IOException e) {
+                logger.debug("Created an IO exception while closing the datagram channel => ", e);
+            }
 
-                            if (tag == null) {
-                                // Silicondust says to just ignore these.
-                                logger.debug("HDHomerun device returned an unknown tag with the length {}. This can be ignored.", length);
-                                rxPacket.BUFFER.position(rxPacket.BUFFER.position() + length);
-                                continue;
-                            }
+            datagramChannels[i] = null;
+        }
+    }
 
-                            switch (tag) {
-                                case HDHOMERUN_TAG_DEVICE_TYPE:
-                                    if (length != 4) {
-                                        break;
-                                    }
-                                    device.setDeviceType(rxPacket.BUFFER.getInt());
-                                    break;
-                                case HDHOMERUN_TAG_DEVICE_ID:
-                                    if (length != 4) {
-                                        break;
-                                    }
-
-                                    int deviceId = rxPacket.BUFFER.getInt();
-
-                                    if (validateDeviceId(deviceId)) {
-                                        device.setDeviceId(deviceId);
-                                        device.setLegacy(isLegacy(device.getDeviceId()));
-                                    }
-                                    break;
-                                case HDHOMERUN_TAG_TUNER_COUNT:
-                                    if (length != 1) {
-                                        break;
-                                    }
-
-                                    device.setTunerCount(rxPacket.BUFFER.get());
-                                    break;
-                                case HDHOMERUN_TAG_DEVICE_AUTH_BIN:
-                                    if (length != 18) {
-                                        break;
-                                    }
-
-                                    char deviceAuth[] = new char[24];
-
-                                    for (int i = 0; i < 24; i += 4) {
-                                        int raw24;
-                                        raw24 = (rxPacket.BUFFER.get() & 0xff) << 16;
-                                        raw24 |= (rxPacket.BUFFER.get() & 0xff) << 8;
-                                        raw24 |= (rxPacket.BUFFER.get() & 0xff);
-
-                                        deviceAuth[i] = recvBase64EncodeTable[(raw24 >> 18) & 0x3F];
-                                        deviceAuth[i + 1] = recvBase64EncodeTable[(raw24 >> 12) & 0x3F];
-                                        deviceAuth[i + 2] = recvBase64EncodeTable[(raw24 >> 6) & 0x3F];
-                                        deviceAuth[i + 3] = recvBase64EncodeTable[raw24 & 0x3F];
-                                    }
-
-                                    device.setDeviceAuth(new String(deviceAuth));
-
-                                    break;
-                                case HDHOMERUN_TAG_BASE_URL:
-                                    String url = rxPacket.getTLVString(length);
-
-                                    try {
-                                        device.setBaseUrl(new URL(url));
-                                    } catch (MalformedURLException e) {
-                                        logger.error("HDHomeRun device returned a bad URL '{}' => ", url, e);
-                                    }
-                                    break;
-                                case HDHOMERUN_TAG_DEVICE_AUTH_STR:
-                                    device.setDeviceAuth(rxPacket.getTLVString(length));
-                                    break;
-                                default:
-                                    // Silicondust says to just ignore these.
-                                    logger.debug("HDHomerun device returned an unexpected tag {} with the length {}", tag, length);
-                                    rxPacket.BUFFER.position(rxPacket.BUFFER.position() + length);
-                                    break;
-                            }
-                        }
+    /**
+     * Gets anything missing from the discovery reply and reports the device to the discoverer.
+     * <p/>
+     * This can take a while if the device must be asked how many tuners it has, so it is never
+     * done on the discovery thread.
+     */
+    private class DeviceLoadTask implements Runnable {
+        private final HDHomeRunDevice device;
+        private final int tunerCount;
+        private final int listenIndex;
+
+        private DeviceLoadTask(HDHomeRunDevice device, int tunerCount, int listenIndex) {
+            this.device = device;
+            this.tunerCount = tunerCount;
+            this.listenIndex = listenIndex;
+        }
 
-                        // If the device doesn't have a valid ID or have been problematic, don't
-                        // even try to load it.
-                        if (device.getDeviceId() <= 0 || ignoreDevice(device.getDeviceId())) {
-                            continue;
-                        }
+        @Override
+        public void run() {
+            if (tunerCount > 0) {
+                device.setTunerCount(tunerCount);
+            }
 
-                        // Silicondust fixes for old firmware.
-                        if (device.getTunerCount() <= 0) {
-                            switch (device.getDeviceId() >> 20) {
-                                case 0x102:
-                                    device.setTunerCount(1);
-                                    break;
-
-                                case 0x100:
-                                case 0x101:
-                                case 0x121:
-                                    device.setTunerCount(2);
-                                    break;
-
-                                default:
-                                    // Attempt to auto-detect the tuner count.
-                                    setTunerCount(device);
-                                    // 2 is a safe bet for most HDHomeRun capture devices.
-                                    if (device.getTunerCount() == 0) {
-                                        device.setTunerCount(2);
-                                    }
-                                    try {
-                                        logger.warn("The capture device '{}' did not respond" +
-                                                        " with any tuners. Detected {}.",
-                                                device.getUniqueDeviceName(),
-                                                device.getTunerCount());
-                                    } catch (Exception e) {
-                                        // This will clear a rebroadcast so we don't loop endlessly
-                                        // due to the error that just happened here.
-                                        HDHomeRunDiscoverer.needBroadcast();
-
-                                        if (!incrementIgnoreDevice(device.getDeviceId())) {
-                                            logger.warn("Ignoring non-capture device after" +
-                                                            " attempting to use it {} times => ",
-                                                    MAX_FAILS, e);
-                                        } else {
-                                            continue;
-                                        }
-                                    }
-                                    break;
-                            }
+            // Silicondust fixes for old firmware.
+            if (device.getTunerCount() <= 0) {
+                switch (device.getDeviceId() >> 20) {
+                    case 0x102:
+                        device.setTunerCount(1);
+                        break;
+
+                    case 0x100:
+                    case 0x101:
+                    case 0x121:
+                        device.setTunerCount(2);
+                        break;
+
+                    default:
+                        // Attempt to auto-detect the tuner count.
+                        setTunerCount(device);
+                        // 2 is a safe bet for most HDHomeRun capture devices.
+                        if (device.getTunerCount() == 0) {
+                            device.setTunerCount(2);
                         }
-
                         try {
-                            discoverer.addCaptureDevice(device, BROADCAST_SOCKET[listenIndex].getAddress());
+                            logger.warn("The capture device '{}' did not respond" +
+                                            " with any tuners. Detected {}.",
+                                    device.getUniqueDeviceName(),
+                                    device.getTunerCount());
                         } catch (Exception e) {
-                            logger.error("Unable to add new HDHomeRun capture device => ", e);
-                        }
-
-                        if (discoverer.isWaitingForDevices()) {
-                            logger.debug("Parsed discovery packet: {}", device);
+                            // This will clear a rebroadcast so we don't loop endlessly due to the
+                            // error that just happened here.
+                            HDHomeRunDiscoverer.needBroadcast();
+
+                            // Let the next reply from this device try again.
+                            reportedDevices.remove(device.getDeviceId(), device.getIpAddress());
+
+                            if (!incrementIgnoreDevice(device.getDeviceId())) {
+                                logger.warn("Ignoring non-capture device after" +
+                                                " attempting to use it {} times => ",
+                                        MAX_FAILS, e);
+                            } else {
+                                return;
+                            }
                         }
-                    }
+                        break;
                 }
             }
 
-            logger.info("HDHomeRun discovery receive thread for {} broadcast stopped.", BROADCAST_SOCKET[listenIndex]);
+            try {
+                discoverer.addCaptureDevice(device, BROADCAST_SOCKET[listenIndex].getAddress());
+            } catch (Exception e) {
+                logger.error("Unable to add new HDHomeRun capture device => ", e);
+                reportedDevices.remove(device.getDeviceId(), device.getIpAddress());
+            }
         }
     }
 
@@ -22,7 +22,6 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.zip.CRC32;
 
@@ -41,7 +40,43 @@ public class HDHomeRunPacket {
 
     public final static int HDHOMERUN_MIN_PEEK_LENGTH = 4;
 
+    // Lookups by value without the copy that values() makes on every call.
+    private final static HDHomeRunPacketTag TAGS[] = new HDHomeRunPacketTag[256];
+    private final static HDHomeRunPacketType TYPES[];
+
+    static {
+        for (HDHomeRunPacketTag tag : HDHomeRunPacketTag.values()) {
+            TAGS[tag.MASK & 0xff] = tag;
+        }
+
+        int maxType = 0;
+        for (HDHomeRunPacketType type : HDHomeRunPacketType.values()) {
+            maxType = Math.max(maxType, type.MASK & 0xffff);
+        }
+
+        TYPES = new HDHomeRunPacketType[maxType + 1];
+        for (HDHomeRunPacketType type : HDHomeRunPacketType.values()) {
+            TYPES[type.MASK & 0xffff] = type;
+        }
+    }
+
+    private final static ThreadLocal<CRC32> CRC = new ThreadLocal<CRC32>() {
+        @Override
+        protected CRC32 initialValue() {
+            return new CRC32();
+        }
+    };
+
+    // The CRC is calculated through this array when the buffer isn't backed by an array.
+    private final static ThreadLocal<byte[]> CRC_SCRATCH = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[1024];
+        }
+    };
+
     public final ByteBuffer BUFFER;
+    private byte stringScratch[];
 
     HDHomeRunPacket() {
         // We should never need more than 3074 bytes. This number like many of the numbers used for
@@ -49,7 +84,7 @@ public class HDHomeRunPacket {
         BUFFER = ByteBuffer.allocateDirect(3074);
     }
 
-    HDHomeRunPacket(ByteBuffer buffer) {
+    public HDHomeRunPacket(ByteBuffer buffer) {
         BUFFER = buffer;
     }
 
@@ -82,14 +117,11 @@ public class HDHomeRunPacket {
 
         BUFFER.flip();
         int crc = calculateCRC(BUFFER);
-        BUFFER.compact();
+        BUFFER.limit(BUFFER.capacity());
+        BUFFER.position(currentLen);
 
-        BUFFER.order(ByteOrder.LITTLE_ENDIAN);
-        try {
-            BUFFER.putInt(crc);
-        } finally {
-            BUFFER.order(ByteOrder.BIG_ENDIAN);
-        }
+        // The CRC is little endian.
+        BUFFER.putInt(Integer.reverseBytes(crc));
 
         BUFFER.flip();
     }
@@ -103,18 +135,24 @@ public class HDHomeRunPacket {
      * @return This is the calculated CRC value.
      */
     public static int calculateCRC(ByteBuffer buffer) {
-        CRC32 checksum = new CRC32();
-
+        CRC32 checksum = CRC.get();
         checksum.reset();
 
-        buffer.mark();
+        if (buffer.hasArray()) {
+            checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            byte scratch[] = CRC_SCRATCH.get();
+            int position = buffer.position();
+
+            while (buffer.hasRemaining()) {
+                int length = Math.min(scratch.length, buffer.remaining());
+                buffer.get(scratch, 0, length);
+                checksum.update(scratch, 0, length);
+            }
 
-        while (buffer.hasRemaining()) {
-            checksum.update(buffer.get());
+            buffer.position(position);
         }
 
-        buffer.reset();
-
         int crc = (int) (checksum.getValue() & 0xffffffff);
 
         return crc;
@@ -127,16 +165,31 @@ public class HDHomeRunPacket {
     }
 
     public void putTagLengthValue(HDHomeRunPacketTag tag, String value) {
-        // This charset is not globally defined because it will never change.
-        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putTagLengthValue(tag, encodeString(value));
+    }
+
+    /**
+     * Put a string that has already been encoded with <b>encodeString()</b>.
+     * <p/>
+     * Strings that are sent often can be encoded once and reused.
+     *
+     * @param tag The tag for this value.
+     * @param value The UTF-8 bytes of the string without null termination.
+     */
+    public void putTagLengthValue(HDHomeRunPacketTag tag, byte value[]) {
         BUFFER.put(tag.MASK);
-        putVariableLength(bytes.length + 1);
-        BUFFER.put(bytes);
+        putVariableLength(value.length + 1);
+        BUFFER.put(value);
 
         // Add null termination byte for strings.
         BUFFER.put((byte) 0);
     }
 
+    public static byte[] encodeString(String value) {
+        // This charset is not globally defined because it will never change.
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
     private void putVariableLength(int length) {
         if (length <= 127) {
             // We need to mask the byte because Java signs bytes.
@@ -148,26 +201,20 @@ public class HDHomeRunPacket {
     }
 
     public static HDHomeRunPacketTag getTagByValue(short value) {
-        for (HDHomeRunPacketTag tag : HDHomeRunPacketTag.values()) {
-            if (tag.MASK == value) {
-                return tag;
-            }
+        if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
+            return null;
         }
 
         // What is 0x27?
-        //logger.warn("Unable to find the enum for tag {}.", value);
-        return null;
+        return TAGS[value & 0xff];
     }
 
     public static HDHomeRunPacketType getTypeByValue(short value) {
-        for (HDHomeRunPacketType type : HDHomeRunPacketType.values()) {
-            if (type.MASK == value) {
-                return type;
-            }
+        if (value < 0 || value >= TYPES.length) {
+            return null;
         }
 
-        //logger.warn("Unable to find the enum for packet type {}.", value);
-        return null;
+        return TYPES[value];
     }
 
     public HDHomeRunPacketType getPacketType() {
@@ -220,14 +267,38 @@ public class HDHomeRunPacket {
             return null;
         }
 
-        byte stringBytes[] = new byte[length - 1];
-        for (int i = 0; i < stringBytes.length; i++) {
-            stringBytes[i] = BUFFER.get();
+        if (length <= 0) {
+            return "";
         }
 
-        BUFFER.get();
+        // The last byte is the null termination.
+        int stringLength = length - 1;
+        String returnValue;
+
+        if (BUFFER.hasArray()) {
+            returnValue = new String(BUFFER.array(), BUFFER.arrayOffset() + BUFFER.position(),
+                    stringLength, StandardCharsets.UTF_8);
+            BUFFER.position(BUFFER.position() + length);
+        } else {
+            if (stringScratch == null || stringScratch.length < stringLength) {
+                stringScratch = new byte[Math.max(stringLength, 256)];
+            }
+
+            BUFFER.get(stringScratch, 0, stringLength);
+            BUFFER.get();
+            returnValue = new String(stringScratch, 0, stringLength, StandardCharsets.UTF_8);
+        }
 
-        return new String(stringBytes, StandardCharsets.UTF_8);
+        return returnValue;
+    }
+
+    /**
+     * Skip over a value.
+     *
+     * @param length The length of the value from <b>getVariableLength()</b>.
+     */
+    public void skipTLV(int length) {
+        BUFFER.position(Math.min(BUFFER.limit(), BUFFER.position() + length));
     }
 
 }
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.tuning.hdhomerun;
+
+import opendct.config.ConfigRegistry;
+import opendct.tuning.hdhomerun.returns.HDHomeRunStatus;
+import opendct.tuning.hdhomerun.returns.HDHomeRunStreamInfo;
+import opendct.tuning.hdhomerun.returns.HDHomeRunVStatus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the status of active HDHomeRun tuners in the background.
+ * <p/>
+ * Tuners are added when they start streaming and removed when they stop. Every
+ * <b>hdhr.status_poll_interval_ms</b>, one task per device gets the status and vstatus of all of
+ * its active tuners. The stream info and program are polled every
+ * <b>DETAIL_POLL_MULTIPLE</b> intervals since they rarely change while streaming. Anything that
+ * only needs to know the current state of a tuner should read the latest snapshot instead of
+ * asking the device, so monitoring and the web interface don't add any traffic to the device.
+ * <p/>
+ * Every set on a tuner invalidates its snapshot, so a snapshot never describes the state of a
+ * tuner before it was last changed.
+ */
+public class HDHomeRunStatusPoller {
+    private static final Logger logger = LogManager.getLogger(HDHomeRunStatusPoller.class);
+
+    private static final ConfigRegistry.IntegerValue pollInterval =
+            ConfigRegistry.integerValue("hdhr.status_poll_interval_ms", 1000, 250, 60000);
+    private static final ConfigRegistry.IntegerValue pollThreads =
+            ConfigRegistry.integerValue("hdhr.status_poll_threads", 2, 1, 16);
+
+    public static final int DETAIL_POLL_MULTIPLE = 5;
+
+    // Snapshots older than this many intervals are not returned because polling is behind.
+    private static final int STALE_INTERVALS = 3;
+
+    private static final ConcurrentHashMap<Integer, DevicePoller> devicePollers =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, PolledTuner> polledTuners =
+            new ConcurrentHashMap<>();
+
+    private static final ScheduledThreadPoolExecutor pollExecutor =
+            new ScheduledThreadPoolExecutor(pollThreads.get(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable);
+                    thread.setName("HDHomeRunStatusPoller-" + thread.getId());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    static {
+        pollExecutor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * The state of a tuner at the time it was polled.
+     * <p/>
+     * Any value that could not be retrieved is <i>null</i>.
+     */
+    public static class Snapshot {
+        public final long TIMESTAMP;
+        public final HDHomeRunStatus STATUS;
+        public final HDHomeRunVStatus VSTATUS;
+        public final HDHomeRunStreamInfo STREAM_INFO;
+        public final Integer PROGRAM;
+
+        private Snapshot(long timestamp, HDHomeRunStatus status, HDHomeRunVStatus vstatus,
+                         HDHomeRunStreamInfo streamInfo, Integer program) {
+
+            TIMESTAMP = timestamp;
+            STATUS = status;
+            VSTATUS = vstatus;
+            STREAM_INFO = streamInfo;
+            PROGRAM = program;
+        }
+
+        /**
+         * @return The age of this snapshot in milliseconds.
+         */
+        public long getAge() {
+            return System.currentTimeMillis() - TIMESTAMP;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                    "TIMESTAMP=" + TIMESTAMP +
+                    ", STATUS=" + STATUS +
+                    ", VSTATUS=" + VSTATUS +
+                    ", STREAM_INFO=" + STREAM_INFO +
+                    ", PROGRAM=" + PROGRAM +
+                    '}';
+        }
+    }
+
+    private static class PolledTuner {
+        private final HDHomeRunTuner TUNER;
+        private final boolean VSTATUS;
+        private long generation;
+        private int polls;
+        private volatile Snapshot snapshot;
+
+        private PolledTuner(HDHomeRunTuner tuner, boolean vstatus) {
+            TUNER = tuner;
+            VSTATUS = vstatus;
+        }
+
+        private synchronized long getGeneration() {
+            return generation;
+        }
+
+        private synchronized void invalidate() {
+            generation++;
+            snapshot = null;
+        }
+
+        /**
+         * Keep a new snapshot only if nothing was set on the tuner while it was being polled.
+         */
+        private synchronized void update(long pollGeneration, Snapshot newSnapshot) {
+            if (generation == pollGeneration) {
+                snapshot = newSnapshot;
+            }
+        }
+
+        private void poll() {
+            long pollGeneration = getGeneration();
+            Snapshot lastSnapshot = snapshot;
+            boolean detail = polls++ % DETAIL_POLL_MULTIPLE == 0 || lastSnapshot == null;
+
+            HDHomeRunStatus status = null;
+            HDHomeRunVStatus vstatus = null;
+            HDHomeRunStreamInfo streamInfo = detail || lastSnapshot == null ? null : lastSnapshot.STREAM_INFO;
+            Integer program = detail || lastSnapshot == null ? null : lastSnapshot.PROGRAM;
+
+            try {
+                status = TUNER.getStatus();
+
+                if (VSTATUS) {
+                    vstatus = TUNER.getVirtualChannelStatus();
+                }
+
+                if (detail) {
+                    streamInfo = TUNER.getStreamInfo();
+                    program = TUNER.getProgram();
+                }
+            } catch (Exception e) {
+                // The last snapshot will become stale if this keeps happening.
+                logger.debug("Unable to poll the status of {} => {}", TUNER, e.getMessage());
+                return;
+            }
+
+            update(pollGeneration, new Snapshot(System.currentTimeMillis(), status, vstatus, streamInfo, program));
+        }
+    }
+
+    private static class DevicePoller implements Runnable {
+        private final ConcurrentHashMap<String, PolledTuner> tuners = new ConcurrentHashMap<>();
+        private ScheduledFuture<?> future;
+
+        @Override
+        public void run() {
+            for (PolledTuner polledTuner : tuners.values()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+
+                polledTuner.poll();
+            }
+        }
+    }
+
+    private static String getKey(HDHomeRunTuner tuner) {
+        return tuner.DEVICE.getDeviceId() + "-" + tuner.TUNER_NUMBER;
+    }
+
+    /**
+     * Start polling a tuner.
+     *
+     * @param tuner The tuner to poll.
+     * @param vstatus <i>true</i> if the virtual channel status should also be polled. This is only
+     *                available on CableCARD tuners.
+     */
+    public static void addTuner(HDHomeRunTuner tuner, boolean vstatus) {
+        String key = getKey(tuner);
+        PolledTuner polledTuner = new PolledTuner(tuner, vstatus);
+
+        synchronized (devicePollers) {
+            if (polledTuners.containsKey(key)) {
+                return;
+            }
+
+            int deviceId = tuner.DEVICE.getDeviceId();
+            DevicePoller devicePoller = devicePollers.get(deviceId);
+
+            if (devicePoller == null) {
+                devicePoller = new DevicePoller();
+                devicePollers.put(deviceId, devicePoller);
+                int interval = pollInterval.get();
+                devicePoller.future = pollExecutor.scheduleWithFixedDelay(
+                        devicePoller, interval, interval, TimeUnit.MILLISECONDS);
+            }
+
+            devicePoller.tuners.put(key, polledTuner);
+            polledTuners.put(key, polledTuner);
+        }
+
+        logger.debug("Started polling {}.", tuner);
+    }
+
+    /**
+     * Stop polling a tuner.
+     *
+     * @param tuner The tuner to stop polling.
+     */
+    public static void removeTuner(HDHomeRunTuner tuner) {
+        String key = getKey(tuner);
+
+        synchronized (devicePollers) {
+            if (polledTuners.remove(key) == null) {
+                return;
+            }
+
+            int deviceId = tuner.DEVICE.getDeviceId();
+            DevicePoller devicePoller = devicePollers.get(deviceId);
+
+            if (devicePoller != null) {
+                devicePoller.tuners.remove(key);
+
+                if (devicePoller.tuners.isEmpty()) {
+                    devicePoller.future.cancel(false);
+                    devicePollers.remove(deviceId);
+                }
+            }
+        }
+
+        logger.debug("Stopped polling {}.", tuner);
+    }
+
+    /**
+     * Get the latest status of a tuner.
+     *
+     * @param tuner The tuner.
+     * @return The latest snapshot or <i>null</i> if the tuner is not being polled, has been changed
+     *         since it was last polled or polling is behind.
+     */
+    public static Snapshot getSnapshot(HDHomeRunTuner tuner) {
+        PolledTuner polledTuner = polledTuners.get(getKey(tuner));
+
+        if (polledTuner == null) {
+            return null;
+        }
+
+        Snapshot snapshot = polledTuner.snapshot;
+
+        if (snapshot == null || snapshot.getAge() > pollInterval.get() * STALE_INTERVALS) {
+            return null;
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Discard the latest status of a tuner because something on the tuner was just changed.
+     *
+     * @param tuner The tuner that was changed.
+     */
+    public static void invalidate(HDHomeRunTuner tuner) {
+        PolledTuner polledTuner = polledTuners.get(getKey(tuner));
+
+        if (polledTuner != null) {
+            polledTuner.invalidate();
+        }
+    }
+}
@@ -148,11 +148,15 @@ public class HDHomeRunTuner {
      * @throws GetSetException Thrown if the device returns an error instead of a value.
      */
     public String set(String key, String value) throws IOException, GetSetException {
-        if (currentLockkey > -1) {
-            return CONTROL.setVariable(DEVICE.getIpAddress(), getTunerGetString(key), value, currentLockkey);
-        }
+        try {
+            if (currentLockkey > -1) {
+                return CONTROL.setVariable(DEVICE.getIpAddress(), getTunerGetString(key), value, currentLockkey);
+            }
 
-        return CONTROL.setVariable(DEVICE.getIpAddress(), getTunerGetString(key), value);
+            return CONTROL.setVariable(DEVICE.getIpAddress(), getTunerGetString(key), value);
+        } finally {
+            HDHomeRunStatusPoller.invalidate(this);
+        }
     }
 
     /**
@@ -167,7 +171,11 @@ public class HDHomeRunTuner {
      * @throws GetSetException Thrown if the device returns an error instead of a value.
      */
     public String set(String key, String value, int lockkey) throws IOException, GetSetException {
-        return CONTROL.setVariable(DEVICE.getIpAddress(), getTunerGetString(key), value, lockkey);
+        try {
+            return CONTROL.setVariable(DEVICE.getIpAddress(), getTunerGetString(key), value, lockkey);
+        } finally {
+            HDHomeRunStatusPoller.invalidate(this);
+        }
     }
 
     /**
@@ -285,7 +285,7 @@ public class GenericHttpDiscoveredDevice extends BasicDiscoveredDevice {
             }
         }
 
-        Config.saveConfig();
+        Config.saveConfigLater();
     }
 
     private void updateChannelMap() {
@@ -18,22 +18,58 @@ package opendct.tuning.http;
 
 import opendct.channel.BroadcastStandard;
 import opendct.channel.CopyProtection;
-import opendct.util.ThreadPool;
+import opendct.config.ConfigRegistry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.concurrent.Future;
-
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads status variables from InfiniTV capture devices.
+ * <p/>
+ * The device only returns one variable per <b>get_var</b> request, so several variables are read
+ * by sending the requests back to back. Every response is read completely and closed so the
+ * connection stays in the keep-alive cache and the next request doesn't need to connect again.
+ * Hung requests are ended by socket timeouts instead of a watchdog thread per request.
+ * <p/>
+ * Getters that are only used to monitor a tuner return values that are at most
+ * <b>upnp.infinitv.status_cache_ms</b> old. Anything that must see the result of a change it
+ * just made should use <b>getVar()</b>, which always asks the device. Every POST to a device
+ * clears its cached values.
+ */
 public class InfiniTVStatus {
     private static final Logger logger = LogManager.getLogger(InfiniTVStatus.class);
     private static final String DATA_START = "<body class=\"get\">";
     private static final String DATA_END = "</body></html>";
 
+    private static final ConfigRegistry.IntegerValue connectTimeout =
+            ConfigRegistry.integerValue("upnp.infinitv.http_connect_timeout_ms", 2000, 250, 30000);
+    private static final ConfigRegistry.IntegerValue readTimeout =
+            ConfigRegistry.integerValue("upnp.infinitv.http_read_timeout_ms", 10000, 500, 60000);
+    private static final ConfigRegistry.IntegerValue cacheTime =
+            ConfigRegistry.integerValue("upnp.infinitv.status_cache_ms", 1000, 0, 30000);
+
+    private static final ConcurrentHashMap<String, CachedValue> cachedValues =
+            new ConcurrentHashMap<>();
+
+    private static class CachedValue {
+        private final long TIMESTAMP;
+        private final String VALUE;
+
+        private CachedValue(String value) {
+            TIMESTAMP = System.currentTimeMillis();
+            VALUE = value;
+        }
+    }
+
     /**
      * Get a parsed variable from an InfiniTV capture device with retry attempts.
      *
@@ -56,7 +92,11 @@ public class InfiniTVStatus {
             } catch (IOException e) {
                 e0 = e;
                 logger.error("Unable to access device '{}', attempt number {}", deviceAddress, i);
-                Thread.sleep(200);
+
+                // The first retry is usually a stale keep-alive connection, so it doesn't wait.
+                if (i > 0) {
+                    Thread.sleep(200);
+                }
             }
         }
 
@@ -65,6 +105,8 @@ public class InfiniTVStatus {
 
     /**
      * Get a parsed variable from an InfiniTV capture device.
+     * <p/>
+     * This always asks the capture device and updates the cached value.
      *
      * @param deviceAddress The IP/hostname of the capture device.
      * @param tunerNumber The tuner number to query.
@@ -76,31 +118,12 @@ public class InfiniTVStatus {
     public static String getVar(String deviceAddress, int tunerNumber, String service, String value) throws IOException {
         logger.entry(deviceAddress, tunerNumber, service, value);
 
-        int tunerIndex = tunerNumber - 1;
-
-        URL url = new URL("http://" + deviceAddress + "/get_var?i=" + tunerIndex + "&s=" + service + "&v=" + value);
+        URL url = new URL("http://" + deviceAddress + "/get_var?i=" + (tunerNumber - 1) +
+                "&s=" + service + "&v=" + value);
         logger.debug("Connecting to InfiniTV tuner using the URL '{}'", url);
 
-        final HttpURLConnection httpURLConnection = (HttpURLConnection) url.openConnection();
-
-        Future httpTimeout = ThreadPool.submit(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    Thread.sleep(10000);
-                } catch (InterruptedException e) {
-                    return;
-                }
-
-                httpURLConnection.disconnect();
-            }
-        }, Thread.MIN_PRIORITY, "HttpTimeout", deviceAddress);
-
-        InputStreamReader inputStreamReader = new InputStreamReader(httpURLConnection.getInputStream());
-        BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-        httpTimeout.cancel(true);
-
-        String line = bufferedReader.readLine();
+        HttpURLConnection httpURLConnection = openConnection(url);
+        String line = readResponse(httpURLConnection);
         logger.debug("InfiniTV DCT returned the value '{}'", line);
 
         int start = line.indexOf(DATA_START);
@@ -108,12 +131,160 @@ public class InfiniTVStatus {
 
         if (start > 0 && end > start) {
             line = line.substring(start + DATA_START.length(), end);
+        } else {
+            // Without the markers, only the first line was ever used.
+            int newLine = line.indexOf('\n');
+
+            if (newLine >= 0) {
+                line = line.substring(0, newLine);
+            }
         }
         logger.debug("The returned value was trimmed to '{}'", line);
 
+        cachedValues.put(getCacheKey(deviceAddress, tunerNumber, service, value), new CachedValue(line));
+
         return logger.exit(line);
     }
 
+    /**
+     * Get several parsed variables from an InfiniTV capture device.
+     * <p/>
+     * The requests are sent one after another over the same keep-alive connection. Values that
+     * are still cached are not requested again.
+     *
+     * @param deviceAddress The IP/hostname of the capture device.
+     * @param tunerNumber The tuner number to query.
+     * @param serviceValues Pairs of service names and the value to query from that service.
+     * @return The returned values in the same order as the pairs they were requested with.
+     * @throws IOException Thrown if the capture device was unreachable.
+     */
+    public static String[] getVars(String deviceAddress, int tunerNumber, String... serviceValues) throws IOException {
+        if (serviceValues.length % 2 != 0) {
+            throw new IllegalArgumentException("Every service must be paired with a value.");
+        }
+
+        String returnValues[] = new String[serviceValues.length / 2];
+
+        for (int i = 0; i < returnValues.length; i++) {
+            returnValues[i] = getCachedVar(deviceAddress, tunerNumber,
+                    serviceValues[i * 2], serviceValues[i * 2 + 1]);
+        }
+
+        return returnValues;
+    }
+
+    /**
+     * Get a parsed variable that was read from the InfiniTV capture device recently.
+     * <p/>
+     * If the cached value is older than <b>upnp.infinitv.status_cache_ms</b>, the device is asked
+     * for the current value.
+     *
+     * @param deviceAddress The IP/hostname of the capture device.
+     * @param tunerNumber The tuner number to query.
+     * @param service The service name to query.
+     * @param value The value to query from the service.
+     * @return A string representation of the value.
+     * @throws IOException Thrown if the capture device was unreachable.
+     */
+    public static String getCachedVar(String deviceAddress, int tunerNumber, String service, String value) throws IOException {
+        CachedValue cachedValue = cachedValues.get(getCacheKey(deviceAddress, tunerNumber, service, value));
+
+        if (cachedValue != null &&
+                System.currentTimeMillis() - cachedValue.TIMESTAMP < cacheTime.get()) {
+
+            return cachedValue.VALUE;
+        }
+
+        return getVar(deviceAddress, tunerNumber, service, value);
+    }
+
+    /**
+     * Remove all cached values for a capture device.
+     * <p/>
+     * This is called after anything is changed on the device.
+     *
+     * @param deviceAddress The IP/hostname of the capture device.
+     */
+    public static void invalidate(String deviceAddress) {
+        String prefix = deviceAddress + "/";
+        Iterator<String> iterator = cachedValues.keySet().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String getCacheKey(String deviceAddress, int tunerNumber, String service, String value) {
+        return deviceAddress + "/" + tunerNumber + "/" + service + "/" + value;
+    }
+
+    /**
+     * Open a connection to an InfiniTV capture device with the configured timeouts.
+     *
+     * @param url The URL to connect to.
+     * @return A connection that has not been connected yet.
+     * @throws IOException Thrown if the URL can't be opened.
+     */
+    protected static HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection httpURLConnection = (HttpURLConnection) url.openConnection();
+        httpURLConnection.setConnectTimeout(connectTimeout.get());
+        httpURLConnection.setReadTimeout(readTimeout.get());
+        return httpURLConnection;
+    }
+
+    /**
+     * Read the entire response from an InfiniTV capture device and close it.
+     * <p/>
+     * The connection can only be reused if the response is completely read, including error
+     * responses.
+     *
+     * @param httpURLConnection The connection to read from.
+     * @return The response body.
+     * @throws IOException Thrown if the response could not be read or the device returned an
+     *                     error.
+     */
+    protected static String readResponse(HttpURLConnection httpURLConnection) throws IOException {
+        InputStream inputStream;
+
+        try {
+            inputStream = httpURLConnection.getInputStream();
+        } catch (IOException e) {
+            InputStream errorStream = httpURLConnection.getErrorStream();
+
+            if (errorStream != null) {
+                try {
+                    readFully(errorStream);
+                } catch (IOException e1) {
+                    logger.debug("Unable to read the error response => ", e1);
+                }
+            }
+
+            throw e;
+        }
+
+        return readFully(inputStream);
+    }
+
+    private static String readFully(InputStream inputStream) throws IOException {
+        StringBuilder stringBuilder = new StringBuilder();
+
+        try {
+            Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+            char buffer[] = new char[1024];
+            int readChars;
+
+            while ((readChars = reader.read(buffer)) != -1) {
+                stringBuilder.append(buffer, 0, readChars);
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        return stringBuilder.toString();
+    }
+
     /**
      * Get the currently selected program.
      *
@@ -201,7 +372,7 @@ public class InfiniTVStatus {
     public static CopyProtection getCCIStatus(String deviceAddress, int tunerNumber) throws IOException {
         logger.entry(deviceAddress, tunerNumber);
 
-        String value = getVar(deviceAddress, tunerNumber, "diag", "CopyProtectionStatus");
+        String value = getCachedVar(deviceAddress, tunerNumber, "diag", "CopyProtectionStatus");
 
         if (value.contains("None")) {
             return logger.exit(CopyProtection.NONE);
@@ -222,7 +393,7 @@ public class InfiniTVStatus {
     public static int getSignalStrength(String deviceAddress, int tunerNumber) throws IOException {
         logger.entry(deviceAddress, tunerNumber);
 
-        String value = getVar(deviceAddress, tunerNumber, "diag", "Signal_Level");
+        String value = getCachedVar(deviceAddress, tunerNumber, "diag", "Signal_Level");
 
         if (value.contains(" dBmV")) {
             String parseValue = value.substring(0, value.indexOf(" dBmV"));
@@ -252,7 +423,7 @@ public class InfiniTVStatus {
     public static float getSignalLevel(String deviceAddress, int tunerNumber) throws IOException {
         logger.entry(deviceAddress, tunerNumber);
 
-        String value = getVar(deviceAddress, tunerNumber, "diag", "Signal_Level");
+        String value = getCachedVar(deviceAddress, tunerNumber, "diag", "Signal_Level");
 
         if (value.contains(" dBmV")) {
             String parseValue = value.substring(0, value.indexOf(" dBmV"));
@@ -280,7 +451,7 @@ public class InfiniTVStatus {
     public static float getSignalNoiseRatio(String deviceAddress, int tunerNumber) throws IOException {
         logger.entry(deviceAddress, tunerNumber);
 
-        String value = getVar(deviceAddress, tunerNumber, "diag", "Signal_SNR");
+        String value = getCachedVar(deviceAddress, tunerNumber, "diag", "Signal_SNR");
 
         if (value.contains(" dB")) {
             String parseValue = value.substring(0, value.indexOf(" dB"));
@@ -308,7 +479,7 @@ public class InfiniTVStatus {
     public static String getStreamingIP(String deviceAddress, int tunerNumber) throws IOException {
         logger.entry(deviceAddress, tunerNumber);
 
-        String currentIP = InfiniTVStatus.getVar(deviceAddress, tunerNumber, "diag", "Streaming_IP");
+        String currentIP = getCachedVar(deviceAddress, tunerNumber, "diag", "Streaming_IP");
 
         return logger.exit(currentIP);
     }
@@ -324,7 +495,7 @@ public class InfiniTVStatus {
     public static int getStreamingPort(String deviceAddress, int tunerNumber) throws IOException {
         logger.entry(deviceAddress, tunerNumber);
 
-        String currentPort = InfiniTVStatus.getVar(deviceAddress, tunerNumber, "diag", "Streaming_Port");
+        String currentPort = getCachedVar(deviceAddress, tunerNumber, "diag", "Streaming_Port");
         int returnValue = -1;
 
         try {
@@ -348,7 +519,7 @@ public class InfiniTVStatus {
     public static String getTransportState(String deviceAddress, int tunerNumber) throws IOException {
         logger.entry(deviceAddress, tunerNumber);
 
-        String playback = InfiniTVStatus.getVar(deviceAddress, tunerNumber, "av", "TransportState");
+        String playback = getCachedVar(deviceAddress, tunerNumber, "av", "TransportState");
 
         return logger.exit(playback);
     }
@@ -364,7 +535,7 @@ public class InfiniTVStatus {
     public static float getTemperature(String deviceAddress, int tunerNumber) throws IOException {
         logger.entry(deviceAddress, tunerNumber);
 
-        String value = InfiniTVStatus.getVar(deviceAddress, tunerNumber, "diag", "Temperature");
+        String value = getCachedVar(deviceAddress, tunerNumber, "diag", "Temperature");
 
         if (value.contains(" C")) {
             String parseValue = value.substring(0, value.indexOf(" C"));
@@ -391,7 +562,7 @@ public class InfiniTVStatus {
     public static String getCarrierLock(String deviceAddress, int tunerNumber) throws IOException {
         logger.entry(deviceAddress, tunerNumber);
 
-        String carrierLock = InfiniTVStatus.getVar(deviceAddress, tunerNumber, "tuner", "CarrierLock");
+        String carrierLock = getCachedVar(deviceAddress, tunerNumber, "tuner", "CarrierLock");
 
         return logger.exit(carrierLock);
     }
@@ -409,7 +580,7 @@ public class InfiniTVStatus {
     public static String getPCRLock(String deviceAddress, int tunerNumber) throws IOException {
         logger.entry(deviceAddress, tunerNumber);
 
-        String carrierLock = InfiniTVStatus.getVar(deviceAddress, tunerNumber, "tuner", "PCRLock");
+        String carrierLock = getCachedVar(deviceAddress, tunerNumber, "tuner", "PCRLock");
 
         return logger.exit(carrierLock);
     }
@@ -425,7 +596,7 @@ public class InfiniTVStatus {
     public static BroadcastStandard getModulation(String deviceAddress, int tunerNumber) throws IOException {
         logger.entry(deviceAddress, tunerNumber);
 
-        String modulation = InfiniTVStatus.getVar(deviceAddress, tunerNumber, "tuner", "Modulation").toUpperCase();
+        String modulation = getCachedVar(deviceAddress, tunerNumber, "tuner", "Modulation").toUpperCase();
         BroadcastStandard returnValue = BroadcastStandard.QAM256;
 
         if (modulation.contains("QAM256")) {
@@ -448,7 +619,7 @@ public class InfiniTVStatus {
     public static String getModulationString(String deviceAddress, int tunerNumber) throws IOException {
         logger.entry(deviceAddress, tunerNumber);
 
-        String modulation = InfiniTVStatus.getVar(deviceAddress, tunerNumber, "tuner", "Modulation").toUpperCase();
+        String modulation = getCachedVar(deviceAddress, tunerNumber, "tuner", "Modulation").toUpperCase();
 
         return logger.exit(modulation);
     }
@@ -465,7 +636,7 @@ public class InfiniTVStatus {
     public static int getFrequency(String deviceAddress, int tunerNumber) throws IOException {
         logger.entry(deviceAddress, tunerNumber);
 
-        String parseValue = InfiniTVStatus.getVar(deviceAddress, tunerNumber, "tuner", "Frequency").trim();
+        String parseValue = getCachedVar(deviceAddress, tunerNumber, "tuner", "Frequency").trim();
 
         int returnValue = -1;
 
@@ -20,18 +20,15 @@ import opendct.channel.ChannelManager;
 import opendct.channel.TVChannel;
 import opendct.config.Config;
 import opendct.tuning.discovery.discoverers.UpnpDiscoverer;
-import opendct.util.ThreadPool;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.ProtocolException;
 import java.net.URL;
-import java.util.concurrent.Future;
 
 public class InfiniTVTuning {
     private static final Logger logger = LogManager.getLogger(InfiniTVTuning.class);
@@ -345,7 +342,7 @@ public class InfiniTVTuning {
 
         final HttpURLConnection httpURLConnection;
         try {
-            httpURLConnection = (HttpURLConnection) url.openConnection();
+            httpURLConnection = InfiniTVStatus.openConnection(url);
         } catch (IOException e) {
             logger.error("Unable to open an HTTP connection => {}", e);
             UpnpDiscoverer.requestBroadcast();
@@ -379,36 +376,18 @@ public class InfiniTVTuning {
         try {
             dataOutputStream.close();
 
-            final HttpURLConnection finalHttpURLConnection = httpURLConnection;
-
-            Future httpTimeout = ThreadPool.submit(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        Thread.sleep(10000);
-                    } catch (InterruptedException e) {
-                        return;
-                    }
-
-                    UpnpDiscoverer.requestBroadcast();
-                    finalHttpURLConnection.disconnect();
-                }
-            }, Thread.MIN_PRIORITY, "HttpTimeout", deviceAddress);
-
-            InputStream inputStream = httpURLConnection.getInputStream();
-            httpTimeout.cancel(true);
-
             // The InfiniTV requires that at least one byte of data is read or the POST will fail.
-            if (inputStream.available() > 0) {
-                inputStream.read();
-            }
-
-            inputStream.close();
+            // The entire response is read so the connection can be reused.
+            InfiniTVStatus.readResponse(httpURLConnection);
         } catch (IOException e) {
             logger.error("Unable to read reply. Capture device may not be available => {}",
                     e.getMessage());
+            UpnpDiscoverer.requestBroadcast();
         }
 
+        // Anything cached from before this change could now be wrong.
+        InfiniTVStatus.invalidate(deviceAddress);
+
         return logger.exit(true);
     }
 }
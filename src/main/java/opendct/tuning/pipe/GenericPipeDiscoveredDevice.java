@@ -164,7 +164,7 @@ public class GenericPipeDiscoveredDevice extends BasicDiscoveredDevice {
             Config.setDeviceOption(optionReference);
         }
 
-        Config.saveConfig();
+        Config.saveConfigLater();
     }
 
     public String getStreamingExecutable() {
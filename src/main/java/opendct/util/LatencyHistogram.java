@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.util;
+
+import java.util.Arrays;
+
+/**
+ * A rolling window of the most recent latency samples.
+ * <p/>
+ * Only the last <i>capacity</i> samples are kept, so memory use is fixed no matter how long the
+ * program has been running. Percentiles and bucket counts are only calculated when a snapshot is
+ * requested.
+ */
+public class LatencyHistogram {
+    /**
+     * The upper bound in milliseconds of each bucket. The last bucket holds everything larger.
+     */
+    public static final long BUCKETS[] = new long[] { 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000 };
+
+    private final long samples[];
+    private int next = 0;
+    private int size = 0;
+    private long count = 0;
+
+    public LatencyHistogram(int capacity) {
+        samples = new long[capacity];
+    }
+
+    /**
+     * Add a new sample, replacing the oldest sample if the window is full.
+     *
+     * @param milliseconds The latency in milliseconds.
+     */
+    public synchronized void record(long milliseconds) {
+        samples[next] = milliseconds;
+        next = (next + 1) % samples.length;
+
+        if (size < samples.length) {
+            size++;
+        }
+
+        count++;
+    }
+
+    public synchronized void clear() {
+        next = 0;
+        size = 0;
+        count = 0;
+    }
+
+    /**
+     * Get the statistics for the samples currently in the window.
+     */
+    public Snapshot getSnapshot() {
+        long sorted[];
+        long totalCount;
+
+        synchronized (this) {
+            sorted = Arrays.copyOf(samples, size);
+            totalCount = count;
+        }
+
+        return new Snapshot(sorted, totalCount);
+    }
+
+    public static class Snapshot {
+        /**
+         * The number of samples recorded since the histogram was created or cleared.
+         */
+        public final long COUNT;
+
+        /**
+         * The number of samples the rest of the values are calculated from.
+         */
+        public final int WINDOW;
+
+        public final long MIN;
+        public final long MAX;
+        public final long MEAN;
+        public final long P50;
+        public final long P90;
+        public final long P99;
+
+        /**
+         * The number of samples in each bucket. There is one more bucket than there are bounds in
+         * {@link #BUCKETS}.
+         */
+        public final int BUCKET_COUNTS[];
+
+        private Snapshot(long sorted[], long count) {
+            Arrays.sort(sorted);
+
+            COUNT = count;
+            WINDOW = sorted.length;
+            BUCKET_COUNTS = new int[BUCKETS.length + 1];
+
+            if (sorted.length == 0) {
+                MIN = 0;
+                MAX = 0;
+                MEAN = 0;
+                P50 = 0;
+                P90 = 0;
+                P99 = 0;
+                return;
+            }
+
+            long total = 0;
+            int bucket = 0;
+
+            for (long sample : sorted) {
+                total += sample;
+
+                // The samples are sorted, so the bucket never needs to move backwards.
+                while (bucket < BUCKETS.length && sample > BUCKETS[bucket]) {
+                    bucket++;
+                }
+
+                BUCKET_COUNTS[bucket]++;
+            }
+
+            MIN = sorted[0];
+            MAX = sorted[sorted.length - 1];
+            MEAN = total / sorted.length;
+            P50 = percentile(sorted, 50);
+            P90 = percentile(sorted, 90);
+            P99 = percentile(sorted, 99);
+        }
+
+        private static long percentile(long sorted[], int percent) {
+            int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+    }
+}
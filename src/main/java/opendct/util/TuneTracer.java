@@ -0,0 +1,487 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.util;
+
+import opendct.capture.CaptureDevice;
+import opendct.config.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timestamps each phase of a tune from the moment SageTV asks for a channel until the first byte
+ * has been streamed.
+ * <p/>
+ * A trace is bound to the thread handling the request and follows the tune onto the consumer
+ * thread via {@link #wrap(Runnable)}, so the code being traced only needs to call
+ * {@link #phase(String)}. When no trace is bound to the current thread (offline scanning,
+ * re-tunes, etc.) marking a phase does nothing.
+ * <p/>
+ * Each phase is measured from the previous phase. When the trace is complete, the phase times
+ * are added to rolling global and per-device histograms and the total time is also added to a
+ * rolling per-channel histogram.
+ */
+public class TuneTracer {
+    private static final Logger logger = LogManager.getLogger(TuneTracer.class);
+
+    public static final String DEVICE_SELECTED = "device_selected";
+    public static final String EXTERNAL_LOCK = "external_lock";
+    public static final String CHANNEL_SET = "channel_set";
+    public static final String PRODUCER_STARTED = "producer_started";
+    public static final String TARGET_SET = "target_set";
+    public static final String PROGRAM_DETECTED = "program_detected";
+    public static final String CONSUMER_STARTED = "consumer_started";
+    public static final String UPLOAD_CONNECTED = "upload_connected";
+    public static final String STREAM_DETECTED = "stream_detected";
+    public static final String ENCODING_STARTED = "encoding_started";
+    public static final String FIRST_BYTE = "first_byte";
+    public static final String TOTAL = "total";
+
+    /**
+     * The order phases are expected to happen in. This is only used to present the results.
+     */
+    public static final String PHASES[] = new String[] {
+            DEVICE_SELECTED,
+            EXTERNAL_LOCK,
+            CHANNEL_SET,
+            PRODUCER_STARTED,
+            TARGET_SET,
+            PROGRAM_DETECTED,
+            CONSUMER_STARTED,
+            UPLOAD_CONNECTED,
+            STREAM_DETECTED,
+            ENCODING_STARTED,
+            FIRST_BYTE,
+            TOTAL
+    };
+
+    private static final boolean ENABLED = Config.getBoolean("sagetv.tune_trace.enabled", true);
+    private static final long FIRST_BYTE_TIMEOUT =
+            Config.getInteger("sagetv.tune_trace.first_byte_timeout_ms", 30000);
+    private static final int FIRST_BYTE_POLL = 25;
+
+    private static final int GLOBAL_SAMPLES = 512;
+    private static final int DEVICE_SAMPLES = 128;
+    private static final int CHANNEL_SAMPLES = 32;
+
+    private static final ThreadLocal<Trace> currentTrace = new ThreadLocal<>();
+    private static final ConcurrentHashMap<String, Trace> activeTraces = new ConcurrentHashMap<>();
+
+    private static final PhaseHistograms globalHistograms = new PhaseHistograms(GLOBAL_SAMPLES);
+    private static final ConcurrentHashMap<String, PhaseHistograms> deviceHistograms =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> channelHistograms =
+            new ConcurrentHashMap<>();
+
+    private static volatile ScheduledThreadPoolExecutor firstByteExecutor;
+    private static final Object firstByteLock = new Object();
+
+    /**
+     * Start a new trace on the current thread.
+     * <p/>
+     * If the capture device already has a trace in progress, that trace is abandoned.
+     *
+     * @param encoderName The name of the capture device performing the tune.
+     * @param channel The channel being tuned.
+     * @param startTime The time from {@link System#nanoTime()} when the request was received.
+     */
+    public static void begin(String encoderName, String channel, long startTime) {
+        if (!ENABLED) {
+            return;
+        }
+
+        Trace trace = new Trace(encoderName, channel, startTime);
+        Trace oldTrace = activeTraces.put(encoderName, trace);
+
+        if (oldTrace != null) {
+            oldTrace.abandon();
+        }
+
+        currentTrace.set(trace);
+    }
+
+    /**
+     * Mark the end of a phase for the trace bound to the current thread.
+     *
+     * @param phase The name of the phase that just completed.
+     */
+    public static void phase(String phase) {
+        Trace trace = currentTrace.get();
+
+        if (trace != null) {
+            trace.mark(phase, System.nanoTime());
+        }
+    }
+
+    /**
+     * Bind the trace on the current thread to a runnable that will run on another thread.
+     *
+     * @param runnable The runnable to be executed.
+     * @return The original runnable if there isn't a trace bound to the current thread.
+     */
+    public static Runnable wrap(final Runnable runnable) {
+        final Trace trace = currentTrace.get();
+
+        if (trace == null) {
+            return runnable;
+        }
+
+        return new Runnable() {
+            @Override
+            public void run() {
+                currentTrace.set(trace);
+
+                try {
+                    runnable.run();
+                } finally {
+                    currentTrace.remove();
+                }
+            }
+        };
+    }
+
+    /**
+     * Stop tracing on the current thread.
+     * <p/>
+     * If the tune was successful, the trace will complete when the capture device reports that it
+     * has streamed its first byte. Otherwise the trace is discarded.
+     *
+     * @param captureDevice The capture device performing the tune.
+     * @param success <i>true</i> if the capture device reported that it started encoding.
+     */
+    public static void end(final CaptureDevice captureDevice, boolean success) {
+        final Trace trace = currentTrace.get();
+
+        if (trace == null) {
+            return;
+        }
+
+        currentTrace.remove();
+
+        if (!success) {
+            trace.abandon();
+            return;
+        }
+
+        trace.mark(ENCODING_STARTED, System.nanoTime());
+
+        ScheduledThreadPoolExecutor executor = getFirstByteExecutor();
+        final long timeout = System.nanoTime() + FIRST_BYTE_TIMEOUT * 1000000L;
+
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (trace.isDone()) {
+                    return;
+                }
+
+                long now = System.nanoTime();
+                // Only the counter kept by the consumer is read here. Getting the size any other
+                // way could compete with the consumer for the upload connection.
+                long recordedBytes = captureDevice.getRecordedBytesNonBlocking();
+
+                if (recordedBytes > 0) {
+                    trace.mark(FIRST_BYTE, now);
+                    trace.complete(now);
+                } else if (recordedBytes < 0) {
+                    logger.debug("'{}' can't report streamed bytes without blocking." +
+                            " Discarding trace.", trace.encoderName);
+                    trace.abandon();
+                } else if (now - timeout > 0) {
+                    logger.debug("'{}' did not stream any data within {}ms. Discarding trace.",
+                            trace.encoderName, FIRST_BYTE_TIMEOUT);
+                    trace.abandon();
+                } else {
+                    ScheduledThreadPoolExecutor executor = firstByteExecutor;
+
+                    if (executor != null && !executor.isShutdown()) {
+                        executor.schedule(this, FIRST_BYTE_POLL, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+    }
+
+    private static ScheduledThreadPoolExecutor getFirstByteExecutor() {
+        ScheduledThreadPoolExecutor executor = firstByteExecutor;
+
+        if (executor != null) {
+            return executor;
+        }
+
+        synchronized (firstByteLock) {
+            if (firstByteExecutor == null) {
+                firstByteExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable);
+                        thread.setName("TuneTracer-" + thread.getId());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+
+            return firstByteExecutor;
+        }
+    }
+
+    /**
+     * Get the histograms for each phase across all capture devices.
+     *
+     * @return A map of phase names to histogram snapshots in the order the phases happen.
+     */
+    public static Map<String, LatencyHistogram.Snapshot> getPhaseSnapshots() {
+        return globalHistograms.getSnapshots();
+    }
+
+    /**
+     * Get the histograms for each phase for every capture device that has been traced.
+     *
+     * @return A map of capture device names to phase names to histogram snapshots.
+     */
+    public static Map<String, Map<String, LatencyHistogram.Snapshot>> getDeviceSnapshots() {
+        Map<String, Map<String, LatencyHistogram.Snapshot>> returnValue = new HashMap<>();
+
+        for (Map.Entry<String, PhaseHistograms> entry : deviceHistograms.entrySet()) {
+            returnValue.put(entry.getKey(), entry.getValue().getSnapshots());
+        }
+
+        return returnValue;
+    }
+
+    /**
+     * Get the total tune time histograms for every channel that has been traced.
+     *
+     * @return A map of channels to histogram snapshots.
+     */
+    public static Map<String, LatencyHistogram.Snapshot> getChannelSnapshots() {
+        Map<String, LatencyHistogram.Snapshot> returnValue = new HashMap<>();
+
+        for (Map.Entry<String, LatencyHistogram> entry : channelHistograms.entrySet()) {
+            returnValue.put(entry.getKey(), entry.getValue().getSnapshot());
+        }
+
+        return returnValue;
+    }
+
+    /**
+     * Get the phases completed so far for every trace that is still in progress.
+     *
+     * @return A map of capture device names to the current trace.
+     */
+    public static Map<String, TraceSnapshot> getActiveTraces() {
+        Map<String, TraceSnapshot> returnValue = new HashMap<>();
+
+        for (Map.Entry<String, Trace> entry : activeTraces.entrySet()) {
+            returnValue.put(entry.getKey(), entry.getValue().getSnapshot());
+        }
+
+        return returnValue;
+    }
+
+    /**
+     * Remove all recorded latency samples.
+     */
+    public static void clear() {
+        globalHistograms.clear();
+        deviceHistograms.clear();
+        channelHistograms.clear();
+    }
+
+    private static void record(Trace trace, Map<String, Long> phases, long total) {
+        PhaseHistograms device = deviceHistograms.get(trace.encoderName);
+
+        if (device == null) {
+            device = new PhaseHistograms(DEVICE_SAMPLES);
+            PhaseHistograms existing = deviceHistograms.putIfAbsent(trace.encoderName, device);
+
+            if (existing != null) {
+                device = existing;
+            }
+        }
+
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            globalHistograms.record(phase.getKey(), phase.getValue());
+            device.record(phase.getKey(), phase.getValue());
+        }
+
+        globalHistograms.record(TOTAL, total);
+        device.record(TOTAL, total);
+
+        LatencyHistogram channel = channelHistograms.get(trace.channel);
+
+        if (channel == null) {
+            channel = new LatencyHistogram(CHANNEL_SAMPLES);
+            LatencyHistogram existing = channelHistograms.putIfAbsent(trace.channel, channel);
+
+            if (existing != null) {
+                channel = existing;
+            }
+        }
+
+        channel.record(total);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("'{}' tuned channel '{}' in {}ms {}",
+                    trace.encoderName, trace.channel, total, phases);
+        }
+    }
+
+    /**
+     * The phases of a single trace at the time it was requested.
+     */
+    public static class TraceSnapshot {
+        public final String CHANNEL;
+        public final long ELAPSED;
+        public final Map<String, Long> PHASES;
+
+        private TraceSnapshot(String channel, long elapsed, Map<String, Long> phases) {
+            CHANNEL = channel;
+            ELAPSED = elapsed;
+            PHASES = phases;
+        }
+    }
+
+    private static class Trace {
+        private final String encoderName;
+        private final String channel;
+        private final long startTime;
+        private long lastTime;
+        private boolean done = false;
+
+        // Phase names to milliseconds since the previous phase.
+        private final Map<String, Long> phases = new LinkedHashMap<>();
+
+        private Trace(String encoderName, String channel, long startTime) {
+            this.encoderName = encoderName;
+            this.channel = channel;
+            this.startTime = startTime;
+            lastTime = startTime;
+        }
+
+        private synchronized void mark(String phase, long now) {
+            // Only the first time a phase completes is interesting. Anything later is usually the
+            // consumer re-connecting or re-detecting after the tune has already been measured.
+            if (done || phases.containsKey(phase)) {
+                return;
+            }
+
+            phases.put(phase, (now - lastTime) / 1000000L);
+            lastTime = now;
+        }
+
+        private synchronized boolean isDone() {
+            return done;
+        }
+
+        private void complete(long now) {
+            Map<String, Long> completedPhases;
+
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+
+                done = true;
+                completedPhases = new LinkedHashMap<>(phases);
+            }
+
+            activeTraces.remove(encoderName, this);
+            record(this, completedPhases, (now - startTime) / 1000000L);
+        }
+
+        private void abandon() {
+            synchronized (this) {
+                done = true;
+            }
+
+            activeTraces.remove(encoderName, this);
+        }
+
+        private synchronized TraceSnapshot getSnapshot() {
+            return new TraceSnapshot(channel, (System.nanoTime() - startTime) / 1000000L,
+                    new LinkedHashMap<>(phases));
+        }
+    }
+
+    private static class PhaseHistograms {
+        private final int capacity;
+        private final ConcurrentHashMap<String, LatencyHistogram> histograms =
+                new ConcurrentHashMap<>();
+
+        private PhaseHistograms(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private void record(String phase, long milliseconds) {
+            LatencyHistogram histogram = histograms.get(phase);
+
+            if (histogram == null) {
+                histogram = new LatencyHistogram(capacity);
+                LatencyHistogram existing = histograms.putIfAbsent(phase, histogram);
+
+                if (existing != null) {
+                    histogram = existing;
+                }
+            }
+
+            histogram.record(milliseconds);
+        }
+
+        private Map<String, LatencyHistogram.Snapshot> getSnapshots() {
+            Map<String, LatencyHistogram.Snapshot> returnValue = new LinkedHashMap<>();
+
+            for (String phase : PHASES) {
+                LatencyHistogram histogram = histograms.get(phase);
+
+                if (histogram != null) {
+                    returnValue.put(phase, histogram.getSnapshot());
+                }
+            }
+
+            // Include any phases that might not be in the list so nothing is hidden.
+            List<String> otherPhases = new ArrayList<>();
+            for (String phase : histograms.keySet()) {
+                if (!returnValue.containsKey(phase)) {
+                    otherPhases.add(phase);
+                }
+            }
+            Collections.sort(otherPhases);
+
+            for (String phase : otherPhases) {
+                returnValue.put(phase, histograms.get(phase).getSnapshot());
+            }
+
+            return returnValue;
+        }
+
+        private void clear() {
+            histograms.clear();
+        }
+    }
+}
@@ -313,7 +313,7 @@ public class FFmpegConfig {
             Config.setDeviceOption(optionReference);
         }
 
-        Config.saveConfig();
+        Config.saveConfigLater();
     }
 
     public static boolean getUploadIdEnabled() {
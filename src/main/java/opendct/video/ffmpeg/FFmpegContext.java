@@ -17,6 +17,7 @@
 package opendct.video.ffmpeg;
 
 import opendct.consumer.buffers.FFmpegCircularBufferNIO;
+import opendct.util.TuneTracer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.bytedeco.javacpp.BytePointer;
@@ -600,6 +601,8 @@ public class FFmpegContext {
             break;
         }
 
+        TuneTracer.phase(TuneTracer.STREAM_DETECTED);
+
         return true;
     }
 
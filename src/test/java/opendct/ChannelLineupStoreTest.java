@@ -0,0 +1,210 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct;
+
+import opendct.channel.ChannelLineup;
+import opendct.channel.ChannelLineupStore;
+import opendct.channel.ChannelSourceType;
+import opendct.channel.TVChannel;
+import opendct.channel.TVChannelImpl;
+import opendct.config.Config;
+import opendct.config.ConfigBag;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+public class ChannelLineupStoreTest {
+    private static final String LINEUP_NAME = "ChannelLineupStoreTest";
+
+    private static File getLineupFile(String extension) {
+        return new File(Config.CONFIG_DIR + Config.DIR_SEPARATOR + "lineup" +
+                Config.DIR_SEPARATOR + LINEUP_NAME + extension);
+    }
+
+    private static ChannelLineup getLineup() {
+        return new ChannelLineup(LINEUP_NAME, "Test", ChannelSourceType.STATIC, "");
+    }
+
+    private static ChannelLineup reload() {
+        ConfigBag configBag = new ConfigBag(LINEUP_NAME, "lineup", false);
+        configBag.loadConfig();
+
+        ChannelLineup lineup = getLineup();
+        new ChannelLineupStore(LINEUP_NAME).load(configBag, lineup);
+        return lineup;
+    }
+
+    private static String getName(ChannelLineup lineup, String channel) {
+        TVChannel tvChannel = lineup.getOriginalChannel(channel);
+        return tvChannel == null ? null : tvChannel.getName();
+    }
+
+    private static List<String> readJournal() throws IOException {
+        return Files.readAllLines(getLineupFile(".journal").toPath(), StandardCharsets.UTF_8);
+    }
+
+    private static long getEpoch() {
+        ConfigBag configBag = new ConfigBag(LINEUP_NAME, "lineup", false);
+        configBag.loadConfig();
+        return configBag.getLong("lineup.journal_epoch", 0);
+    }
+
+    /**
+     * Creates a compacted lineup with channels 2 and 3 and then journals a rename of channel 2
+     * followed by the addition of channel 4.
+     */
+    private static ChannelLineupStore createJournaledLineup() {
+        ChannelLineup lineup = getLineup();
+        ChannelLineupStore store = new ChannelLineupStore(LINEUP_NAME);
+
+        lineup.addChannel(new TVChannelImpl("2", "A"));
+        lineup.addChannel(new TVChannelImpl("3", "B"));
+        boolean saved = store.save(lineup, true);
+        assert saved;
+
+        lineup.addChannel(new TVChannelImpl("2", "A2"));
+        saved = store.save(lineup, false);
+        assert saved;
+
+        lineup.addChannel(new TVChannelImpl("4", "C"));
+        saved = store.save(lineup, false);
+        assert saved;
+
+        return store;
+    }
+
+    @AfterMethod(groups = { "channel", "lineupStore" })
+    public void cleanup() {
+        new ChannelLineupStore(LINEUP_NAME).delete();
+        getLineupFile(".properties").delete();
+        getLineupFile(".properties.backup").delete();
+
+        // Don't leave an empty lineup directory behind in the project.
+        File lineupDir = getLineupFile("").getParentFile();
+        String files[] = lineupDir.list();
+        if (files != null && files.length == 0) {
+            lineupDir.delete();
+        }
+    }
+
+    @Test(groups = { "channel", "lineupStore" })
+    public void roundTrip() throws Exception {
+        ChannelLineup lineup = getLineup();
+        ChannelLineupStore store = new ChannelLineupStore(LINEUP_NAME);
+
+        lineup.addChannel(new TVChannelImpl("2", "A"));
+        lineup.addChannel(new TVChannelImpl("3", "B"));
+        lineup.addChannel(new TVChannelImpl("5", "D"));
+        boolean saved = store.save(lineup, true);
+        assert saved;
+
+        lineup.addChannel(new TVChannelImpl("2", "A2"));
+        lineup.addChannel(new TVChannelImpl("4", "C"));
+        lineup.removeChannel("5");
+        saved = store.save(lineup, false);
+        assert saved;
+
+        // The epoch record followed by two puts and a delete.
+        assert readJournal().size() == 4 : "Unexpected journal " + readJournal();
+
+        ChannelLineup loaded = reload();
+        assert "A2".equals(getName(loaded, "2"));
+        assert "B".equals(getName(loaded, "3"));
+        assert "C".equals(getName(loaded, "4"));
+        assert getName(loaded, "5") == null : "A deleted channel was restored.";
+        assert loaded.getAllChannels(true, true).size() == 3;
+    }
+
+    @Test(groups = { "channel", "lineupStore" })
+    public void truncatedRecordIgnored() throws Exception {
+        createJournaledLineup();
+
+        // Cut the last record off in the middle as if writing it was interrupted.
+        RandomAccessFile journal = new RandomAccessFile(getLineupFile(".journal"), "rw");
+        try {
+            journal.setLength(journal.length() - 4);
+        } finally {
+            journal.close();
+        }
+
+        ChannelLineup loaded = reload();
+        assert "A2".equals(getName(loaded, "2")) : "The complete record was not applied.";
+        assert getName(loaded, "4") == null : "The incomplete record was applied.";
+        assert "B".equals(getName(loaded, "3"));
+    }
+
+    @Test(groups = { "channel", "lineupStore" })
+    public void badChecksumSkipped() throws Exception {
+        createJournaledLineup();
+
+        List<String> lines = readJournal();
+        assert lines.size() == 3 : "Unexpected journal " + lines;
+
+        // Change the name in the rename record without updating its checksum.
+        assert lines.get(1).contains(",A2,");
+        lines.set(1, lines.get(1).replace(",A2,", ",X2,"));
+        Files.write(getLineupFile(".journal").toPath(), lines, StandardCharsets.UTF_8);
+
+        ChannelLineup loaded = reload();
+        assert "A".equals(getName(loaded, "2")) : "The damaged record was applied.";
+        assert "C".equals(getName(loaded, "4")) : "The records after the damaged record were not applied.";
+    }
+
+    @Test(groups = { "channel", "lineupStore" })
+    public void staleEpochNotReplayed() throws Exception {
+        createJournaledLineup();
+
+        // This is what an imported or replaced properties file looks like.
+        ConfigBag configBag = new ConfigBag(LINEUP_NAME, "lineup", false);
+        configBag.loadConfig();
+        configBag.setLong("lineup.journal_epoch", configBag.getLong("lineup.journal_epoch", 0) + 1);
+        boolean saved = configBag.saveConfig();
+        assert saved;
+
+        ChannelLineup loaded = reload();
+        assert "A".equals(getName(loaded, "2")) : "The journal was replayed.";
+        assert getName(loaded, "4") == null : "The journal was replayed.";
+    }
+
+    @Test(groups = { "channel", "lineupStore" })
+    public void compactionResetsJournal() throws Exception {
+        ChannelLineupStore store = createJournaledLineup();
+        long epoch = getEpoch();
+
+        assert readJournal().size() == 3 : "Unexpected journal " + readJournal();
+
+        ChannelLineup lineup = reload();
+        boolean saved = store.save(lineup, true);
+        assert saved;
+
+        List<String> lines = readJournal();
+        assert lines.size() == 1 : "The journal was not started over " + lines;
+        assert lines.get(0).endsWith("\tE\t" + (epoch + 1)) : "Unexpected epoch record " + lines.get(0);
+        assert getEpoch() == epoch + 1;
+
+        ChannelLineup loaded = reload();
+        assert "A2".equals(getName(loaded, "2"));
+        assert "B".equals(getName(loaded, "3"));
+        assert "C".equals(getName(loaded, "4"));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct;
+
+import opendct.channel.ChannelLineup;
+import opendct.channel.ChannelSourceType;
+import opendct.channel.TVChannel;
+import opendct.channel.TVChannelImpl;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+public class ChannelLineupTest {
+
+    private static ChannelLineup getLineup() {
+        return new ChannelLineup("test", "Test", ChannelSourceType.STATIC, "");
+    }
+
+    @Test(groups = { "channel", "frequencyProgram" })
+    public void frequencyProgramLookup() {
+        ChannelLineup lineup = getLineup();
+
+        lineup.addChannel(new TVChannelImpl("502", "A", "QAM256", 555000000, 3, false));
+        lineup.addChannel(new TVChannelImpl("503", "B", "QAM256", 555000000, 4, false));
+
+        TVChannel channel = lineup.getChannelByFrequencyProgram(555000000, 4);
+        assert channel != null && channel.getChannel().equals("503") : "Expected 503, got " + channel;
+        assert lineup.getChannelByFrequencyProgram(555000000, 5) == null : "Expected no channel.";
+        assert lineup.getChannelByFrequencyProgram(0, 0) == null : "Expected no channel.";
+
+        // Moving a channel to a new program must remove the old index entry.
+        lineup.addChannel(new TVChannelImpl("503", "B", "QAM256", 555000000, 5, false));
+        assert lineup.getChannelByFrequencyProgram(555000000, 4) == null : "Old program is still indexed.";
+        channel = lineup.getChannelByFrequencyProgram(555000000, 5);
+        assert channel != null && channel.getChannel().equals("503") : "Expected 503, got " + channel;
+
+        lineup.removeChannel("503");
+        assert lineup.getChannelByFrequencyProgram(555000000, 5) == null : "Removed channel is still indexed.";
+    }
+
+    @Test(groups = { "channel", "frequencyProgram" })
+    public void frequencyProgramDuplicates() {
+        ChannelLineup lineup = getLineup();
+
+        lineup.addChannel(new TVChannelImpl("720", "HD", "QAM256", 603000000, 1, false));
+        lineup.addChannel(new TVChannelImpl("20", "SD", "QAM256", 603000000, 1, false));
+
+        // The lowest channel wins just like searching the sorted channel list.
+        TVChannel channel = lineup.getChannelByFrequencyProgram(603000000, 1);
+        assert channel != null && channel.getChannel().equals("20") : "Expected 20, got " + channel;
+
+        // The remaining duplicate must be found after the indexed channel is removed.
+        lineup.removeChannel("20");
+        channel = lineup.getChannelByFrequencyProgram(603000000, 1);
+        assert channel != null && channel.getChannel().equals("720") : "Expected 720, got " + channel;
+    }
+
+    @Test(groups = { "channel", "frequencyProgram" })
+    public void urlFrequencyProgramLookup() {
+        ChannelLineup lineup = getLineup();
+
+        lineup.addChannel(new TVChannelImpl("20", "SD", "QAM256", 603000000, 1, false));
+        assert lineup.getUrlChannelByFrequencyProgram(603000000, 1) == null : "Channel without a URL is indexed.";
+
+        TVChannel qamChannel = new TVChannelImpl("1001", "SD", "http://127.0.0.1:5004/auto/v1001", false);
+        qamChannel.setFrequency(603000000);
+        qamChannel.setProgram(1);
+        lineup.addChannel(qamChannel);
+
+        TVChannel channel = lineup.getUrlChannelByFrequencyProgram(603000000, 1);
+        assert channel != null && channel.getChannel().equals("1001") : "Expected 1001, got " + channel;
+
+        channel = lineup.getChannelByFrequencyProgram(603000000, 1);
+        assert channel != null && channel.getChannel().equals("20") : "Expected 20, got " + channel;
+    }
+
+    @Test(groups = { "channel", "remap" })
+    public void clearRemap() {
+        ChannelLineup lineup = getLineup();
+
+        TVChannel tvChannel = new TVChannelImpl("502", "A", "QAM256", 555000000, 3, false);
+        tvChannel.setChannelRemap("2");
+        lineup.addChannel(tvChannel);
+
+        assert lineup.getRedirectChannel("2") != null : "Remapping was not added.";
+
+        lineup.clearRemap("502");
+        assert lineup.getRedirectChannel("2") == null : "Remapping was not removed.";
+    }
+
+    @Test(groups = { "channel", "snapshot" })
+    public void snapshotGeneration() {
+        ChannelLineup lineup = getLineup();
+
+        lineup.addChannel(new TVChannelImpl("502", "A", "QAM256", 555000000, 3, false));
+        long generation = lineup.getGeneration();
+
+        ChannelLineup.Snapshot snapshot = lineup.getSnapshot();
+        assert snapshot.GENERATION == generation : "Snapshot generation does not match.";
+        assert lineup.getSnapshot() == snapshot : "Unchanged lineup created a new snapshot.";
+
+        lineup.addChannel(new TVChannelImpl("20", "B", "QAM256", 603000000, 1, false));
+        assert lineup.getGeneration() > generation : "Generation did not change.";
+
+        ChannelLineup.Snapshot newSnapshot = lineup.getSnapshot();
+        assert newSnapshot != snapshot : "Changed lineup returned an old snapshot.";
+        assert snapshot.CHANNELS.size() == 1 : "Old snapshot was changed.";
+        assert newSnapshot.CHANNELS.size() == 2 : "Expected 2 channels, got " + newSnapshot.CHANNELS.size();
+        assert newSnapshot.CHANNELS.get(0).getChannel().equals("20") : "Channels are not sorted.";
+    }
+
+    @Test(groups = { "channel", "snapshot" })
+    public void snapshotFilters() {
+        ChannelLineup lineup = getLineup();
+
+        TVChannel tunable = new TVChannelImpl("1", "A", "QAM256", 555000000, 1, false);
+        tunable.setTunable(true);
+        lineup.addChannel(tunable);
+        TVChannel ignored = new TVChannelImpl("2", "B", "QAM256", 555000000, 2, true);
+        ignored.setTunable(true);
+        lineup.addChannel(ignored);
+        lineup.addChannel(new TVChannelImpl("3", "C", "QAM256", 555000000, 3, false));
+
+        assert lineup.getAllChannels(false, false).size() == 1 : "Expected only tunable channels.";
+        assert lineup.getAllChannels(true, false).size() == 2 : "Expected tunable and ignored channels.";
+        assert lineup.getAllChannels(false, true).size() == 2 : "Expected non-ignored channels.";
+        assert lineup.getAllChannels(true, true).size() == 3 : "Expected all channels.";
+        assert lineup.getAllChannels(true, false) == lineup.getAllChannels(true, false) : "Filtered list was not reused.";
+    }
+
+    @Test(groups = { "channel", "snapshot" })
+    public void snapshotReadOnly() {
+        ChannelLineup lineup = getLineup();
+        lineup.addChannel(new TVChannelImpl("502", "A", "QAM256", 555000000, 3, false));
+
+        List<TVChannel> channels = lineup.getAllChannels(true, true);
+
+        boolean thrown = false;
+        try {
+            channels.get(0).setFrequency(0);
+        } catch (UnsupportedOperationException e) {
+            thrown = true;
+        }
+        assert thrown : "Snapshot channel was changed.";
+
+        TVChannel copy = new TVChannelImpl(channels.get(0));
+        copy.setProgram(4);
+        assert lineup.getOriginalChannel("502").getProgram() == 3 : "Copy changed the lineup.";
+        assert copy.getFrequency() == 555000000 : "Copy did not keep the frequency.";
+    }
+}
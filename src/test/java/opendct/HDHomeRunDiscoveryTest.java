@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct;
+
+import opendct.emulator.HDHomeRunEmulator;
+import opendct.tuning.discovery.discoverers.HDHomeRunDiscoverer;
+import opendct.tuning.hdhomerun.HDHomeRunDevice;
+import opendct.tuning.hdhomerun.HDHomeRunDiscovery;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HDHomeRunDiscoveryTest {
+    private InetAddress address;
+    private HDHomeRunEmulator emulator;
+
+    /**
+     * Counts the devices reported by discovery instead of loading them.
+     */
+    private static class CountingDiscoverer extends HDHomeRunDiscoverer {
+        private final AtomicInteger added = new AtomicInteger();
+        private volatile HDHomeRunDevice lastDevice;
+
+        @Override
+        public boolean isWaitingForDevices() {
+            // With smart broadcasts, this keeps periodic broadcasts from adding to the count.
+            return false;
+        }
+
+        @Override
+        public void addCaptureDevice(HDHomeRunDevice discoveredDevice, InetAddress broadcastAddress) {
+            lastDevice = discoveredDevice;
+            added.incrementAndGet();
+        }
+    }
+
+    @BeforeClass(groups = { "hdhomerun", "discovery" })
+    public void startEmulator() throws Exception {
+        address = InetAddress.getByName("127.0.0.1");
+        emulator = new HDHomeRunEmulator(address, HDHomeRunEmulator.getDeviceId(1), 2);
+        // Discovery expects the device to be controlled on the same port number.
+        emulator.setDiscoveryPort(0);
+        emulator.setControlPort(0);
+        emulator.setHttpEnabled(false);
+        emulator.start();
+    }
+
+    @AfterClass(groups = { "hdhomerun", "discovery" })
+    public void stopEmulator() {
+        emulator.stop();
+    }
+
+    private static void sleepUntil(long time) throws InterruptedException {
+        long sleep = time - System.currentTimeMillis();
+
+        if (sleep > 0) {
+            Thread.sleep(sleep);
+        }
+    }
+
+    @Test(groups = { "hdhomerun", "discovery" })
+    public void burstAndHoldoff() throws Exception {
+        CountingDiscoverer discoverer = new CountingDiscoverer();
+        HDHomeRunDiscovery discovery = new HDHomeRunDiscovery(emulator.getDiscoveryPort(), address);
+        int startRequests = emulator.getDiscoveryRequests();
+
+        // Don't let a broadcast requested by an earlier test start a second burst.
+        HDHomeRunDiscoverer.needBroadcast();
+
+        long startTime = System.currentTimeMillis();
+        discovery.start(discoverer);
+
+        try {
+            // The startup burst is 4 broadcasts over 350ms.
+            sleepUntil(startTime + 1000);
+
+            int requests = emulator.getDiscoveryRequests() - startRequests;
+            assert requests == 4 : "Expected a burst of 4 broadcasts, but " + requests + " were sent.";
+            assert discoverer.added.get() == 1 :
+                    "Every reply in a burst was reported " + discoverer.added.get() + " times.";
+            assert discoverer.lastDevice.getDeviceId() == emulator.DEVICE_ID;
+            assert discoverer.lastDevice.getTunerCount() == 2;
+            assert "none".equals(discoverer.lastDevice.getTuner(0).getLockkey()) :
+                    "The device can't be controlled on the discovery port.";
+
+            // Both requests must wait for the holdoff that started with the startup burst and
+            // then share one burst.
+            HDHomeRunDiscoverer.requestBroadcast();
+            HDHomeRunDiscoverer.requestBroadcast();
+            discovery.wakeup();
+
+            sleepUntil(startTime + 1500);
+            long elapsed = System.currentTimeMillis() - startTime;
+            requests = emulator.getDiscoveryRequests() - startRequests;
+            assert elapsed >= 2000 || requests == 4 :
+                    "A requested burst was sent " + elapsed + "ms after the last burst.";
+
+            sleepUntil(startTime + 3000);
+            requests = emulator.getDiscoveryRequests() - startRequests;
+            assert requests == 8 : "Expected one requested burst, but " + requests + " broadcasts were sent.";
+            assert discoverer.added.get() == 2 :
+                    "The device was not reported again after the requested burst.";
+        } finally {
+            discovery.stop();
+            discovery.waitForStop();
+        }
+    }
+}
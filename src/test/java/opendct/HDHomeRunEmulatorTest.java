@@ -0,0 +1,209 @@
+/*
+ * Copyright 2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct;
+
+import opendct.emulator.DatagramStream;
+import opendct.emulator.HDHomeRunEmulator;
+import opendct.tuning.hdhomerun.GetSetException;
+import opendct.tuning.hdhomerun.HDHomeRunControl;
+import opendct.tuning.hdhomerun.HDHomeRunPacket;
+import opendct.tuning.hdhomerun.returns.HDHomeRunStatus;
+import opendct.tuning.hdhomerun.returns.HDHomeRunVStatus;
+import opendct.tuning.hdhomerun.types.HDHomeRunPacketTag;
+import opendct.tuning.hdhomerun.types.HDHomeRunPacketType;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class HDHomeRunEmulatorTest {
+    private InetAddress address;
+    private HDHomeRunEmulator emulator;
+    private HDHomeRunControl control;
+
+    @BeforeClass(groups = { "hdhomerun", "emulator" })
+    public void startEmulator() throws Exception {
+        address = InetAddress.getByName("127.0.0.1");
+        emulator = new HDHomeRunEmulator(address, HDHomeRunEmulator.getDeviceId(0), 2);
+        // Don't conflict with any real HDHomeRun software running on this computer.
+        emulator.setDiscoveryPort(0);
+        emulator.setControlPort(0);
+        emulator.setHttpPort(0);
+        emulator.start();
+        control = new HDHomeRunControl(emulator.getControlPort());
+    }
+
+    @AfterClass(groups = { "hdhomerun", "emulator" })
+    public void stopEmulator() {
+        emulator.stop();
+    }
+
+    @Test(groups = { "hdhomerun", "emulator" })
+    public void discovery() throws Exception {
+        HDHomeRunPacket txPacket = new HDHomeRunPacket(ByteBuffer.allocate(3074));
+        txPacket.startPacket(HDHomeRunPacketType.HDHOMERUN_TYPE_DISCOVER_REQ);
+        txPacket.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_DEVICE_TYPE, HDHomeRunPacket.HDHOMERUN_DEVICE_TYPE_WILDCARD);
+        txPacket.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_DEVICE_ID, HDHomeRunPacket.HDHOMERUN_DEVICE_ID_WILDCARD);
+        txPacket.endPacket();
+
+        DatagramSocket socket = new DatagramSocket();
+
+        try {
+            socket.setSoTimeout(2000);
+            socket.send(new DatagramPacket(txPacket.BUFFER.array(), txPacket.BUFFER.limit(),
+                    new InetSocketAddress(address, emulator.getDiscoveryPort())));
+
+            HDHomeRunPacket rxPacket = new HDHomeRunPacket(ByteBuffer.allocate(3074));
+            DatagramPacket datagram = new DatagramPacket(rxPacket.BUFFER.array(), rxPacket.BUFFER.capacity());
+            socket.receive(datagram);
+            rxPacket.BUFFER.limit(datagram.getLength());
+
+            assert rxPacket.getPacketType() == HDHomeRunPacketType.HDHOMERUN_TYPE_DISCOVER_RPY;
+            rxPacket.BUFFER.limit(rxPacket.getPacketLength() + 4);
+
+            int deviceId = 0;
+            int tunerCount = 0;
+
+            while (rxPacket.BUFFER.remaining() > 0) {
+                HDHomeRunPacketTag tag = rxPacket.getTag();
+                int length = rxPacket.getVariableLength();
+
+                if (tag == HDHomeRunPacketTag.HDHOMERUN_TAG_DEVICE_ID) {
+                    deviceId = rxPacket.BUFFER.getInt();
+                } else if (tag == HDHomeRunPacketTag.HDHOMERUN_TAG_TUNER_COUNT) {
+                    tunerCount = rxPacket.BUFFER.get();
+                } else {
+                    rxPacket.skipTLV(length);
+                }
+            }
+
+            assert deviceId == emulator.DEVICE_ID : "Unexpected device ID " + Integer.toHexString(deviceId);
+            assert tunerCount == 2 : "Unexpected tuner count " + tunerCount;
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test(groups = { "hdhomerun", "emulator" })
+    public void lockkey() throws Exception {
+        assert "HDHR3-CC".equals(control.getVariable(address, "/sys/hwmodel"));
+        assert "none".equals(control.getVariable(address, "/tuner1/lockkey"));
+
+        control.setVariable(address, "/tuner1/lockkey", "1234", 1234);
+        assert address.getHostAddress().equals(control.getVariable(address, "/tuner1/lockkey"));
+
+        try {
+            control.setVariable(address, "/tuner1/vchannel", "100", 4321);
+            assert false : "The wrong lockkey was accepted.";
+        } catch (GetSetException e) {
+            assert e.getMessage().contains("locked");
+        }
+
+        control.setVariable(address, "/tuner1/vchannel", "100", 1234);
+        control.setVariable(address, "/tuner1/lockkey", "none", 1234);
+        assert "none".equals(control.getVariable(address, "/tuner1/lockkey"));
+
+        try {
+            control.getVariable(address, "/tuner2/status");
+            assert false : "A tuner that doesn't exist returned a status.";
+        } catch (GetSetException e) {
+            // Expected.
+        }
+
+        control.setVariable(address, "/tuner1/vchannel", "none");
+    }
+
+    @Test(groups = { "hdhomerun", "emulator" })
+    public void rtpStreaming() throws Exception {
+        DatagramSocket socket = new DatagramSocket(0, address);
+
+        try {
+            socket.setSoTimeout(2000);
+
+            control.setVariable(address, "/tuner0/vchannel", "702");
+            control.setVariable(address, "/tuner0/target", "rtp://127.0.0.1:" + socket.getLocalPort());
+
+            HDHomeRunStatus status = new HDHomeRunStatus(control.getVariable(address, "/tuner0/status"));
+            assert status.SIGNAL_PRESENT;
+            assert status.PACKETS_PER_SECOND > 0;
+
+            HDHomeRunVStatus vstatus = new HDHomeRunVStatus(control.getVariable(address, "/tuner0/vstatus"));
+            assert "702".equals(vstatus.VCHANNEL);
+            assert !vstatus.NOT_SUBSCRIBED;
+
+            byte buffer[] = new byte[2048];
+            DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+            socket.receive(datagram);
+
+            assert datagram.getLength() == DatagramStream.RTP_HEADER_LENGTH + 1316 :
+                    "Unexpected datagram length " + datagram.getLength();
+            assert (buffer[0] & 0xC0) == 0x80 : "Not RTP version 2.";
+            assert buffer[DatagramStream.RTP_HEADER_LENGTH] == 0x47 : "Missing sync byte.";
+        } finally {
+            control.setVariable(address, "/tuner0/target", "none");
+            control.setVariable(address, "/tuner0/vchannel", "none");
+            socket.close();
+        }
+
+        assert emulator.getBytesSent(0) == 0 : "The stream did not stop.";
+    }
+
+    @Test(groups = { "hdhomerun", "emulator" })
+    public void httpStreaming() throws Exception {
+        Socket socket = new Socket(address, emulator.getHttpPort());
+
+        try {
+            socket.setSoTimeout(2000);
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write("GET /auto/v555 HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            outputStream.flush();
+
+            InputStream inputStream = socket.getInputStream();
+            StringBuilder header = new StringBuilder();
+
+            while (!header.toString().endsWith("\r\n\r\n")) {
+                int readByte = inputStream.read();
+                assert readByte != -1 : "The connection was closed before the header ended.";
+                header.append((char) readByte);
+            }
+
+            assert header.toString().startsWith("HTTP/1.1 200") : header;
+            assert inputStream.read() == 0x47 : "Missing sync byte.";
+            assert emulator.isHttpStreaming(0);
+        } finally {
+            socket.close();
+        }
+
+        // The tuner must be released when the client disconnects so other tests can use it.
+        long timeout = System.currentTimeMillis() + 2000;
+
+        while (emulator.isHttpStreaming(0) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+
+        assert !emulator.isHttpStreaming(0) : "The tuner is still in use after the client disconnected.";
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct;
+
+import opendct.tuning.hdhomerun.HDHomeRunPacket;
+import opendct.tuning.hdhomerun.types.HDHomeRunPacketTag;
+import opendct.tuning.hdhomerun.types.HDHomeRunPacketType;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+public class HDHomeRunPacketTest {
+
+    @DataProvider
+    private static Object[][] getBuffers() {
+        return new Object[][] {
+                { ByteBuffer.allocate(3074) },
+                { ByteBuffer.allocateDirect(3074) }
+        };
+    }
+
+    @Test(groups = { "hdhomerun", "packet" }, dataProvider = "getBuffers")
+    public void encodeDecode(ByteBuffer buffer) {
+        HDHomeRunPacket packet = new HDHomeRunPacket(buffer);
+
+        // Long enough to need two length bytes.
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            longValue.append((char)('a' + (i % 26)));
+        }
+
+        packet.startPacket(HDHomeRunPacketType.HDHOMERUN_TYPE_GETSET_REQ);
+        packet.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_NAME, "/tuner0/status");
+        packet.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_VALUE,
+                HDHomeRunPacket.encodeString(longValue.toString()));
+        packet.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_LOCKKEY, 12345);
+        packet.endPacket();
+
+        int packetEnd = buffer.limit();
+
+        // The CRC is the last 4 bytes in little endian order.
+        ByteBuffer content = buffer.duplicate();
+        content.limit(packetEnd - 4);
+        byte contentBytes[] = new byte[content.remaining()];
+        content.get(contentBytes);
+        CRC32 crc32 = new CRC32();
+        crc32.update(contentBytes);
+        ByteBuffer crcBuffer = buffer.duplicate();
+        crcBuffer.position(packetEnd - 4);
+        crcBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        assert crcBuffer.getInt() == (int) crc32.getValue() : "The CRC is not correct.";
+
+        assert packet.getPacketType() == HDHomeRunPacketType.HDHOMERUN_TYPE_GETSET_REQ;
+        assert packet.getPacketLength() == packetEnd - 8;
+
+        assert packet.getTag() == HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_NAME;
+        assert "/tuner0/status".equals(packet.getTLVString(packet.getVariableLength()));
+
+        assert packet.getTag() == HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_VALUE;
+        assert longValue.toString().equals(packet.getTLVString(packet.getVariableLength()));
+
+        assert packet.getTag() == HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_LOCKKEY;
+        assert packet.getVariableLength() == 4;
+        assert packet.getTLVInteger() == 12345;
+
+        assert buffer.position() == packetEnd - 4 : "Not all values were read.";
+    }
+
+    @Test(groups = { "hdhomerun", "packet" }, dataProvider = "getBuffers")
+    public void crcPosition(ByteBuffer buffer) {
+        for (int i = 0; i < 2000; i++) {
+            buffer.put((byte) (i * 31));
+        }
+        buffer.flip();
+        buffer.position(100);
+
+        byte bytes[] = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes);
+
+        assert HDHomeRunPacket.calculateCRC(buffer) == (int) crc32.getValue() : "The CRC is not correct.";
+        assert buffer.position() == 100 : "The buffer position was changed.";
+    }
+
+    @Test(groups = { "hdhomerun", "packet" })
+    public void lookups() {
+        for (HDHomeRunPacketTag tag : HDHomeRunPacketTag.values()) {
+            assert HDHomeRunPacket.getTagByValue(tag.MASK) == tag;
+        }
+
+        for (HDHomeRunPacketType type : HDHomeRunPacketType.values()) {
+            assert HDHomeRunPacket.getTypeByValue(type.MASK) == type;
+        }
+
+        assert HDHomeRunPacket.getTagByValue((short) 0x27) == null;
+        assert HDHomeRunPacket.getTagByValue((short) 0x1000) == null;
+        assert HDHomeRunPacket.getTypeByValue((short) -1) == null;
+        assert HDHomeRunPacket.getTypeByValue((short) 0x1000) == null;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct;
+
+import opendct.channel.CopyProtection;
+import opendct.emulator.DatagramStream;
+import opendct.emulator.InfiniTVEmulator;
+import opendct.tuning.http.InfiniTVStatus;
+import opendct.tuning.http.InfiniTVTuning;
+import opendct.video.rtsp.DCTRTSPClientImpl;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+public class InfiniTVEmulatorTest {
+    private InetAddress address;
+    private InfiniTVEmulator emulator;
+    private String deviceAddress;
+
+    @BeforeClass(groups = { "infinitv", "emulator" })
+    public void startEmulator() throws Exception {
+        address = InetAddress.getByName("127.0.0.1");
+        emulator = new InfiniTVEmulator(address, "InfiniTV Emulator Test", 2);
+        emulator.setHttpPort(0);
+        emulator.setRtspPort(0);
+        emulator.start();
+        deviceAddress = address.getHostAddress() + ":" + emulator.getHttpPort();
+    }
+
+    @AfterClass(groups = { "infinitv", "emulator" })
+    public void stopEmulator() {
+        emulator.stop();
+    }
+
+    @Test(groups = { "infinitv", "emulator" })
+    public void ssdpSearch() throws Exception {
+        String search = "M-SEARCH * HTTP/1.1\r\n" +
+                "HOST: 239.255.255.250:1900\r\n" +
+                "MAN: \"ssdp:discover\"\r\n" +
+                "MX: 1\r\n" +
+                "ST: " + InfiniTVEmulator.DEVICE_TYPE + "\r\n\r\n";
+        byte searchBytes[] = search.getBytes(StandardCharsets.US_ASCII);
+
+        DatagramSocket socket = new DatagramSocket();
+        String location = null;
+
+        try {
+            socket.setSoTimeout(2000);
+            socket.send(new DatagramPacket(searchBytes, searchBytes.length,
+                    new InetSocketAddress(address, InfiniTVEmulator.SSDP_PORT)));
+
+            byte buffer[] = new byte[2048];
+            DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+            socket.receive(datagram);
+
+            String response = new String(buffer, 0, datagram.getLength(), StandardCharsets.US_ASCII);
+            assert response.startsWith("HTTP/1.1 200 OK") : response;
+
+            for (String line : response.split("\r\n")) {
+                if (line.startsWith("LOCATION: ")) {
+                    location = line.substring("LOCATION: ".length());
+                }
+            }
+        } finally {
+            socket.close();
+        }
+
+        assert emulator.getLocation().equals(location) : "Unexpected location " + location;
+
+        InputStream inputStream = new URL(location).openStream();
+        ByteArrayOutputStream description = new ByteArrayOutputStream();
+
+        try {
+            byte buffer[] = new byte[1024];
+            int readBytes;
+
+            while ((readBytes = inputStream.read(buffer)) != -1) {
+                description.write(buffer, 0, readBytes);
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        String xml = description.toString("UTF-8");
+
+        // RegisterInfiniTVDevice only accepts this namespace and gets the tuner number from the
+        // last character of the embedded device names.
+        assert xml.contains("<deviceType>urn:schemas-cetoncorp-com:device:") : xml;
+        assert xml.contains("<friendlyName>InfiniTV Emulator Test Tuner 2</friendlyName>") : xml;
+    }
+
+    @Test(groups = { "infinitv", "emulator" })
+    public void statusAndTuning() throws Exception {
+        assert "Inserted".equals(InfiniTVStatus.getVar(deviceAddress, 1, "cas", "CardStatus"));
+
+        boolean tuned = InfiniTVTuning.tuneVChannel("105", deviceAddress, 1, 0);
+        assert tuned;
+        assert InfiniTVStatus.getProgram(deviceAddress, 1) == 2;
+        assert InfiniTVStatus.getFrequency(deviceAddress, 1) == 561000000;
+        assert InfiniTVStatus.getCCIStatus(deviceAddress, 1) == CopyProtection.COPY_FREELY;
+        assert InfiniTVStatus.getPids(deviceAddress, 1, 0).length == 4;
+
+        // Everything should be requested over one keep-alive connection.
+        int connections = emulator.getHttpConnections();
+
+        String values[] = InfiniTVStatus.getVars(deviceAddress, 2,
+                "tuner", "CarrierLock",
+                "tuner", "PCRLock",
+                "diag", "Streaming_IP",
+                "diag", "Streaming_Port",
+                "diag", "Temperature",
+                "av", "TransportState");
+
+        assert "0".equals(values[0]);
+        assert "STOPPED".equals(values[5]);
+        assert emulator.getHttpConnections() - connections <= 1 :
+                "Used " + (emulator.getHttpConnections() - connections) + " connections.";
+    }
+
+    @Test(groups = { "infinitv", "emulator" })
+    public void httpStreaming() throws Exception {
+        DatagramSocket socket = new DatagramSocket(0, address);
+
+        try {
+            socket.setSoTimeout(2000);
+
+            boolean started = InfiniTVTuning.startRTSP(
+                    address.getHostAddress(), socket.getLocalPort(), deviceAddress, 2);
+
+            assert started;
+            assert socket.getLocalPort() == InfiniTVStatus.getStreamingPort(deviceAddress, 2);
+
+            byte buffer[] = new byte[2048];
+            DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+            socket.receive(datagram);
+
+            assert datagram.getLength() == DatagramStream.RTP_HEADER_LENGTH + 1316 :
+                    "Unexpected datagram length " + datagram.getLength();
+            assert buffer[DatagramStream.RTP_HEADER_LENGTH] == 0x47 : "Missing sync byte.";
+        } finally {
+            InfiniTVTuning.stopRTSP(deviceAddress, 2);
+            socket.close();
+        }
+
+        assert emulator.getBytesSent(1) == 0 : "The stream did not stop.";
+    }
+
+    @Test(groups = { "infinitv", "emulator" })
+    public void rtspStreaming() throws Exception {
+        DatagramSocket socket = new DatagramSocket(0, address);
+        URI uri = new URI("rtsp://" + address.getHostAddress() + ":" + emulator.getRtspPort() + "/cetonmpeg0");
+        DCTRTSPClientImpl rtspClient = new DCTRTSPClientImpl();
+
+        try {
+            socket.setSoTimeout(2000);
+
+            boolean configured = rtspClient.configureRTPStream(uri, socket.getLocalPort());
+            assert configured;
+
+            byte buffer[] = new byte[2048];
+            DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+            socket.receive(datagram);
+
+            assert (buffer[0] & 0xC0) == 0x80 : "Not RTP version 2.";
+            assert buffer[DatagramStream.RTP_HEADER_LENGTH] == 0x47 : "Missing sync byte.";
+        } finally {
+            rtspClient.stopRTPStream(uri);
+            socket.close();
+        }
+
+        assert emulator.getBytesSent(0) == 0 : "The stream did not stop.";
+    }
+}
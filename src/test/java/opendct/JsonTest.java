@@ -17,10 +17,21 @@ package opendct;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import fi.iki.elonen.NanoHTTPD;
+import opendct.nanohttpd.JsonResponseCache;
 import opendct.nanohttpd.pojo.JsonCaptureDevice;
 import opendct.nanohttpd.pojo.JsonOption;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
 public class JsonTest {
     private static final GsonBuilder gsonBuilder = new GsonBuilder();
     private static final Gson gson;
@@ -156,4 +167,115 @@ public class JsonTest {
         assert (jsonCaptureDevice.getOptions()[1].getProperty().equals("sagetv.device.-1132986414.always_force_external_unlock"));
         assert (jsonCaptureDevice.getSagetvCrossbars()[0].getIndex() == 100);
     }
+
+    @Test(groups = { "json", "responseCache" })
+    public void jsonResponseCache() throws Exception {
+        int values[] = new int[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+
+        TestSession session = new TestSession("/test/cache", null);
+
+        long generation = JsonResponseCache.getGeneration();
+        NanoHTTPD.Response response = JsonResponseCache.newResponse(session, generation, false, gson, values);
+        byte expected[] = readFully(response.getData());
+
+        assert JsonResponseCache.MIME_TYPE.equals(response.getMimeType());
+        assert new String(expected, StandardCharsets.UTF_8).equals(gson.toJson(values));
+
+        response = JsonResponseCache.getResponse(session);
+        assert response != null : "The response was not cached.";
+        assert Arrays.equals(expected, readFully(response.getData()));
+
+        // Large responses should be compressed once and then re-used.
+        session.headers.put("accept-encoding", "gzip, deflate");
+        response = JsonResponseCache.getResponse(session);
+        assert response != null;
+        assert "gzip".equals(response.getHeader("content-encoding"));
+        assert Arrays.equals(expected, readFully(new GZIPInputStream(response.getData())));
+
+        // A response built before an invalidation must not be cached.
+        JsonResponseCache.invalidate();
+        assert JsonResponseCache.getResponse(session) == null;
+        JsonResponseCache.newResponse(session, generation, false, gson, values);
+        assert JsonResponseCache.getResponse(session) == null;
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte buffer[] = new byte[4096];
+        int readBytes;
+
+        while ((readBytes = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, readBytes);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    private static class TestSession implements NanoHTTPD.IHTTPSession {
+        private final String uri;
+        private final String query;
+        private final Map<String, String> headers = new HashMap<>();
+        private final Map<String, String> parms = new HashMap<>();
+
+        private TestSession(String uri, String query) {
+            this.uri = uri;
+            this.query = query;
+        }
+
+        @Override
+        public void execute() throws IOException {
+        }
+
+        @Override
+        public NanoHTTPD.CookieHandler getCookies() {
+            return null;
+        }
+
+        @Override
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return null;
+        }
+
+        @Override
+        public NanoHTTPD.Method getMethod() {
+            return NanoHTTPD.Method.GET;
+        }
+
+        @Override
+        public Map<String, String> getParms() {
+            return parms;
+        }
+
+        @Override
+        public String getQueryParameterString() {
+            return query;
+        }
+
+        @Override
+        public String getUri() {
+            return uri;
+        }
+
+        @Override
+        public void parseBody(Map<String, String> files) throws IOException, NanoHTTPD.ResponseException {
+        }
+
+        @Override
+        public String getRemoteIpAddress() {
+            return "127.0.0.1";
+        }
+
+        @Override
+        public String getRemoteHostName() {
+            return "localhost";
+        }
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct;
+
+import opendct.config.SortedProperties;
+import org.testng.annotations.Test;
+
+import java.io.StringReader;
+import java.util.Enumeration;
+import java.util.SortedMap;
+
+public class SortedPropertiesTest {
+
+    private SortedProperties getProperties() {
+        SortedProperties properties = new SortedProperties();
+        properties.setProperty("channel.1", "one");
+        properties.setProperty("channel.10", "ten");
+        properties.setProperty("channel.2", "two");
+        properties.setProperty("channels.update", "true");
+        properties.setProperty("channel", "root");
+        properties.setProperty("a.first", "first");
+        properties.setProperty("z.last", "last");
+        return properties;
+    }
+
+    @Test(groups = { "config", "sortedProperties" })
+    public void getByRootKey() {
+        SortedProperties properties = getProperties();
+
+        SortedMap<String, String> channels = properties.getAllByRootKey("channel.");
+        assert channels.size() == 3 : "Expected 3 channels, found " + channels.size();
+        assert "one".equals(channels.get("channel.1"));
+        assert "ten".equals(channels.get("channel.10"));
+        assert "two".equals(channels.get("channel.2"));
+
+        assert properties.getAllByRootKey("channel").size() == 5;
+        assert properties.getAllByRootKey("missing.").size() == 0;
+        assert properties.getAllByRootKey("").size() == properties.size();
+    }
+
+    @Test(groups = { "config", "sortedProperties" })
+    public void removeByRootKey() {
+        SortedProperties properties = getProperties();
+
+        assert properties.removeAllByRootKey("channel.") == 3;
+        assert properties.getProperty("channel.1") == null : "The property was not removed.";
+        assert properties.getAllByRootKey("channel.").size() == 0;
+        assert "true".equals(properties.getProperty("channels.update"));
+        assert properties.size() == 4 : "Expected 4 properties, found " + properties.size();
+    }
+
+    @Test(groups = { "config", "sortedProperties" })
+    public void indexFollowsChanges() throws Exception {
+        SortedProperties properties = getProperties();
+
+        properties.setProperty("channel.1", "uno");
+        properties.remove("channel.2");
+        properties.load(new StringReader("channel.3=three\n"));
+
+        SortedMap<String, String> channels = properties.getAllByRootKey("channel.");
+        assert channels.size() == 3 : "Expected 3 channels, found " + channels.size();
+        assert "uno".equals(channels.get("channel.1"));
+        assert "three".equals(channels.get("channel.3"));
+
+        properties.clear();
+        assert properties.getAllByRootKey("").size() == 0;
+    }
+
+    @Test(groups = { "config", "sortedProperties" })
+    public void keysAreSorted() {
+        Enumeration<Object> keys = getProperties().keys();
+        String lastKey = "";
+
+        while (keys.hasMoreElements()) {
+            String key = (String) keys.nextElement();
+            assert key.compareTo(lastKey) > 0 : "'" + key + "' is not after '" + lastKey + "'";
+            lastKey = key;
+        }
+    }
+}
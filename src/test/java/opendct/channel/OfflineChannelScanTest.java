@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015-2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.channel;
+
+import opendct.capture.CaptureDevice;
+import opendct.capture.DummyCaptureDevice;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OfflineChannelScanTest {
+    private static final String SCAN_NAME = "OfflineChannelScanTest";
+
+    /**
+     * Takes a fixed amount of time to scan each channel.
+     */
+    private static class TimedCaptureDevice extends DummyCaptureDevice {
+        private final long scanTime;
+        private final AtomicInteger scanned = new AtomicInteger();
+        private volatile CaptureDevice unlockDevice;
+
+        private TimedCaptureDevice(String encoderName, long scanTime) {
+            super("Test", encoderName, "1.0", SCAN_NAME, "");
+            this.scanTime = scanTime;
+        }
+
+        @Override
+        public boolean getChannelInfoOffline(TVChannel tvChannel, boolean skipCCI) {
+            CaptureDevice unlock = unlockDevice;
+
+            // Let the other capture device start once this one has taken all of the channels.
+            if (unlock != null) {
+                unlockDevice = null;
+                unlock.setLocked(false);
+            }
+
+            try {
+                Thread.sleep(scanTime);
+            } catch (InterruptedException e) {
+                return false;
+            }
+
+            scanned.incrementAndGet();
+            return true;
+        }
+    }
+
+    private static TVChannel getChannel(String channel, int frequency) {
+        return new TVChannelImpl(channel, channel, "QAM256", frequency, 0, false);
+    }
+
+    private static Set<String> getChannels(List<TVChannel> group) {
+        Set<String> channels = new HashSet<>();
+
+        for (TVChannel channel : group) {
+            channels.add(channel.getChannel());
+        }
+
+        return channels;
+    }
+
+    @Test(groups = { "channel", "offlineScan" })
+    public void frequencyGroups() throws Exception {
+        TVChannel channels[] = new TVChannel[] {
+                getChannel("2", 100),
+                getChannel("3", 200),
+                getChannel("4", 100),
+                getChannel("5", 0),
+                getChannel("6", 300),
+                getChannel("7", 100),
+                getChannel("8", 200),
+                getChannel("9", 100)
+        };
+
+        List<List<TVChannel>> groups =
+                OfflineChannelScan.getFrequencyGroups(channels, Collections.singleton("9"));
+
+        assert groups.size() == 4 : "Unexpected number of groups " + groups.size();
+
+        // Largest groups first.
+        assert getChannels(groups.get(0)).equals(new HashSet<>(Arrays.asList("2", "4", "7"))) :
+                "Unexpected first group " + getChannels(groups.get(0));
+        assert getChannels(groups.get(1)).equals(new HashSet<>(Arrays.asList("3", "8"))) :
+                "Unexpected second group " + getChannels(groups.get(1));
+
+        // Each channel without a frequency is in its own group.
+        Set<String> singles = new HashSet<>();
+        singles.addAll(getChannels(groups.get(2)));
+        singles.addAll(getChannels(groups.get(3)));
+        assert groups.get(2).size() == 1 && groups.get(3).size() == 1;
+        assert singles.equals(new HashSet<>(Arrays.asList("5", "6"))) :
+                "Unexpected single channel groups " + singles;
+    }
+
+    @Test(groups = { "channel", "offlineScan" })
+    public void idleDeviceSteals() throws Exception {
+        int totalChannels = 20;
+        TVChannel channels[] = new TVChannel[totalChannels];
+
+        // One frequency, so only one capture device can take the channels from the queue.
+        for (int i = 0; i < totalChannels; i++) {
+            channels[i] = getChannel(String.valueOf(i + 2), 100);
+        }
+
+        TimedCaptureDevice busyDevice = new TimedCaptureDevice("Busy Tuner", 50);
+        TimedCaptureDevice idleDevice = new TimedCaptureDevice("Idle Tuner", 50);
+
+        // The idle capture device can't start until the busy one has all of the channels.
+        boolean locked = idleDevice.setLocked(true);
+        assert locked;
+        busyDevice.unlockDevice = idleDevice;
+
+        Set<CaptureDevice> devices = new HashSet<>();
+        devices.add(busyDevice);
+        devices.add(idleDevice);
+
+        OfflineChannelScan scan = new OfflineChannelScan(SCAN_NAME, new String[0]);
+
+        try {
+            boolean started = scan.start(devices, channels, 10);
+            assert started;
+
+            scan.blockUntilComplete();
+
+            assert scan.getScannedChannelsAndClear().size() == totalChannels;
+            assert busyDevice.scanned.get() + idleDevice.scanned.get() == totalChannels;
+            assert idleDevice.scanned.get() > 0 : "The idle capture device did not take any channels.";
+            assert busyDevice.scanned.get() < totalChannels - 1 :
+                    "The busy capture device scanned " + busyDevice.scanned.get() + " channels.";
+        } finally {
+            scan.stop();
+            scan.clearCheckpoint();
+        }
+    }
+}
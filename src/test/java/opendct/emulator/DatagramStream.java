@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.emulator;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.Random;
+
+/**
+ * Sends a transport stream over UDP with or without an RTP header.
+ * <p/>
+ * Network problems can be simulated by dropping a percentage of the datagrams and by swapping a
+ * percentage of the datagrams with the one after it. Dropped and swapped datagrams still use up
+ * an RTP sequence number, so the receiver sees them as lost or out of order.
+ */
+public class DatagramStream extends EmulatedStream {
+    public final static int RTP_HEADER_LENGTH = 12;
+
+    // MPEG-TS payload type.
+    private final static int RTP_PAYLOAD_TYPE = 33;
+
+    private final DatagramSocket socket;
+    private final InetSocketAddress target;
+    private final boolean rtp;
+    private final double loss;
+    private final double reorder;
+
+    private final Random random = new Random();
+    private final int ssrc = random.nextInt();
+    private final long startTime = System.nanoTime();
+    private int sequence = random.nextInt(0x10000);
+
+    private byte heldBuffer[];
+    private boolean holding;
+
+    /**
+     * Create a new datagram stream.
+     *
+     * @param name The name of this stream for the thread name and logging.
+     * @param source The source of the stream.
+     * @param bitrate The bitrate in bits per second of the stream in real-time.
+     * @param rate The multiple of real-time to send the stream. 0 sends as fast as possible.
+     * @param target The address to send the stream to.
+     * @param rtp <i>true</i> to add an RTP header to every datagram.
+     * @param loss The percentage of datagrams to drop.
+     * @param reorder The percentage of datagrams to send after the next datagram.
+     * @throws SocketException Thrown if a socket could not be opened.
+     */
+    public DatagramStream(String name, TransportStreamSource source, long bitrate, double rate,
+                          InetSocketAddress target, boolean rtp, double loss, double reorder)
+            throws SocketException {
+
+        super(name, source, bitrate, rate);
+
+        this.target = target;
+        this.rtp = rtp;
+        this.loss = loss / 100.0;
+        this.reorder = reorder / 100.0;
+
+        socket = new DatagramSocket();
+        socket.setSendBufferSize(1048576);
+    }
+
+    public InetSocketAddress getTarget() {
+        return target;
+    }
+
+    @Override
+    protected int getHeaderLength() {
+        return rtp ? RTP_HEADER_LENGTH : 0;
+    }
+
+    @Override
+    protected void send(byte buffer[], int offset, int length) throws IOException {
+        if (rtp) {
+            // 90kHz clock.
+            int timestamp = (int) ((System.nanoTime() - startTime) / 11111);
+
+            buffer[offset] = (byte) 0x80;
+            buffer[offset + 1] = (byte) RTP_PAYLOAD_TYPE;
+            buffer[offset + 2] = (byte) (sequence >> 8);
+            buffer[offset + 3] = (byte) sequence;
+            buffer[offset + 4] = (byte) (timestamp >> 24);
+            buffer[offset + 5] = (byte) (timestamp >> 16);
+            buffer[offset + 6] = (byte) (timestamp >> 8);
+            buffer[offset + 7] = (byte) timestamp;
+            buffer[offset + 8] = (byte) (ssrc >> 24);
+            buffer[offset + 9] = (byte) (ssrc >> 16);
+            buffer[offset + 10] = (byte) (ssrc >> 8);
+            buffer[offset + 11] = (byte) ssrc;
+
+            sequence = (sequence + 1) & 0xFFFF;
+        }
+
+        if (loss > 0 && random.nextDouble() < loss) {
+            return;
+        }
+
+        if (!holding && reorder > 0 && random.nextDouble() < reorder) {
+            if (heldBuffer == null) {
+                heldBuffer = new byte[buffer.length];
+            }
+
+            System.arraycopy(buffer, offset, heldBuffer, 0, length);
+            holding = true;
+            return;
+        }
+
+        socket.send(new DatagramPacket(buffer, offset, length, target));
+
+        if (holding) {
+            socket.send(new DatagramPacket(heldBuffer, 0, length, target));
+            holding = false;
+        }
+    }
+
+    @Override
+    protected void close() {
+        socket.close();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.emulator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends a transport stream from an emulated tuner at a steady rate.
+ * <p/>
+ * The stream is sent in <b>TransportStreamSource.DATAGRAM_PAYLOAD_LENGTH</b> byte pieces. Each
+ * piece is sent when it is due based on the bitrate times the rate, so a rate of 1 is real-time
+ * and a rate of 4 is four times faster. A rate of 0 sends as fast as possible.
+ */
+public abstract class EmulatedStream implements Runnable {
+    private static final Logger logger = LogManager.getLogger(EmulatedStream.class);
+
+    // The default bitrate of an ATSC stream.
+    public final static long DEFAULT_BITRATE = 19392658;
+
+    private final String name;
+    private final TransportStreamSource source;
+    private final long nanosPerPayload;
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private volatile Thread thread;
+
+    /**
+     * Create a new stream.
+     *
+     * @param name The name of this stream for the thread name and logging.
+     * @param source The source of the stream.
+     * @param bitrate The bitrate in bits per second of the stream in real-time.
+     * @param rate The multiple of real-time to send the stream. 0 sends as fast as possible.
+     */
+    protected EmulatedStream(String name, TransportStreamSource source, long bitrate, double rate) {
+        this.name = name;
+        this.source = source;
+
+        if (rate <= 0 || bitrate <= 0) {
+            nanosPerPayload = 0;
+        } else {
+            nanosPerPayload = (long) (TransportStreamSource.DATAGRAM_PAYLOAD_LENGTH * 8 *
+                    TimeUnit.SECONDS.toNanos(1) / (bitrate * rate));
+        }
+    }
+
+    /**
+     * Send one piece of the stream.
+     *
+     * @param buffer The array containing the piece to send.
+     * @param offset The offset of the piece in the array.
+     * @param length The length of the piece.
+     * @throws IOException Thrown if the stream can no longer be sent.
+     */
+    protected abstract void send(byte buffer[], int offset, int length) throws IOException;
+
+    /**
+     * The number of bytes that should be reserved in front of each piece for a header.
+     */
+    protected int getHeaderLength() {
+        return 0;
+    }
+
+    /**
+     * Release anything used to send the stream. This is called on the streaming thread after the
+     * stream stops.
+     */
+    protected void close() {
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+
+        thread = new Thread(this);
+        thread.setName(name + "-" + thread.getId());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        Thread stopThread;
+
+        synchronized (this) {
+            stopThread = thread;
+            thread = null;
+        }
+
+        if (stopThread != null) {
+            stopThread.interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public void run() {
+        logger.debug("{} started.", name);
+
+        int headerLength = getHeaderLength();
+        byte buffer[] = new byte[headerLength + TransportStreamSource.DATAGRAM_PAYLOAD_LENGTH];
+        long nextSend = System.nanoTime();
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                source.read(buffer, headerLength);
+                send(buffer, 0, buffer.length);
+                bytesSent.addAndGet(TransportStreamSource.DATAGRAM_PAYLOAD_LENGTH);
+
+                if (nanosPerPayload > 0) {
+                    nextSend += nanosPerPayload;
+                    long wait = nextSend - System.nanoTime();
+
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    } else if (wait < -TimeUnit.SECONDS.toNanos(1)) {
+                        // Don't try to catch up on more than a second after a stall.
+                        nextSend = System.nanoTime();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!Thread.currentThread().isInterrupted()) {
+                logger.debug("{} stopped => {}", name, e.getMessage());
+            }
+        } finally {
+            source.close();
+            close();
+
+            synchronized (this) {
+                if (thread == Thread.currentThread()) {
+                    thread = null;
+                }
+            }
+        }
+
+        logger.debug("{} stopped after {} bytes.", name, bytesSent.get());
+    }
+}
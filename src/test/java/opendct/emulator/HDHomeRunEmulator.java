@@ -0,0 +1,1206 @@
+/*
+ * Copyright 2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.emulator;
+
+import opendct.tuning.hdhomerun.GetSetException;
+import opendct.tuning.hdhomerun.HDHomeRunDiscovery;
+import opendct.tuning.hdhomerun.HDHomeRunPacket;
+import opendct.tuning.hdhomerun.types.HDHomeRunPacketTag;
+import opendct.tuning.hdhomerun.types.HDHomeRunPacketType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Emulates an HDHomeRun device on the local computer.
+ * <p/>
+ * This answers discovery on UDP 65001, the get/set control protocol on TCP 65001 and HTTP
+ * streaming requests on TCP 5004 at the address it is bound to. Tuners stream from local .ts
+ * files, or generated null packets if no files are provided, to an RTP or UDP target or to an
+ * HTTP client. OpenDCT only uses the standard ports, so each emulated device it should find needs
+ * its own address. On Linux every address in 127.0.0.0/8 can be used without any configuration, so
+ * many devices can run on one computer. Tests can use any available ports instead. OpenDCT will find them when their addresses are added to
+ * <b>hdhr.static_addresses_csv</b>.
+ * <p/>
+ * This can be started from a test or with <b>main()</b>.
+ */
+public class HDHomeRunEmulator {
+    private static final Logger logger = LogManager.getLogger(HDHomeRunEmulator.class);
+
+    public final static int DEFAULT_HTTP_PORT = 5004;
+
+    public final InetAddress ADDRESS;
+    public final int DEVICE_ID;
+    public final int TUNER_COUNT;
+
+    private int discoveryPort = HDHomeRunPacket.HDHOMERUN_DISCOVER_UDP_PORT;
+    private int controlPort = HDHomeRunPacket.HDHOMERUN_CONTROL_TCP_PORT;
+    private int httpPort = DEFAULT_HTTP_PORT;
+    private boolean cableCard = true;
+    private boolean httpEnabled = true;
+    private File files[] = new File[0];
+    private long bitrate = EmulatedStream.DEFAULT_BITRATE;
+    private double rate = 1.0;
+    private double loss = 0;
+    private double reorder = 0;
+
+    private final EmulatedTuner tuners[];
+    private final List<Thread> listenThreads = new ArrayList<>();
+    private final AtomicInteger discoveryRequests = new AtomicInteger();
+    private DatagramSocket discoverySocket;
+    private ServerSocket controlSocket;
+    private ServerSocket httpSocket;
+    private ExecutorService connectionExecutor;
+    private volatile boolean running;
+
+    /**
+     * Create a new emulated HDHomeRun device.
+     *
+     * @param address The address to bind to.
+     * @param deviceId The device ID. Use <b>getDeviceId()</b> to create a valid ID.
+     * @param tunerCount The number of tuners on this device.
+     */
+    public HDHomeRunEmulator(InetAddress address, int deviceId, int tunerCount) {
+        ADDRESS = address;
+        DEVICE_ID = deviceId;
+        TUNER_COUNT = tunerCount;
+
+        tuners = new EmulatedTuner[tunerCount];
+
+        for (int i = 0; i < tuners.length; i++) {
+            tuners[i] = new EmulatedTuner(i);
+        }
+    }
+
+    /**
+     * Get a valid device ID.
+     *
+     * @param index A different index will always return a different device ID.
+     * @return A device ID that passes HDHomeRun device ID validation.
+     */
+    public static int getDeviceId(int index) {
+        int deviceId = 0x13100000 + (index << 4);
+
+        // Exactly one value of the last digit makes a valid device ID.
+        for (int i = 0; i < 16; i++) {
+            if (HDHomeRunDiscovery.validateDeviceId(deviceId | i)) {
+                return deviceId | i;
+            }
+        }
+
+        throw new IllegalStateException("Unable to create a valid device ID.");
+    }
+
+    /**
+     * Set the UDP port for discovery. 0 uses any available port. If this is the same as the
+     * control port, discovery will use the same port number as control after the emulator is
+     * started, the same as a real device.
+     */
+    public void setDiscoveryPort(int discoveryPort) {
+        this.discoveryPort = discoveryPort;
+    }
+
+    /**
+     * Get the UDP port for discovery. This is the actual port after the emulator is started.
+     */
+    public int getDiscoveryPort() {
+        return discoverySocket != null ? discoverySocket.getLocalPort() : discoveryPort;
+    }
+
+    /**
+     * Set the TCP port for the get/set control protocol. 0 uses any available port.
+     */
+    public void setControlPort(int controlPort) {
+        this.controlPort = controlPort;
+    }
+
+    /**
+     * Get the TCP port for the get/set control protocol. This is the actual port after the
+     * emulator is started.
+     */
+    public int getControlPort() {
+        return controlSocket != null ? controlSocket.getLocalPort() : controlPort;
+    }
+
+    /**
+     * Set the port for HTTP streaming. 0 uses any available port.
+     */
+    public void setHttpPort(int httpPort) {
+        this.httpPort = httpPort;
+    }
+
+    /**
+     * Get the port for HTTP streaming. This is the actual port after the emulator is started.
+     */
+    public int getHttpPort() {
+        return httpSocket != null ? httpSocket.getLocalPort() : httpPort;
+    }
+
+    /**
+     * Emulate a CableCARD device. Otherwise an ATSC device is emulated.
+     */
+    public void setCableCard(boolean cableCard) {
+        this.cableCard = cableCard;
+    }
+
+    /**
+     * Accept HTTP streaming requests.
+     */
+    public void setHttpEnabled(boolean httpEnabled) {
+        this.httpEnabled = httpEnabled;
+    }
+
+    /**
+     * Set the files to stream. Each channel always streams the same file. If no files are set,
+     * null packets are streamed.
+     */
+    public void setFiles(File... files) {
+        this.files = files;
+    }
+
+    /**
+     * Set the real-time bitrate of the streams in bits per second.
+     */
+    public void setBitrate(long bitrate) {
+        this.bitrate = bitrate;
+    }
+
+    /**
+     * Set the multiple of real-time to stream. 0 streams as fast as possible.
+     */
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * Set the percentage of RTP and UDP datagrams to drop.
+     */
+    public void setLoss(double loss) {
+        this.loss = loss;
+    }
+
+    /**
+     * Set the percentage of RTP and UDP datagrams to send out of order.
+     */
+    public void setReorder(double reorder) {
+        this.reorder = reorder;
+    }
+
+    /**
+     * Get the number of bytes of transport stream a tuner has sent since it was last tuned.
+     */
+    public long getBytesSent(int tuner) {
+        EmulatedStream stream = tuners[tuner].stream;
+        return stream == null ? 0 : stream.getBytesSent();
+    }
+
+    /**
+     * Check if a tuner is streaming to an HTTP client.
+     */
+    public boolean isHttpStreaming(int tuner) {
+        return tuners[tuner].isHttp();
+    }
+
+    /**
+     * Get the number of discovery requests this device has answered.
+     */
+    public int getDiscoveryRequests() {
+        return discoveryRequests.get();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+
+        try {
+            controlSocket = new ServerSocket();
+            controlSocket.setReuseAddress(true);
+            controlSocket.bind(new InetSocketAddress(ADDRESS, controlPort));
+
+            // Real devices use the same port number for discovery and control.
+            discoverySocket = new DatagramSocket(null);
+            discoverySocket.setReuseAddress(true);
+            discoverySocket.bind(new InetSocketAddress(ADDRESS,
+                    discoveryPort == controlPort ? controlSocket.getLocalPort() : discoveryPort));
+
+            if (httpEnabled) {
+                httpSocket = new ServerSocket();
+                httpSocket.setReuseAddress(true);
+                httpSocket.bind(new InetSocketAddress(ADDRESS, httpPort));
+            }
+        } catch (IOException e) {
+            closeSockets();
+            throw e;
+        }
+
+        connectionExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable);
+                thread.setName("HDHomeRunEmulatorConnection-" + thread.getId());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        running = true;
+
+        startListenThread("HDHomeRunEmulatorDiscovery", new Runnable() {
+            @Override
+            public void run() {
+                listenDiscovery();
+            }
+        });
+
+        startListenThread("HDHomeRunEmulatorControl", new Runnable() {
+            @Override
+            public void run() {
+                listenControl();
+            }
+        });
+
+        if (httpSocket != null) {
+            startListenThread("HDHomeRunEmulatorHttp", new Runnable() {
+                @Override
+                public void run() {
+                    listenHttp();
+                }
+            });
+        }
+
+        logger.info("Emulating HDHomeRun {} with {} tuners on {}.",
+                Integer.toHexString(DEVICE_ID).toUpperCase(), TUNER_COUNT, ADDRESS.getHostAddress());
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        closeSockets();
+        connectionExecutor.shutdownNow();
+
+        for (EmulatedTuner tuner : tuners) {
+            tuner.reset();
+        }
+
+        for (Thread listenThread : listenThreads) {
+            try {
+                listenThread.join(5000);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+
+        listenThreads.clear();
+    }
+
+    private void startListenThread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setName(name + "-" + thread.getId());
+        thread.setDaemon(true);
+        thread.start();
+        listenThreads.add(thread);
+    }
+
+    private void closeSockets() {
+        if (discoverySocket != null) {
+            discoverySocket.close();
+        }
+
+        try {
+            if (controlSocket != null) {
+                controlSocket.close();
+            }
+
+            if (httpSocket != null) {
+                httpSocket.close();
+            }
+        } catch (IOException e) {
+            logger.debug("Unable to close a listening socket => {}", e.getMessage());
+        }
+    }
+
+    private void listenDiscovery() {
+        HDHomeRunPacket rxPacket = new HDHomeRunPacket(ByteBuffer.allocate(3074));
+        HDHomeRunPacket txPacket = new HDHomeRunPacket(ByteBuffer.allocate(3074));
+        DatagramPacket datagram = new DatagramPacket(rxPacket.BUFFER.array(), rxPacket.BUFFER.capacity());
+
+        while (running) {
+            try {
+                datagram.setLength(rxPacket.BUFFER.capacity());
+                discoverySocket.receive(datagram);
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Unable to receive discovery request => ", e);
+                }
+                break;
+            }
+
+            rxPacket.BUFFER.clear();
+            rxPacket.BUFFER.limit(datagram.getLength());
+
+            if (!isDiscoveryRequestForThisDevice(rxPacket)) {
+                continue;
+            }
+
+            discoveryRequests.incrementAndGet();
+
+            txPacket.startPacket(HDHomeRunPacketType.HDHOMERUN_TYPE_DISCOVER_RPY);
+            txPacket.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_DEVICE_TYPE, HDHomeRunPacket.HDHOMERUN_DEVICE_TYPE_TUNER);
+            txPacket.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_DEVICE_ID, DEVICE_ID);
+            // The tuner count is a single byte.
+            txPacket.BUFFER.put(HDHomeRunPacketTag.HDHOMERUN_TAG_TUNER_COUNT.MASK);
+            txPacket.BUFFER.put((byte) 1);
+            txPacket.BUFFER.put((byte) TUNER_COUNT);
+            // Real devices always send more tags after the tuner count and discovery stops parsing
+            // when fewer than 5 bytes are left.
+            txPacket.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_DEVICE_AUTH_STR,
+                    String.format("EMULATED%016X", DEVICE_ID));
+            txPacket.endPacket();
+
+            try {
+                discoverySocket.send(new DatagramPacket(txPacket.BUFFER.array(), txPacket.BUFFER.limit(),
+                        datagram.getSocketAddress()));
+            } catch (IOException e) {
+                logger.debug("Unable to reply to discovery request from {} => {}",
+                        datagram.getSocketAddress(), e.getMessage());
+            }
+        }
+    }
+
+    private boolean isDiscoveryRequestForThisDevice(HDHomeRunPacket rxPacket) {
+        try {
+            if (rxPacket.getPacketType() != HDHomeRunPacketType.HDHOMERUN_TYPE_DISCOVER_REQ) {
+                return false;
+            }
+
+            rxPacket.BUFFER.limit(rxPacket.getPacketLength() + 4);
+
+            while (rxPacket.BUFFER.remaining() > 0) {
+                HDHomeRunPacketTag tag = rxPacket.getTag();
+                int length = rxPacket.getVariableLength();
+
+                if (tag == HDHomeRunPacketTag.HDHOMERUN_TAG_DEVICE_TYPE && length == 4) {
+                    int deviceType = rxPacket.BUFFER.getInt();
+
+                    if (deviceType != HDHomeRunPacket.HDHOMERUN_DEVICE_TYPE_WILDCARD &&
+                            deviceType != HDHomeRunPacket.HDHOMERUN_DEVICE_TYPE_TUNER) {
+                        return false;
+                    }
+                } else if (tag == HDHomeRunPacketTag.HDHOMERUN_TAG_DEVICE_ID && length == 4) {
+                    int deviceId = rxPacket.BUFFER.getInt();
+
+                    if (deviceId != HDHomeRunPacket.HDHOMERUN_DEVICE_ID_WILDCARD && deviceId != DEVICE_ID) {
+                        return false;
+                    }
+                } else {
+                    rxPacket.skipTLV(length);
+                }
+            }
+        } catch (Exception e) {
+            logger.debug("Invalid discovery request => {}", e.getMessage());
+            return false;
+        }
+
+        return true;
+    }
+
+    private void listenControl() {
+        while (running) {
+            final Socket socket;
+
+            try {
+                socket = controlSocket.accept();
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Unable to accept control connection => ", e);
+                }
+                break;
+            }
+
+            connectionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serveControl(socket);
+                }
+            });
+        }
+    }
+
+    private void serveControl(Socket socket) {
+        InetAddress remoteAddress = socket.getInetAddress();
+        HDHomeRunPacket rxPacket = new HDHomeRunPacket(ByteBuffer.allocate(3074));
+        HDHomeRunPacket txPacket = new HDHomeRunPacket(ByteBuffer.allocate(3074));
+        byte rxArray[] = rxPacket.BUFFER.array();
+
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+            OutputStream outputStream = socket.getOutputStream();
+
+            while (running) {
+                inputStream.readFully(rxArray, 0, 4);
+                int length = ((rxArray[2] & 0xff) << 8) | (rxArray[3] & 0xff);
+
+                if (length + 8 > rxArray.length) {
+                    logger.warn("Control request from {} is too long.", remoteAddress);
+                    break;
+                }
+
+                // The payload and the CRC.
+                inputStream.readFully(rxArray, 4, length + 4);
+                rxPacket.BUFFER.clear();
+                rxPacket.BUFFER.limit(length + 8);
+
+                if (rxPacket.getPacketType() != HDHomeRunPacketType.HDHOMERUN_TYPE_GETSET_REQ) {
+                    logger.warn("Unexpected control request type from {}.", remoteAddress);
+                    break;
+                }
+
+                rxPacket.BUFFER.limit(rxPacket.getPacketLength() + 4);
+
+                String name = null;
+                String value = null;
+                int lockkey = 0;
+
+                while (rxPacket.BUFFER.remaining() > 0) {
+                    HDHomeRunPacketTag tag = rxPacket.getTag();
+                    int tagLength = rxPacket.getVariableLength();
+
+                    if (tag == HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_NAME) {
+                        name = rxPacket.getTLVString(tagLength);
+                    } else if (tag == HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_VALUE) {
+                        value = rxPacket.getTLVString(tagLength);
+                    } else if (tag == HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_LOCKKEY && tagLength == 4) {
+                        lockkey = rxPacket.getTLVInteger();
+                    } else {
+                        rxPacket.skipTLV(tagLength);
+                    }
+                }
+
+                txPacket.startPacket(HDHomeRunPacketType.HDHOMERUN_TYPE_GETSET_RPY);
+
+                if (name == null) {
+                    txPacket.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_ERROR_MESSAGE, "ERROR: invalid request");
+                } else {
+                    txPacket.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_NAME, name);
+
+                    try {
+                        String reply = getSet(name, value, lockkey, remoteAddress);
+                        txPacket.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_GETSET_VALUE, reply);
+                    } catch (GetSetException e) {
+                        txPacket.putTagLengthValue(HDHomeRunPacketTag.HDHOMERUN_TAG_ERROR_MESSAGE, e.getMessage());
+                    }
+                }
+
+                txPacket.endPacket();
+                outputStream.write(txPacket.BUFFER.array(), 0, txPacket.BUFFER.limit());
+                outputStream.flush();
+            }
+        } catch (EOFException e) {
+            logger.trace("Control connection from {} closed.", remoteAddress);
+        } catch (IOException e) {
+            if (running) {
+                logger.debug("Control connection from {} failed => {}", remoteAddress, e.getMessage());
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.trace("Unable to close control connection => {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Get or set a variable.
+     *
+     * @param name The name of the variable.
+     * @param value The new value or <i>null</i> to get the current value.
+     * @param lockkey The lockkey sent with the request or 0 if none was sent.
+     * @param remoteAddress The address of the computer making the request.
+     * @return The current value after the request.
+     * @throws GetSetException Thrown with the message the device would return as an error.
+     */
+    private String getSet(String name, String value, int lockkey, InetAddress remoteAddress) throws GetSetException {
+        if (name.startsWith("/tuner")) {
+            int slash = name.indexOf('/', 6);
+
+            if (slash != -1) {
+                int tunerNumber;
+
+                try {
+                    tunerNumber = Integer.parseInt(name.substring(6, slash));
+                } catch (NumberFormatException e) {
+                    throw new GetSetException("ERROR: unknown getset variable");
+                }
+
+                if (tunerNumber >= 0 && tunerNumber < tuners.length) {
+                    return tuners[tunerNumber].getSet(name.substring(slash + 1), value, lockkey, remoteAddress);
+                }
+            }
+
+            throw new GetSetException("ERROR: unknown getset variable");
+        }
+
+        if (value != null) {
+            throw new GetSetException("ERROR: unknown getset variable");
+        }
+
+        switch (name) {
+            case "help":
+                return "Supported configuration options:\n/sys/model\n/sys/hwmodel\n/sys/version\n" +
+                        "/sys/features\n/sys/copyright\n/sys/debug\n" +
+                        (cableCard ? "/card/status\n" : "") +
+                        "/tunerX/channel <modulation>:<freq|ch>\n/tunerX/channelmap <channelmap>\n" +
+                        "/tunerX/filter \"0x<nnnn>-0x<nnnn> [...]\"\n/tunerX/program <program number>\n" +
+                        (cableCard ? "/tunerX/vchannel <vchannel>\n" : "") +
+                        "/tunerX/target <ip>:<port>\n/tunerX/lockkey\n";
+            case "/sys/model":
+                return cableCard ? "hdhomerun3_cablecard" : "hdhomerun4_atsc";
+            case "/sys/hwmodel":
+                return cableCard ? "HDHR3-CC" : "HDHR4-2US";
+            case "/sys/version":
+                return "20160101emulator";
+            case "/sys/copyright":
+                return "Emulated HDHomeRun device for testing OpenDCT.";
+            case "/sys/features":
+                return cableCard ?
+                        "channelmap: us-cable\nmodulation: qam256 qam64\nauto-modulation: auto qam\n" :
+                        "channelmap: us-bcast\nmodulation: 8vsb\nauto-modulation: auto 8vsb\n";
+            case "/sys/debug":
+                return "mem: ddr=128 nbuf=1 nmux=1 ntun=" + TUNER_COUNT + "\nloop: pkt=2\n";
+            case "/card/status":
+                if (cableCard) {
+                    return "card=ready auth=success oob=success act=success";
+                }
+                break;
+            case "/lineup/scan":
+                return "state=complete progress=100% found=" + Math.max(1, files.length);
+        }
+
+        throw new GetSetException("ERROR: unknown getset variable");
+    }
+
+    private TransportStreamSource getSource(String channel) {
+        if (files.length == 0) {
+            return new TransportStreamSource(null);
+        }
+
+        return new TransportStreamSource(files[Math.abs(channel.hashCode()) % files.length]);
+    }
+
+    private void listenHttp() {
+        while (running) {
+            final Socket socket;
+
+            try {
+                socket = httpSocket.accept();
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Unable to accept HTTP connection => ", e);
+                }
+                break;
+            }
+
+            connectionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serveHttp(socket);
+                }
+            });
+        }
+    }
+
+    private void serveHttp(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+
+            String requestLine = reader.readLine();
+            String line;
+
+            // Skip the headers.
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            }
+
+            String split[] = requestLine == null ? new String[0] : requestLine.split(" ");
+            String path = split.length > 1 ? split[1] : "";
+            int query = path.indexOf('?');
+
+            if (query != -1) {
+                path = path.substring(0, query);
+            }
+
+            // Requests are /auto/v<vchannel> or /tuner<n>/v<vchannel>.
+            int channelIndex = path.indexOf("/v");
+
+            if (split.length < 2 || !split[0].equals("GET") || channelIndex == -1) {
+                writeHttpError(socket, "404 Not Found");
+                return;
+            }
+
+            String tunerString = path.substring(1, channelIndex);
+            String vchannel = path.substring(channelIndex + 2);
+            EmulatedTuner tuner = null;
+
+            if (tunerString.equals("auto")) {
+                for (EmulatedTuner autoTuner : tuners) {
+                    if (autoTuner.startHttp(vchannel)) {
+                        tuner = autoTuner;
+                        break;
+                    }
+                }
+            } else if (tunerString.startsWith("tuner")) {
+                try {
+                    int tunerNumber = Integer.parseInt(tunerString.substring(5));
+
+                    if (tunerNumber >= 0 && tunerNumber < tuners.length &&
+                            tuners[tunerNumber].startHttp(vchannel)) {
+
+                        tuner = tuners[tunerNumber];
+                    }
+                } catch (NumberFormatException e) {
+                    writeHttpError(socket, "404 Not Found");
+                    return;
+                }
+            } else {
+                writeHttpError(socket, "404 Not Found");
+                return;
+            }
+
+            if (tuner == null) {
+                writeHttpError(socket, "503 All Tuners In Use");
+                return;
+            }
+
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write(("HTTP/1.1 200 OK\r\nContent-Type: video/mpeg\r\n" +
+                    "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            outputStream.flush();
+
+            final EmulatedTuner httpTuner = tuner;
+            SocketStream stream = new SocketStream("HDHomeRunEmulatorHttpStream", getSource(vchannel),
+                    bitrate, rate, socket, new Runnable() {
+                @Override
+                public void run() {
+                    httpTuner.stopHttp();
+                }
+            });
+
+            tuner.setStream(stream);
+
+            // The client doesn't send anything after the request, so the end of the input means
+            // it has disconnected. Don't wait for a write to fail to release the tuner.
+            try {
+                while (reader.read() != -1) {
+                }
+            } catch (IOException e) {
+                logger.trace("HTTP connection closed => {}", e.getMessage());
+            }
+
+            stream.stop();
+        } catch (IOException e) {
+            logger.debug("HTTP request failed => {}", e.getMessage());
+
+            try {
+                socket.close();
+            } catch (IOException e1) {
+                logger.trace("Unable to close HTTP connection => {}", e1.getMessage());
+            }
+        }
+    }
+
+    private void writeHttpError(Socket socket, String status) throws IOException {
+        try {
+            socket.getOutputStream().write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\n" +
+                    "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private class EmulatedTuner {
+        private final int TUNER_NUMBER;
+
+        private String channel = "none";
+        private String vchannel = "none";
+        private int program = 0;
+        private String target = "none";
+        private String filter = "0x0000-0x1FFF";
+        private String channelmap;
+        private int lockkey = 0;
+        private InetAddress lockAddress;
+        private boolean http;
+        private volatile EmulatedStream stream;
+
+        private EmulatedTuner(int tunerNumber) {
+            TUNER_NUMBER = tunerNumber;
+        }
+
+        private synchronized String getSet(String key, String value, int requestLockkey, InetAddress remoteAddress)
+                throws GetSetException {
+
+            if (value != null) {
+                if (key.equals("lockkey")) {
+                    setLockkey(value, requestLockkey, remoteAddress);
+                    return getLockkey();
+                }
+
+                if (lockAddress != null && requestLockkey != lockkey) {
+                    throw new GetSetException("ERROR: resource locked by " + lockAddress.getHostAddress());
+                }
+
+                if (http) {
+                    throw new GetSetException("ERROR: resource in use by http stream");
+                }
+            }
+
+            switch (key) {
+                case "channel":
+                    if (value != null) {
+                        setChannel(value);
+                    }
+                    return channel;
+                case "vchannel":
+                    if (!cableCard) {
+                        break;
+                    }
+
+                    if (value != null) {
+                        setVirtualChannel(value);
+                    }
+                    return vchannel;
+                case "program":
+                    if (value != null) {
+                        try {
+                            program = Integer.parseInt(value.trim());
+                        } catch (NumberFormatException e) {
+                            throw new GetSetException("ERROR: invalid program");
+                        }
+                        updateStream();
+                    }
+                    return String.valueOf(program);
+                case "target":
+                    if (value != null) {
+                        setTarget(value);
+                    }
+                    return target;
+                case "filter":
+                    if (value != null) {
+                        filter = value;
+                    }
+                    return filter;
+                case "channelmap":
+                    if (value != null) {
+                        channelmap = value;
+                    }
+                    return channelmap != null ? channelmap : cableCard ? "us-cable" : "us-bcast";
+                case "lockkey":
+                    return getLockkey();
+                case "status":
+                    if (value == null) {
+                        return getStatus();
+                    }
+                    break;
+                case "vstatus":
+                    if (value == null && cableCard) {
+                        return getVirtualStatus();
+                    }
+                    break;
+                case "streaminfo":
+                    if (value == null) {
+                        return getStreamInfo();
+                    }
+                    break;
+                case "debug":
+                    if (value == null) {
+                        return "tun: ch=" + channel + " lock=" + getModulation() + "\n" +
+                                "dev: bps=" + getBitsPerSecond() + " resync=0 overflow=0\n" +
+                                "net: pps=" + getPacketsPerSecond() + " err=0 stop=0\n";
+                    }
+                    break;
+            }
+
+            throw new GetSetException("ERROR: unknown getset variable");
+        }
+
+        private String getLockkey() {
+            return lockAddress == null ? "none" : lockAddress.getHostAddress();
+        }
+
+        private void setLockkey(String value, int requestLockkey, InetAddress remoteAddress) throws GetSetException {
+            if (value.equals("force")) {
+                lockkey = 0;
+                lockAddress = null;
+                return;
+            }
+
+            if (lockAddress != null && requestLockkey != lockkey) {
+                throw new GetSetException("ERROR: resource locked by " + lockAddress.getHostAddress());
+            }
+
+            if (value.equals("none")) {
+                lockkey = 0;
+                lockAddress = null;
+                return;
+            }
+
+            try {
+                // The device treats the value as an unsigned 32-bit number.
+                lockkey = (int) Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                throw new GetSetException("ERROR: invalid lockkey");
+            }
+
+            lockAddress = remoteAddress;
+        }
+
+        private void setChannel(String value) throws GetSetException {
+            if (value.equals("none")) {
+                channel = "none";
+            } else if (value.indexOf(':') > 0) {
+                channel = value;
+            } else {
+                throw new GetSetException("ERROR: invalid channel");
+            }
+
+            vchannel = "none";
+            program = 0;
+            updateStream();
+        }
+
+        private void setVirtualChannel(String value) {
+            if (value.equals("none")) {
+                vchannel = "none";
+                channel = "none";
+            } else {
+                vchannel = value;
+                // Make up a frequency that is always the same for the same virtual channel.
+                channel = "qam256:" + (57000000 + (Math.abs(value.hashCode()) % 130) * 6000000);
+            }
+
+            program = 0;
+            updateStream();
+        }
+
+        private void setTarget(String value) throws GetSetException {
+            if (!value.equals("none")) {
+                try {
+                    URI uri = new URI(value);
+
+                    if (!"rtp".equals(uri.getScheme()) && !"udp".equals(uri.getScheme()) ||
+                            uri.getHost() == null || uri.getPort() <= 0) {
+
+                        throw new GetSetException("ERROR: invalid target");
+                    }
+                } catch (URISyntaxException e) {
+                    throw new GetSetException("ERROR: invalid target");
+                }
+            }
+
+            target = value;
+            updateStream();
+        }
+
+        private boolean isTuned() {
+            return !channel.equals("none");
+        }
+
+        private String getModulation() {
+            if (!isTuned()) {
+                return "none";
+            }
+
+            int colon = channel.indexOf(':');
+            String modulation = channel.substring(0, colon);
+
+            if (modulation.equals("auto")) {
+                return cableCard ? "qam256" : "8vsb";
+            }
+
+            return modulation;
+        }
+
+        private int getBitsPerSecond() {
+            if (!isTuned()) {
+                return 0;
+            }
+
+            return getModulation().startsWith("qam") ? 38810700 : 19392658;
+        }
+
+        private long getPacketsPerSecond() {
+            return stream != null ? bitrate / (TransportStreamSource.TS_PACKET_LENGTH * 8) : 0;
+        }
+
+        private String getStatus() {
+            if (!isTuned()) {
+                return "ch=none lock=none ss=0 snq=0 seq=0 bps=0 pps=0";
+            }
+
+            return "ch=" + channel + " lock=" + getModulation() + " ss=100 snq=100 seq=100" +
+                    " bps=" + getBitsPerSecond() + " pps=" + getPacketsPerSecond();
+        }
+
+        private String getVirtualStatus() {
+            if (vchannel.equals("none")) {
+                return "vch=none";
+            }
+
+            return "vch=" + vchannel + " name=EMU" + vchannel + " auth=subscribed cci=unrestricted cgms=unrestricted";
+        }
+
+        private String getStreamInfo() {
+            if (!isTuned()) {
+                return "none";
+            }
+
+            String channelName = vchannel.equals("none") ? channel.substring(channel.indexOf(':') + 1) : vchannel;
+
+            if (!vchannel.equals("none")) {
+                return "1: " + channelName + " EMU" + channelName + "\ntsid=0x0" +
+                        Integer.toHexString(Math.abs(channelName.hashCode()) % 0xFFF).toUpperCase() + "\n";
+            }
+
+            StringBuilder streamInfo = new StringBuilder();
+
+            for (int i = 1; i <= 3; i++) {
+                streamInfo.append(i).append(": ").append(channelName).append('.').append(i)
+                        .append(" EMU").append(i).append('\n');
+            }
+
+            return streamInfo.append("tsid=0x0ABC\n").toString();
+        }
+
+        /**
+         * Start or stop streaming to the target after anything that changes what is streamed.
+         */
+        private void updateStream() {
+            setStream(null);
+
+            if (!isTuned() || target.equals("none")) {
+                return;
+            }
+
+            try {
+                URI uri = new URI(target);
+                String source = vchannel.equals("none") ? channel + "-" + program : vchannel;
+
+                DatagramStream newStream = new DatagramStream(
+                        "HDHomeRunEmulatorStream-" + TUNER_NUMBER, getSource(source),
+                        bitrate, rate, new InetSocketAddress(uri.getHost(), uri.getPort()),
+                        "rtp".equals(uri.getScheme()), loss, reorder);
+
+                setStream(newStream);
+            } catch (URISyntaxException | SocketException e) {
+                logger.error("Unable to stream to {} => ", target, e);
+            }
+        }
+
+        private synchronized void setStream(EmulatedStream newStream) {
+            if (stream != null) {
+                stream.stop();
+            }
+
+            stream = newStream;
+
+            if (newStream != null) {
+                newStream.start();
+            }
+        }
+
+        private synchronized boolean startHttp(String value) {
+            if (http || lockAddress != null || !target.equals("none")) {
+                return false;
+            }
+
+            http = true;
+            vchannel = value;
+            channel = "auto:" + value;
+            program = 0;
+
+            return true;
+        }
+
+        private synchronized boolean isHttp() {
+            return http;
+        }
+
+        private synchronized void stopHttp() {
+            if (!http) {
+                return;
+            }
+
+            http = false;
+            vchannel = "none";
+            channel = "none";
+            stream = null;
+        }
+
+        private synchronized void reset() {
+            setStream(null);
+            http = false;
+            channel = "none";
+            vchannel = "none";
+            program = 0;
+            target = "none";
+            lockkey = 0;
+            lockAddress = null;
+        }
+    }
+
+    /**
+     * Run emulated HDHomeRun devices until this process is stopped.
+     * <p/>
+     * Options:<p/>
+     * --address &lt;ip&gt; The address of the first device. Each additional device uses the next
+     * address. (default: 127.0.0.1)<p/>
+     * --devices &lt;n&gt; The number of devices. (default: 1)<p/>
+     * --tuners &lt;n&gt; The number of tuners on each device. (default: 4)<p/>
+     * --files &lt;file,file,...&gt; The .ts files to stream. (default: null packets)<p/>
+     * --bitrate &lt;bps&gt; The real-time bitrate of each stream. (default: 19392658)<p/>
+     * --rate &lt;multiple&gt; The multiple of real-time to stream. 0 is unlimited. (default: 1)<p/>
+     * --loss &lt;percent&gt; The percentage of datagrams to drop. (default: 0)<p/>
+     * --reorder &lt;percent&gt; The percentage of datagrams to reorder. (default: 0)<p/>
+     * --atsc Emulate ATSC devices instead of CableCARD devices.<p/>
+     * --no-http Don't accept HTTP streaming requests.
+     */
+    public static void main(String args[]) throws Exception {
+        InetAddress address = InetAddress.getByName("127.0.0.1");
+        int devices = 1;
+        int tunerCount = 4;
+        List<File> files = new ArrayList<>();
+        long bitrate = EmulatedStream.DEFAULT_BITRATE;
+        double rate = 1.0;
+        double loss = 0;
+        double reorder = 0;
+        boolean cableCard = true;
+        boolean http = true;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+
+            if (arg.equals("--atsc")) {
+                cableCard = false;
+                continue;
+            } else if (arg.equals("--no-http")) {
+                http = false;
+                continue;
+            }
+
+            if (i + 1 >= args.length) {
+                System.err.println("Missing value for " + arg);
+                System.exit(1);
+            }
+
+            String value = args[++i];
+
+            switch (arg) {
+                case "--address":
+                    address = InetAddress.getByName(value);
+                    break;
+                case "--devices":
+                    devices = Integer.parseInt(value);
+                    break;
+                case "--tuners":
+                    tunerCount = Integer.parseInt(value);
+                    break;
+                case "--files":
+                    for (String file : value.split(",")) {
+                        files.add(new File(file));
+                    }
+                    break;
+                case "--bitrate":
+                    bitrate = Long.parseLong(value);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "--loss":
+                    loss = Double.parseDouble(value);
+                    break;
+                case "--reorder":
+                    reorder = Double.parseDouble(value);
+                    break;
+                default:
+                    System.err.println("Unknown option " + arg);
+                    System.exit(1);
+            }
+        }
+
+        StringBuilder staticAddresses = new StringBuilder();
+        byte addressBytes[] = address.getAddress();
+
+        for (int i = 0; i < devices; i++) {
+            HDHomeRunEmulator emulator = new HDHomeRunEmulator(
+                    InetAddress.getByAddress(addressBytes), getDeviceId(i), tunerCount);
+
+            emulator.setCableCard(cableCard);
+            emulator.setHttpEnabled(http);
+            emulator.setFiles(files.toArray(new File[files.size()]));
+            emulator.setBitrate(bitrate);
+            emulator.setRate(rate);
+            emulator.setLoss(loss);
+            emulator.setReorder(reorder);
+            emulator.start();
+
+            if (staticAddresses.length() > 0) {
+                staticAddresses.append(',');
+            }
+            staticAddresses.append(emulator.ADDRESS.getHostAddress());
+
+            addressBytes[addressBytes.length - 1]++;
+        }
+
+        System.out.println("hdhr.static_addresses_csv=" + staticAddresses);
+
+        // Everything else runs on daemon threads.
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}
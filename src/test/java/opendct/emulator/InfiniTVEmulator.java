@@ -0,0 +1,1337 @@
+/*
+ * Copyright 2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.emulator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Emulates a Ceton InfiniTV device on the local computer.
+ * <p/>
+ * This advertises the device over SSDP and serves the UPnP device description, the
+ * <b>get_var</b> status page, the tuning and streaming CGI pages and the channel map over HTTP.
+ * It also answers the RTSP requests used by <b>DCTRTSPClientImpl</b> on port 8554. Tuners stream
+ * RTP or UDP from local .ts files, or generated null packets if no files are provided, using the
+ * same streams as <b>HDHomeRunEmulator</b>.
+ * <p/>
+ * SSDP searches are answered on the multicast group when it is available and on port 1900 of the
+ * emulated address, so a search can be sent directly to an emulated device when multicast
+ * doesn't work. OpenDCT expects the web interface on port 80, so each emulated device needs its
+ * own address to be used by OpenDCT. Tests can use any port.
+ * <p/>
+ * This can be started from a test or with <b>main()</b>.
+ */
+public class InfiniTVEmulator {
+    private static final Logger logger = LogManager.getLogger(InfiniTVEmulator.class);
+
+    public final static String DEVICE_TYPE = "urn:schemas-cetoncorp-com:device:SecureContainer:1";
+    public final static String TUNER_DEVICE_TYPE = "urn:schemas-opencable-com:device:OCUR:1";
+    public final static String SSDP_ADDRESS = "239.255.255.250";
+    public final static int SSDP_PORT = 1900;
+    public final static int DEFAULT_HTTP_PORT = 80;
+    public final static int DEFAULT_RTSP_PORT = 8554;
+
+    // Every channel in the emulated lineup is on one of these many programs per frequency.
+    private final static int PROGRAMS_PER_FREQUENCY = 4;
+    private final static int FIRST_CHANNEL = 100;
+    private final static int FIRST_FREQUENCY_KHZ = 555000;
+    private final static int NOTIFY_INTERVAL = 30000;
+
+    private final static String GET_START = "<html><body class=\"get\">";
+    private final static String GET_END = "</body></html>";
+    private final static String CHANNEL_MAP_START =
+            "<table style=\"text-align:center;width:600px\"><tr><th>Channel</th><th>Name</th><th>" +
+                    "Modulation</th><th>Frequency (kHz)</th><th>Program</th><th>EIA</th></tr>";
+
+    public final InetAddress ADDRESS;
+    public final String NAME;
+    public final int TUNER_COUNT;
+    public final UUID UDN;
+
+    private int httpPort = DEFAULT_HTTP_PORT;
+    private int rtspPort = DEFAULT_RTSP_PORT;
+    private boolean cableCard = true;
+    private int channelCount = 20;
+    private long tuneDelay = 0;
+    private File files[] = new File[0];
+    private long bitrate = EmulatedStream.DEFAULT_BITRATE;
+    private double rate = 1.0;
+    private double loss = 0;
+    private double reorder = 0;
+
+    private final EmulatedTuner tuners[];
+    private final List<Thread> listenThreads = new ArrayList<>();
+    private final AtomicInteger httpConnections = new AtomicInteger();
+    private final AtomicInteger rtspSessions = new AtomicInteger(95151);
+    private MulticastSocket ssdpMulticastSocket;
+    private DatagramSocket ssdpSocket;
+    private ServerSocket httpSocket;
+    private ServerSocket rtspSocket;
+    private ExecutorService connectionExecutor;
+    private volatile boolean running;
+
+    /**
+     * Create a new emulated InfiniTV device.
+     *
+     * @param address The address to bind to.
+     * @param name The friendly name of the device. This must be unique on the network.
+     * @param tunerCount The number of tuners on this device.
+     */
+    public InfiniTVEmulator(InetAddress address, String name, int tunerCount) {
+        ADDRESS = address;
+        NAME = name;
+        TUNER_COUNT = tunerCount;
+        UDN = UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8));
+
+        tuners = new EmulatedTuner[tunerCount];
+
+        for (int i = 0; i < tuners.length; i++) {
+            tuners[i] = new EmulatedTuner(i);
+        }
+    }
+
+    /**
+     * Set the port for the web interface. 0 uses any available port.
+     */
+    public void setHttpPort(int httpPort) {
+        this.httpPort = httpPort;
+    }
+
+    /**
+     * Get the port for the web interface. This is the actual port after the emulator is started.
+     */
+    public int getHttpPort() {
+        return httpSocket != null ? httpSocket.getLocalPort() : httpPort;
+    }
+
+    /**
+     * Set the port for RTSP. 0 uses any available port.
+     */
+    public void setRtspPort(int rtspPort) {
+        this.rtspPort = rtspPort;
+    }
+
+    /**
+     * Get the port for RTSP. This is the actual port after the emulator is started.
+     */
+    public int getRtspPort() {
+        return rtspSocket != null ? rtspSocket.getLocalPort() : rtspPort;
+    }
+
+    /**
+     * Emulate a device with a CableCARD inserted. Otherwise a QAM device is emulated.
+     */
+    public void setCableCard(boolean cableCard) {
+        this.cableCard = cableCard;
+    }
+
+    /**
+     * Set the number of channels in the channel map.
+     */
+    public void setChannelCount(int channelCount) {
+        this.channelCount = channelCount;
+    }
+
+    /**
+     * Set how long tuning requests take to complete in milliseconds.
+     */
+    public void setTuneDelay(long tuneDelay) {
+        this.tuneDelay = tuneDelay;
+    }
+
+    /**
+     * Set the files to stream. Each channel always streams the same file. If no files are set,
+     * null packets are streamed.
+     */
+    public void setFiles(File... files) {
+        this.files = files;
+    }
+
+    /**
+     * Set the real-time bitrate of the streams in bits per second.
+     */
+    public void setBitrate(long bitrate) {
+        this.bitrate = bitrate;
+    }
+
+    /**
+     * Set the multiple of real-time to stream. 0 streams as fast as possible.
+     */
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * Set the percentage of RTP and UDP datagrams to drop.
+     */
+    public void setLoss(double loss) {
+        this.loss = loss;
+    }
+
+    /**
+     * Set the percentage of RTP and UDP datagrams to send out of order.
+     */
+    public void setReorder(double reorder) {
+        this.reorder = reorder;
+    }
+
+    /**
+     * Get the number of bytes of transport stream a tuner has sent since it started streaming.
+     *
+     * @param tuner The tuner index starting at 0.
+     */
+    public long getBytesSent(int tuner) {
+        EmulatedStream stream = tuners[tuner].stream;
+        return stream == null ? 0 : stream.getBytesSent();
+    }
+
+    /**
+     * Get the number of HTTP connections accepted since the emulator was started.
+     * <p/>
+     * This is used to check that clients are reusing keep-alive connections.
+     */
+    public int getHttpConnections() {
+        return httpConnections.get();
+    }
+
+    /**
+     * Get the URL of the UPnP device description.
+     */
+    public String getLocation() {
+        return "http://" + ADDRESS.getHostAddress() + ":" + getHttpPort() + "/description.xml";
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+
+        try {
+            ssdpSocket = new DatagramSocket(null);
+            ssdpSocket.setReuseAddress(true);
+            ssdpSocket.bind(new InetSocketAddress(ADDRESS, SSDP_PORT));
+
+            httpSocket = new ServerSocket();
+            httpSocket.setReuseAddress(true);
+            httpSocket.bind(new InetSocketAddress(ADDRESS, httpPort));
+
+            rtspSocket = new ServerSocket();
+            rtspSocket.setReuseAddress(true);
+            rtspSocket.bind(new InetSocketAddress(ADDRESS, rtspPort));
+        } catch (IOException e) {
+            closeSockets();
+            throw e;
+        }
+
+        ssdpMulticastSocket = openMulticastSocket();
+
+        connectionExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable);
+                thread.setName("InfiniTVEmulatorConnection-" + thread.getId());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        httpConnections.set(0);
+        running = true;
+
+        startListenThread("InfiniTVEmulatorSsdp", new Runnable() {
+            @Override
+            public void run() {
+                listenSsdp(ssdpSocket);
+            }
+        });
+
+        if (ssdpMulticastSocket != null) {
+            startListenThread("InfiniTVEmulatorSsdpMulticast", new Runnable() {
+                @Override
+                public void run() {
+                    listenSsdp(ssdpMulticastSocket);
+                }
+            });
+
+            startListenThread("InfiniTVEmulatorNotify", new Runnable() {
+                @Override
+                public void run() {
+                    notifyAlive();
+                }
+            });
+        }
+
+        startListenThread("InfiniTVEmulatorHttp", new Runnable() {
+            @Override
+            public void run() {
+                listenHttp();
+            }
+        });
+
+        startListenThread("InfiniTVEmulatorRtsp", new Runnable() {
+            @Override
+            public void run() {
+                listenRtsp();
+            }
+        });
+
+        logger.info("Emulating InfiniTV '{}' with {} tuners at {}.", NAME, TUNER_COUNT, getLocation());
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        sendNotify("ssdp:byebye");
+        closeSockets();
+        connectionExecutor.shutdownNow();
+
+        for (EmulatedTuner tuner : tuners) {
+            tuner.reset();
+        }
+
+        for (Thread listenThread : listenThreads) {
+            listenThread.interrupt();
+
+            try {
+                listenThread.join(5000);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+
+        listenThreads.clear();
+    }
+
+    private void startListenThread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setName(name + "-" + thread.getId());
+        thread.setDaemon(true);
+        thread.start();
+        listenThreads.add(thread);
+    }
+
+    private void closeSockets() {
+        if (ssdpSocket != null) {
+            ssdpSocket.close();
+        }
+
+        if (ssdpMulticastSocket != null) {
+            ssdpMulticastSocket.close();
+            ssdpMulticastSocket = null;
+        }
+
+        try {
+            if (httpSocket != null) {
+                httpSocket.close();
+            }
+
+            if (rtspSocket != null) {
+                rtspSocket.close();
+            }
+        } catch (IOException e) {
+            logger.debug("Unable to close a listening socket => {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Join the SSDP multicast group.
+     * <p/>
+     * Multicast isn't available on every computer, so this only logs a warning on failure and
+     * SSDP searches must be sent directly to the emulated address.
+     *
+     * @return The joined socket or <i>null</i> if the group could not be joined.
+     */
+    private MulticastSocket openMulticastSocket() {
+        MulticastSocket socket = null;
+
+        try {
+            socket = new MulticastSocket(null);
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(SSDP_PORT));
+            socket.setTimeToLive(2);
+            socket.setLoopbackMode(false);
+
+            InetSocketAddress group = new InetSocketAddress(InetAddress.getByName(SSDP_ADDRESS), SSDP_PORT);
+            NetworkInterface networkInterface = NetworkInterface.getByInetAddress(ADDRESS);
+
+            if (networkInterface != null) {
+                socket.joinGroup(group, networkInterface);
+            } else {
+                socket.joinGroup(group.getAddress());
+            }
+
+            return socket;
+        } catch (IOException e) {
+            logger.warn("Unable to join the SSDP multicast group. Searches must be sent to {}:{}" +
+                    " => {}", ADDRESS.getHostAddress(), SSDP_PORT, e.getMessage());
+
+            if (socket != null) {
+                socket.close();
+            }
+        }
+
+        return null;
+    }
+
+    private void listenSsdp(DatagramSocket socket) {
+        byte buffer[] = new byte[2048];
+
+        while (running) {
+            DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+
+            try {
+                socket.receive(datagram);
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Unable to receive SSDP datagram => ", e);
+                }
+                break;
+            }
+
+            String request = new String(datagram.getData(), 0, datagram.getLength(), StandardCharsets.US_ASCII);
+
+            if (!request.startsWith("M-SEARCH")) {
+                continue;
+            }
+
+            String searchTarget = getHeaders(request.split("\r\n")).get("ST");
+
+            if (searchTarget == null) {
+                continue;
+            }
+
+            for (String target : getSearchTargets(searchTarget)) {
+                String response = "HTTP/1.1 200 OK\r\n" +
+                        "CACHE-CONTROL: max-age=1800\r\n" +
+                        "EXT:\r\n" +
+                        "LOCATION: " + getLocation() + "\r\n" +
+                        "SERVER: Linux/2.6 UPnP/1.0 InfiniTVEmulator/1.0\r\n" +
+                        "ST: " + target + "\r\n" +
+                        "USN: " + getUsn(target) + "\r\n" +
+                        "\r\n";
+
+                byte responseBytes[] = response.getBytes(StandardCharsets.US_ASCII);
+
+                try {
+                    ssdpSocket.send(new DatagramPacket(responseBytes, responseBytes.length,
+                            datagram.getSocketAddress()));
+                } catch (IOException e) {
+                    logger.debug("Unable to answer SSDP search from {} => {}",
+                            datagram.getSocketAddress(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private List<String> getSearchTargets(String searchTarget) {
+        List<String> returnValue = new ArrayList<>();
+        String uuid = "uuid:" + UDN;
+
+        if (searchTarget.equals("ssdp:all")) {
+            returnValue.add("upnp:rootdevice");
+            returnValue.add(uuid);
+            returnValue.add(DEVICE_TYPE);
+        } else if (searchTarget.equals("upnp:rootdevice") || searchTarget.equals(uuid) ||
+                searchTarget.equals(DEVICE_TYPE)) {
+
+            returnValue.add(searchTarget);
+        }
+
+        return returnValue;
+    }
+
+    private String getUsn(String target) {
+        String uuid = "uuid:" + UDN;
+        return target.equals(uuid) ? uuid : uuid + "::" + target;
+    }
+
+    private void notifyAlive() {
+        while (running) {
+            sendNotify("ssdp:alive");
+
+            try {
+                Thread.sleep(NOTIFY_INTERVAL);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private void sendNotify(String subType) {
+        MulticastSocket socket = ssdpMulticastSocket;
+
+        if (socket == null) {
+            return;
+        }
+
+        String uuid = "uuid:" + UDN;
+
+        for (String target : new String[] { "upnp:rootdevice", uuid, DEVICE_TYPE }) {
+            String notify = "NOTIFY * HTTP/1.1\r\n" +
+                    "HOST: " + SSDP_ADDRESS + ":" + SSDP_PORT + "\r\n" +
+                    "CACHE-CONTROL: max-age=1800\r\n" +
+                    "LOCATION: " + getLocation() + "\r\n" +
+                    "NT: " + target + "\r\n" +
+                    "NTS: " + subType + "\r\n" +
+                    "SERVER: Linux/2.6 UPnP/1.0 InfiniTVEmulator/1.0\r\n" +
+                    "USN: " + getUsn(target) + "\r\n" +
+                    "\r\n";
+
+            byte notifyBytes[] = notify.getBytes(StandardCharsets.US_ASCII);
+
+            try {
+                socket.send(new DatagramPacket(notifyBytes, notifyBytes.length,
+                        InetAddress.getByName(SSDP_ADDRESS), SSDP_PORT));
+            } catch (IOException e) {
+                logger.debug("Unable to send SSDP notify => {}", e.getMessage());
+            }
+        }
+    }
+
+    private static Map<String, String> getHeaders(String lines[]) {
+        Map<String, String> headers = new HashMap<>();
+
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim().toUpperCase(),
+                        lines[i].substring(colon + 1).trim());
+            }
+        }
+
+        return headers;
+    }
+
+    private static Map<String, String> getParameters(String query) {
+        Map<String, String> parameters = new HashMap<>();
+
+        if (query == null) {
+            return parameters;
+        }
+
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+
+            if (equals <= 0) {
+                continue;
+            }
+
+            try {
+                parameters.put(parameter.substring(0, equals),
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                // UTF-8 is always supported.
+            }
+        }
+
+        return parameters;
+    }
+
+    private TransportStreamSource getSource(String channel) {
+        if (files.length == 0) {
+            return new TransportStreamSource(null);
+        }
+
+        return new TransportStreamSource(files[Math.abs(channel.hashCode()) % files.length]);
+    }
+
+    private EmulatedTuner getTuner(String index) {
+        try {
+            int tunerIndex = Integer.parseInt(index);
+
+            if (tunerIndex >= 0 && tunerIndex < tuners.length) {
+                return tuners[tunerIndex];
+            }
+        } catch (NumberFormatException e) {
+            // The tuner doesn't exist.
+        }
+
+        return null;
+    }
+
+    private void listenHttp() {
+        while (running) {
+            final Socket socket;
+
+            try {
+                socket = httpSocket.accept();
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Unable to accept HTTP connection => ", e);
+                }
+                break;
+            }
+
+            httpConnections.incrementAndGet();
+
+            connectionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serveHttp(socket);
+                }
+            });
+        }
+    }
+
+    /**
+     * Answer HTTP requests on one connection until the client closes it.
+     * <p/>
+     * The real device supports keep-alive, so this does too.
+     */
+    private void serveHttp(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            OutputStream outputStream = socket.getOutputStream();
+
+            while (running) {
+                String requestLine = reader.readLine();
+
+                if (requestLine == null) {
+                    break;
+                }
+
+                List<String> lines = new ArrayList<>();
+                lines.add(requestLine);
+                String line;
+
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    lines.add(line);
+                }
+
+                Map<String, String> headers = getHeaders(lines.toArray(new String[lines.size()]));
+                String body = null;
+
+                if (headers.containsKey("CONTENT-LENGTH")) {
+                    char bodyChars[] = new char[Integer.parseInt(headers.get("CONTENT-LENGTH"))];
+                    int read = 0;
+
+                    while (read < bodyChars.length) {
+                        int readChars = reader.read(bodyChars, read, bodyChars.length - read);
+
+                        if (readChars == -1) {
+                            break;
+                        }
+
+                        read += readChars;
+                    }
+
+                    body = new String(bodyChars, 0, read);
+                }
+
+                String split[] = requestLine.split(" ");
+                boolean keepAlive = split.length > 2 && split[2].equals("HTTP/1.1") &&
+                        !"close".equalsIgnoreCase(headers.get("CONNECTION"));
+
+                String response;
+                String contentType = "text/html";
+
+                if (split.length < 2) {
+                    response = null;
+                } else {
+                    String path = split[1];
+                    String query = null;
+                    int queryIndex = path.indexOf('?');
+
+                    if (queryIndex != -1) {
+                        query = path.substring(queryIndex + 1);
+                        path = path.substring(0, queryIndex);
+                    }
+
+                    if (split[0].equals("POST")) {
+                        response = servePost(path, getParameters(body));
+                    } else if (path.equals("/description.xml")) {
+                        response = getDescription();
+                        contentType = "text/xml";
+                    } else {
+                        response = serveGet(path, getParameters(query));
+                    }
+                }
+
+                String status = response == null ? "404 Not Found" : "200 OK";
+                byte responseBytes[] = response == null ? new byte[0] :
+                        response.getBytes(StandardCharsets.UTF_8);
+
+                byte headerBytes[] = ("HTTP/1.1 " + status + "\r\n" +
+                        "Content-Type: " + contentType + "\r\n" +
+                        "Content-Length: " + responseBytes.length + "\r\n" +
+                        (keepAlive ? "" : "Connection: close\r\n") +
+                        "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+                // One write per response so Nagle's algorithm doesn't add latency.
+                byte writeBytes[] = new byte[headerBytes.length + responseBytes.length];
+                System.arraycopy(headerBytes, 0, writeBytes, 0, headerBytes.length);
+                System.arraycopy(responseBytes, 0, writeBytes, headerBytes.length, responseBytes.length);
+                outputStream.write(writeBytes);
+                outputStream.flush();
+
+                if (!keepAlive) {
+                    break;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.debug("HTTP connection failed => {}", e.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.trace("Unable to close HTTP connection => {}", e.getMessage());
+            }
+        }
+    }
+
+    private String serveGet(String path, Map<String, String> parameters) {
+        if (path.equals("/get_var")) {
+            EmulatedTuner tuner = getTuner(parameters.get("i"));
+
+            if (tuner == null) {
+                return null;
+            }
+
+            String value = tuner.getVar(parameters.get("s"), parameters.get("v"));
+            return value == null ? null : GET_START + value + GET_END;
+        } else if (path.equals("/view_channel_map.cgi")) {
+            return getChannelMap();
+        }
+
+        return null;
+    }
+
+    private String servePost(String path, Map<String, String> parameters) {
+        EmulatedTuner tuner = getTuner(parameters.get("instance_id"));
+
+        if (tuner == null) {
+            return null;
+        }
+
+        try {
+            switch (path) {
+                case "/channel_request.cgi":
+                    delayTuning();
+                    tuner.tuneChannel(parameters.get("channel"));
+                    break;
+                case "/tune_request.cgi":
+                    delayTuning();
+                    tuner.tuneFrequency(Integer.parseInt(parameters.get("frequency")),
+                            parameters.get("modulation"));
+                    break;
+                case "/program_request.cgi":
+                    tuner.selectProgram(Integer.parseInt(parameters.get("program")));
+                    break;
+                case "/stream_request.cgi":
+                    if ("1".equals(parameters.get("start"))) {
+                        tuner.startStreaming(parameters.get("dest_ip"),
+                                Integer.parseInt(parameters.get("dest_port")),
+                                !"1".equals(parameters.get("protocol")));
+                    } else {
+                        tuner.stopStreaming();
+                    }
+                    break;
+                default:
+                    return null;
+            }
+        } catch (NumberFormatException | NullPointerException e) {
+            logger.debug("Invalid parameters for {} => {}", path, e.getMessage());
+        }
+
+        return "<html><body>OK</body></html>";
+    }
+
+    private void delayTuning() {
+        if (tuneDelay <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(tuneDelay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int getChannelFrequency(int channelIndex) {
+        return FIRST_FREQUENCY_KHZ + (channelIndex / PROGRAMS_PER_FREQUENCY) * 6000;
+    }
+
+    private int getChannelProgram(int channelIndex) {
+        return channelIndex % PROGRAMS_PER_FREQUENCY + 1;
+    }
+
+    private String getChannelMap() {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("<html><body>\n").append(CHANNEL_MAP_START).append('\n');
+
+        for (int i = 0; i < channelCount; i++) {
+            stringBuilder.append("<tr><td>").append(FIRST_CHANNEL + i)
+                    .append("</td><td>EMU").append(i)
+                    .append("</td><td>QAM256</td><td>").append(getChannelFrequency(i))
+                    .append("</td><td>").append(getChannelProgram(i))
+                    .append("</td><td>").append(i / PROGRAMS_PER_FREQUENCY + 80)
+                    .append("</td></tr>\n");
+        }
+
+        stringBuilder.append("</table>\n</body></html>\n");
+        return stringBuilder.toString();
+    }
+
+    private String getDescription() {
+        StringBuilder stringBuilder = new StringBuilder();
+
+        stringBuilder.append("<?xml version=\"1.0\"?>\n")
+                .append("<root xmlns=\"urn:schemas-upnp-org:device-1-0\">\n")
+                .append("<specVersion><major>1</major><minor>0</minor></specVersion>\n")
+                .append("<URLBase>http://").append(ADDRESS.getHostAddress()).append(':')
+                .append(getHttpPort()).append("/</URLBase>\n")
+                .append("<device>\n")
+                .append("<deviceType>").append(DEVICE_TYPE).append("</deviceType>\n")
+                .append("<friendlyName>").append(NAME).append("</friendlyName>\n")
+                .append("<manufacturer>Ceton Corporation</manufacturer>\n")
+                .append("<modelName>InfiniTV Emulator</modelName>\n")
+                .append("<modelNumber>1</modelNumber>\n")
+                .append("<UDN>uuid:").append(UDN).append("</UDN>\n")
+                .append("<deviceList>\n");
+
+        for (int i = 0; i < tuners.length; i++) {
+            stringBuilder.append("<device>\n")
+                    .append("<deviceType>").append(TUNER_DEVICE_TYPE).append("</deviceType>\n")
+                    .append("<friendlyName>").append(NAME).append(" Tuner ").append(i + 1)
+                    .append("</friendlyName>\n")
+                    .append("<manufacturer>Ceton Corporation</manufacturer>\n")
+                    .append("<modelName>InfiniTV Emulator Tuner</modelName>\n")
+                    .append("<UDN>uuid:")
+                    .append(UUID.nameUUIDFromBytes((NAME + " Tuner " + (i + 1)).getBytes(StandardCharsets.UTF_8)))
+                    .append("</UDN>\n")
+                    .append("</device>\n");
+        }
+
+        stringBuilder.append("</deviceList>\n")
+                .append("<presentationURL>/</presentationURL>\n")
+                .append("</device>\n")
+                .append("</root>\n");
+
+        return stringBuilder.toString();
+    }
+
+    private void listenRtsp() {
+        while (running) {
+            final Socket socket;
+
+            try {
+                socket = rtspSocket.accept();
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Unable to accept RTSP connection => ", e);
+                }
+                break;
+            }
+
+            connectionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serveRtsp(socket);
+                }
+            });
+        }
+    }
+
+    /**
+     * Answer RTSP requests on one connection until the client closes it.
+     * <p/>
+     * The URI path selects the tuner starting at 0 the same way as the real device
+     * (rtsp://address:8554/cetonmpeg0). PLAY streams RTP to the client port from SETUP at the
+     * address the request came from.
+     */
+    private void serveRtsp(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            OutputStream outputStream = socket.getOutputStream();
+
+            while (running) {
+                String requestLine = reader.readLine();
+
+                if (requestLine == null) {
+                    break;
+                }
+
+                List<String> lines = new ArrayList<>();
+                lines.add(requestLine);
+                String line;
+
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    lines.add(line);
+                }
+
+                Map<String, String> headers = getHeaders(lines.toArray(new String[lines.size()]));
+                String split[] = requestLine.split(" ");
+                String cSeq = headers.containsKey("CSEQ") ? headers.get("CSEQ") : "0";
+
+                StringBuilder response = new StringBuilder();
+                EmulatedTuner tuner = split.length > 1 ? getRtspTuner(split[1]) : null;
+
+                if (tuner == null) {
+                    response.append("RTSP/1.0 404 Not Found\r\n")
+                            .append("CSeq: ").append(cSeq).append("\r\n\r\n");
+                } else {
+                    response.append(tuner.serveRtsp(split[0], split[1], headers,
+                            socket.getInetAddress(), cSeq));
+                }
+
+                outputStream.write(response.toString().getBytes(StandardCharsets.US_ASCII));
+                outputStream.flush();
+            }
+        } catch (IOException e) {
+            logger.debug("RTSP connection failed => {}", e.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.trace("Unable to close RTSP connection => {}", e.getMessage());
+            }
+        }
+    }
+
+    private EmulatedTuner getRtspTuner(String uri) {
+        int index = uri.indexOf("/cetonmpeg");
+
+        if (index == -1) {
+            return null;
+        }
+
+        String tuner = uri.substring(index + "/cetonmpeg".length());
+        int slash = tuner.indexOf('/');
+
+        return getTuner(slash == -1 ? tuner : tuner.substring(0, slash));
+    }
+
+    private static String getRtspDate() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date());
+    }
+
+    private class EmulatedTuner {
+        private final int TUNER_INDEX;
+
+        private int frequency = 0;
+        private String modulation = "QAM256";
+        private int program = 0;
+        private String channel = "0";
+        private String streamingIp = "0.0.0.0";
+        private int streamingPort = 0;
+        private String rtspSession;
+        private int rtspClientPort;
+        private volatile EmulatedStream stream;
+
+        private EmulatedTuner(int tunerIndex) {
+            TUNER_INDEX = tunerIndex;
+        }
+
+        private synchronized String getVar(String service, String value) {
+            if (service == null || value == null) {
+                return null;
+            }
+
+            boolean tuned = frequency > 0;
+
+            switch (service + "/" + value) {
+                case "cas/CardStatus":
+                    return cableCard ? "Inserted" : "Removed";
+                case "diag/CopyProtectionStatus":
+                    return cableCard && tuned ? "Copy Free (00)" : "None";
+                case "diag/Signal_Level":
+                    return tuned ? "-2.5 dBmV" : "0.0 dBmV";
+                case "diag/Signal_SNR":
+                    return tuned ? "38.2 dB" : "0.0 dB";
+                case "diag/Streaming_IP":
+                    return streamingIp;
+                case "diag/Streaming_Port":
+                    return String.valueOf(streamingPort);
+                case "diag/Temperature":
+                    return "45.0 C";
+                case "av/TransportState":
+                    return stream != null ? "PLAYING" : "STOPPED";
+                case "tuner/CarrierLock":
+                    return tuned ? "1" : "0";
+                case "tuner/PCRLock":
+                    return tuned && program > 0 ? "1" : "0";
+                case "tuner/Modulation":
+                    return modulation;
+                case "tuner/Frequency":
+                    return String.valueOf(frequency);
+                case "mux/ProgramNumber":
+                    return String.valueOf(program);
+                case "mux/PIDList":
+                    return program > 0 ? "0000, 0030, 0031, 0034" : "0000";
+                case "tuner/Channel":
+                    return channel;
+            }
+
+            return null;
+        }
+
+        private synchronized void tuneChannel(String value) {
+            channel = value;
+
+            try {
+                int channelIndex = Integer.parseInt(value) - FIRST_CHANNEL;
+
+                if (channelIndex >= 0 && channelIndex < channelCount) {
+                    frequency = getChannelFrequency(channelIndex);
+                    program = getChannelProgram(channelIndex);
+                    modulation = "QAM256";
+                    updateStream();
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                // Not a channel in the lineup.
+            }
+
+            frequency = 0;
+            program = 0;
+            updateStream();
+        }
+
+        private synchronized void tuneFrequency(int frequency, String modulation) {
+            this.frequency = frequency;
+            this.modulation = "0".equals(modulation) ? "QAM64" :
+                    "4".equals(modulation) ? "NTSC-M" :
+                    "6".equals(modulation) ? "8VSB" : "QAM256";
+            channel = "0";
+            program = 0;
+            updateStream();
+        }
+
+        private synchronized void selectProgram(int program) {
+            // A program can only be selected after a frequency is tuned.
+            if (frequency <= 0) {
+                return;
+            }
+
+            this.program = program;
+            updateStream();
+        }
+
+        private synchronized void startStreaming(String ip, int port, boolean rtp) {
+            streamingIp = ip;
+            streamingPort = port;
+            setStream(newStream(new InetSocketAddress(ip, port), rtp));
+        }
+
+        private synchronized void stopStreaming() {
+            streamingIp = "0.0.0.0";
+            streamingPort = 0;
+            rtspSession = null;
+            setStream(null);
+        }
+
+        /**
+         * Restart the stream with the new source after the tuning changes.
+         */
+        private void updateStream() {
+            EmulatedStream oldStream = stream;
+
+            if (!(oldStream instanceof DatagramStream)) {
+                return;
+            }
+
+            setStream(newStream(((DatagramStream) oldStream).getTarget(), true));
+        }
+
+        private EmulatedStream newStream(InetSocketAddress target, boolean rtp) {
+            try {
+                return new DatagramStream("InfiniTVEmulatorStream-" + TUNER_INDEX,
+                        getSource(frequency + "-" + program), bitrate, rate, target, rtp, loss, reorder);
+            } catch (SocketException e) {
+                logger.error("Unable to stream to {} => ", target, e);
+            }
+
+            return null;
+        }
+
+        private synchronized void setStream(EmulatedStream newStream) {
+            if (stream != null) {
+                stream.stop();
+            }
+
+            stream = newStream;
+
+            if (newStream != null) {
+                newStream.start();
+            }
+        }
+
+        private synchronized String serveRtsp(String method, String uri, Map<String, String> headers,
+                                              InetAddress remoteAddress, String cSeq) {
+
+            StringBuilder response = new StringBuilder();
+            String session = headers.get("SESSION");
+            String common = "CSeq: " + cSeq + "\r\n" +
+                    "Server: libcetonrtsp/1.0\r\n" +
+                    "Date: " + getRtspDate() + "\r\n";
+
+            switch (method) {
+                case "DESCRIBE":
+                    String sdp = "v=0\r\n" +
+                            "o=- 2209226496 1 IN IP4 " + ADDRESS.getHostAddress() + "\r\n" +
+                            "s=Session Streamed By libcetonrtsp/1.0\r\n" +
+                            "i=cetonmpeg" + TUNER_INDEX + "\r\n" +
+                            "t=0 0\r\n" +
+                            "a=tool:libcetonrtsp\r\n" +
+                            "a=type:broadcast\r\n" +
+                            "a=control:*\r\n" +
+                            "a=range:npt=0-\r\n" +
+                            "m=video 0 RTP/AVP 33\r\n" +
+                            "c=IN IP4 0.0.0.0\r\n" +
+                            "a=control:track0\r\n";
+
+                    // The real device sends the content length last.
+                    response.append("RTSP/1.0 200 OK\r\n").append(common)
+                            .append("Content-Type: application/sdp\r\n")
+                            .append("Content-Base: ").append(uri).append("/\r\n")
+                            .append("Content-Length: ").append(sdp.length()).append("\r\n\r\n")
+                            .append(sdp);
+                    break;
+                case "SETUP":
+                    String transport = headers.get("TRANSPORT");
+                    int portIndex = transport == null ? -1 : transport.indexOf("client_port=");
+
+                    if (portIndex == -1) {
+                        response.append("RTSP/1.0 461 Unsupported Transport\r\n").append(common).append("\r\n");
+                        break;
+                    }
+
+                    String ports = transport.substring(portIndex + "client_port=".length());
+                    int end = ports.indexOf('-');
+
+                    if (end == -1) {
+                        end = ports.indexOf(';');
+                    }
+
+                    try {
+                        rtspClientPort = Integer.parseInt(end == -1 ? ports : ports.substring(0, end));
+                    } catch (NumberFormatException e) {
+                        response.append("RTSP/1.0 400 Bad Request\r\n").append(common).append("\r\n");
+                        break;
+                    }
+
+                    rtspSession = String.valueOf(rtspSessions.incrementAndGet());
+
+                    response.append("RTSP/1.0 200 OK\r\n").append(common)
+                            .append("Session: ").append(rtspSession).append("\r\n")
+                            .append("Transport: RTP/AVP;unicast;client_port=").append(rtspClientPort)
+                            .append('-').append(rtspClientPort + 1).append(";server_port=0-0\r\n\r\n");
+                    break;
+                case "PLAY":
+                    if (rtspSession == null || !rtspSession.equals(session)) {
+                        response.append("RTSP/1.0 454 Session Not Found\r\n").append(common).append("\r\n");
+                        break;
+                    }
+
+                    streamingIp = remoteAddress.getHostAddress();
+                    streamingPort = rtspClientPort;
+                    setStream(newStream(new InetSocketAddress(remoteAddress, rtspClientPort), true));
+
+                    response.append("RTSP/1.0 200 OK\r\n").append(common)
+                            .append("Session: ").append(rtspSession).append("\r\n")
+                            .append("RTP-info: url=").append(uri).append("/track0;seq=0;rtptime=0\r\n\r\n");
+                    break;
+                case "TEARDOWN":
+                    if (rtspSession == null || !rtspSession.equals(session)) {
+                        response.append("RTSP/1.0 454 Session Not Found\r\n").append(common).append("\r\n");
+                        break;
+                    }
+
+                    stopStreaming();
+                    response.append("RTSP/1.0 200 OK\r\n").append(common).append("\r\n");
+                    break;
+                default:
+                    response.append("RTSP/1.0 501 Not Implemented\r\n").append(common).append("\r\n");
+            }
+
+            return response.toString();
+        }
+
+        private synchronized void reset() {
+            stopStreaming();
+            frequency = 0;
+            modulation = "QAM256";
+            program = 0;
+            channel = "0";
+        }
+    }
+
+    /**
+     * Run emulated InfiniTV devices until this process is stopped.
+     * <p/>
+     * Options:<p/>
+     * --address &lt;ip&gt; The address of the first device. Each additional device uses the next
+     * address. (default: 127.0.0.1)<p/>
+     * --devices &lt;n&gt; The number of devices. (default: 1)<p/>
+     * --tuners &lt;n&gt; The number of tuners on each device. (default: 6)<p/>
+     * --http-port &lt;port&gt; The port for the web interface. (default: 80)<p/>
+     * --rtsp-port &lt;port&gt; The port for RTSP. (default: 8554)<p/>
+     * --channels &lt;n&gt; The number of channels in the channel map. (default: 20)<p/>
+     * --tune-delay &lt;ms&gt; How long each tuning request takes. (default: 0)<p/>
+     * --files &lt;file,file,...&gt; The .ts files to stream. (default: null packets)<p/>
+     * --bitrate &lt;bps&gt; The real-time bitrate of each stream. (default: 19392658)<p/>
+     * --rate &lt;multiple&gt; The multiple of real-time to stream. 0 is unlimited. (default: 1)<p/>
+     * --loss &lt;percent&gt; The percentage of datagrams to drop. (default: 0)<p/>
+     * --reorder &lt;percent&gt; The percentage of datagrams to reorder. (default: 0)<p/>
+     * --qam Emulate devices without a CableCARD.
+     */
+    public static void main(String args[]) throws Exception {
+        InetAddress address = InetAddress.getByName("127.0.0.1");
+        int devices = 1;
+        int tunerCount = 6;
+        int httpPort = DEFAULT_HTTP_PORT;
+        int rtspPort = DEFAULT_RTSP_PORT;
+        int channelCount = 20;
+        long tuneDelay = 0;
+        List<File> files = new ArrayList<>();
+        long bitrate = EmulatedStream.DEFAULT_BITRATE;
+        double rate = 1.0;
+        double loss = 0;
+        double reorder = 0;
+        boolean cableCard = true;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+
+            if (arg.equals("--qam")) {
+                cableCard = false;
+                continue;
+            }
+
+            if (i + 1 >= args.length) {
+                System.err.println("Missing value for " + arg);
+                System.exit(1);
+            }
+
+            String value = args[++i];
+
+            switch (arg) {
+                case "--address":
+                    address = InetAddress.getByName(value);
+                    break;
+                case "--devices":
+                    devices = Integer.parseInt(value);
+                    break;
+                case "--tuners":
+                    tunerCount = Integer.parseInt(value);
+                    break;
+                case "--http-port":
+                    httpPort = Integer.parseInt(value);
+                    break;
+                case "--rtsp-port":
+                    rtspPort = Integer.parseInt(value);
+                    break;
+                case "--channels":
+                    channelCount = Integer.parseInt(value);
+                    break;
+                case "--tune-delay":
+                    tuneDelay = Long.parseLong(value);
+                    break;
+                case "--files":
+                    for (String file : value.split(",")) {
+                        files.add(new File(file));
+                    }
+                    break;
+                case "--bitrate":
+                    bitrate = Long.parseLong(value);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "--loss":
+                    loss = Double.parseDouble(value);
+                    break;
+                case "--reorder":
+                    reorder = Double.parseDouble(value);
+                    break;
+                default:
+                    System.err.println("Unknown option " + arg);
+                    System.exit(1);
+            }
+        }
+
+        byte addressBytes[] = address.getAddress();
+
+        for (int i = 0; i < devices; i++) {
+            InfiniTVEmulator emulator = new InfiniTVEmulator(
+                    InetAddress.getByAddress(addressBytes), "InfiniTV Emulator " + i, tunerCount);
+
+            emulator.setHttpPort(httpPort);
+            emulator.setRtspPort(rtspPort);
+            emulator.setCableCard(cableCard);
+            emulator.setChannelCount(channelCount);
+            emulator.setTuneDelay(tuneDelay);
+            emulator.setFiles(files.toArray(new File[files.size()]));
+            emulator.setBitrate(bitrate);
+            emulator.setRate(rate);
+            emulator.setLoss(loss);
+            emulator.setReorder(reorder);
+            emulator.start();
+
+            System.out.println(emulator.NAME + ": " + emulator.getLocation());
+
+            addressBytes[addressBytes.length - 1]++;
+        }
+
+        // Everything else runs on daemon threads.
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}
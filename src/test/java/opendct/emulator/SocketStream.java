@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.emulator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Sends a transport stream over an already connected TCP socket until the client disconnects.
+ * <p/>
+ * This is used to answer HTTP requests after the response header has been sent.
+ */
+public class SocketStream extends EmulatedStream {
+    private final Socket socket;
+    private final OutputStream outputStream;
+    private final Runnable onClose;
+
+    /**
+     * Create a new socket stream.
+     *
+     * @param name The name of this stream for the thread name and logging.
+     * @param source The source of the stream.
+     * @param bitrate The bitrate in bits per second of the stream in real-time.
+     * @param rate The multiple of real-time to send the stream. 0 sends as fast as possible.
+     * @param socket The connected socket.
+     * @param onClose This is run after the socket is closed. This can be <i>null</i>.
+     * @throws IOException Thrown if the socket output stream is not available.
+     */
+    public SocketStream(String name, TransportStreamSource source, long bitrate, double rate,
+                        Socket socket, Runnable onClose) throws IOException {
+
+        super(name, source, bitrate, rate);
+
+        this.socket = socket;
+        this.onClose = onClose;
+        outputStream = socket.getOutputStream();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+
+        // A blocked write is not interrupted, so the socket must be closed to stop it.
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // The client is already gone.
+        }
+    }
+
+    @Override
+    protected void send(byte buffer[], int offset, int length) throws IOException {
+        outputStream.write(buffer, offset, length);
+    }
+
+    @Override
+    protected void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // The client is already gone.
+        }
+
+        if (onClose != null) {
+            onClose.run();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 The OpenDCT Authors. All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package opendct.emulator;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads MPEG-TS packets for an emulated tuner.
+ * <p/>
+ * A file is read from the beginning again when it ends, so a short recording can be streamed for
+ * as long as needed. Without a file, null packets are generated so load tests don't need any
+ * media at all.
+ */
+public class TransportStreamSource {
+    public final static int TS_PACKET_LENGTH = 188;
+    public final static int TS_PACKETS_PER_DATAGRAM = 7;
+    public final static int DATAGRAM_PAYLOAD_LENGTH = TS_PACKET_LENGTH * TS_PACKETS_PER_DATAGRAM;
+
+    private final File file;
+    private InputStream inputStream;
+    private int continuityCounter;
+
+    /**
+     * Create a new transport stream source.
+     *
+     * @param file The file to stream or <i>null</i> to generate null packets.
+     */
+    public TransportStreamSource(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Read the next <b>DATAGRAM_PAYLOAD_LENGTH</b> bytes.
+     *
+     * @param buffer The array to read into.
+     * @param offset The offset in the array to start reading into.
+     * @throws IOException Thrown if the file could not be read or is empty.
+     */
+    public void read(byte buffer[], int offset) throws IOException {
+        if (file == null) {
+            generateNullPackets(buffer, offset);
+            return;
+        }
+
+        int bytesRead = 0;
+        boolean reopened = false;
+
+        while (bytesRead < DATAGRAM_PAYLOAD_LENGTH) {
+            if (inputStream == null) {
+                inputStream = new BufferedInputStream(new FileInputStream(file), 65536);
+            }
+
+            int readBytes = inputStream.read(buffer, offset + bytesRead, DATAGRAM_PAYLOAD_LENGTH - bytesRead);
+
+            if (readBytes == -1) {
+                if (reopened && bytesRead == 0) {
+                    throw new IOException("The file '" + file + "' does not contain any data.");
+                }
+
+                inputStream.close();
+                inputStream = null;
+                reopened = true;
+                continue;
+            }
+
+            bytesRead += readBytes;
+        }
+    }
+
+    private void generateNullPackets(byte buffer[], int offset) {
+        for (int i = 0; i < TS_PACKETS_PER_DATAGRAM; i++) {
+            int packetOffset = offset + i * TS_PACKET_LENGTH;
+
+            buffer[packetOffset] = 0x47;
+            buffer[packetOffset + 1] = 0x1F;
+            buffer[packetOffset + 2] = (byte) 0xFF;
+            buffer[packetOffset + 3] = (byte) (0x10 | (continuityCounter++ & 0x0F));
+
+            for (int j = 4; j < TS_PACKET_LENGTH; j++) {
+                buffer[packetOffset + j] = (byte) 0xFF;
+            }
+        }
+    }
+
+    public void close() {
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                // This is only being read.
+            }
+
+            inputStream = null;
+        }
+    }
+}